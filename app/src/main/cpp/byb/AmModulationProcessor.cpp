@@ -14,22 +14,40 @@ AmModulationProcessor::~AmModulationProcessor() {
 }
 
 void AmModulationProcessor::init() {
-    // setup AM detection low pass filter
-    amDetectionLowPassFilter.initWithSamplingRate(getSampleRate());
-    amDetectionLowPassFilter.setCornerFrequency(AM_DETECTION_CUTOFF);
-    amDetectionLowPassFilter.setQ(0.5f);
-    // setup AM detection notch filter
-    amDetectionNotchFilter.initWithSamplingRate(SAMPLE_RATE);
-    amDetectionNotchFilter.setCenterFrequency(AM_CARRIER_FREQUENCY);
-    amDetectionNotchFilter.setQ(1.0f);
+    // setup AM carrier detection, carrier can't be detected if it's above the Nyquist frequency
+    const float sampleRate = getSampleRate();
+    const bool carrierDetectable = AM_CARRIER_FREQUENCY < sampleRate / 2.0f;
+    windowSize = carrierDetectable ? (int) (sampleRate * AM_DETECTION_WINDOW_SECONDS) : 0;
+    carrierBinCount = 0;
+    if (windowSize > 0) {
+        // modulation moves signal power into sidebands up to demodulation cutoff away from the carrier, so power is
+        // measured over the whole band with bins spaced by frequency resolution of the window
+        const float binSpacing = sampleRate / windowSize;
+        const int halfBinCount = std::min((int) (AM_DEMODULATION_CUTOFF / binSpacing),
+                                          (AM_DETECTION_MAX_BIN_COUNT - 1) / 2);
+        for (int i = -halfBinCount; i <= halfBinCount; i++) {
+            const float frequency = AM_CARRIER_FREQUENCY + i * binSpacing;
+            if (frequency <= 0 || frequency >= sampleRate / 2.0f) continue;
+
+            carrierCoefficients[carrierBinCount++] = 2.0f * cosf(2.0f * (float) M_PI * frequency / sampleRate);
+        }
+    }
+    std::fill(carrierStates1, carrierStates1 + AM_DETECTION_MAX_BIN_COUNT, 0.0f);
+    std::fill(carrierStates2, carrierStates2 + AM_DETECTION_MAX_BIN_COUNT, 0.0f);
+    windowCounter = 0;
+    windowEnergy = 0;
+    carrierEnergy = signalEnergy = 0;
 
     // setup AM demodulation low pass filter
+    amDemodulationLowPassFilter.initWithSamplingRate(sampleRate);
+    amDemodulationLowPassFilter.setCornerFrequency(AM_DEMODULATION_CUTOFF);
+    amDemodulationLowPassFilter.setQ(1.0f);
+    float stages[AM_DEMODULATION_LOW_PASS_FILTER_COUNT][5];
     for (int i = 0; i < AM_DEMODULATION_LOW_PASS_FILTER_COUNT; i++) {
-        amDemodulationLowPassFilter[i].initWithSamplingRate(getSampleRate());
-        amDemodulationLowPassFilter[i].setCornerFrequency(AM_DEMODULATION_CUTOFF);
-        amDemodulationLowPassFilter[i].setQ(1.0f);
-
+        std::copy(amDemodulationLowPassFilter.getCoefficients(), amDemodulationLowPassFilter.getCoefficients() + 5,
+                  stages[i]);
     }
+    amDemodulationFilters.setStages(stages, AM_DEMODULATION_LOW_PASS_FILTER_COUNT);
 }
 
 void AmModulationProcessor::setSampleRate(float sampleRate) {
@@ -43,29 +61,13 @@ bool AmModulationProcessor::isReceivingAmSignal() {
 }
 
 void AmModulationProcessor::process(const short *inSamples, short *outSamples, const int length) {
-    short *amBuffer = new short[length];
-    std::copy(inSamples, inSamples + length, amBuffer);
-
-    amDetectionLowPassFilter.filter(amBuffer, length);
-    for (int i = 0; i < length; i++) {
-        rmsOfOriginalSignal = static_cast<float>(0.0001f * pow(amBuffer[i], 2.0f) + 0.9999f * rmsOfOriginalSignal);
-    }
-    amDetectionNotchFilter.filter(amBuffer, length);
-    for (int i = 0; i < length; i++) {
-        rmsOfNotchedAMSignal = static_cast<float>(0.0001f * pow(amBuffer[i], 2.0f) + 0.9999f * rmsOfNotchedAMSignal);
-    }
-
-    delete[] amBuffer;
-
-    if (sqrtf(rmsOfOriginalSignal) / sqrtf(rmsOfNotchedAMSignal) > 5) {
-        if (!receivingAmSignal) receivingAmSignal = true;
+    detectCarrier(inSamples, length);
 
+    if (receivingAmSignal) {
         for (int i = 0; i < length; i++) {
             outSamples[i] = static_cast<short>(abs(inSamples[i]));
         }
-        for (int i = 0; i < AM_DEMODULATION_LOW_PASS_FILTER_COUNT; i++) {
-            amDemodulationLowPassFilter[i].filter(outSamples, length);
-        }
+        amDemodulationFilters.process(outSamples, length);
         for (int i = 0; i < length; i++) {
             // calculate average sample
             average = 0.00001f * outSamples[i] + 0.99999f * average;
@@ -75,12 +77,64 @@ void AmModulationProcessor::process(const short *inSamples, short *outSamples, c
 
         // apply additional filtering if necessary
         applyFilters(outSamples, length);
-
-        return;
     } else {
         std::copy(inSamples, inSamples + length, outSamples);
     }
+}
 
-    if (receivingAmSignal) receivingAmSignal = false;
+void AmModulationProcessor::detectCarrier(const short *samples, int length) {
+    if (windowSize <= 0 || carrierBinCount <= 0) {
+        receivingAmSignal = false;
+        return;
+    }
 
+    int i = 0;
+    while (i < length) {
+        // power of every bin of the carrier band is measured with Goertzel algorithm, whole signal power is measured
+        // alongside
+        const int count = std::min(length - i, windowSize - windowCounter);
+        // all the bins are updated at once (unused ones just stay at zero) so the inner loop has fixed length and gets
+        // vectorized
+        float s1[AM_DETECTION_MAX_BIN_COUNT], s2[AM_DETECTION_MAX_BIN_COUNT];
+        std::copy(carrierStates1, carrierStates1 + AM_DETECTION_MAX_BIN_COUNT, s1);
+        std::copy(carrierStates2, carrierStates2 + AM_DETECTION_MAX_BIN_COUNT, s2);
+        float energy = windowEnergy;
+        for (int j = i; j < i + count; j++) {
+            const float x = samples[j];
+            for (int k = 0; k < AM_DETECTION_MAX_BIN_COUNT; k++) {
+                const float s = x + carrierCoefficients[k] * s1[k] - s2[k];
+                s2[k] = s1[k];
+                s1[k] = s;
+            }
+            energy += x * x;
+        }
+        std::copy(s1, s1 + AM_DETECTION_MAX_BIN_COUNT, carrierStates1);
+        std::copy(s2, s2 + AM_DETECTION_MAX_BIN_COUNT, carrierStates2);
+        windowEnergy = energy;
+        i += count;
+        windowCounter += count;
+        if (windowCounter < windowSize) break;
+
+        // energy of a sinusoid at the bin frequency is 2 * |X|^2 / N, bins are orthogonal so their energies add up
+        float carrierPower = 0;
+        for (int k = 0; k < carrierBinCount; k++) {
+            const float s1 = carrierStates1[k], s2 = carrierStates2[k];
+            carrierPower += s1 * s1 + s2 * s2 - carrierCoefficients[k] * s1 * s2;
+        }
+        std::fill(carrierStates1, carrierStates1 + AM_DETECTION_MAX_BIN_COUNT, 0.0f);
+        std::fill(carrierStates2, carrierStates2 + AM_DETECTION_MAX_BIN_COUNT, 0.0f);
+        const float windowCarrierEnergy = 2.0f * carrierPower / windowSize;
+        carrierEnergy += AM_DETECTION_SMOOTHING * (windowCarrierEnergy - carrierEnergy);
+        signalEnergy += AM_DETECTION_SMOOTHING * (windowEnergy - signalEnergy);
+        windowEnergy = 0;
+        windowCounter = 0;
+
+        // hysteresis prevents flipping between modulated and not modulated signal
+        const float fraction = signalEnergy > 0 ? carrierEnergy / signalEnergy : 0;
+        if (fraction > AM_DETECTION_ON_FRACTION) {
+            receivingAmSignal = true;
+        } else if (fraction < AM_DETECTION_OFF_FRACTION) {
+            receivingAmSignal = false;
+        }
+    }
 }
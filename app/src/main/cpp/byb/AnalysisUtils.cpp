@@ -48,3 +48,12 @@ float *AnalysisUtils::generateLogSpace(int min, int max, int size) {
 float AnalysisUtils::map(float value, float inMin, float inMax, float outMin, float outMax) {
     return (value - inMin) * (outMax - outMin) / (inMax - inMin) + outMin;
 }
+
+drwav_uint64 AnalysisUtils::readFirstChannel(drwav *wav, drwav_uint64 frameCount, drwav_int16 *outSamples) {
+    drwav_uint64 read = drwav_read_s16(wav, frameCount * wav->channels, outSamples) / wav->channels;
+    // samples are moved only towards the beginning so they can be de-interleaved in place
+    if (wav->channels > 1) {
+        for (drwav_uint64 i = 0; i < read; i++) outSamples[i] = outSamples[i * wav->channels];
+    }
+    return read;
+}
@@ -23,7 +23,8 @@ void AverageSpikeAnalysis::process(const char *filePath, int **inSpikeTrains, co
     }
 
     // check whether file is long enough for processing
-    drwav_uint64 totalSamples = wavPtr->totalSampleCount;
+    // spike indices refer to samples of the first channel
+    drwav_uint64 totalSamples = wavPtr->totalSampleCount / wavPtr->channels;
     drwav_uint64 batchSpikeHalfCount = static_cast<drwav_uint64>(batchSpikeCount / 2);
     drwav_uint64 bsc = static_cast<drwav_uint64>(batchSpikeCount);
 
@@ -32,7 +33,7 @@ void AverageSpikeAnalysis::process(const char *filePath, int **inSpikeTrains, co
 
     int sampleIndex;
     drwav_uint64 read, spikeIndexBatchHead;
-    drwav_int16 *samples = new drwav_int16[batchSpikeCount];
+    drwav_int16 *samples = new drwav_int16[batchSpikeCount * wavPtr->channels];
     for (int i = 0; i < spikeTrainCount; i++) {
         for (int j = 0; j < spikeCounts[i]; j++) {
             sampleIndex = inSpikeTrains[i][j];
@@ -44,8 +45,8 @@ void AverageSpikeAnalysis::process(const char *filePath, int **inSpikeTrains, co
 
             // add spike to average buffer
             spikeIndexBatchHead = sampleIndex - batchSpikeHalfCount;
-            drwav_seek_to_sample(wavPtr, spikeIndexBatchHead);
-            if ((read = drwav_read_s16(wavPtr, bsc, samples)) > 0) {
+            drwav_seek_to_sample(wavPtr, spikeIndexBatchHead * wavPtr->channels);
+            if ((read = AnalysisUtils::readFirstChannel(wavPtr, bsc, samples)) > 0) {
                 for (int k = 0; k < read; k++) {
                     tmpAvr[i].averageSpike[k] += samples[k];
                     tmpAvr[i].topSTDLine[k] += pow(samples[k], 2);
@@ -0,0 +1,217 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#include "EnvelopePyramid.h"
+
+#include <algorithm>
+#include <climits>
+
+EnvelopePyramid::EnvelopePyramid(int size) {
+    EnvelopePyramid::size = std::max(1, size);
+    capacity = 1;
+    while (capacity < EnvelopePyramid::size) {
+        capacity <<= 1;
+        levelCount++;
+    }
+
+    samples.resize((size_t) capacity);
+    // level k holds capacity >> k blocks, so all the levels together hold capacity - 1 of them
+    levelOffsets.resize((size_t) levelCount + 1);
+    int offset = 0;
+    for (int k = 1; k <= levelCount; k++) {
+        levelOffsets[k] = offset;
+        offset += capacity >> k;
+    }
+    mins.resize((size_t) offset);
+    maxs.resize((size_t) offset);
+    clear();
+}
+
+int EnvelopePyramid::getSize() const {
+    return size;
+}
+
+void EnvelopePyramid::append(const short *inSamples, int length) {
+    if (length <= 0) return;
+    // samples that would be overwritten within the same call don't need to be saved
+    if (length > capacity) {
+        sampleCounter += length - capacity;
+        inSamples += length - capacity;
+        length = capacity;
+    }
+
+    const long long start = sampleCounter;
+    const long long end = start + length;
+    const long long mask = capacity - 1;
+    for (int i = 0; i < length; i++) samples[(start + i) & mask] = inSamples[i];
+
+    // every level recalculates blocks that contain any of the new samples from the two blocks of the level below,
+    // second of which is left out if it doesn't hold any samples yet
+    long long childFrom = start, childTo = end;
+    for (int k = 1; k <= levelCount; k++) {
+        const long long from = childFrom >> 1, to = ((childTo - 1) >> 1) + 1;
+        const long long levelMask = (capacity >> k) - 1;
+        short *levelMins = mins.data() + levelOffsets[k];
+        short *levelMaxs = maxs.data() + levelOffsets[k];
+        if (k == 1) {
+            for (long long j = from; j < to; j++) {
+                short min = samples[(j << 1) & mask], max = min;
+                if ((j << 1) + 1 < childTo) {
+                    const short sample = samples[((j << 1) + 1) & mask];
+                    if (sample < min) min = sample;
+                    if (sample > max) max = sample;
+                }
+                levelMins[j & levelMask] = min;
+                levelMaxs[j & levelMask] = max;
+            }
+        } else {
+            const long long childMask = (capacity >> (k - 1)) - 1;
+            const short *childMins = mins.data() + levelOffsets[k - 1];
+            const short *childMaxs = maxs.data() + levelOffsets[k - 1];
+            for (long long j = from; j < to; j++) {
+                short min = childMins[(j << 1) & childMask], max = childMaxs[(j << 1) & childMask];
+                if ((j << 1) + 1 < childTo) {
+                    min = std::min(min, childMins[((j << 1) + 1) & childMask]);
+                    max = std::max(max, childMaxs[((j << 1) + 1) & childMask]);
+                }
+                levelMins[j & levelMask] = min;
+                levelMaxs[j & levelMask] = max;
+            }
+        }
+        childFrom = from;
+        childTo = to;
+    }
+
+    sampleCounter = end;
+}
+
+void EnvelopePyramid::clear() {
+    std::fill(samples.begin(), samples.end(), 0);
+    std::fill(mins.begin(), mins.end(), 0);
+    std::fill(maxs.begin(), maxs.end(), 0);
+    // starting at capacity keeps indices of the oldest held samples positive
+    sampleCounter = capacity;
+    // indices are reused so cached columns are not valid anymore
+    columnStart = columnEnd = 0;
+}
+
+void EnvelopePyramid::getMinMax(long long from, long long to, short &min, short &max) const {
+    const long long mask = capacity - 1;
+    // samples at the edges of the range that aren't covered by a whole block of the level above are taken at the
+    // current level, and the rest of the range is moved one level up
+    if (from & 1) {
+        const short sample = samples[from++ & mask];
+        if (sample < min) min = sample;
+        if (sample > max) max = sample;
+    }
+    if (to & 1) {
+        const short sample = samples[--to & mask];
+        if (sample < min) min = sample;
+        if (sample > max) max = sample;
+    }
+    from >>= 1;
+    to >>= 1;
+    for (int k = 1; from < to; k++) {
+        const long long levelMask = (capacity >> k) - 1;
+        const short *levelMins = mins.data() + levelOffsets[k];
+        const short *levelMaxs = maxs.data() + levelOffsets[k];
+        if (from & 1) {
+            min = std::min(min, levelMins[from & levelMask]);
+            max = std::max(max, levelMaxs[from++ & levelMask]);
+        }
+        if (to & 1) {
+            --to;
+            min = std::min(min, levelMins[to & levelMask]);
+            max = std::max(max, levelMaxs[to & levelMask]);
+        }
+        from >>= 1;
+        to >>= 1;
+    }
+}
+
+void EnvelopePyramid::prepareForDrawing(short *outSamples, int maxSampleCount, int *outEventIndices,
+                                        int maxEventCount, const int *eventIndices, int eventIndicesCount,
+                                        int fromSample, int toSample, int size, int *outCounts) {
+    outCounts[0] = outCounts[1] = outCounts[2] = 0;
+    fromSample = std::max(fromSample, 0);
+    toSample = std::min(toSample, EnvelopePyramid::size);
+    const int drawSamplesCount = toSample - fromSample;
+    if (drawSamplesCount <= 0 || size <= 0) return;
+    if (drawSamplesCount < size) size = drawSamplesCount;
+
+    const int samplesPerPixel = drawSamplesCount / size;
+    const int samplesPerPixelRest = drawSamplesCount % size;
+    // absolute index of the first held sample
+    const long long base = sampleCounter - EnvelopePyramid::size;
+    const long long mask = capacity - 1;
+    // events before the first drawn sample are skipped by binary search and the rest are walked along with the pixels
+    const int *event = std::lower_bound(eventIndices, eventIndices + eventIndicesCount, fromSample);
+    const int *eventsEnd = eventIndices + eventIndicesCount;
+
+    int sampleIndex = 0, eventIndex = 0;
+    if (samplesPerPixel == 1 && samplesPerPixelRest == 0) {
+        for (int i = fromSample; i < toSample && sampleIndex + 2 <= maxSampleCount; i++) {
+            bool eventExists = false;
+            while (event < eventsEnd && *event <= i) eventExists |= *event++ == i;
+            if (eventExists && eventIndex < maxEventCount) outEventIndices[eventIndex++] = sampleIndex >> 1;
+
+            outSamples[sampleIndex] = (short) (sampleIndex >> 1);
+            outSamples[sampleIndex + 1] = samples[(base + i) & mask];
+            sampleIndex += 2;
+        }
+        outCounts[2] = sampleIndex >> 1;
+    } else {
+        // every column holds max and min of samplesPerEnvelope samples, columns that are only partially visible are
+        // not drawn
+        const int samplesPerEnvelope = samplesPerPixel * 2;
+        const long long first = (base + fromSample + samplesPerEnvelope - 1) / samplesPerEnvelope;
+        const long long last = std::min((base + toSample) / samplesPerEnvelope, first + maxSampleCount / 4);
+        const int columnCount = (int) std::max(last - first, 0LL);
+
+        // all columns are recalculated when zoom or surface size change
+        if (samplesPerEnvelope != columnSampleCount || columnCount > columnCapacity) {
+            if (columnCount > columnCapacity) {
+                columnCapacity = columnCount;
+                columnMaxs.resize((size_t) columnCapacity);
+                columnMins.resize((size_t) columnCapacity);
+            }
+            columnSampleCount = samplesPerEnvelope;
+            columnStart = columnEnd = 0;
+        }
+
+        int calculatedCount = 0;
+        for (long long j = first; j < last; j++) {
+            const int column = (int) (j % columnCapacity);
+            if (j < columnStart || j >= columnEnd) {
+                short min = SHRT_MAX, max = SHRT_MIN;
+                getMinMax(j * samplesPerEnvelope, (j + 1) * samplesPerEnvelope, min, max);
+                columnMaxs[column] = max;
+                columnMins[column] = min;
+                calculatedCount++;
+            }
+
+            const int to = (int) ((j + 1) * samplesPerEnvelope - base);
+            while (event < eventsEnd && *event < to - samplesPerEnvelope) event++;
+            if (event < eventsEnd && *event < to && eventIndex < maxEventCount) {
+                outEventIndices[eventIndex++] = sampleIndex >> 1;
+            }
+
+            outSamples[sampleIndex] = (short) (sampleIndex >> 1);
+            outSamples[sampleIndex + 1] = columnMaxs[column];
+            outSamples[sampleIndex + 2] = (short) ((sampleIndex >> 1) + 1);
+            outSamples[sampleIndex + 3] = columnMins[column];
+            sampleIndex += 4;
+        }
+        // ring now holds exactly the drawn columns
+        if (columnCount > 0) {
+            columnStart = first;
+            columnEnd = last;
+        }
+        // every column is drawn as two vertices
+        outCounts[2] = calculatedCount * 2;
+    }
+
+    outCounts[0] = sampleIndex;
+    outCounts[1] = eventIndex;
+}
@@ -5,8 +5,6 @@
 #include <FilterBase.h>
 
 #include <math.h>
-#include <cstdlib>
-#include <cstring>
 
 FilterBase::FilterBase() {
 }
@@ -35,58 +33,59 @@ void FilterBase::setCoefficients() {
     coefficients[4] = a2;
 }
 
+const float *FilterBase::getCoefficients() const {
+    return coefficients;
+}
+
 //
 // Filter integer data buffer
 //
 void FilterBase::filter(int16_t *data, int32_t numFrames, bool flush) {
-    float *tempFloatBuffer = (float *) std::malloc(numFrames * sizeof(float));
-    for (int32_t i = numFrames - 1; i >= 0; i--) {
-        tempFloatBuffer[i] = (float) data[i];
-    }
-    filterContiguousData(tempFloatBuffer, numFrames, flush);
-    if (flush) {
-
-        for (int32_t i = numFrames - 1; i >= 0; i--) {
-            data[i] = 0;
-        }
-    } else {
-        for (int32_t i = numFrames - 1; i >= 0; i--) {
-            data[i] = (int16_t) tempFloatBuffer[i];
-        }
+    // samples are converted to float and back one by one so no scratch buffer is needed
+    const float c0 = coefficients[0], c1 = coefficients[1], c2 = coefficients[2], c3 = coefficients[3],
+        c4 = coefficients[4];
+    float x1 = gInputKeepBuffer[1], x2 = gInputKeepBuffer[0];
+    float y1 = gOutputKeepBuffer[1], y2 = gOutputKeepBuffer[0];
+    for (int32_t i = 0; i < numFrames; i++) {
+        const float x = data[i];
+        // feedback of the last output is added last so it's the only dependency on the previous iteration
+        const float y = (x * c0 + x1 * c1 + x2 * c2 - y2 * c4) - y1 * c3;
+        x2 = x1;
+        x1 = x;
+        y2 = y1;
+        y1 = y;
+        // clamp so filter overshoot doesn't wrap around
+        data[i] = flush ? (int16_t) 0 : (int16_t) (y > INT16_MAX ? INT16_MAX : (y < INT16_MIN ? INT16_MIN : y));
     }
-    free(tempFloatBuffer);
+    gInputKeepBuffer[0] = x2;
+    gInputKeepBuffer[1] = x1;
+    gOutputKeepBuffer[0] = y2;
+    gOutputKeepBuffer[1] = y1;
 }
 
 //
 // Filter single channel data
 //
 void FilterBase::filterContiguousData(float *data, uint32_t numFrames, bool flush) {
-    // Provide buffer for processing
-    float *tInputBuffer = (float *) std::malloc((numFrames + 2) * sizeof(float));
-    float *tOutputBuffer = (float *) std::malloc((numFrames + 2) * sizeof(float));
-
-    // Copy the data
-    memcpy(tInputBuffer, gInputKeepBuffer, 2 * sizeof(float));
-    memcpy(tOutputBuffer, gOutputKeepBuffer, 2 * sizeof(float));
-    memcpy(&(tInputBuffer[2]), data, numFrames * sizeof(float));
-
-    // Do the processing
-    // vDSP_deq22(tInputBuffer, 1, coefficients, tOutputBuffer, 1, numFrames);
+    // Same as vDSP_deq22 but filter state is kept in locals instead of being copied in front of the data
     //https://developer.apple.com/library/ios/documentation/Accelerate/Reference/vDSPRef/index.html#//apple_ref/c/func/vDSP_deq22
-    int n;
-    for (n = 2; n < numFrames + 2; n++) {
-        tOutputBuffer[n] = tInputBuffer[n] * coefficients[0] + tInputBuffer[n - 1] * coefficients[1] +
-                           tInputBuffer[n - 2] * coefficients[2] - tOutputBuffer[n - 1] * coefficients[3] -
-                           tOutputBuffer[n - 2] * coefficients[4];
+    const float c0 = coefficients[0], c1 = coefficients[1], c2 = coefficients[2], c3 = coefficients[3],
+        c4 = coefficients[4];
+    float x1 = gInputKeepBuffer[1], x2 = gInputKeepBuffer[0];
+    float y1 = gOutputKeepBuffer[1], y2 = gOutputKeepBuffer[0];
+    for (uint32_t i = 0; i < numFrames; i++) {
+        const float x = data[i];
+        const float y = (x * c0 + x1 * c1 + x2 * c2 - y2 * c4) - y1 * c3;
+        x2 = x1;
+        x1 = x;
+        y2 = y1;
+        y1 = y;
+        data[i] = y;
     }
-
-    // Copy the data
-    memcpy(data, tOutputBuffer, numFrames * sizeof(float));
-    memcpy(gInputKeepBuffer, &(tInputBuffer[numFrames]), 2 * sizeof(float));
-    memcpy(gOutputKeepBuffer, &(tOutputBuffer[numFrames]), 2 * sizeof(float));
-
-    free(tInputBuffer);
-    free(tOutputBuffer);
+    gInputKeepBuffer[0] = x2;
+    gInputKeepBuffer[1] = x1;
+    gOutputKeepBuffer[0] = y2;
+    gOutputKeepBuffer[1] = y1;
 }
 
 void FilterBase::intermediateVariables(float Fc, float Q) {
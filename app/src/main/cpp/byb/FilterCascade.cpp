@@ -0,0 +1,187 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#include "FilterCascade.h"
+
+#include <algorithm>
+#include <cstdint>
+#include <cstring>
+
+// Portable 4 x float vector, compiler maps it to NEON or SSE registers
+typedef float float4 __attribute__((vector_size(16)));
+
+static_assert(FilterCascade::MAX_CHANNELS % 4 == 0, "Channel count has to be a multiple of the vector width");
+
+// constants are passed by reference to std::min so they need definitions
+constexpr int FilterCascade::MAX_STAGES;
+constexpr int FilterCascade::MAX_CHANNELS;
+constexpr int FilterCascade::VECTOR_WIDTH;
+constexpr int FilterCascade::BLOCK_SIZE;
+
+static inline void splat(float value, float &out) {
+    out = value;
+}
+
+static inline void splat(float value, float4 &out) {
+    out = float4{value, value, value, value};
+}
+
+static inline short toShort(float value) {
+    // clamp so filter overshoot doesn't wrap around
+    return (short) std::min(std::max(value, (float) INT16_MIN), (float) INT16_MAX);
+}
+
+//
+// Runs a single stage over the block of samples. T is either float (one channel) or float4 (four channels), state is
+// kept in registers while the block is filtered.
+//
+template<class T>
+static inline void processStage(T *block, int numFrames, const float *coefficients, T *state) {
+    T c0, c1, c2, c3, c4;
+    splat(coefficients[0], c0);
+    splat(coefficients[1], c1);
+    splat(coefficients[2], c2);
+    splat(coefficients[3], c3);
+    splat(coefficients[4], c4);
+    T x1 = state[0], x2 = state[1], y1 = state[2], y2 = state[3];
+    for (int i = 0; i < numFrames; i++) {
+        const T x = block[i];
+        // feedback of the last output is added last so it's the only dependency on the previous iteration
+        const T y = (c0 * x + c1 * x1 + c2 * x2 - c4 * y2) - c3 * y1;
+        x2 = x1;
+        x1 = x;
+        y2 = y1;
+        y1 = y;
+        block[i] = y;
+    }
+    state[0] = x1;
+    state[1] = x2;
+    state[2] = y1;
+    state[3] = y2;
+}
+
+FilterCascade::FilterCascade() {
+    reset();
+}
+
+void FilterCascade::setStages(const float (*coefficients)[5], int count) {
+    // stages are identified by their position
+    int keys[MAX_STAGES];
+    for (int s = 0; s < MAX_STAGES; s++) keys[s] = s;
+    setStages(coefficients, keys, count);
+}
+
+void FilterCascade::setStages(const float (*coefficients)[5], const int *keys, int count) {
+    std::lock_guard<std::mutex> lock(pendingStagesMutex);
+    pendingStages.count = std::max(0, std::min(count, (int) MAX_STAGES));
+    for (int s = 0; s < pendingStages.count; s++) {
+        std::copy(coefficients[s], coefficients[s] + 5, pendingStages.coefficients[s]);
+        pendingStages.keys[s] = keys[s];
+    }
+    pendingStagesChanged.store(true, std::memory_order_release);
+}
+
+void FilterCascade::applyPendingStages() {
+    if (!pendingStagesChanged.load(std::memory_order_acquire)) return;
+    // filtering thread never waits, if stages are just being set they are picked up with the next block
+    std::unique_lock<std::mutex> lock(pendingStagesMutex, std::try_to_lock);
+    if (!lock.owns_lock()) return;
+
+    // stages that are kept carry their state over wherever they moved, added stages start from silence
+    float previousHistory[MAX_STAGES][4][MAX_CHANNELS];
+    memcpy(previousHistory, history, sizeof(history));
+    for (int s = 0; s < pendingStages.count; s++) {
+        int previous = 0;
+        while (previous < stages.count && stages.keys[previous] != pendingStages.keys[s]) previous++;
+        if (previous < stages.count) {
+            memcpy(history[s], previousHistory[previous], sizeof(history[s]));
+        } else {
+            memset(history[s], 0, sizeof(history[s]));
+        }
+    }
+    stages = pendingStages;
+    pendingStagesChanged.store(false, std::memory_order_relaxed);
+}
+
+int FilterCascade::getStageCount() {
+    return stages.count;
+}
+
+void FilterCascade::reset() {
+    memset(history, 0, sizeof(history));
+}
+
+void FilterCascade::process(short *data, int numFrames) {
+    process(0, data, numFrames);
+}
+
+void FilterCascade::process(int channel, short *data, int numFrames) {
+    applyPendingStages();
+    processChannel(channel, data, numFrames);
+}
+
+void FilterCascade::process(short **channels, int channelCount, int numFrames) {
+    // all channels of the block are filtered with the same stages
+    applyPendingStages();
+    const int stageCount = stages.count;
+    if (stageCount == 0) return;
+
+    channelCount = std::min(channelCount, MAX_CHANNELS);
+    // last channel that doesn't fill the whole vector is not worth vectorizing
+    const int vectorChannelCount = channelCount - channelCount % VECTOR_WIDTH +
+                                   (channelCount % VECTOR_WIDTH > 1 ? VECTOR_WIDTH : 0);
+    for (int first = 0; first < vectorChannelCount; first += VECTOR_WIDTH) {
+        const int laneCount = std::min(VECTOR_WIDTH, channelCount - first);
+
+        // history of lanes that are not filtered is loaded as well but is never stored back
+        float4 state[MAX_STAGES][4];
+        for (int s = 0; s < stageCount; s++) {
+            for (int k = 0; k < 4; k++) memcpy(&state[s][k], &history[s][k][first], sizeof(float4));
+        }
+
+        float4 block[BLOCK_SIZE];
+        for (int start = 0; start < numFrames; start += BLOCK_SIZE) {
+            const int blockSize = std::min(BLOCK_SIZE, numFrames - start);
+            // samples of a frame of all the channels in the group are gathered into a vector
+            for (int i = 0; i < blockSize; i++) {
+                float4 frame = {0.0f, 0.0f, 0.0f, 0.0f};
+                for (int l = 0; l < laneCount; l++) frame[l] = channels[first + l][start + i];
+                block[i] = frame;
+            }
+            for (int s = 0; s < stageCount; s++) processStage(block, blockSize, stages.coefficients[s], state[s]);
+            for (int l = 0; l < laneCount; l++) {
+                short *samples = channels[first + l] + start;
+                for (int i = 0; i < blockSize; i++) samples[i] = toShort(block[i][l]);
+            }
+        }
+
+        for (int s = 0; s < stageCount; s++) {
+            for (int k = 0; k < 4; k++) memcpy(&history[s][k][first], &state[s][k], laneCount * sizeof(float));
+        }
+    }
+    for (int i = vectorChannelCount; i < channelCount; i++) processChannel(i, channels[i], numFrames);
+}
+
+void FilterCascade::processChannel(int channel, short *data, int numFrames) {
+    const int stageCount = stages.count;
+    if (stageCount == 0 || channel < 0 || channel >= MAX_CHANNELS) return;
+
+    float state[MAX_STAGES][4];
+    for (int s = 0; s < stageCount; s++) {
+        for (int k = 0; k < 4; k++) state[s][k] = history[s][k][channel];
+    }
+
+    float block[BLOCK_SIZE];
+    for (int start = 0; start < numFrames; start += BLOCK_SIZE) {
+        const int blockSize = std::min(BLOCK_SIZE, numFrames - start);
+        short *samples = data + start;
+        for (int i = 0; i < blockSize; i++) block[i] = samples[i];
+        for (int s = 0; s < stageCount; s++) processStage(block, blockSize, stages.coefficients[s], state[s]);
+        for (int i = 0; i < blockSize; i++) samples[i] = toShort(block[i]);
+    }
+
+    for (int s = 0; s < stageCount; s++) {
+        for (int k = 0; k < 4; k++) history[s][k][channel] = state[s][k];
+    }
+}
@@ -4,16 +4,32 @@
 
 #include "JniHelper.h"
 
-void JniHelper::invokeStaticVoid(JavaVM *vm, const char *methodName, const char *methodSignature, ...) {
-    // get current thread JNIEnv
-    JNIEnv *env;
+// Returns JNIEnv of the current thread and attaches the thread to VM if necessary
+static JNIEnv *getEnv(JavaVM *vm) {
+    JNIEnv *env = NULL;
     int stat = vm->GetEnv((void **) &env, JNI_VERSION_1_6);
-    if (stat == JNI_EDETACHED)  //We are on a different thread, attach
+    if (stat == JNI_EDETACHED) { //We are on a different thread, attach
+#ifdef __ANDROID__
         vm->AttachCurrentThread(&env, NULL);
+#else
+        // JDK's jni.h declares env parameter as void**
+        vm->AttachCurrentThread((void **) &env, NULL);
+#endif
+    }
+    return env;
+}
+
+void JniHelper::invokeStaticVoid(JavaVM *vm, const char *methodName, const char *methodSignature, ...) {
+    // get current thread JNIEnv
+    JNIEnv *env = getEnv(vm);
     if (env == NULL)
         return;  //Cant attach to java, bail
 
     jclass clazz = env->FindClass(JNI_HELPER_CLASS_NAME);
+    if (clazz == NULL) { // helper class is not available (e.g. when processing offline), nobody to notify
+        env->ExceptionClear();
+        return;
+    }
     jmethodID mid = env->GetStaticMethodID(clazz, methodName, methodSignature);
     if (mid == 0) return;
 
@@ -25,11 +41,11 @@ void JniHelper::invokeStaticVoid(JavaVM *vm, const char *methodName, const char
 
 void
 JniHelper::invokeVoid(JavaVM *vm, const jobject object, const char *methodName, const char *methodSignature, ...) {
+    // there is no sample source when stream is processed offline
+    if (object == NULL) return;
+
     // get current thread JNIEnv
-    JNIEnv *env;
-    int stat = vm->GetEnv((void **) &env, JNI_VERSION_1_6);
-    if (stat == JNI_EDETACHED)  //We are on a different thread, attach
-        vm->AttachCurrentThread(&env, NULL);
+    JNIEnv *env = getEnv(vm);
     if (env == NULL)
         return;  //Cant attach to java, bail
 
@@ -0,0 +1,109 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#include "MainsHumDetector.h"
+
+#include <algorithm>
+#include <cmath>
+
+constexpr float MainsHumDetector::CANDIDATES[];
+
+MainsHumDetector::MainsHumDetector() {
+    reset();
+}
+
+void MainsHumDetector::setSampleRate(float sampleRate) {
+    if (MainsHumDetector::sampleRate == sampleRate) return;
+
+    MainsHumDetector::sampleRate = sampleRate;
+    windowSize = (int) (sampleRate * WINDOW_SECONDS);
+    // bins are 1 Hz apart which is the resolution of the one second window
+    for (int c = 0; c < CANDIDATE_COUNT; c++) {
+        for (int b = 0; b < BIN_COUNT; b++) {
+            const float binFrequency = CANDIDATES[c] + (b - BIN_COUNT / 2) / WINDOW_SECONDS;
+            coefficients[c][b] = (float) (2.0 * cos(2.0 * M_PI * binFrequency / sampleRate));
+        }
+    }
+    resetWindow();
+}
+
+bool MainsHumDetector::process(const short *data, int numFrames) {
+    if (windowSize <= 0) return false;
+
+    bool changed = false;
+    int i = 0;
+    while (i < numFrames) {
+        const int count = std::min(numFrames - i, windowSize - windowCounter);
+        // all bins are updated together so their recursions run in parallel
+        float s1[BINS], s2[BINS], k[BINS];
+        std::copy(&state1[0][0], &state1[0][0] + BINS, s1);
+        std::copy(&state2[0][0], &state2[0][0] + BINS, s2);
+        std::copy(&coefficients[0][0], &coefficients[0][0] + BINS, k);
+        for (int j = i; j < i + count; j++) {
+            const float x = data[j];
+            for (int b = 0; b < BINS; b++) {
+                const float s = x + k[b] * s1[b] - s2[b];
+                s2[b] = s1[b];
+                s1[b] = s;
+            }
+        }
+        std::copy(s1, s1 + BINS, &state1[0][0]);
+        std::copy(s2, s2 + BINS, &state2[0][0]);
+        i += count;
+        windowCounter += count;
+        if (windowCounter < windowSize) break;
+
+        // window is full, calculate magnitude of every bin
+        float magnitudes[CANDIDATE_COUNT][BIN_COUNT];
+        for (int c = 0; c < CANDIDATE_COUNT; c++) {
+            for (int b = 0; b < BIN_COUNT; b++) {
+                const float s1 = state1[c][b], s2 = state2[c][b];
+                magnitudes[c][b] = sqrtf(std::max(0.0f, s1 * s1 + s2 * s2 - coefficients[c][b] * s1 * s2));
+            }
+        }
+        resetWindow();
+
+        // switch candidate only if the other one is clearly stronger
+        const int other = (candidate + 1) % CANDIDATE_COUNT;
+        const int center = BIN_COUNT / 2;
+        if (magnitudes[other][center] * magnitudes[other][center] >
+            SWITCH_RATIO * magnitudes[candidate][center] * magnitudes[candidate][center]) {
+            candidate = other;
+        }
+
+        // refine the estimate with the ratio of magnitudes of the center bin and the stronger neighbour, which is exact
+        // for a single tone measured over a rectangular window
+        const float *m = magnitudes[candidate];
+        float offset = 0.0f;
+        if (m[2] > m[0]) {
+            if (m[1] + m[2] > 0) offset = m[2] / (m[1] + m[2]);
+        } else {
+            if (m[0] + m[1] > 0) offset = -m[0] / (m[0] + m[1]);
+        }
+        offset = std::max(-0.5f, std::min(0.5f, offset)) / WINDOW_SECONDS;
+        const float estimate = CANDIDATES[candidate] + offset;
+        if (fabsf(estimate - frequency) > MIN_FREQUENCY_CHANGE) {
+            frequency = estimate;
+            changed = true;
+        }
+    }
+
+    return changed;
+}
+
+float MainsHumDetector::getFrequency() {
+    return frequency;
+}
+
+void MainsHumDetector::reset() {
+    candidate = 0;
+    frequency = DEFAULT_FREQUENCY;
+    resetWindow();
+}
+
+void MainsHumDetector::resetWindow() {
+    windowCounter = 0;
+    std::fill(&state1[0][0], &state1[0][0] + BINS, 0.0f);
+    std::fill(&state2[0][0], &state2[0][0] + BINS, 0.0f);
+}
@@ -0,0 +1,109 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#include "PolyphaseDecimator.h"
+
+#include <algorithm>
+#include <cmath>
+
+// constants are passed by reference to std::min so they need definitions
+constexpr int PolyphaseDecimator::MAX_FACTOR;
+constexpr int PolyphaseDecimator::MAX_CHANNELS;
+constexpr int PolyphaseDecimator::BLOCK_SIZE;
+
+PolyphaseDecimator::PolyphaseDecimator(int factor, int channelCount) {
+    PolyphaseDecimator::factor = std::max(1, std::min(factor, MAX_FACTOR));
+    PolyphaseDecimator::channelCount = std::max(1, std::min(channelCount, MAX_CHANNELS));
+    tapCount = PolyphaseDecimator::factor * TAPS_PER_PHASE;
+
+    // hamming windowed sinc, normalized so DC passes unchanged
+    taps.resize((size_t) tapCount);
+    const double cutOff = CUT_OFF * 0.5 / PolyphaseDecimator::factor;
+    const double center = (tapCount - 1) / 2.0;
+    double sum = 0.0;
+    for (int i = 0; i < tapCount; i++) {
+        const double t = i - center;
+        const double sinc = t == 0.0 ? 2.0 * cutOff : sin(2.0 * M_PI * cutOff * t) / (M_PI * t);
+        const double window = 0.54 - 0.46 * cos(2.0 * M_PI * i / (tapCount - 1));
+        taps[i] = (float) (sinc * window);
+        sum += taps[i];
+    }
+    for (int i = 0; i < tapCount; i++) taps[i] = (float) (taps[i] / sum);
+
+    history.resize((size_t) (PolyphaseDecimator::channelCount * (tapCount - 1)));
+    work.resize((size_t) (tapCount - 1 + BLOCK_SIZE));
+    reset();
+}
+
+int PolyphaseDecimator::getFactor() const {
+    return factor;
+}
+
+int PolyphaseDecimator::getChannelCount() const {
+    return channelCount;
+}
+
+int PolyphaseDecimator::getOutputCount(int numFrames) const {
+    return numFrames > phase ? (numFrames - phase - 1) / factor + 1 : 0;
+}
+
+int PolyphaseDecimator::getMaxInputCount(int outputCount) const {
+    return phase + outputCount * factor;
+}
+
+int PolyphaseDecimator::process(const short *in, int inChannelCapacity, short *out, int outChannelCapacity,
+                                int channelCount, int numFrames) {
+    channelCount = std::min(channelCount, PolyphaseDecimator::channelCount);
+    if (factor == 1) {
+        for (int c = 0; c < channelCount; c++) {
+            std::copy(in + c * inChannelCapacity, in + c * inChannelCapacity + numFrames, out + c * outChannelCapacity);
+        }
+        return numFrames;
+    }
+
+    const int historySize = tapCount - 1;
+    const float *tapsPtr = taps.data();
+    float *workPtr = work.data();
+    int outCount = 0;
+    for (int start = 0; start < numFrames; start += BLOCK_SIZE) {
+        const int n = std::min(BLOCK_SIZE, numFrames - start);
+        int blockOutCount = 0;
+        for (int c = 0; c < channelCount; c++) {
+            // lay the history and the new block out contiguously so every output is a single dot product
+            float *channelHistory = history.data() + c * historySize;
+            const short *channelIn = in + c * inChannelCapacity + start;
+            short *channelOut = out + c * outChannelCapacity + outCount;
+            std::copy(channelHistory, channelHistory + historySize, workPtr);
+            for (int i = 0; i < n; i++) workPtr[historySize + i] = channelIn[i];
+
+            blockOutCount = 0;
+            for (int i = phase; i < n; i += factor) {
+                // output at input i is filtered from the tapCount samples that end with it
+                const float *window = workPtr + i;
+                float acc0 = 0.0f, acc1 = 0.0f, acc2 = 0.0f, acc3 = 0.0f;
+                for (int k = 0; k < tapCount; k += 4) {
+                    acc0 += window[k] * tapsPtr[k];
+                    acc1 += window[k + 1] * tapsPtr[k + 1];
+                    acc2 += window[k + 2] * tapsPtr[k + 2];
+                    acc3 += window[k + 3] * tapsPtr[k + 3];
+                }
+                const float y = roundf((acc0 + acc1) + (acc2 + acc3));
+                channelOut[blockOutCount++] = (short) std::max(-32768.0f, std::min(32767.0f, y));
+            }
+
+            std::copy(workPtr + n, workPtr + n + historySize, channelHistory);
+        }
+
+        outCount += blockOutCount;
+        // all channels share the phase
+        phase = phase < n ? factor - 1 - (n - 1 - phase) % factor : phase - n;
+    }
+
+    return outCount;
+}
+
+void PolyphaseDecimator::reset() {
+    std::fill(history.begin(), history.end(), 0.0f);
+    phase = factor - 1;
+}
@@ -4,6 +4,8 @@
 
 #include "Processor.h"
 
+#include <algorithm>
+
 const char *Processor::TAG = "Processor";
 
 Processor::Processor() {
@@ -17,30 +19,79 @@ float Processor::getSampleRate() {
 }
 
 void Processor::applyFilters(short *data, int numFrames) {
-    if (lowPassFilteringEnabled) lowPassFilter.filter(data, numFrames);
-    if (highPassFilteringEnabled) highPassFilter.filter(data, numFrames);
+    applyFilters(0, data, numFrames);
+}
+
+void Processor::applyFilters(int channel, short *data, int numFrames) {
+    if (channel == 0) prepareFilters(data, numFrames);
+    filters.process(channel, data, numFrames);
+}
 
+void Processor::applyFilters(short **channels, int channelCount, int numFrames) {
+    if (channelCount > 0) prepareFilters(channels[0], numFrames);
+    filters.process(channels, channelCount, numFrames);
 }
 
 void Processor::setSampleRate(float sampleRate) {
     __android_log_print(ANDROID_LOG_DEBUG, TAG, "SAMPLE RATE: %1f", sampleRate);
     Processor::sampleRate = sampleRate;
+
+    // coefficients depend on the sample rate
+    filtersChanged = true;
+}
+
+void Processor::setFilters(float lowCutOff, float highCutOff, int mainsHarmonicCount) {
+    __android_log_print(ANDROID_LOG_DEBUG, TAG, "LOW: %1f, HIGH: %1f, MAINS HARMONICS: %d", lowCutOff, highCutOff,
+                        mainsHarmonicCount);
+    Processor::lowCutOff = lowCutOff;
+    Processor::highCutOff = highCutOff;
+    Processor::mainsHarmonicCount = mainsHarmonicCount;
+    filtersChanged = true;
 }
 
-void Processor::setFilters(float lowCutOff, float highCutOff) {
-    __android_log_print(ANDROID_LOG_DEBUG, TAG, "LOW: %1f, HIGH: %1f", lowCutOff, highCutOff);
-    lowPassFilteringEnabled = highCutOff != -1 && highCutOff != MAX_FILTER_CUT_OFF;
-    if (lowPassFilteringEnabled) {
+void Processor::prepareFilters(const short *data, int numFrames) {
+    bool changed = filtersChanged.exchange(false);
+    // hum is estimated from unfiltered signal of the first channel
+    if (mainsHarmonicCount > 0 && mainsHumDetector.process(data, numFrames)) {
+        __android_log_print(ANDROID_LOG_DEBUG, TAG, "MAINS HUM: %1f", mainsHumDetector.getFrequency());
+        changed = true;
+    }
+    if (changed) updateFilters();
+}
+
+void Processor::updateFilters() {
+    mainsHumDetector.setSampleRate(sampleRate);
+
+    float stages[FilterCascade::MAX_STAGES][5];
+    int stageKeys[FilterCascade::MAX_STAGES];
+    int stageCount = 0;
+    // low-pass and high-pass filters together make the band-pass filter
+    const float highCutOff = Processor::highCutOff, lowCutOff = Processor::lowCutOff;
+    if (highCutOff != -1 && highCutOff != MAX_FILTER_CUT_OFF) {
         lowPassFilter.initWithSamplingRate(sampleRate);
-        if (highCutOff > sampleRate / 2.0f) highCutOff = sampleRate / 2.0f;
-        lowPassFilter.setCornerFrequency(highCutOff);
+        lowPassFilter.setCornerFrequency(std::min(highCutOff, sampleRate / 2.0f));
         lowPassFilter.setQ(0.5f);
+        stageKeys[stageCount] = LOW_PASS_STAGE_KEY;
+        std::copy(lowPassFilter.getCoefficients(), lowPassFilter.getCoefficients() + 5, stages[stageCount++]);
     }
-    highPassFilteringEnabled = lowCutOff != -1 && lowCutOff != MIN_FILTER_CUT_OFF;
-    if (highPassFilteringEnabled) {
+    if (lowCutOff != -1 && lowCutOff != MIN_FILTER_CUT_OFF) {
         highPassFilter.initWithSamplingRate(sampleRate);
-        if (lowCutOff > sampleRate / 2.0f) lowCutOff = sampleRate / 2.0f;
-        highPassFilter.setCornerFrequency(lowCutOff);
+        highPassFilter.setCornerFrequency(std::min(lowCutOff, sampleRate / 2.0f));
         highPassFilter.setQ(0.5f);
+        stageKeys[stageCount] = HIGH_PASS_STAGE_KEY;
+        std::copy(highPassFilter.getCoefficients(), highPassFilter.getCoefficients() + 5, stages[stageCount++]);
     }
-}
\ No newline at end of file
+    // notch at every harmonic of the mains hum, number of stages is bounded so cost per block is as well
+    const float mainsFrequency = mainsHumDetector.getFrequency();
+    for (int i = 1; i <= mainsHarmonicCount && stageCount < FilterCascade::MAX_STAGES; i++) {
+        const float frequency = mainsFrequency * i;
+        if (frequency > sampleRate * MAX_MAINS_HARMONIC_FRACTION) break;
+
+        notchFilter.initWithSamplingRate(sampleRate);
+        notchFilter.setCenterFrequency(frequency);
+        notchFilter.setQ(frequency / MAINS_NOTCH_BANDWIDTH);
+        stageKeys[stageCount] = MAINS_NOTCH_STAGE_KEY + i - 1;
+        std::copy(notchFilter.getCoefficients(), notchFilter.getCoefficients() + 5, stages[stageCount++]);
+    }
+    filters.setStages(stages, stageKeys, stageCount);
+}
@@ -13,19 +13,27 @@ SampleStreamProcessor::SampleStreamProcessor(OnEventListenerListener *listener)
     setSampleRate(SAMPLE_RATE);
 
     SampleStreamProcessor::listener = listener;
+
+    currentChannel = 0;
+    sampleCounter = 0;
+    eventCounter = 0;
+    msb = 0;
+    std::fill(average, average + MAX_CHANNELS, 0.0);
+    reset();
 }
 
 SampleStreamProcessor::~SampleStreamProcessor() {
 }
 
 void SampleStreamProcessor::setChannelCount(int channelCount) {
-    SampleStreamProcessor::channelCount = channelCount;
+    SampleStreamProcessor::channelCount = std::max(1, std::min(channelCount, (int) MAX_CHANNELS));
 
     channelCountChanged = true;
 }
 
 void SampleStreamProcessor::process(const unsigned char *inData, const int size, short *outSamples,
-                                    int *outEventIndices, std::string *outEventLabels, int *outCounts) {
+                                    const int channelCapacity, const int maxChannelCount, int *outEventIndices,
+                                    std::string *outEventLabels, int *outCounts) {
     if (channelCountChanged) { // number of channels changed during processing of previous batch
         frameStarted = false;
         sampleStarted = false;
@@ -34,10 +42,8 @@ void SampleStreamProcessor::process(const unsigned char *inData, const int size,
         channelCountChanged = false;
     }
 
-    // init samples (by channels)
-    for (int i = 0; i < channelCount; i++) {
-        sampleCounters[i] = 0;
-    }
+    // init samples
+    sampleCounter = 0;
     // init events
     eventCounter = 0;
 
@@ -54,10 +60,11 @@ void SampleStreamProcessor::process(const unsigned char *inData, const int size,
         escapeSequence[escapeSequenceIndex++] = uc;
 
         if (insideEscapeSequence) { // we are inside escape sequence
-            sampleIndex = sampleCounters[currentChannel] == 0 ? 0 : sampleCounters[currentChannel] - 1;
+            sampleIndex = sampleCounter == 0 ? 0 : sampleCounter - 1;
             if (eventMessageIndex >= EVENT_MESSAGE_LENGTH) { // event message shouldn't be longer then 64 bytes
-                unsigned char *copy = new unsigned char[eventMessageIndex];
+                unsigned char *copy = new unsigned char[eventMessageIndex + 1];
                 std::copy(eventMessage, eventMessage + eventMessageIndex, copy);
+                copy[eventMessageIndex] = 0; // message is read as a c string
                 // let's process incoming message
                 processEscapeSequenceMessage(copy, sampleIndex);
 
@@ -66,8 +73,9 @@ void SampleStreamProcessor::process(const unsigned char *inData, const int size,
             } else if (ESCAPE_SEQUENCE_END[tmpIndex] == uc) {
                 tmpIndex++;
                 if (tmpIndex == ESCAPE_SEQUENCE_START_END_LENGTH) {
-                    unsigned char *copy = new unsigned char[eventMessageIndex];
+                    unsigned char *copy = new unsigned char[eventMessageIndex + 1];
                     std::copy(eventMessage, eventMessage + eventMessageIndex, copy);
+                    copy[eventMessageIndex] = 0; // message is read as a c string
                     // let's process incoming message
                     processEscapeSequenceMessage(copy, sampleIndex);
 
@@ -113,14 +121,24 @@ void SampleStreamProcessor::process(const unsigned char *inData, const int size,
                         sample = (short) (((msb | lsb) - 512) * 30);
 
                         // calculate average sample
-                        average = 0.0001 * sample + 0.9999 * average;
+                        average[currentChannel] = 0.0001 * sample + 0.9999 * average[currentChannel];
                         // use average to remove offset
-                        sample = (short) (sample - average);
-
-                        channels[currentChannel][sampleCounters[currentChannel]++] = sample;
+                        frame[currentChannel] = (short) (sample - average[currentChannel]);
 
                         sampleStarted = false;
-                        if (currentChannel >= channelCount - 1) frameStarted = false;
+                        if (currentChannel >= channelCount - 1) {
+                            frameStarted = false;
+
+                            // whole frame is decoded so we can add it's samples to channels
+                            if (sampleCounter < MAX_BYTES) {
+                                for (int k = 0; k < channelCount; k++) {
+                                    channels[k][sampleCounter] = frame[k];
+                                }
+                                sampleCounter++;
+                            } else {
+                                __android_log_print(ANDROID_LOG_DEBUG, TAG, "TOO MANY FRAMES IN BATCH! DROP!");
+                            }
+                        }
                     } else {
                         msb = b & CLEANER;
                         // we already started the frame so if msb is greater then 127 drop whole frame
@@ -160,14 +178,20 @@ void SampleStreamProcessor::process(const unsigned char *inData, const int size,
         }
     }
 
-    // apply additional filtering if necessary
-    applyFilters(channels[CHANNEL_INDEX], sampleCounters[CHANNEL_INDEX]);
-
-    std::copy(channels[CHANNEL_INDEX], channels[CHANNEL_INDEX] + sampleCounters[CHANNEL_INDEX], outSamples);
+    const int outChannelCount = std::min(channelCount, maxChannelCount);
+    const int outSampleCount = std::min(sampleCounter, channelCapacity);
+    // apply additional filtering if necessary, all channels are filtered in a single pass
+    short *channelSamples[MAX_CHANNELS];
+    for (int i = 0; i < outChannelCount; i++) channelSamples[i] = channels[i];
+    applyFilters(channelSamples, outChannelCount, outSampleCount);
+    for (int i = 0; i < outChannelCount; i++) {
+        std::copy(channels[i], channels[i] + outSampleCount, outSamples + i * channelCapacity);
+    }
     std::copy(eventIndices, eventIndices + eventCounter, outEventIndices);
     std::copy(eventLabels, eventLabels + eventCounter, outEventLabels);
-    outCounts[0] = sampleCounters[CHANNEL_INDEX];
+    outCounts[0] = outSampleCount;
     outCounts[1] = eventCounter;
+    outCounts[2] = outChannelCount;
 }
 
 void SampleStreamProcessor::processEscapeSequenceMessage(unsigned char *messageBytes, int sampleIndex) {
@@ -29,8 +29,8 @@ int *SpikeAnalysis::findSpikes(const char *filePath, short *outValuesPos, int *o
         return new int[2]{0};
     }
 
-    // check whether file is long enough for processing
-    drwav_uint64 totalSamples = wavPtr->totalSampleCount;
+    // check whether file is long enough for processing (spikes are looked for only in the first channel)
+    drwav_uint64 totalSamples = wavPtr->totalSampleCount / wavPtr->channels;
     __android_log_print(ANDROID_LOG_DEBUG, TAG, "Audio file sample count is: %ld", static_cast<long>(totalSamples));
     if (totalSamples < wavPtr->sampleRate * MIN_VALID_FILE_LENGTH_IN_SECS) {
         __android_log_print(ANDROID_LOG_DEBUG, TAG, "File to short! Don't process!");
@@ -42,14 +42,14 @@ int *SpikeAnalysis::findSpikes(const char *filePath, short *outValuesPos, int *o
     drwav_uint64 maxBufferSize = static_cast<drwav_uint64>(ceil(
             (wavPtr->sampleRate * BUFFER_SIZE_IN_SECS) / wavPtr->channels));
     if (bufferSize > maxBufferSize) bufferSize = maxBufferSize;
-    drwav_int16 *samples = new drwav_int16[bufferSize];
+    drwav_int16 *samples = new drwav_int16[bufferSize * wavPtr->channels];
 
     // 1. FIRST LET'S FIND STANDARD DEVIATIONS FOR EVERY CHUNK and
-    float *standardDeviationsArr = new float[static_cast<drwav_uint64>(ceil(totalSamples / bufferSize))];
+    float *standardDeviationsArr = new float[(totalSamples + bufferSize - 1) / bufferSize];
     int deviationCounter = 0;
 
     drwav_uint64 read;
-    while ((read = drwav_read_s16(wavPtr, bufferSize, samples)) > 0) {
+    while ((read = AnalysisUtils::readFirstChannel(wavPtr, bufferSize, samples)) > 0) {
         standardDeviationsArr[deviationCounter++] = AnalysisUtils::SD(samples, static_cast<int>(read));
     }
     delete[] samples;
@@ -87,13 +87,13 @@ int *SpikeAnalysis::findSpikes(const char *filePath, short *outValuesPos, int *o
     short sample;
 
     bufferSize = maxBufferSize; // let's use max buffer size
-    samples = new short[bufferSize];
+    samples = new short[bufferSize * wavPtr->channels];
 
     // go to beginning of the file cause we need to run through the file again to find spikes
     drwav_seek_to_sample(wavPtr, 0);
 
     int spikeCounter = 0, spikeNegCounter = 0;
-    while ((read = drwav_read_s16(wavPtr, bufferSize, samples)) > 0) {
+    while ((read = AnalysisUtils::readFirstChannel(wavPtr, bufferSize, samples)) > 0) {
         // find peaks
         for (int i = 0; i < read; i++) {
             sample = samples[i];
@@ -0,0 +1,153 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#include "SweepAverager.h"
+
+#include <algorithm>
+
+SweepAverager::~SweepAverager() {
+    release();
+}
+
+void SweepAverager::reset(int sampleCount, int averagedSweepCount) {
+    const int newSweepCapacity = averagedSweepCount + MAX_UNFINISHED_SWEEPS;
+    // buffers are only reallocated when their size changes
+    if (sampleCount != SweepAverager::sampleCount || averagedSamples == nullptr) {
+        SweepAverager::sampleCount = sampleCount;
+
+        delete[] summedSamples;
+        summedSamples = new int[sampleCount];
+        delete[] averagedSamples;
+        averagedSamples = new short[sampleCount];
+        // sweeps need to be reallocated as well
+        sweepCapacity = 0;
+    }
+    if (newSweepCapacity != sweepCapacity) {
+        sweepCapacity = newSweepCapacity;
+
+        delete[] sweeps;
+        sweeps = new short[sweepCapacity * sampleCount];
+        delete[] sweepSampleCounts;
+        sweepSampleCounts = new int[sweepCapacity];
+        delete[] sweepSummedCounts;
+        sweepSummedCounts = new int[sweepCapacity];
+    }
+    SweepAverager::averagedSweepCount = averagedSweepCount;
+    std::fill(summedSamples, summedSamples + sampleCount, 0);
+    std::fill(averagedSamples, averagedSamples + sampleCount, 0);
+    sweepCounter = 0;
+    firstUnfinishedSweep = 0;
+    cleared = true;
+}
+
+void SweepAverager::release() {
+    delete[] sweeps;
+    sweeps = nullptr;
+    delete[] sweepSampleCounts;
+    sweepSampleCounts = nullptr;
+    delete[] sweepSummedCounts;
+    sweepSummedCounts = nullptr;
+    delete[] averagedSamples;
+    averagedSamples = nullptr;
+    delete[] summedSamples;
+    summedSamples = nullptr;
+    sampleCount = 0;
+    sweepCapacity = 0;
+    sweepCounter = 0;
+    firstUnfinishedSweep = 0;
+    dirtyStart = dirtyEnd = 0;
+}
+
+int SweepAverager::getSampleCount() const {
+    return sampleCount;
+}
+
+bool SweepAverager::canStartSweep() const {
+    return sweepCapacity > 0 && sweepCounter - firstUnfinishedSweep < MAX_UNFINISHED_SWEEPS;
+}
+
+void SweepAverager::append(const short *inSamples, int length) {
+    for (int k = firstUnfinishedSweep; k < sweepCounter; k++) {
+        const int slot = k % sweepCapacity;
+        const int samplesToCopy = std::min(sampleCount - sweepSampleCounts[slot], length);
+        std::copy(inSamples, inSamples + samplesToCopy, sweeps + slot * sampleCount + sweepSampleCounts[slot]);
+        sweepSampleCounts[slot] += samplesToCopy;
+    }
+}
+
+void SweepAverager::startSweep(const short *history, int historySize, int historyHead, const short *inSamples,
+                               int length, int start) {
+    const int slot = sweepCounter++ % sweepCapacity;
+    short *sweep = sweeps + slot * sampleCount;
+
+    int sweepSampleCount = 0;
+    if (start < 0) {
+        // the oldest part comes from the ring of the most recent samples
+        sweepSampleCount = std::min(-start, sampleCount);
+        const int historyStart = (historyHead + start + historySize) % historySize;
+        const int firstPart = std::min(sweepSampleCount, historySize - historyStart);
+        std::copy(history + historyStart, history + historyStart + firstPart, sweep);
+        std::copy(history, history + sweepSampleCount - firstPart, sweep + firstPart);
+    }
+    const int incomingStart = std::max(start, 0);
+    const int copyFromIncoming = std::max(0, std::min(sampleCount - sweepSampleCount, length - incomingStart));
+    std::copy(inSamples + incomingStart, inSamples + incomingStart + copyFromIncoming, sweep + sweepSampleCount);
+
+    sweepSampleCounts[slot] = sweepSampleCount + copyFromIncoming;
+    sweepSummedCounts[slot] = 0;
+}
+
+void SweepAverager::update() {
+    // all averaged samples are cleared on reset
+    dirtyStart = cleared ? 0 : sampleCount;
+    dirtyEnd = cleared ? sampleCount : 0;
+    cleared = false;
+
+    // add newly populated samples to the sum of the last averagedSweepCount sweeps, all older sweeps are already
+    // populated at every index that the newer one is so sum at every index holds the same sweeps
+    for (int k = firstUnfinishedSweep; k < sweepCounter; k++) {
+        const int slot = k % sweepCapacity;
+        const int from = sweepSummedCounts[slot];
+        const int to = sweepSampleCounts[slot];
+        if (from >= to) continue;
+
+        const short *sweep = sweeps + slot * sampleCount;
+        if (k >= averagedSweepCount) {
+            // we are adding averagedSweepCount + 1. sweep so we should subtract the oldest one
+            const short *oldestSweep = sweeps + ((k - averagedSweepCount) % sweepCapacity) * sampleCount;
+            for (int j = from; j < to; j++) {
+                summedSamples[j] += sweep[j] - oldestSweep[j];
+                averagedSamples[j] = (short) (summedSamples[j] / averagedSweepCount);
+            }
+        } else {
+            const int summedSweepCount = k + 1;
+            for (int j = from; j < to; j++) {
+                summedSamples[j] += sweep[j];
+                averagedSamples[j] = (short) (summedSamples[j] / summedSweepCount);
+            }
+        }
+        sweepSummedCounts[slot] = to;
+        dirtyStart = std::min(dirtyStart, from);
+        dirtyEnd = std::max(dirtyEnd, to);
+    }
+    if (dirtyStart > dirtyEnd) dirtyStart = dirtyEnd;
+
+    // populated sweeps are finished in the order they were started
+    while (firstUnfinishedSweep < sweepCounter &&
+           sweepSampleCounts[firstUnfinishedSweep % sweepCapacity] == sampleCount) {
+        firstUnfinishedSweep++;
+    }
+}
+
+const short *SweepAverager::getAveragedSamples() const {
+    return averagedSamples;
+}
+
+int SweepAverager::getDirtyStart() const {
+    return dirtyStart;
+}
+
+int SweepAverager::getDirtyEnd() const {
+    return dirtyEnd;
+}
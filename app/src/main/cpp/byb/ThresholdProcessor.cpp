@@ -4,13 +4,21 @@
 
 #include "ThresholdProcessor.h"
 
+#include <cstring>
+
 const char *ThresholdProcessor::TAG = "ThresholdProcessor";
 
+// constants are passed by reference to std::min so they need definitions
+constexpr int ThresholdProcessor::MAX_TRIGGERS;
+
 ThresholdProcessor::ThresholdProcessor(OnHeartbeatListener *listener) {
     heartbeatHelper = new HeartbeatHelper(getSampleRate(), listener);
+    setThreshold(INT_MAX);
 }
 
 ThresholdProcessor::~ThresholdProcessor() {
+    delete[] buffer;
+    delete heartbeatHelper;
 }
 
 int ThresholdProcessor::getAveragedSampleCount() {
@@ -28,7 +36,28 @@ void ThresholdProcessor::setAveragedSampleCount(int averagedSampleCount) {
 void ThresholdProcessor::setThreshold(int threshold) {
     __android_log_print(ANDROID_LOG_DEBUG, TAG, "setThreshold(%d)", threshold);
 
-    ThresholdProcessor::triggerValue = threshold;
+    TriggerSettings trigger;
+    trigger.risingSlope = threshold >= 0;
+    if (trigger.risingSlope) {
+        trigger.lowerBound = threshold;
+    } else {
+        trigger.upperBound = threshold;
+    }
+    setTriggers(&trigger, 1);
+}
+
+void ThresholdProcessor::setTriggers(const TriggerSettings *triggers, int count) {
+    __android_log_print(ANDROID_LOG_DEBUG, TAG, "setTriggers(%d)", count);
+
+    std::lock_guard<std::mutex> lock(pendingTriggersMutex);
+    pendingTriggerCount = std::max(0, std::min(count, MAX_TRIGGERS));
+    std::copy(triggers, triggers + pendingTriggerCount, pendingTriggers);
+    pendingTriggersChanged.store(true, std::memory_order_release);
+}
+
+int ThresholdProcessor::getTriggerCount() {
+    std::lock_guard<std::mutex> lock(pendingTriggersMutex);
+    return pendingTriggerCount;
 }
 
 void ThresholdProcessor::setBpmProcessing(bool processBpm) {
@@ -42,12 +71,26 @@ void ThresholdProcessor::setBpmProcessing(bool processBpm) {
     ThresholdProcessor::processBpm = processBpm;
 }
 
-void ThresholdProcessor::process(const short *inSamples, short *outSamples, const int length) {
-    // reset buffers if threshold changed
+bool ThresholdProcessor::applyPendingTriggers() {
+    if (!pendingTriggersChanged.load(std::memory_order_acquire)) return false;
+    // processing thread never waits, if triggers are just being set they are picked up with the next batch
+    std::unique_lock<std::mutex> lock(pendingTriggersMutex, std::try_to_lock);
+    if (!lock.owns_lock()) return false;
+
+    triggerCount = pendingTriggerCount;
+    for (int t = 0; t < triggerCount; t++) triggers[t].settings = pendingTriggers[t];
+    pendingTriggersChanged.store(false, std::memory_order_relaxed);
+
+    return true;
+}
+
+void ThresholdProcessor::process(const short *inSamples, const int length, const int *eventIndices,
+                                 const char *const *eventLabels, int eventCount) {
+    for (int t = 0; t < triggerCount; t++) triggers[t].cleared = false;
+    // reset buffers if triggers changed
     bool shouldReset = false;
-    if (lastTriggeredValue != triggerValue) {
-        __android_log_print(ANDROID_LOG_DEBUG, TAG, "Resetting because trigger value has changed");
-        lastTriggeredValue = triggerValue;
+    if (applyPendingTriggers()) {
+        __android_log_print(ANDROID_LOG_DEBUG, TAG, "Resetting because triggers have changed");
         shouldReset = true;
     }
     // reset buffers if averages sample count changed
@@ -64,18 +107,11 @@ void ThresholdProcessor::process(const short *inSamples, short *outSamples, cons
     }
     if (shouldReset) reset();
 
-    // append unfinished sample buffers with incoming samples
-    int samplesToCopy;
-    for (int i = 0; i < unfinishedSamplesForCalculationCount; i++) {
-        samplesToCopy = std::min(sampleCount - unfinishedSamplesForCalculationCounts[i], length);
-        std::copy(inSamples, inSamples + samplesToCopy,
-                  unfinishedSamplesForCalculation[i] + unfinishedSamplesForCalculationCounts[i]);
-        unfinishedSamplesForCalculationCounts[i] += samplesToCopy;
-    }
+    // append unfinished sweeps with incoming samples
+    for (int t = 0; t < triggerCount; t++) triggers[t].averager.append(inSamples, length);
 
     short currentSample;
-    int copyFromIncoming, copyFromBuffer;
-    // loop through incoming samples and listen for the threshold hit
+    // loop through incoming samples once and evaluate all the triggers for every sample
     for (int i = 0; i < length; i++) {
         currentSample = inSamples[i];
 
@@ -89,149 +125,179 @@ void ThresholdProcessor::process(const short *inSamples, short *outSamples, cons
         }
         // end of heartbeat processing
 
-        if (!inDeadPeriod) {
-            // check if we hit the threshold
-            if ((triggerValue >= 0 && currentSample > triggerValue && prevSample <= triggerValue) || (
-                    triggerValue < 0 && currentSample < triggerValue && prevSample >= triggerValue)) {
-                // we hit the threshold, turn on dead period of 5ms
-                inDeadPeriod = true;
-
-                // create new samples for current threshold
-                unfinishedSamplesForCalculation[unfinishedSamplesForCalculationCount] = new short[sampleCount]{0};
-                copyFromBuffer = bufferSampleCount - i;
-                copyFromIncoming = std::min(sampleCount - copyFromBuffer, length);
-                std::copy(buffer + i, buffer + bufferSampleCount,
-                          unfinishedSamplesForCalculation[unfinishedSamplesForCalculationCount]);
-                std::copy(inSamples, inSamples + copyFromIncoming,
-                          unfinishedSamplesForCalculation[unfinishedSamplesForCalculationCount] + copyFromBuffer);
-
-                unfinishedSamplesForCalculationCounts[unfinishedSamplesForCalculationCount] =
-                        copyFromBuffer + copyFromIncoming;
-                unfinishedSamplesForCalculationAveragedCounts[unfinishedSamplesForCalculationCount++] = 0;
-
-                // heartbeat processingA
-                if (processBpm) {
-                    // pass data to heartbeat helper
-                    heartbeatHelper->beat(sampleCounter);
-                    // reset the last triggered sample counter
-                    // and start counting for next heartbeat reset period
-                    lastTriggerSampleCounter = 0;
+        for (int a = 0; a < amplitudeTriggerCount; a++) {
+            const int t = amplitudeTriggers[a];
+            Trigger &trigger = triggers[t];
+            const bool rising = trigger.settings.risingSlope;
+            if (!trigger.inDeadPeriod) {
+                if (trigger.armed) {
+                    if (rising ? currentSample > trigger.limit : currentSample < trigger.limit) {
+                        // spike went past the window, ignore it until the dead period passes
+                        trigger.armed = false;
+                        trigger.inDeadPeriod = true;
+                    } else if ((rising ? currentSample <= trigger.level : currentSample >= trigger.level) ||
+                               ++trigger.armedSampleCounter > trigger.deadPeriodCount) {
+                        // spike stayed inside the window, sweep is aligned to the crossing
+                        trigger.armed = false;
+                        trigger.inDeadPeriod = true;
+                        hit(t, inSamples, length, trigger.armedIndex);
+                    }
+                } else if (rising ? currentSample > trigger.level && prevSample <= trigger.level :
+                           currentSample < trigger.level && prevSample >= trigger.level) {
+                    if (!trigger.windowed) {
+                        // we hit the trigger, turn on dead period
+                        trigger.inDeadPeriod = true;
+                        hit(t, inSamples, length, i);
+                    } else if (rising ? currentSample > trigger.limit : currentSample < trigger.limit) {
+                        trigger.inDeadPeriod = true;
+                    } else {
+                        trigger.armed = true;
+                        trigger.armedIndex = i;
+                        trigger.armedSampleCounter = 0;
+                    }
+                }
+            } else {
+                if (++trigger.deadPeriodSampleCounter > trigger.deadPeriodCount) {
+                    trigger.deadPeriodSampleCounter = 0;
+                    trigger.inDeadPeriod = false;
                 }
-                // end of heartbeat processing
-            }
-        } else {
-            if (++deadPeriodSampleCounter > deadPeriodCount) {
-                deadPeriodSampleCounter = 0;
-                inDeadPeriod = false;
             }
         }
 
         prevSample = currentSample;
     }
 
-    // add samples to local buffer
-    std::copy(buffer + length, buffer + bufferSampleCount, buffer);
-    std::copy(inSamples, inSamples + length, buffer + bufferSampleCount - length);
-
-    // add incoming samples to calculation of averages
-    for (int i = 0; i < unfinishedSamplesForCalculationCount; i++) {
-        for (int j = unfinishedSamplesForCalculationAveragedCounts[i];
-             j < unfinishedSamplesForCalculationCounts[i]; j++) {
-            // if we are calculating averagedSampleCount + 1. sample we should subtract the oldest one in the sum
-            if (summedSamplesCounts[j] >= averagedSampleCount) {
-                // subtract the value and decrease summed samples count for current position
-                if (averagedSampleCount <= i) { // we look for the oldest one in the unfinished samples
-                    summedSamples[j] -=
-                            unfinishedSamplesForCalculation[i - averagedSampleCount][j];
-                } else { // we look for the oldest one in the already collected and calculated samples
-                    summedSamples[j] -=
-                            samplesForCalculation[samplesForCalculationCount - averagedSampleCount + i][j];
-                }
-                summedSamplesCounts[j]--;
-            }
-            // add new value and increase summed samples count for current position
-            summedSamples[j] += unfinishedSamplesForCalculation[i][j];
-            summedSamplesCounts[j]++;
-            // calculate the average
-            averagedSamples[j] = (short) (summedSamples[j] / summedSamplesCounts[j]);
-        }
-        unfinishedSamplesForCalculationAveragedCounts[i] = unfinishedSamplesForCalculationCounts[i];
+    // crossings that are still being validated move back with the next batch
+    for (int a = 0; a < amplitudeTriggerCount; a++) {
+        Trigger &trigger = triggers[amplitudeTriggers[a]];
+        if (trigger.armed) trigger.armedIndex -= length;
     }
 
-    // move filled sample buffers from unfinished samples collection to finished samples collection
-    for (int i = 0; i < unfinishedSamplesForCalculationCount; i++) {
-        if (unfinishedSamplesForCalculationCounts[i] == sampleCount) {
-            if (samplesForCalculationCount >= averagedSampleCount) {
-                delete[] samplesForCalculation[0];
-                if (samplesForCalculationCount > 1) {
-                    std::move(samplesForCalculation + 1, samplesForCalculation + samplesForCalculationCount,
-                              samplesForCalculation);
+    // events are sparse so they are matched against event triggers separately
+    if (amplitudeTriggerCount < triggerCount) {
+        for (int e = 0; e < eventCount; e++) {
+            if (eventIndices[e] < 0 || eventIndices[e] >= length || eventLabels[e] == nullptr) continue;
+
+            for (int t = 0; t < triggerCount; t++) {
+                if (triggers[t].eventTriggered && strcmp(triggers[t].settings.eventLabel, eventLabels[e]) == 0) {
+                    hit(t, inSamples, length, eventIndices[e]);
                 }
-                samplesForCalculationCount--;
             }
-            samplesForCalculation[samplesForCalculationCount++] = unfinishedSamplesForCalculation[i];
-            if (unfinishedSamplesForCalculationCount > i + 1) {
-                std::move(unfinishedSamplesForCalculation + i + 1,
-                          unfinishedSamplesForCalculation + unfinishedSamplesForCalculationCount,
-                          unfinishedSamplesForCalculation + i);
-                std::move(unfinishedSamplesForCalculationCounts + i + 1,
-                          unfinishedSamplesForCalculationCounts + unfinishedSamplesForCalculationCount,
-                          unfinishedSamplesForCalculationCounts + i);
-                std::move(unfinishedSamplesForCalculationAveragedCounts + i + 1,
-                          unfinishedSamplesForCalculationAveragedCounts + unfinishedSamplesForCalculationCount,
-                          unfinishedSamplesForCalculationAveragedCounts + i);
-            }
-            unfinishedSamplesForCalculationCount--;
-            i--;
         }
     }
 
-    std::copy(averagedSamples, averagedSamples + sampleCount, outSamples);
+    // add samples to local buffer
+    saveToBuffer(inSamples, length);
+
+    // add newly populated samples to the averages
+    for (int t = 0; t < triggerCount; t++) triggers[t].averager.update();
+}
+
+int ThresholdProcessor::getProcessedTriggerCount() const {
+    return triggerCount;
+}
+
+int ThresholdProcessor::getSweepSampleCount(int trigger) const {
+    return triggers[trigger].sweepSampleCount;
+}
+
+const short *ThresholdProcessor::getAveragedSamples(int trigger) const {
+    return triggers[trigger].averager.getAveragedSamples();
+}
+
+int ThresholdProcessor::getDirtyStart(int trigger) const {
+    return triggers[trigger].cleared ? 0 : triggers[trigger].averager.getDirtyStart();
+}
+
+int ThresholdProcessor::getDirtyEnd(int trigger) const {
+    return triggers[trigger].cleared ? sampleCount : triggers[trigger].averager.getDirtyEnd();
+}
+
+void ThresholdProcessor::hit(int trigger, const short *inSamples, int length, int index) {
+    // sweep starts sweepStartOffset samples before the one that hit the trigger
+    SweepAverager &averager = triggers[trigger].averager;
+    if (averager.canStartSweep()) {
+        averager.startSweep(buffer, bufferSampleCount, bufferHead, inSamples, length,
+                            index - triggers[trigger].sweepStartOffset);
+    }
+
+    // heartbeat processing
+    if (trigger == 0 && processBpm) {
+        // pass data to heartbeat helper
+        heartbeatHelper->beat(sampleCounter);
+        // reset the last triggered sample counter
+        // and start counting for next heartbeat reset period
+        lastTriggerSampleCounter = 0;
+    }
+    // end of heartbeat processing
+}
+
+void ThresholdProcessor::saveToBuffer(const short *inSamples, int length) {
+    // only the most recent samples fit into the buffer
+    if (length > bufferSampleCount) {
+        inSamples += length - bufferSampleCount;
+        length = bufferSampleCount;
+    }
+    const int firstPart = std::min(length, bufferSampleCount - bufferHead);
+    std::copy(inSamples, inSamples + firstPart, buffer + bufferHead);
+    std::copy(inSamples + firstPart, inSamples + length, buffer);
+    bufferHead = (bufferHead + length) % bufferSampleCount;
 }
 
 void ThresholdProcessor::reset() {
     sampleCount = static_cast<int>(getSampleRate() * MAX_PROCESSED_SECONDS);
-    bufferSampleCount = sampleCount / 2;
-
-    delete[] buffer;
-    buffer = new short[bufferSampleCount];
-    // free memory before creating new arrays
-    if (samplesForCalculationCount > 0) {
-        for (int i = 0; i < samplesForCalculationCount; i++) {
-            delete[] samplesForCalculation[i];
+    // windowed trigger can be accepted up to the longest dead period after the crossing
+    const int maxDeadPeriodCount = static_cast<int>(getSampleRate() * MAX_DEAD_TIME_SECONDS);
+
+    amplitudeTriggerCount = 0;
+    int maxSweepStartOffset = 0;
+    for (int t = 0; t < triggerCount; t++) {
+        Trigger &trigger = triggers[t];
+        const TriggerSettings &settings = trigger.settings;
+        trigger.eventTriggered = settings.eventLabel[0] != '\0';
+        if (trigger.eventTriggered) {
+            // sweep can't be longer than the averaged samples
+            const int preEventCount = static_cast<int>(getSampleRate() * settings.preEventSeconds);
+            const int postEventCount = static_cast<int>(getSampleRate() * settings.postEventSeconds);
+            trigger.sweepStartOffset = std::max(0, std::min(preEventCount, sampleCount - 1));
+            trigger.sweepSampleCount = std::min(trigger.sweepStartOffset + std::max(1, postEventCount), sampleCount);
+        } else {
+            // sweep holds the same amount of samples before and after the crossing
+            trigger.sweepStartOffset = sampleCount / 2;
+            trigger.sweepSampleCount = sampleCount;
+            amplitudeTriggers[amplitudeTriggerCount++] = t;
         }
+        maxSweepStartOffset = std::max(maxSweepStartOffset, trigger.sweepStartOffset);
     }
-    delete[] samplesForCalculation;
-    samplesForCalculation = new short *[averagedSampleCount];
-    samplesForCalculationCount = 0;
-    // free memory before creating new8 arrays
-    delete[] summedSamples;
-    summedSamples = new int[sampleCount]{0};
-    // free memory before creating new arrays
-    delete[] summedSamplesCounts;
-    summedSamplesCounts = new int[sampleCount]{0};
-    // free memory before creating new arrays
-    delete[] averagedSamples;
-    averagedSamples = new short[sampleCount]{0};
-    // free memory before creating new arrays
-    if (unfinishedSamplesForCalculationCount > 0) {
-        for (int i = 0; i < unfinishedSamplesForCalculationCount; i++) {
-            delete[] unfinishedSamplesForCalculation[i];
-        }
+
+    const int newBufferSampleCount = maxSweepStartOffset + maxDeadPeriodCount + 1;
+    // buffer is only reallocated when it's size changes
+    if (newBufferSampleCount != bufferSampleCount || buffer == nullptr) {
+        bufferSampleCount = newBufferSampleCount;
+
+        delete[] buffer;
+        buffer = new short[bufferSampleCount];
+    }
+    std::fill(buffer, buffer + bufferSampleCount, 0);
+    bufferHead = 0;
+
+    for (int t = 0; t < triggerCount; t++) {
+        Trigger &trigger = triggers[t];
+        const TriggerSettings &settings = trigger.settings;
+        trigger.level = settings.risingSlope ? settings.lowerBound : settings.upperBound;
+        trigger.limit = settings.risingSlope ? settings.upperBound : settings.lowerBound;
+        // samples can't go past the limit outside of the short range
+        trigger.windowed = settings.risingSlope ? trigger.limit < SHRT_MAX : trigger.limit > SHRT_MIN;
+        trigger.deadPeriodCount = std::max(0, std::min(static_cast<int>(getSampleRate() * settings.deadTimeSeconds),
+                                                       maxDeadPeriodCount));
+        trigger.deadPeriodSampleCounter = 0;
+        trigger.inDeadPeriod = false;
+        trigger.armed = false;
+        trigger.cleared = true;
+        trigger.averager.reset(trigger.sweepSampleCount, averagedSampleCount);
     }
-    delete[] unfinishedSamplesForCalculation;
-    unfinishedSamplesForCalculation = new short *[UNFINISHED_SAMPLES_COUNT];
-    unfinishedSamplesForCalculationCount = 0;
-    // free memory before creating new arrays
-    delete[] unfinishedSamplesForCalculationCounts;
-    unfinishedSamplesForCalculationCounts = new int[UNFINISHED_SAMPLES_COUNT]{0};
-    // free memory before creating new arrays
-    delete[] unfinishedSamplesForCalculationAveragedCounts;
-    unfinishedSamplesForCalculationAveragedCounts = new int[UNFINISHED_SAMPLES_COUNT]{0};
-
-    deadPeriodCount = static_cast<int>(getSampleRate() * DEAD_PERIOD_SECONDS);
-    deadPeriodSampleCounter = 0;
-    inDeadPeriod = false;
+    // unused triggers don't hold on to their sweeps
+    for (int t = triggerCount; t < MAX_TRIGGERS; t++) triggers[t].averager.release();
 
     prevSample = 0;
 
@@ -4,10 +4,14 @@
 
 #include <jni.h>
 #include <algorithm>
+#include <atomic>
+#include <cstring>
 #include <string>
 #include <ThresholdProcessor.h>
 
 #include "AmModulationProcessor.h"
+#include "EnvelopePyramid.h"
+#include "PolyphaseDecimator.h"
 #include "SampleStreamProcessor.h"
 #include "SpikeAnalysis.h"
 #include "AutocorrelationAnalysis.h"
@@ -33,7 +37,8 @@ Java_com_backyardbrains_utils_JniUtils_setSampleRate(JNIEnv *env, jobject thiz,
 JNIEXPORT void JNICALL
 Java_com_backyardbrains_utils_JniUtils_setChannelCount(JNIEnv *env, jobject thiz, jint channelCount);
 JNIEXPORT void JNICALL
-Java_com_backyardbrains_utils_JniUtils_setFilters(JNIEnv *env, jobject thiz, jfloat lowCutOff, jfloat highCutOff);
+Java_com_backyardbrains_utils_JniUtils_setFilters(JNIEnv *env, jobject thiz, jfloat lowCutOff, jfloat highCutOff,
+                                                  jint mainsHarmonicCount);
 JNIEXPORT void JNICALL
 Java_com_backyardbrains_utils_JniUtils_processSampleStream(JNIEnv *env, jobject thiz, jobject out, jbyteArray inBytes,
                                                            jint length, jobject sampleSourceObject);
@@ -54,19 +59,71 @@ Java_com_backyardbrains_utils_JniUtils_setAveragedSampleCount(JNIEnv *env, jobje
 JNIEXPORT void JNICALL
 Java_com_backyardbrains_utils_JniUtils_setThreshold(JNIEnv *env, jobject thiz, jint threshold);
 JNIEXPORT void JNICALL
+Java_com_backyardbrains_utils_JniUtils_setTriggers(JNIEnv *env, jobject thiz, jintArray lowerBounds,
+                                                   jintArray upperBounds, jbooleanArray risingSlopes,
+                                                   jfloatArray deadTimes);
+JNIEXPORT void JNICALL
+Java_com_backyardbrains_utils_JniUtils_setEventTriggers(JNIEnv *env, jobject thiz, jobjectArray eventNames,
+                                                        jfloatArray preEventTimes, jfloatArray postEventTimes);
+JNIEXPORT jint JNICALL
+Java_com_backyardbrains_utils_JniUtils_getTriggerCount(JNIEnv *env, jobject thiz);
+JNIEXPORT void JNICALL
 Java_com_backyardbrains_utils_JniUtils_setBpmProcessing(JNIEnv *env, jobject thiz, jboolean processBpm);
 JNIEXPORT void JNICALL
 Java_com_backyardbrains_utils_JniUtils_processThreshold(JNIEnv *env, jobject thiz, jobject out, jshortArray inSamples,
-                                                        jint length);
+                                                        jint length, jintArray inEventIndices,
+                                                        jobjectArray inEventNames, jint inEventCount);
+JNIEXPORT jboolean JNICALL
+Java_com_backyardbrains_utils_JniUtils_isDirectBufferAccessSupported(JNIEnv *env, jobject thiz);
+JNIEXPORT void JNICALL
+Java_com_backyardbrains_utils_JniUtils_processSampleStreamDirect(JNIEnv *env, jobject thiz, jobject out,
+                                                                 jobject inBytes, jint length,
+                                                                 jobject sampleSourceObject);
+JNIEXPORT void JNICALL
+Java_com_backyardbrains_utils_JniUtils_processMicrophoneStreamDirect(JNIEnv *env, jobject thiz, jobject out,
+                                                                     jobject inBytes, jint length);
+JNIEXPORT void JNICALL
+Java_com_backyardbrains_utils_JniUtils_processPlaybackStreamDirect(JNIEnv *env, jobject thiz, jobject out,
+                                                                   jobject inBytes, jint length,
+                                                                   jintArray inEventIndices, jobjectArray inEventNames,
+                                                                   jint inEventCount, jlong start, jlong end,
+                                                                   jint prependSamples);
+JNIEXPORT void JNICALL
+Java_com_backyardbrains_utils_JniUtils_processThresholdDirect(JNIEnv *env, jobject thiz, jobject out,
+                                                              jobject inSamples, jint length, jintArray inEventIndices,
+                                                              jobjectArray inEventNames, jint inEventCount);
+JNIEXPORT jlong JNICALL
+Java_com_backyardbrains_utils_JniUtils_createDecimator(JNIEnv *env, jobject thiz, jint factor, jint channelCount);
+JNIEXPORT jint JNICALL
+Java_com_backyardbrains_utils_JniUtils_decimate(JNIEnv *env, jobject thiz, jlong decimator, jobject in, jobject out);
+JNIEXPORT void JNICALL
+Java_com_backyardbrains_utils_JniUtils_releaseDecimator(JNIEnv *env, jobject thiz, jlong decimator);
+JNIEXPORT jlong JNICALL
+Java_com_backyardbrains_utils_JniUtils_createEnvelopePyramid(JNIEnv *env, jobject thiz, jint size);
+JNIEXPORT void JNICALL
+Java_com_backyardbrains_utils_JniUtils_appendToEnvelopePyramid(JNIEnv *env, jobject thiz, jlong pyramid,
+                                                               jshortArray inSamples, jint offset, jint length);
+JNIEXPORT void JNICALL
+Java_com_backyardbrains_utils_JniUtils_clearEnvelopePyramid(JNIEnv *env, jobject thiz, jlong pyramid);
+JNIEXPORT jint JNICALL
+Java_com_backyardbrains_utils_JniUtils_prepareForPyramidDrawing(JNIEnv *env, jobject thiz, jlong pyramid, jobject out,
+                                                                jintArray inEventIndices, jint eventCount, jint start,
+                                                                jint end, jint drawSurfaceWidth);
+JNIEXPORT void JNICALL
+Java_com_backyardbrains_utils_JniUtils_releaseEnvelopePyramid(JNIEnv *env, jobject thiz, jlong pyramid);
+JNIEXPORT void JNICALL
+Java_com_backyardbrains_utils_JniUtils_getTransferStats(JNIEnv *env, jobject thiz, jlongArray out);
+JNIEXPORT void JNICALL
+Java_com_backyardbrains_utils_JniUtils_resetTransferStats(JNIEnv *env, jobject thiz);
 JNIEXPORT void JNICALL
 Java_com_backyardbrains_utils_JniUtils_prepareForDrawing(JNIEnv *env, jobject thiz, jobject out, jshortArray inSamples,
                                                          jintArray inEventIndices, jint eventCount, jint start,
                                                          jint end, jint drawSurfaceWidth);
 JNIEXPORT void JNICALL
 Java_com_backyardbrains_utils_JniUtils_prepareForThresholdDrawing(JNIEnv *env, jobject thiz, jobject out,
-                                                                  jshortArray inSamples, jintArray inEventIndices,
-                                                                  jint eventCount, jint start, jint end,
-                                                                  jint drawSurfaceWidth);
+                                                                  jshortArray inSamples, jint offset,
+                                                                  jintArray inEventIndices, jint eventCount, jint start,
+                                                                  jint end, jint drawSurfaceWidth);
 JNIEXPORT jintArray JNICALL
 Java_com_backyardbrains_utils_JniUtils_findSpikes(JNIEnv *env, jobject thiz, jstring filePath, jshortArray valuesPos,
                                                   jintArray indicesPos, jfloatArray timesPos, jshortArray valuesNeg,
@@ -111,6 +168,35 @@ jfieldID eventIndicesFid;
 jfieldID eventNamesFid;
 jfieldID eventCountFid;
 jfieldID lastSampleIndexFid;
+jfieldID samplesBufferFid;
+jfieldID channelCountFid;
+jfieldID channelCapacityFid;
+jfieldID droppedSampleCountFid;
+
+// Max number of events that can be passed back to java in one batch when processing through direct buffers
+static constexpr int MAX_DIRECT_EVENTS = SampleStreamProcessor::MAX_EVENTS;
+// Preallocated event buffers used when processing through direct buffers
+jint directEventIndices[MAX_DIRECT_EVENTS];
+jint directEventPositions[MAX_DIRECT_EVENTS];
+std::string directEventNames[MAX_DIRECT_EVENTS];
+// Holds incoming samples passed to threshold processor through java array
+jshort *thresholdInSamples = NULL;
+jint thresholdInSampleCount = 0;
+// Holds interleaved samples of a file with multiple channels while they are split into channels in place
+jshort *playbackInSamples = NULL;
+jint playbackInSampleCount = 0;
+// Max number of events passed to threshold processor in one batch
+static constexpr int MAX_THRESHOLD_EVENTS = SampleStreamProcessor::MAX_EVENTS;
+// Number of zeros that are copied at once to averaged samples that don't belong to any sweep
+static constexpr int ZERO_SAMPLE_COUNT = 1024;
+static const jshort ZERO_SAMPLES[ZERO_SAMPLE_COUNT] = {0};
+
+// Counters of processed buffers, copies between java and native memory, number of copied bytes and number of
+// allocated native buffers while processing incoming samples
+std::atomic<jlong> transferBufferCount(0);
+std::atomic<jlong> transferCopyCount(0);
+std::atomic<jlong> transferCopiedBytes(0);
+std::atomic<jlong> transferAllocationCount(0);
 
 class HeartbeatListener : public OnHeartbeatListener {
 public:
@@ -161,6 +247,89 @@ static jboolean exception_check(JNIEnv *env) {
     return (JNI_FALSE);
 }
 
+// Updates transfer counters with a processed buffer that required specified number of copies and allocations
+static void countTransfer(jint copyCount, jlong copiedBytes, jint allocationCount) {
+    transferBufferCount++;
+    transferCopyCount += copyCount;
+    transferCopiedBytes += copiedBytes;
+    transferAllocationCount += allocationCount;
+}
+
+// Returns address of the direct buffer that backs samples of the specified SamplesWithEvents object and saves it's
+// capacity (in samples) to specified capacity. Returns NULL if samples are not backed by a direct buffer.
+static jshort *getDirectSamples(JNIEnv *env, jobject out, jint *capacity) {
+    jobject samplesBuffer = env->GetObjectField(out, samplesBufferFid);
+    if (samplesBuffer == NULL) return NULL;
+
+    jshort *samplesPtr = static_cast<jshort *>(env->GetDirectBufferAddress(samplesBuffer));
+    *capacity = static_cast<jint>(env->GetDirectBufferCapacity(samplesBuffer));
+    env->DeleteLocalRef(samplesBuffer);
+
+    return samplesPtr;
+}
+
+// Returns number of triggers whose averaged samples fit into specified SamplesWithEvents object that can hold capacity
+// samples, averaged samples of every trigger are copied to it's own channel. Number of averaged samples per trigger
+// that fit is saved to sampleCount and capacity of every channel to channelCapacity. If object already holds averaged
+// samples of the same triggers from the previous call (it's sample and channel counts match) populated is left as is so
+// only samples that changed can be copied, otherwise it's cleared and all of them need to be copied.
+static jint getThresholdLayout(JNIEnv *env, jobject out, jint capacity, jint *channelCapacity, jint *sampleCount,
+                               bool *populated) {
+    *channelCapacity = std::max(1, std::min(env->GetIntField(out, channelCapacityFid), capacity));
+    jint triggerCount = std::min(thresholdProcessor->getProcessedTriggerCount(), capacity / *channelCapacity);
+    *sampleCount = triggerCount > 0 ? std::min(thresholdProcessor->sampleCount, *channelCapacity) : 0;
+    *populated = *populated && env->GetIntField(out, sampleCountFid) == *sampleCount &&
+                 env->GetIntField(out, channelCountFid) == std::max(1, triggerCount);
+    return triggerCount;
+}
+
+// Saves range of averaged samples of specified trigger that needs to be copied to from and to, samples from sweepEnd
+// onwards are not part of the trigger's sweep and need to be cleared
+static void getThresholdCopyRange(jint trigger, jint sampleCount, bool populated, jint *from, jint *to,
+                                  jint *sweepEnd) {
+    *to = populated ? std::min(thresholdProcessor->getDirtyEnd(trigger), sampleCount) : sampleCount;
+    *from = populated ? std::min(thresholdProcessor->getDirtyStart(trigger), *to) : 0;
+    *sweepEnd = std::min(thresholdProcessor->getSweepSampleCount(trigger), sampleCount);
+}
+
+// Passes incoming samples and events to threshold processor, event labels are only held for the duration of the call
+static void processThreshold(JNIEnv *env, const jshort *inSamples, jint length, jintArray inEventIndices,
+                             jobjectArray inEventNames, jint inEventCount) {
+    jint eventCount = std::max(0, std::min(inEventCount, MAX_THRESHOLD_EVENTS));
+    jint eventIndices[MAX_THRESHOLD_EVENTS];
+    jstring eventNames[MAX_THRESHOLD_EVENTS];
+    const char *eventLabels[MAX_THRESHOLD_EVENTS];
+    if (eventCount > 0) {
+        env->GetIntArrayRegion(inEventIndices, 0, eventCount, eventIndices);
+
+        // exception check
+        if (exception_check(env)) return;
+    }
+    for (int i = 0; i < eventCount; i++) {
+        eventNames[i] = (jstring) env->GetObjectArrayElement(inEventNames, i);
+        eventLabels[i] = eventNames[i] != NULL ? env->GetStringUTFChars(eventNames[i], JNI_FALSE) : nullptr;
+    }
+
+    thresholdProcessor->process(inSamples, length, eventCount > 0 ? eventIndices : nullptr,
+                                eventCount > 0 ? eventLabels : nullptr, eventCount);
+
+    for (int i = 0; i < eventCount; i++) {
+        if (eventNames[i] == NULL) continue;
+
+        env->ReleaseStringUTFChars(eventNames[i], eventLabels[i]);
+        env->DeleteLocalRef(eventNames[i]);
+    }
+}
+
+// Copies frameCount frames of channelCount interleaved channels from in to out so samples of channel i start at
+// i * channelCapacity
+static void deinterleave(const jshort *in, jint frameCount, jint channelCount, jshort *out, jint channelCapacity) {
+    for (int c = 0; c < channelCount; c++) {
+        jshort *outChannel = out + c * channelCapacity;
+        for (int i = 0; i < frameCount; i++) outChannel[i] = in[i * channelCount + c];
+    }
+}
+
 JNIEXPORT jint JNI_OnLoad(JavaVM *vm, void *reserved) {
     // save VM for later reference
     ::vm = vm;
@@ -188,6 +357,10 @@ JNIEXPORT jint JNI_OnLoad(JavaVM *vm, void *reserved) {
     eventNamesFid = env->GetFieldID(cls, "eventNames", "[Ljava/lang/String;");
     eventCountFid = env->GetFieldID(cls, "eventCount", "I");
     lastSampleIndexFid = env->GetFieldID(cls, "lastSampleIndex", "J");
+    samplesBufferFid = env->GetFieldID(cls, "samplesBuffer", "Ljava/nio/ShortBuffer;");
+    channelCountFid = env->GetFieldID(cls, "channelCount", "I");
+    channelCapacityFid = env->GetFieldID(cls, "channelCapacity", "I");
+    droppedSampleCountFid = env->GetFieldID(cls, "droppedSampleCount", "I");
 
     return JNI_VERSION_1_6;
 }
@@ -231,10 +404,11 @@ Java_com_backyardbrains_utils_JniUtils_setChannelCount(JNIEnv *env, jobject thiz
 }
 
 JNIEXPORT void JNICALL
-Java_com_backyardbrains_utils_JniUtils_setFilters(JNIEnv *env, jobject thiz, jfloat lowCutOff, jfloat highCutOff) {
-    amModulationProcessor->setFilters(lowCutOff, highCutOff);
-    sampleStreamProcessor->setFilters(lowCutOff, highCutOff);
-    thresholdProcessor->setFilters(lowCutOff, highCutOff);
+Java_com_backyardbrains_utils_JniUtils_setFilters(JNIEnv *env, jobject thiz, jfloat lowCutOff, jfloat highCutOff,
+                                                  jint mainsHarmonicCount) {
+    amModulationProcessor->setFilters(lowCutOff, highCutOff, mainsHarmonicCount);
+    sampleStreamProcessor->setFilters(lowCutOff, highCutOff, mainsHarmonicCount);
+    thresholdProcessor->setFilters(lowCutOff, highCutOff, mainsHarmonicCount);
 }
 
 JNIEXPORT void JNICALL
@@ -249,6 +423,9 @@ Java_com_backyardbrains_utils_JniUtils_processSampleStream(JNIEnv *env, jobject
 
     jint sampleCount = env->GetArrayLength(samples);
     jint eventCount = env->GetArrayLength(eventIndices);
+    // samples of all channels are returned in planar layout, each channel has the same fixed capacity
+    jint channelCapacity = std::max(1, std::min(env->GetIntField(out, channelCapacityFid), sampleCount));
+    jint maxChannelCount = sampleCount / channelCapacity;
 
     jbyte *inBytesPtr = new jbyte[length];
     env->GetByteArrayRegion(inBytes, 0, length, inBytesPtr);
@@ -268,8 +445,9 @@ Java_com_backyardbrains_utils_JniUtils_processSampleStream(JNIEnv *env, jobject
     jshort *outSamplesPtr = new jshort[sampleCount];
     jint *outEventIndicesPtr = new jint[eventCount];
     std::string *outEventNamesPtr = new std::string[eventCount];
-    jint *outCounts = new jint[2];
-    sampleStreamProcessor->process(uInBytesPtr, length, outSamplesPtr, outEventIndicesPtr, outEventNamesPtr, outCounts);
+    jint *outCounts = new jint[3];
+    sampleStreamProcessor->process(uInBytesPtr, length, outSamplesPtr, channelCapacity, maxChannelCount,
+                                   outEventIndicesPtr, outEventNamesPtr, outCounts);
 
     // if we did get some events create array of strings that represent event names and populate it
     for (int i = 0; i < outCounts[1]; i++) {
@@ -287,10 +465,15 @@ Java_com_backyardbrains_utils_JniUtils_processSampleStream(JNIEnv *env, jobject
         return;
     }
 
-    env->SetShortArrayRegion(samples, 0, outCounts[0], outSamplesPtr);
+    for (int i = 0; i < outCounts[2]; i++) {
+        env->SetShortArrayRegion(samples, i * channelCapacity, outCounts[0], outSamplesPtr + i * channelCapacity);
+    }
     env->SetIntField(out, sampleCountFid, outCounts[0]);
+    env->SetIntField(out, channelCountFid, outCounts[2]);
     env->SetIntArrayRegion(eventIndices, 0, outCounts[1], outEventIndicesPtr);
     env->SetIntField(out, eventCountFid, outCounts[1]);
+    countTransfer(2 + outCounts[2] + 1,
+                  length * 2 + outCounts[0] * outCounts[2] * sizeof(jshort) + outCounts[1] * sizeof(jint), 6);
     delete[] inBytesPtr;
     delete[] uInBytesPtr;
     delete[] outSamplesPtr;
@@ -337,6 +520,7 @@ Java_com_backyardbrains_utils_JniUtils_processMicrophoneStream(JNIEnv *env, jobj
 
     env->SetShortArrayRegion(samples, 0, sampleCount, outSamplesPtr);
     env->SetIntField(out, sampleCountFid, sampleCount);
+    countTransfer(2, length + sampleCount * sizeof(jshort), 2);
     delete[] inBytesPtr;
     delete[] outSamplesPtr;
 }
@@ -366,8 +550,18 @@ Java_com_backyardbrains_utils_JniUtils_processPlaybackStream(JNIEnv *env, jobjec
         return;
     }
 
+    // playback of a file with multiple channels passes interleaved samples which need to be split into channels
+    jint capacity = env->GetArrayLength(samples);
+    jint channelCapacity = std::max(1, std::min(env->GetIntField(out, channelCapacityFid), capacity));
+    jint channelCount = std::max(1, std::min(env->GetIntField(out, channelCountFid), capacity / channelCapacity));
     jint sampleCount = length / 2;
     jshort *outSamplesPtr = reinterpret_cast<short *>(inBytesPtr);
+    jshort *planarSamplesPtr = NULL;
+    if (channelCount > 1) {
+        sampleCount = std::min(sampleCount / channelCount, channelCapacity);
+        planarSamplesPtr = new jshort[sampleCount * channelCount];
+        deinterleave(outSamplesPtr, sampleCount, channelCount, planarSamplesPtr, sampleCount);
+    }
     jint *outEventIndicesPtr = new jint[inEventCount];
 
     jint eventCounter = 0;
@@ -389,17 +583,28 @@ Java_com_backyardbrains_utils_JniUtils_processPlaybackStream(JNIEnv *env, jobjec
         delete[] inBytesPtr;
         delete[] inEventIndicesPtr;
         delete[] outEventIndicesPtr;
+        delete[] planarSamplesPtr;
         return;
     }
 
-    env->SetShortArrayRegion(samples, 0, sampleCount, outSamplesPtr);
+    if (planarSamplesPtr != NULL) {
+        for (int i = 0; i < channelCount; i++) {
+            env->SetShortArrayRegion(samples, i * channelCapacity, sampleCount, planarSamplesPtr + i * sampleCount);
+        }
+    } else {
+        env->SetShortArrayRegion(samples, 0, sampleCount, outSamplesPtr);
+    }
     env->SetIntField(out, sampleCountFid, sampleCount);
     env->SetIntArrayRegion(eventIndices, 0, eventCounter, outEventIndicesPtr);
     env->SetIntField(out, eventCountFid, eventCounter);
     env->SetLongField(out, lastSampleIndexFid, prepend + end);
+    countTransfer(planarSamplesPtr != NULL ? 4 + channelCount : 4,
+                  length * (planarSamplesPtr != NULL ? 3 : 2) + (inEventCount + eventCounter) * sizeof(jint),
+                  planarSamplesPtr != NULL ? 4 : 3);
     delete[] inBytesPtr;
     delete[] inEventIndicesPtr;
     delete[] outEventIndicesPtr;
+    delete[] planarSamplesPtr;
 }
 
 JNIEXPORT jint JNICALL
@@ -417,6 +622,70 @@ Java_com_backyardbrains_utils_JniUtils_setThreshold(JNIEnv *env, jobject thiz, j
     thresholdProcessor->setThreshold(threshold);
 }
 
+JNIEXPORT void JNICALL
+Java_com_backyardbrains_utils_JniUtils_setTriggers(JNIEnv *env, jobject thiz, jintArray lowerBounds,
+                                                   jintArray upperBounds, jbooleanArray risingSlopes,
+                                                   jfloatArray deadTimes) {
+    jint count = std::min(std::min(env->GetArrayLength(lowerBounds), env->GetArrayLength(upperBounds)),
+                          std::min(env->GetArrayLength(risingSlopes), env->GetArrayLength(deadTimes)));
+    count = std::min(count, (jint) ThresholdProcessor::MAX_TRIGGERS);
+    jint lowerBoundsPtr[ThresholdProcessor::MAX_TRIGGERS];
+    jint upperBoundsPtr[ThresholdProcessor::MAX_TRIGGERS];
+    jboolean risingSlopesPtr[ThresholdProcessor::MAX_TRIGGERS];
+    jfloat deadTimesPtr[ThresholdProcessor::MAX_TRIGGERS];
+    env->GetIntArrayRegion(lowerBounds, 0, count, lowerBoundsPtr);
+    env->GetIntArrayRegion(upperBounds, 0, count, upperBoundsPtr);
+    env->GetBooleanArrayRegion(risingSlopes, 0, count, risingSlopesPtr);
+    env->GetFloatArrayRegion(deadTimes, 0, count, deadTimesPtr);
+
+    // exception check
+    if (exception_check(env)) return;
+
+    ThresholdProcessor::TriggerSettings triggers[ThresholdProcessor::MAX_TRIGGERS];
+    for (int t = 0; t < count; t++) {
+        triggers[t].lowerBound = lowerBoundsPtr[t];
+        triggers[t].upperBound = upperBoundsPtr[t];
+        triggers[t].risingSlope = risingSlopesPtr[t] == JNI_TRUE;
+        triggers[t].deadTimeSeconds = deadTimesPtr[t];
+    }
+    thresholdProcessor->setTriggers(triggers, count);
+}
+
+JNIEXPORT void JNICALL
+Java_com_backyardbrains_utils_JniUtils_setEventTriggers(JNIEnv *env, jobject thiz, jobjectArray eventNames,
+                                                        jfloatArray preEventTimes, jfloatArray postEventTimes) {
+    jint count = std::min(env->GetArrayLength(eventNames),
+                          std::min(env->GetArrayLength(preEventTimes), env->GetArrayLength(postEventTimes)));
+    count = std::min(count, (jint) ThresholdProcessor::MAX_TRIGGERS);
+    jfloat preEventTimesPtr[ThresholdProcessor::MAX_TRIGGERS];
+    jfloat postEventTimesPtr[ThresholdProcessor::MAX_TRIGGERS];
+    env->GetFloatArrayRegion(preEventTimes, 0, count, preEventTimesPtr);
+    env->GetFloatArrayRegion(postEventTimes, 0, count, postEventTimesPtr);
+
+    // exception check
+    if (exception_check(env)) return;
+
+    ThresholdProcessor::TriggerSettings triggers[ThresholdProcessor::MAX_TRIGGERS];
+    for (int t = 0; t < count; t++) {
+        jstring eventName = (jstring) env->GetObjectArrayElement(eventNames, t);
+        if (eventName != NULL) {
+            const char *eventNamePtr = env->GetStringUTFChars(eventName, JNI_FALSE);
+            strncpy(triggers[t].eventLabel, eventNamePtr, ThresholdProcessor::MAX_EVENT_LABEL_LENGTH);
+            triggers[t].eventLabel[ThresholdProcessor::MAX_EVENT_LABEL_LENGTH] = '\0';
+            env->ReleaseStringUTFChars(eventName, eventNamePtr);
+            env->DeleteLocalRef(eventName);
+        }
+        triggers[t].preEventSeconds = preEventTimesPtr[t];
+        triggers[t].postEventSeconds = postEventTimesPtr[t];
+    }
+    thresholdProcessor->setTriggers(triggers, count);
+}
+
+JNIEXPORT jint JNICALL
+Java_com_backyardbrains_utils_JniUtils_getTriggerCount(JNIEnv *env, jobject thiz) {
+    return thresholdProcessor->getTriggerCount();
+}
+
 JNIEXPORT void JNICALL
 Java_com_backyardbrains_utils_JniUtils_setBpmProcessing(JNIEnv *env, jobject thiz, jboolean processBpm) {
     thresholdProcessor->setBpmProcessing(processBpm);
@@ -424,34 +693,423 @@ Java_com_backyardbrains_utils_JniUtils_setBpmProcessing(JNIEnv *env, jobject thi
 
 JNIEXPORT void JNICALL
 Java_com_backyardbrains_utils_JniUtils_processThreshold(JNIEnv *env, jobject thiz, jobject out, jshortArray inSamples,
-                                                        jint length) {
+                                                        jint length, jintArray inEventIndices,
+                                                        jobjectArray inEventNames, jint inEventCount) {
     jobject samplesObj = env->GetObjectField(out, samplesFid);
     jshortArray samples = reinterpret_cast<jshortArray>(samplesObj);
 
-    jshort *inSamplesPtr = new jshort[length];
-    env->GetShortArrayRegion(inSamples, 0, length, inSamplesPtr);
+    jint allocationCount = 0;
+    if (thresholdInSampleCount < length) {
+        delete[] thresholdInSamples;
+        thresholdInSamples = new jshort[length];
+        thresholdInSampleCount = length;
+        allocationCount++;
+    }
+    env->GetShortArrayRegion(inSamples, 0, length, thresholdInSamples);
 
     // exception check
-    if (exception_check(env)) {
-        delete[] inSamplesPtr;
+    if (exception_check(env)) return;
+
+    processThreshold(env, thresholdInSamples, length, inEventIndices, inEventNames, inEventCount);
+
+    // only averaged samples that changed are copied, every trigger to it's own channel
+    jint channelCapacity, sampleCount;
+    bool populated = true;
+    jint triggerCount = getThresholdLayout(env, out, env->GetArrayLength(samples), &channelCapacity, &sampleCount,
+                                           &populated);
+    jint copyCount = 1, copiedSampleCount = length;
+    for (int t = 0; t < triggerCount; t++) {
+        jint from, to, sweepEnd;
+        getThresholdCopyRange(t, sampleCount, populated, &from, &to, &sweepEnd);
+        if (from >= to) continue;
+
+        if (from < sweepEnd) {
+            env->SetShortArrayRegion(samples, t * channelCapacity + from, std::min(to, sweepEnd) - from,
+                                     thresholdProcessor->getAveragedSamples(t) + from);
+        }
+        for (jint i = std::max(from, sweepEnd); i < to; i += ZERO_SAMPLE_COUNT) {
+            env->SetShortArrayRegion(samples, t * channelCapacity + i, std::min(to - i, ZERO_SAMPLE_COUNT),
+                                     ZERO_SAMPLES);
+        }
+        copyCount++;
+        copiedSampleCount += to - from;
+    }
+
+    // exception check
+    if (exception_check(env)) return;
+
+    env->SetIntField(out, sampleCountFid, sampleCount);
+    env->SetIntField(out, channelCountFid, std::max(1, triggerCount));
+    countTransfer(copyCount, copiedSampleCount * sizeof(jshort), allocationCount);
+}
+
+JNIEXPORT jboolean JNICALL
+Java_com_backyardbrains_utils_JniUtils_isDirectBufferAccessSupported(JNIEnv *env, jobject thiz) {
+    jbyte probe[1];
+    jobject buffer = env->NewDirectByteBuffer(probe, 1);
+    if (buffer == NULL) {
+        exception_check(env);
+        return JNI_FALSE;
+    }
+
+    jboolean supported = static_cast<jboolean>(env->GetDirectBufferAddress(buffer) == probe);
+    env->DeleteLocalRef(buffer);
+
+    return supported;
+}
+
+JNIEXPORT void JNICALL
+Java_com_backyardbrains_utils_JniUtils_processSampleStreamDirect(JNIEnv *env, jobject thiz, jobject out,
+                                                                 jobject inBytes, jint length,
+                                                                 jobject sampleSourceObject) {
+    jint sampleCapacity = 0;
+    jshort *outSamplesPtr = getDirectSamples(env, out, &sampleCapacity);
+    unsigned char *inBytesPtr = static_cast<unsigned char *>(env->GetDirectBufferAddress(inBytes));
+    if (outSamplesPtr == NULL || inBytesPtr == NULL) {
+        env->SetIntField(out, sampleCountFid, 0);
+        env->SetIntField(out, eventCountFid, 0);
         return;
     }
+    // samples of all channels are returned in planar layout, each channel has the same fixed capacity
+    jint channelCapacity = std::max(1, std::min(env->GetIntField(out, channelCapacityFid), sampleCapacity));
+    jint maxChannelCount = sampleCapacity / channelCapacity;
+    // every sample takes at least two bytes so we cannot get more samples then half of the incoming bytes, callers
+    // shouldn't pass more than that but if they do bytes that don't fit are reported as dropped
+    jint droppedLength = std::max(0, length - sampleCapacity * 2);
+    length -= droppedLength;
 
-    jint sampleCount = thresholdProcessor->sampleCount;
-    jshort *outSamplesPtr = new jshort[sampleCount];
-    thresholdProcessor->process(inSamplesPtr, outSamplesPtr, length);
+    // pass sample source object to event listener so proper method can be triggered on it when necessary
+    eventListener->setSampleSourceObj(sampleSourceObject);
+
+    jint outCounts[3];
+    sampleStreamProcessor->process(inBytesPtr, length, outSamplesPtr, channelCapacity, maxChannelCount,
+                                   directEventIndices, directEventNames, outCounts);
+
+    // events are rare so we only need to touch java arrays when we actually get some
+    if (outCounts[1] > 0) {
+        jobject eventIndicesObj = env->GetObjectField(out, eventIndicesFid);
+        jintArray eventIndices = reinterpret_cast<jintArray>(eventIndicesObj);
+        jobject eventNamesObj = env->GetObjectField(out, eventNamesFid);
+        jobjectArray eventNames = reinterpret_cast<jobjectArray>(eventNamesObj);
+
+        for (int i = 0; i < outCounts[1]; i++) {
+            jstring eventName = env->NewStringUTF(directEventNames[i].c_str());
+            env->SetObjectArrayElement(eventNames, i, eventName);
+            env->DeleteLocalRef(eventName);
+        }
+        env->SetIntArrayRegion(eventIndices, 0, outCounts[1], directEventIndices);
+
+        // exception check
+        if (exception_check(env)) outCounts[1] = 0;
+    }
+
+    env->SetIntField(out, sampleCountFid, outCounts[0]);
+    env->SetIntField(out, channelCountFid, outCounts[2]);
+    env->SetIntField(out, eventCountFid, outCounts[1]);
+    if (droppedLength > 0) {
+        jint droppedSampleCount = droppedLength / (2 * std::max(1, outCounts[2]));
+        env->SetIntField(out, droppedSampleCountFid, env->GetIntField(out, droppedSampleCountFid) + droppedSampleCount);
+    }
+    countTransfer(outCounts[1] > 0 ? 1 : 0, outCounts[1] * sizeof(jint), 0);
+}
+
+JNIEXPORT void JNICALL
+Java_com_backyardbrains_utils_JniUtils_processMicrophoneStreamDirect(JNIEnv *env, jobject thiz, jobject out,
+                                                                     jobject inBytes, jint length) {
+    jint sampleCapacity = 0;
+    jshort *outSamplesPtr = getDirectSamples(env, out, &sampleCapacity);
+    jshort *inSamplesPtr = static_cast<jshort *>(env->GetDirectBufferAddress(inBytes));
+    if (outSamplesPtr == NULL || inSamplesPtr == NULL) {
+        env->SetIntField(out, sampleCountFid, 0);
+        return;
+    }
+
+    jint sampleCount = std::min(length / 2, sampleCapacity);
+    jboolean isReceivingAmSignalBefore = static_cast<jboolean>(amModulationProcessor->isReceivingAmSignal());
+    amModulationProcessor->process(inSamplesPtr, outSamplesPtr, sampleCount);
+    jboolean isReceivingAmSignalAfter = static_cast<jboolean>(amModulationProcessor->isReceivingAmSignal());
+    if (isReceivingAmSignalBefore != isReceivingAmSignalAfter) {
+        jniHelper.invokeStaticVoid(vm, "onAmDemodulationChange", "(Z)V", isReceivingAmSignalAfter);
+    }
 
     // exception check
-    if (exception_check(env)) {
-        delete[] inSamplesPtr;
-        delete[] outSamplesPtr;
+    if (exception_check(env)) sampleCount = 0;
+
+    env->SetIntField(out, sampleCountFid, sampleCount);
+    countTransfer(0, 0, 0);
+}
+
+JNIEXPORT void JNICALL
+Java_com_backyardbrains_utils_JniUtils_processPlaybackStreamDirect(JNIEnv *env, jobject thiz, jobject out,
+                                                                   jobject inBytes, jint length,
+                                                                   jintArray inEventIndices, jobjectArray inEventNames,
+                                                                   jint inEventCount, jlong start, jlong end,
+                                                                   jint prependSamples) {
+    jint sampleCapacity = 0;
+    jshort *outSamplesPtr = getDirectSamples(env, out, &sampleCapacity);
+    jshort *inSamplesPtr = static_cast<jshort *>(env->GetDirectBufferAddress(inBytes));
+    if (outSamplesPtr == NULL || inSamplesPtr == NULL) {
+        env->SetIntField(out, sampleCountFid, 0);
+        env->SetIntField(out, eventCountFid, 0);
         return;
     }
 
-    env->SetShortArrayRegion(samples, 0, sampleCount, outSamplesPtr);
+    // playback of a file with multiple channels passes interleaved samples which need to be split into channels
+    jint channelCapacity = std::max(1, std::min(env->GetIntField(out, channelCapacityFid), sampleCapacity));
+    jint channelCount = std::max(1, std::min(env->GetIntField(out, channelCountFid), sampleCapacity / channelCapacity));
+    jint sampleCount;
+    jint copyCount = 0;
+    jlong copiedBytes = 0;
+    jint allocationCount = 0;
+    if (channelCount > 1) {
+        sampleCount = std::min(length / 2 / channelCount, channelCapacity);
+        if (inSamplesPtr != outSamplesPtr) {
+            deinterleave(inSamplesPtr, sampleCount, channelCount, outSamplesPtr, channelCapacity);
+        } else {
+            // samples can't be split in place so we need a copy of incoming samples
+            if (playbackInSampleCount < sampleCount * channelCount) {
+                delete[] playbackInSamples;
+                playbackInSamples = new jshort[sampleCount * channelCount];
+                playbackInSampleCount = sampleCount * channelCount;
+                allocationCount++;
+            }
+            std::copy(inSamplesPtr, inSamplesPtr + sampleCount * channelCount, playbackInSamples);
+            deinterleave(playbackInSamples, sampleCount, channelCount, outSamplesPtr, channelCapacity);
+            copyCount++;
+            copiedBytes += sampleCount * channelCount * sizeof(jshort);
+        }
+        copyCount++;
+        copiedBytes += sampleCount * channelCount * sizeof(jshort);
+    } else {
+        sampleCount = std::min(length / 2, sampleCapacity);
+        // samples don't need any processing so if incoming bytes already back the output samples we're done
+        if (inSamplesPtr != outSamplesPtr) {
+            std::copy(inSamplesPtr, inSamplesPtr + sampleCount, outSamplesPtr);
+            copyCount++;
+            copiedBytes += sampleCount * sizeof(jshort);
+        }
+    }
+
+    // first find positions of events that fall within processed samples without making a copy of event indices...
+    jint eventCounter = 0;
+    jint prepend = std::min(0, prependSamples);
+    if (inEventCount > 0) {
+        jint *inEventIndicesPtr = static_cast<jint *>(env->GetPrimitiveArrayCritical(inEventIndices, NULL));
+        if (inEventIndicesPtr == NULL) {
+            exception_check(env);
+            inEventCount = 0;
+        }
+        for (int i = 0; i < inEventCount && eventCounter < MAX_DIRECT_EVENTS; i++) {
+            jint sampleIndex = inEventIndicesPtr[i] - prepend;
+            if (start <= sampleIndex && sampleIndex < end) {
+                directEventIndices[eventCounter] = static_cast<jint>(sampleIndex - start);
+                directEventPositions[eventCounter++] = i;
+            }
+        }
+        if (inEventIndicesPtr != NULL) env->ReleasePrimitiveArrayCritical(inEventIndices, inEventIndicesPtr, JNI_ABORT);
+    }
+
+    // ... and then pass them to java
+    if (eventCounter > 0) {
+        jobject eventIndicesObj = env->GetObjectField(out, eventIndicesFid);
+        jintArray eventIndices = reinterpret_cast<jintArray>(eventIndicesObj);
+        jobject eventNamesObj = env->GetObjectField(out, eventNamesFid);
+        jobjectArray eventNames = reinterpret_cast<jobjectArray>(eventNamesObj);
+
+        for (int i = 0; i < eventCounter; i++) {
+            jobject eventName = env->GetObjectArrayElement(inEventNames, directEventPositions[i]);
+            env->SetObjectArrayElement(eventNames, i, eventName);
+            env->DeleteLocalRef(eventName);
+        }
+        env->SetIntArrayRegion(eventIndices, 0, eventCounter, directEventIndices);
+        copyCount++;
+        copiedBytes += eventCounter * sizeof(jint);
+
+        // exception check
+        if (exception_check(env)) eventCounter = 0;
+    }
+
     env->SetIntField(out, sampleCountFid, sampleCount);
-    delete[] inSamplesPtr;
-    delete[] outSamplesPtr;
+    env->SetIntField(out, eventCountFid, eventCounter);
+    env->SetLongField(out, lastSampleIndexFid, prepend + end);
+    countTransfer(copyCount, copiedBytes, allocationCount);
+}
+
+JNIEXPORT void JNICALL
+Java_com_backyardbrains_utils_JniUtils_processThresholdDirect(JNIEnv *env, jobject thiz, jobject out,
+                                                              jobject inSamples, jint length, jintArray inEventIndices,
+                                                              jobjectArray inEventNames, jint inEventCount) {
+    jint sampleCapacity = 0;
+    jshort *outSamplesPtr = getDirectSamples(env, out, &sampleCapacity);
+    jshort *inSamplesPtr = static_cast<jshort *>(env->GetDirectBufferAddress(inSamples));
+    if (outSamplesPtr == NULL || inSamplesPtr == NULL) {
+        env->SetIntField(out, sampleCountFid, 0);
+        return;
+    }
+
+    processThreshold(env, inSamplesPtr, length, inEventIndices, inEventNames, inEventCount);
+
+    // only averaged samples that changed are copied, every trigger to it's own channel, unless averaged samples are
+    // written over the incoming ones
+    jint channelCapacity, sampleCount;
+    bool populated = outSamplesPtr != inSamplesPtr;
+    jint triggerCount = getThresholdLayout(env, out, sampleCapacity, &channelCapacity, &sampleCount, &populated);
+    jint copyCount = 0, copiedSampleCount = 0;
+    for (int t = 0; t < triggerCount; t++) {
+        jint from, to, sweepEnd;
+        getThresholdCopyRange(t, sampleCount, populated, &from, &to, &sweepEnd);
+        if (from >= to) continue;
+
+        const short *averagedSamples = thresholdProcessor->getAveragedSamples(t);
+        jshort *channelPtr = outSamplesPtr + t * channelCapacity;
+        if (from < sweepEnd) {
+            std::copy(averagedSamples + from, averagedSamples + std::min(to, sweepEnd), channelPtr + from);
+        }
+        if (to > sweepEnd) std::fill(channelPtr + std::max(from, sweepEnd), channelPtr + to, 0);
+        copyCount++;
+        copiedSampleCount += to - from;
+    }
+    countTransfer(copyCount, copiedSampleCount * sizeof(jshort), 0);
+
+    env->SetIntField(out, sampleCountFid, sampleCount);
+    env->SetIntField(out, channelCountFid, std::max(1, triggerCount));
+}
+
+JNIEXPORT jlong JNICALL
+Java_com_backyardbrains_utils_JniUtils_createDecimator(JNIEnv *env, jobject thiz, jint factor, jint channelCount) {
+    return reinterpret_cast<jlong>(new PolyphaseDecimator(factor, channelCount));
+}
+
+JNIEXPORT jint JNICALL
+Java_com_backyardbrains_utils_JniUtils_decimate(JNIEnv *env, jobject thiz, jlong decimator, jobject in, jobject out) {
+    PolyphaseDecimator *polyphaseDecimator = reinterpret_cast<PolyphaseDecimator *>(decimator);
+    jint sampleCount = env->GetIntField(in, sampleCountFid);
+    jint channelCount = std::min(env->GetIntField(in, channelCountFid), polyphaseDecimator->getChannelCount());
+    jint inChannelCapacity = env->GetIntField(in, channelCapacityFid);
+    jint outChannelCapacity = env->GetIntField(out, channelCapacityFid);
+    // samples that don't fit into the output are not decimated so decimator stays in phase with the output
+    sampleCount = std::min(sampleCount, polyphaseDecimator->getMaxInputCount(outChannelCapacity));
+
+    // both holders can either be backed by direct buffers or by arrays, arrays are accessed without copying
+    jint capacity = 0;
+    jshortArray inSamples = NULL;
+    jshortArray outSamples = NULL;
+    jshort *inSamplesPtr = getDirectSamples(env, in, &capacity);
+    if (inSamplesPtr == NULL) inSamples = reinterpret_cast<jshortArray>(env->GetObjectField(in, samplesFid));
+    jshort *outSamplesPtr = getDirectSamples(env, out, &capacity);
+    if (outSamplesPtr == NULL) outSamples = reinterpret_cast<jshortArray>(env->GetObjectField(out, samplesFid));
+
+    // no other JNI calls are allowed while arrays are held
+    if (inSamples != NULL) inSamplesPtr = static_cast<jshort *>(env->GetPrimitiveArrayCritical(inSamples, NULL));
+    if (outSamples != NULL) outSamplesPtr = static_cast<jshort *>(env->GetPrimitiveArrayCritical(outSamples, NULL));
+
+    jint outSampleCount = 0;
+    if (inSamplesPtr != NULL && outSamplesPtr != NULL) {
+        outSampleCount = polyphaseDecimator->process(inSamplesPtr, inChannelCapacity, outSamplesPtr,
+                                                     outChannelCapacity, channelCount, sampleCount);
+    }
+
+    if (outSamples != NULL && outSamplesPtr != NULL) env->ReleasePrimitiveArrayCritical(outSamples, outSamplesPtr, 0);
+    if (inSamples != NULL && inSamplesPtr != NULL) {
+        env->ReleasePrimitiveArrayCritical(inSamples, inSamplesPtr, JNI_ABORT);
+    }
+    if (outSamples != NULL) env->DeleteLocalRef(outSamples);
+    if (inSamples != NULL) env->DeleteLocalRef(inSamples);
+
+    env->SetIntField(out, sampleCountFid, outSampleCount);
+    env->SetIntField(out, channelCountFid, channelCount);
+
+    return sampleCount;
+}
+
+JNIEXPORT void JNICALL
+Java_com_backyardbrains_utils_JniUtils_releaseDecimator(JNIEnv *env, jobject thiz, jlong decimator) {
+    delete reinterpret_cast<PolyphaseDecimator *>(decimator);
+}
+
+JNIEXPORT jlong JNICALL
+Java_com_backyardbrains_utils_JniUtils_createEnvelopePyramid(JNIEnv *env, jobject thiz, jint size) {
+    return reinterpret_cast<jlong>(new EnvelopePyramid(size));
+}
+
+JNIEXPORT void JNICALL
+Java_com_backyardbrains_utils_JniUtils_appendToEnvelopePyramid(JNIEnv *env, jobject thiz, jlong pyramid,
+                                                               jshortArray inSamples, jint offset, jint length) {
+    length = std::min(length, env->GetArrayLength(inSamples) - offset);
+    if (offset < 0 || length <= 0) return;
+    jshort *inSamplesPtr = static_cast<jshort *>(env->GetPrimitiveArrayCritical(inSamples, NULL));
+    if (inSamplesPtr == NULL) return;
+
+    reinterpret_cast<EnvelopePyramid *>(pyramid)->append(inSamplesPtr + offset, length);
+    env->ReleasePrimitiveArrayCritical(inSamples, inSamplesPtr, JNI_ABORT);
+}
+
+JNIEXPORT void JNICALL
+Java_com_backyardbrains_utils_JniUtils_clearEnvelopePyramid(JNIEnv *env, jobject thiz, jlong pyramid) {
+    reinterpret_cast<EnvelopePyramid *>(pyramid)->clear();
+}
+
+JNIEXPORT jint JNICALL
+Java_com_backyardbrains_utils_JniUtils_prepareForPyramidDrawing(JNIEnv *env, jobject thiz, jlong pyramid, jobject out,
+                                                                jintArray inEventIndices, jint eventCount, jint start,
+                                                                jint end, jint drawSurfaceWidth) {
+    // vertices are written straight to the output so nothing is copied or allocated per frame
+    jint capacity = 0;
+    jshortArray samples = NULL;
+    jshort *samplesPtr = getDirectSamples(env, out, &capacity);
+    if (samplesPtr == NULL) {
+        samples = reinterpret_cast<jshortArray>(env->GetObjectField(out, samplesFid));
+        capacity = env->GetArrayLength(samples);
+    }
+    jintArray eventIndices = reinterpret_cast<jintArray>(env->GetObjectField(out, eventIndicesFid));
+    jint eventCapacity = env->GetArrayLength(eventIndices);
+    eventCount = std::min(eventCount, env->GetArrayLength(inEventIndices));
+
+    // no other JNI calls are allowed while arrays are held
+    if (samples != NULL) samplesPtr = static_cast<jshort *>(env->GetPrimitiveArrayCritical(samples, NULL));
+    jint *eventIndicesPtr = static_cast<jint *>(env->GetPrimitiveArrayCritical(eventIndices, NULL));
+    jint *inEventIndicesPtr = static_cast<jint *>(env->GetPrimitiveArrayCritical(inEventIndices, NULL));
+
+    int counts[3] = {0, 0, 0};
+    if (samplesPtr != NULL && eventIndicesPtr != NULL && inEventIndicesPtr != NULL) {
+        reinterpret_cast<EnvelopePyramid *>(pyramid)->prepareForDrawing(samplesPtr, capacity, eventIndicesPtr,
+                                                                        eventCapacity, inEventIndicesPtr, eventCount,
+                                                                        start, end, drawSurfaceWidth, counts);
+    }
+
+    if (inEventIndicesPtr != NULL) env->ReleasePrimitiveArrayCritical(inEventIndices, inEventIndicesPtr, JNI_ABORT);
+    if (eventIndicesPtr != NULL) env->ReleasePrimitiveArrayCritical(eventIndices, eventIndicesPtr, 0);
+    if (samples != NULL && samplesPtr != NULL) env->ReleasePrimitiveArrayCritical(samples, samplesPtr, 0);
+    env->DeleteLocalRef(eventIndices);
+    if (samples != NULL) env->DeleteLocalRef(samples);
+
+    env->SetIntField(out, sampleCountFid, counts[0]);
+    env->SetIntField(out, eventCountFid, counts[1]);
+
+    return counts[2];
+}
+
+JNIEXPORT void JNICALL
+Java_com_backyardbrains_utils_JniUtils_releaseEnvelopePyramid(JNIEnv *env, jobject thiz, jlong pyramid) {
+    delete reinterpret_cast<EnvelopePyramid *>(pyramid);
+}
+
+JNIEXPORT void JNICALL
+Java_com_backyardbrains_utils_JniUtils_getTransferStats(JNIEnv *env, jobject thiz, jlongArray out) {
+    jlong stats[4] = {transferBufferCount.load(), transferCopyCount.load(), transferCopiedBytes.load(),
+                      transferAllocationCount.load()};
+    env->SetLongArrayRegion(out, 0, 4, stats);
+
+    // exception check
+    exception_check(env);
+}
+
+JNIEXPORT void JNICALL
+Java_com_backyardbrains_utils_JniUtils_resetTransferStats(JNIEnv *env, jobject thiz) {
+    transferBufferCount = 0;
+    transferCopyCount = 0;
+    transferCopiedBytes = 0;
+    transferAllocationCount = 0;
 }
 
 JNIEXPORT void JNICALL
@@ -497,16 +1155,58 @@ Java_com_backyardbrains_utils_JniUtils_prepareForDrawing(JNIEnv *env, jobject th
 
 JNIEXPORT void JNICALL
 Java_com_backyardbrains_utils_JniUtils_prepareForThresholdDrawing(JNIEnv *env, jobject thiz, jobject out,
-                                                                  jshortArray inSamples, jintArray inEventIndices,
-                                                                  jint eventCount, jint start, jint end,
-                                                                  jint drawSurfaceWidth) {
+                                                                  jshortArray inSamples, jint offset,
+                                                                  jintArray inEventIndices, jint eventCount, jint start,
+                                                                  jint end, jint drawSurfaceWidth) {
     int drawSamplesCount = end - start;
     int samplesCount = env->GetArrayLength(inSamples);
     int from = (int) ((samplesCount - drawSamplesCount) * .5);
     int to = (int) ((samplesCount + drawSamplesCount) * .5);
 
-    Java_com_backyardbrains_utils_JniUtils_prepareForDrawing(env, thiz, out, inSamples, inEventIndices, eventCount,
-                                                             from, to, drawSurfaceWidth);
+    // only the drawn part of the ring is read and vertices are written straight to the output
+    jint capacity = 0;
+    jshortArray samples = NULL;
+    jshort *samplesPtr = getDirectSamples(env, out, &capacity);
+    if (samplesPtr == NULL) {
+        samples = reinterpret_cast<jshortArray>(env->GetObjectField(out, samplesFid));
+        capacity = env->GetArrayLength(samples);
+    }
+    jintArray eventIndices = reinterpret_cast<jintArray>(env->GetObjectField(out, eventIndicesFid));
+    // every drawn event is in a different vertex
+    eventCount = std::min(eventCount, std::min(env->GetArrayLength(eventIndices), env->GetArrayLength(inEventIndices)));
+    // there are never more than two vertices per enveloped sample and two enveloped samples per pixel
+    if (capacity < std::min(drawSurfaceWidth, drawSamplesCount) * 4 || from < 0 || to > samplesCount) {
+        env->DeleteLocalRef(eventIndices);
+        if (samples != NULL) env->DeleteLocalRef(samples);
+        env->SetIntField(out, sampleCountFid, 0);
+        env->SetIntField(out, eventCountFid, 0);
+        return;
+    }
+
+    // no other JNI calls are allowed while arrays are held
+    if (samples != NULL) samplesPtr = static_cast<jshort *>(env->GetPrimitiveArrayCritical(samples, NULL));
+    jint *eventIndicesPtr = static_cast<jint *>(env->GetPrimitiveArrayCritical(eventIndices, NULL));
+    jshort *inSamplesPtr = static_cast<jshort *>(env->GetPrimitiveArrayCritical(inSamples, NULL));
+    jint *inEventIndicesPtr = static_cast<jint *>(env->GetPrimitiveArrayCritical(inEventIndices, NULL));
+
+    int counts[2] = {0, 0};
+    if (samplesPtr != NULL && eventIndicesPtr != NULL && inSamplesPtr != NULL && inEventIndicesPtr != NULL) {
+        int *returned = prepareForRingDrawing(samplesPtr, inSamplesPtr, samplesCount, offset, eventIndicesPtr,
+                                              inEventIndicesPtr, eventCount, from, to, drawSurfaceWidth);
+        counts[0] = returned[0];
+        counts[1] = returned[1];
+        delete[] returned;
+    }
+
+    if (inEventIndicesPtr != NULL) env->ReleasePrimitiveArrayCritical(inEventIndices, inEventIndicesPtr, JNI_ABORT);
+    if (inSamplesPtr != NULL) env->ReleasePrimitiveArrayCritical(inSamples, inSamplesPtr, JNI_ABORT);
+    if (eventIndicesPtr != NULL) env->ReleasePrimitiveArrayCritical(eventIndices, eventIndicesPtr, 0);
+    if (samples != NULL && samplesPtr != NULL) env->ReleasePrimitiveArrayCritical(samples, samplesPtr, 0);
+    env->DeleteLocalRef(eventIndices);
+    if (samples != NULL) env->DeleteLocalRef(samples);
+
+    env->SetIntField(out, sampleCountFid, counts[0]);
+    env->SetIntField(out, eventCountFid, counts[1]);
 }
 
 JNIEXPORT jintArray JNICALL
@@ -2,13 +2,15 @@
 // Created by Tihomir Leka <tihomir at backyardbrains.com>
 //
 
+#include <algorithm>
 #include <climits>
 
 #include "includes/drawing.h"
 
-int *envelope(short *outSamples, const short *samples, int *outEventIndices, const int *eventIndices,
-              int eventIndicesCount, int fromSample, int toSample, int size) {
+int *ringEnvelope(short *outSamples, const short *samples, int ringSize, int ringOffset, int *outEventIndices,
+                  const int *eventIndices, int eventIndicesCount, int fromSample, int toSample, int size) {
     int drawSamplesCount = toSample - fromSample;
+    if (drawSamplesCount <= 0 || ringSize <= 0) return new int[2]{0, 0};
     if (drawSamplesCount < size) size = drawSamplesCount;
 
     short sample;
@@ -19,43 +21,55 @@ int *envelope(short *outSamples, const short *samples, int *outEventIndices, con
     int envelopeCounter = 0, sampleIndex = 0, eventIndex = 0;
     bool eventExists = false;
 
-    int from = fromSample;
     int to = fromSample + drawSamplesCount;
-    for (int i = from; i < to; i++) {
-        sample = samples[i];
-        for (int j = 0; j < eventIndicesCount; j++) {
-            if (i == eventIndices[j]) {
-                eventExists = true;
-                break;
+    // samples are read as contiguous segments of the ring, there are at most two of them
+    for (int i = fromSample; i < to;) {
+        const int arrayIndex = (ringOffset + i) % ringSize;
+        const int segmentEnd = std::min(to, i + ringSize - arrayIndex);
+        const int shift = arrayIndex - i;
+        for (; i < segmentEnd; i++) {
+            sample = samples[i + shift];
+            for (int j = 0; j < eventIndicesCount; j++) {
+                if (i == eventIndices[j]) {
+                    eventExists = true;
+                    break;
+                }
             }
-        }
 
-        if (samplesPerPixel == 1 && samplesPerPixelRest == 0) {
-            if (eventExists) outEventIndices[eventIndex++] = sampleIndex;
-            outSamples[sampleIndex++] = sample;
-
-            eventExists = false;
-        } else {
-            if (sample > max) max = sample;
-            if (sample < min) min = sample;
-            if (envelopeCounter == samplesPerEnvelope) {
+            if (samplesPerPixel == 1 && samplesPerPixelRest == 0) {
                 if (eventExists) outEventIndices[eventIndex++] = sampleIndex;
-                outSamples[sampleIndex++] = max;
-                outSamples[sampleIndex++] = min;
+                outSamples[sampleIndex++] = sample;
 
-                envelopeCounter = 0;
-                min = SHRT_MAX;
-                max = SHRT_MIN;
                 eventExists = false;
-            }
+            } else {
+                if (sample > max) max = sample;
+                if (sample < min) min = sample;
+                if (envelopeCounter == samplesPerEnvelope) {
+                    if (eventExists) outEventIndices[eventIndex++] = sampleIndex;
+                    outSamples[sampleIndex++] = max;
+                    outSamples[sampleIndex++] = min;
 
-            envelopeCounter++;
+                    envelopeCounter = 0;
+                    min = SHRT_MAX;
+                    max = SHRT_MIN;
+                    eventExists = false;
+                }
+
+                envelopeCounter++;
+            }
         }
     }
 
     return new int[2]{sampleIndex, eventIndex};
 }
 
+int *envelope(short *outSamples, const short *samples, int *outEventIndices, const int *eventIndices,
+              int eventIndicesCount, int fromSample, int toSample, int size) {
+    // array is a ring that never wraps
+    return ringEnvelope(outSamples, samples, toSample, 0, outEventIndices, eventIndices, eventIndicesCount, fromSample,
+                        toSample, size);
+}
+
 /**
  *
  * @param output
@@ -72,7 +86,7 @@ int *prepareForDrawing(short *outSamples, const short *samples, int *outEventInd
                              fromSample, toSample,
                              size);
 
-    int sampleIndex = 0, sampleCount = returned[0];
+    int sampleIndex = 0, sampleCount = returned[0], eventCount = returned[1];
     short x = 0;
     for (int i = 0; i < sampleCount; i++) {
         outSamples[sampleIndex++] = x++;
@@ -82,5 +96,22 @@ int *prepareForDrawing(short *outSamples, const short *samples, int *outEventInd
     delete[] envelopedSamples;
     delete[] returned;
 
-    return new int[2]{sampleIndex, returned[1]};
-}
\ No newline at end of file
+    return new int[2]{sampleIndex, eventCount};
+}
+
+int *prepareForRingDrawing(short *outSamples, const short *samples, int ringSize, int ringOffset,
+                           int *outEventIndices, const int *eventIndices, int eventIndicesCount, int fromSample,
+                           int toSample, int size) {
+    int *returned = ringEnvelope(outSamples, samples, ringSize, ringOffset, outEventIndices, eventIndices,
+                                 eventIndicesCount, fromSample, toSample, size);
+
+    // enveloped samples are spread out in place starting from the last one so none is overwritten before it's moved
+    int sampleCount = returned[0];
+    for (int i = sampleCount - 1; i >= 0; i--) {
+        outSamples[i * 2 + 1] = outSamples[i];
+        outSamples[i * 2] = (short) i;
+    }
+    returned[0] = sampleCount * 2;
+
+    return returned;
+}
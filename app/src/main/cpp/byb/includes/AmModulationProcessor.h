@@ -6,9 +6,8 @@
 #define SPIKE_RECORDER_ANDROID_AMMODULATIONPROCESSOR_H
 
 #include "Processor.h"
-#include "NotchFilter.h"
 #include "LowPassFilter.h"
-#include "HighPassFilter.h"
+#include "FilterCascade.h"
 #include <math.h>
 #include <algorithm>
 #include <string>
@@ -36,24 +35,43 @@ private:
 
     static constexpr float SAMPLE_RATE = 44100.0f;
     static constexpr float AM_CARRIER_FREQUENCY = 5000.0f;
-    static constexpr float AM_DETECTION_CUTOFF = 6000.0f;
     static constexpr int AM_DEMODULATION_LOW_PASS_FILTER_COUNT = 3;
     static constexpr float AM_DEMODULATION_CUTOFF = 500.0f;
+    // Length of the window carrier power is measured over
+    static constexpr float AM_DETECTION_WINDOW_SECONDS = 0.01f;
+    // Max number of frequency bins carrier band (carrier +/- demodulation cutoff) is measured with
+    static constexpr int AM_DETECTION_MAX_BIN_COUNT = 16;
+    // Weight of the latest window when smoothing measured powers
+    static constexpr float AM_DETECTION_SMOOTHING = 0.1f;
+    // Signal is considered modulated when carrier band holds more than this fraction of the signal power...
+    static constexpr float AM_DETECTION_ON_FRACTION = 0.96f;
+    // ...and it stops being modulated when carrier band holds less than this fraction
+    static constexpr float AM_DETECTION_OFF_FRACTION = 0.9f;
 
     void init();
 
-    // Used for detection of the AM modulation
-    LowPassFilter amDetectionLowPassFilter;
-    // Used for detection of the AM modulation
-    NotchFilter amDetectionNotchFilter;
-    // Used for signal demodulation
-    LowPassFilter amDemodulationLowPassFilter[AM_DEMODULATION_LOW_PASS_FILTER_COUNT];
-
-    // Used to detect whether signal is modulated or not
-    float rmsOfOriginalSignal = 0;
-    float rmsOfNotchedAMSignal = 0;
+    // Measures power of the carrier band and of the whole signal and updates receivingAmSignal
+    void detectCarrier(const short *samples, int length);
+
+    // Only used to calculate coefficients of the demodulation filters
+    LowPassFilter amDemodulationLowPassFilter;
+    // Used for signal demodulation, low pass filter is applied multiple times in a single pass
+    FilterCascade amDemodulationFilters;
+
+    // Goertzel coefficients of all the bins of the carrier band and their state in the current window
+    float carrierCoefficients[AM_DETECTION_MAX_BIN_COUNT] = {0};
+    float carrierStates1[AM_DETECTION_MAX_BIN_COUNT] = {0};
+    float carrierStates2[AM_DETECTION_MAX_BIN_COUNT] = {0};
+    int carrierBinCount = 0;
+    // Energy of the signal in the current window
+    float windowEnergy = 0;
+    int windowSize = 0;
+    int windowCounter = 0;
+    // Smoothed energy of the carrier band and of the whole signal per window
+    float carrierEnergy = 0;
+    float signalEnergy = 0;
     // Average signal which we use to avoid signal offset
-    float average;
+    float average = 0;
     // Whether we are currently receiving modulated signal
     bool receivingAmSignal = false;
 };
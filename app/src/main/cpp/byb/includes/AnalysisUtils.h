@@ -6,6 +6,7 @@
 #define SPIKE_RECORDER_ANDROID_ANALYSISUTILS_H
 
 #include <math.h>
+#include "dr_wav.h"
 
 namespace util {
     class AnalysisUtils;
@@ -23,6 +24,13 @@ public:
     static float *generateLogSpace(int min, int max, int size);
 
     static float map(float value, float inMin, float inMax, float outMin, float outMax);
+
+    /**
+     * Reads up to {@code frameCount} frames from specified {@code wav} file and copies samples of the first channel to
+     * {@code outSamples}. {@code outSamples} is also used for reading interleaved samples of all the channels so it
+     * needs to hold {@code frameCount * wav->channels} samples. Returns number of frames that were read.
+     */
+    static drwav_uint64 readFirstChannel(drwav *wav, drwav_uint64 frameCount, drwav_int16 *outSamples);
 };
 
 #endif //SPIKE_RECORDER_ANDROID_ANALYSISUTILS_H
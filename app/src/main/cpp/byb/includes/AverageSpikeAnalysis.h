@@ -7,6 +7,7 @@
 
 #include <dr_wav.h>
 #include <algorithm>
+#include <cfloat>
 #include <android/log.h>
 
 #include "AnalysisUtils.h"
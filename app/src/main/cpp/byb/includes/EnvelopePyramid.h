@@ -0,0 +1,76 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#ifndef SPIKE_RECORDER_ANDROID_ENVELOPEPYRAMID_H
+#define SPIKE_RECORDER_ANDROID_ENVELOPEPYRAMID_H
+
+#include <vector>
+
+namespace processing {
+    class EnvelopePyramid;
+}
+
+//
+// Holds the most recent size samples together with their min/max pyramid. Level k of the pyramid holds min and max of
+// every aligned block of 2^k samples and it's updated incrementally as samples are appended, so min and max of any
+// range of samples is combined from at most two blocks per level. Envelope of the visible window then costs a number
+// of operations proportional to draw surface width instead of the number of visible samples.
+//
+// Envelope columns are aligned to absolute sample indices so a column doesn't change once all of it's samples have
+// arrived. Columns of the previous frame are kept in a ring and only the columns that scrolled into view since then are
+// calculated, all of them are recalculated only when number of samples per column changes or samples are cleared.
+//
+class EnvelopePyramid {
+public:
+    explicit EnvelopePyramid(int size);
+
+    // Returns number of most recent samples that are held
+    int getSize() const;
+
+    // Appends specified samples, only the most recent size samples are kept
+    void append(const short *inSamples, int length);
+
+    // Replaces all held samples with zeros and drops all cached envelope columns
+    void clear();
+
+    // Prepares waveform vertices of the held samples from fromSample to toSample for a surface of the specified size,
+    // same as prepareForDrawing() from drawing.h would do for an array holding the most recent size samples, except
+    // that columns are aligned to absolute sample indices. Event indices are relative to that array and need to be
+    // sorted ascending. Writes at most maxSampleCount values to outSamples and maxEventCount indices to
+    // outEventIndices, and saves their counts to outCounts[0] and outCounts[1]. Number of vertices that weren't cached
+    // and had to be calculated is saved to outCounts[2].
+    void prepareForDrawing(short *outSamples, int maxSampleCount, int *outEventIndices, int maxEventCount,
+                           const int *eventIndices, int eventIndicesCount, int fromSample, int toSample, int size,
+                           int *outCounts);
+
+private:
+    // Combines min and max of samples [from, to) of the ring of samples into min and max
+    void getMinMax(long long from, long long to, short &min, short &max) const;
+
+    // Number of most recent samples that are held
+    int size;
+    // Number of samples the ring holds, power of 2 that's not smaller than size
+    int capacity;
+    // Number of levels above the samples, capacity is 2^levelCount
+    int levelCount = 0;
+    // Ring of samples, sample with absolute index i is held at i & (capacity - 1)
+    std::vector<short> samples;
+    // Mins and maxs of all the levels, block j of level k is held at levelOffsets[k] + (j & ((capacity >> k) - 1))
+    std::vector<short> mins;
+    std::vector<short> maxs;
+    std::vector<int> levelOffsets;
+    // Absolute index of the next sample
+    long long sampleCounter = 0;
+    // Ring of envelope columns, column j covers samples [j * columnSampleCount, (j + 1) * columnSampleCount) and it's
+    // max and min are held at j % columnCapacity
+    std::vector<short> columnMaxs;
+    std::vector<short> columnMins;
+    int columnCapacity = 0;
+    int columnSampleCount = 0;
+    // Range of columns that are currently held by the ring
+    long long columnStart = 0;
+    long long columnEnd = 0;
+};
+
+#endif //SPIKE_RECORDER_ANDROID_ENVELOPEPYRAMID_H
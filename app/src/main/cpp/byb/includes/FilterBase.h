@@ -22,6 +22,9 @@ public:
 
     void setCoefficients();
 
+    // Returns b0, b1, b2, a1 and a2 coefficients normalized by a0
+    const float *getCoefficients() const;
+
     void filter(int16_t *data, int32_t numFrames, bool flush = false);
 
     void filterContiguousData(float *data, uint32_t numFrames, bool flush = false);
@@ -0,0 +1,87 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#ifndef SPIKE_RECORDER_ANDROID_FILTERCASCADE_H
+#define SPIKE_RECORDER_ANDROID_FILTERCASCADE_H
+
+#include <atomic>
+#include <mutex>
+
+namespace filters {
+    class FilterCascade;
+}
+
+//
+// Chain of biquad filters that converts samples to float and back only once. Samples are filtered in blocks, all the
+// stages run over a block while it's in the cache, and filter state of all the channels is preallocated so filtering
+// never allocates. When multiple channels are filtered together four channels at a time are processed in parallel with
+// vector instructions (NEON on ARM, SSE on x86).
+//
+// Chain can be reconfigured from any thread while another thread is filtering. New stages are picked up at the start of
+// the next processed block and state of the stages is carried over so reconfiguration doesn't cause transients. Stages
+// can be identified by keys so they keep their state when stages before them are added or removed.
+//
+class FilterCascade {
+public:
+    // Max number of filters in the chain
+    static constexpr int MAX_STAGES = 8;
+    // Max number of channels that can be filtered independently of each other (multiple of vector width)
+    static constexpr int MAX_CHANNELS = 12;
+
+    FilterCascade();
+
+    // Replaces all the stages of the chain with the specified ones. Every stage is described by b0, b1, b2, a1 and a2
+    // coefficients normalized by a0, stages above MAX_STAGES are ignored. Every stage takes over the state of the stage
+    // at the same position.
+    void setStages(const float (*coefficients)[5], int count);
+
+    // Same as setStages(coefficients, count) but every stage takes over the state of the stage with the same key,
+    // wherever it was in the chain. Stages whose key was not used by the previous chain start from silence.
+    void setStages(const float (*coefficients)[5], const int *keys, int count);
+
+    // Returns number of stages currently used for filtering
+    int getStageCount();
+
+    // Resets state of all the channels, should be called from the filtering thread
+    void reset();
+
+    // Filters data of the first channel in place
+    void process(short *data, int numFrames);
+
+    // Filters data of the specified channel in place
+    void process(int channel, short *data, int numFrames);
+
+    // Filters data of all the specified channels in place
+    void process(short **channels, int channelCount, int numFrames);
+
+private:
+    // Number of channels that are filtered in parallel
+    static constexpr int VECTOR_WIDTH = 4;
+    // Number of frames that are run through all the stages at once
+    static constexpr int BLOCK_SIZE = 64;
+
+    struct Stages {
+        int count = 0;
+        // b0, b1, b2, a1 and a2 coefficients of every stage
+        float coefficients[MAX_STAGES][5];
+        // Key that identifies every stage when the chain is reconfigured
+        int keys[MAX_STAGES];
+    };
+
+    // Swaps in the stages passed to setStages(), if any
+    void applyPendingStages();
+
+    void processChannel(int channel, short *data, int numFrames);
+
+    // Stages used by the filtering thread
+    Stages stages;
+    // Stages set by the last setStages() call that are not yet picked up by the filtering thread
+    Stages pendingStages;
+    std::mutex pendingStagesMutex;
+    std::atomic<bool> pendingStagesChanged{false};
+    // Last two inputs and last two outputs of every stage for every channel
+    float history[MAX_STAGES][4][MAX_CHANNELS];
+};
+
+#endif //SPIKE_RECORDER_ANDROID_FILTERCASCADE_H
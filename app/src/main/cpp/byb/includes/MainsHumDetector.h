@@ -0,0 +1,65 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#ifndef SPIKE_RECORDER_ANDROID_MAINSHUMDETECTOR_H
+#define SPIKE_RECORDER_ANDROID_MAINSHUMDETECTOR_H
+
+namespace filters {
+    class MainsHumDetector;
+}
+
+//
+// Estimates frequency of the mains hum (50 or 60 Hz) present in the signal. Power of the signal around both candidate
+// frequencies is measured with Goertzel algorithm over one second windows and the fundamental is refined from the
+// magnitudes of neighbouring 1 Hz bins, so the cost per sample is constant.
+//
+class MainsHumDetector {
+public:
+    // Frequency that's reported until enough signal is processed
+    static constexpr float DEFAULT_FREQUENCY = 50.0f;
+
+    MainsHumDetector();
+
+    void setSampleRate(float sampleRate);
+
+    // Processes specified samples. Returns true if estimated frequency changed.
+    bool process(const short *data, int numFrames);
+
+    // Returns estimated frequency of the mains hum
+    float getFrequency();
+
+    // Starts estimation from scratch
+    void reset();
+
+private:
+    // Candidate mains frequencies
+    static constexpr int CANDIDATE_COUNT = 2;
+    static constexpr float CANDIDATES[CANDIDATE_COUNT] = {50.0f, 60.0f};
+    // Number of bins per candidate (one below, at and one above the candidate)
+    static constexpr int BIN_COUNT = 3;
+    // Total number of bins
+    static constexpr int BINS = CANDIDATE_COUNT * BIN_COUNT;
+    // Length of the window powers are measured over
+    static constexpr float WINDOW_SECONDS = 1.0f;
+    // Power at the other candidate needs to be this many times higher before switching to it
+    static constexpr float SWITCH_RATIO = 4.0f;
+    // Estimated frequency is reported as changed only if it moved by more than this
+    static constexpr float MIN_FREQUENCY_CHANGE = 0.05f;
+
+    // Starts a new window
+    void resetWindow();
+
+    float sampleRate = 0.0f;
+    int windowSize = 0;
+    int windowCounter = 0;
+    // Goertzel coefficients and state of every bin of every candidate
+    float coefficients[CANDIDATE_COUNT][BIN_COUNT];
+    float state1[CANDIDATE_COUNT][BIN_COUNT];
+    float state2[CANDIDATE_COUNT][BIN_COUNT];
+    // Index of the candidate that's currently detected
+    int candidate = 0;
+    float frequency = DEFAULT_FREQUENCY;
+};
+
+#endif //SPIKE_RECORDER_ANDROID_MAINSHUMDETECTOR_H
@@ -0,0 +1,68 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#ifndef SPIKE_RECORDER_ANDROID_POLYPHASEDECIMATOR_H
+#define SPIKE_RECORDER_ANDROID_POLYPHASEDECIMATOR_H
+
+#include <vector>
+
+namespace processing {
+    class PolyphaseDecimator;
+}
+
+//
+// Lowers sample rate of multi-channel planar data by an integer factor. Samples are passed through a windowed-sinc
+// anti-aliasing FIR filter of which only every factor-th output is evaluated, so every input sample costs the number of
+// taps of a single polyphase branch. State of all the channels is preallocated on construction so decimation never
+// allocates.
+//
+class PolyphaseDecimator {
+public:
+    // Max supported decimation factor
+    static constexpr int MAX_FACTOR = 64;
+    // Max number of channels that can be decimated independently of each other
+    static constexpr int MAX_CHANNELS = 12;
+
+    PolyphaseDecimator(int factor, int channelCount);
+
+    int getFactor() const;
+
+    int getChannelCount() const;
+
+    // Returns number of output samples per channel that will be produced from specified number of input samples
+    int getOutputCount(int numFrames) const;
+
+    // Returns max number of input samples per channel that produce no more than specified number of output samples
+    int getMaxInputCount(int outputCount) const;
+
+    // Decimates numFrames samples of first channelCount channels. Samples of channel i are read from
+    // in + i * inChannelCapacity and written to out + i * outChannelCapacity. Returns number of samples written per
+    // channel.
+    int process(const short *in, int inChannelCapacity, short *out, int outChannelCapacity, int channelCount,
+                int numFrames);
+
+    // Clears history of all the channels
+    void reset();
+
+private:
+    // Number of taps of every polyphase branch, defines steepness of the anti-aliasing filter
+    static constexpr int TAPS_PER_PHASE = 16;
+    // Number of input samples that are converted to float at once
+    static constexpr int BLOCK_SIZE = 256;
+    // Cut-off frequency relative to the output Nyquist frequency, filter is fully attenuating at the output Nyquist
+    static constexpr float CUT_OFF = 0.8f;
+
+    int factor;
+    int channelCount;
+    int tapCount;
+    // Index of the input sample (relative to the next processed sample) at which next output is produced
+    int phase;
+    std::vector<float> taps;
+    // Last tapCount - 1 input samples of every channel
+    std::vector<float> history;
+    // History of a single channel followed by a block of input samples
+    std::vector<float> work;
+};
+
+#endif //SPIKE_RECORDER_ANDROID_POLYPHASEDECIMATOR_H
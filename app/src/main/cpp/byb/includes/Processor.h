@@ -8,6 +8,10 @@
 #include <android/log.h>
 #include "LowPassFilter.h"
 #include "HighPassFilter.h"
+#include "NotchFilter.h"
+#include "FilterCascade.h"
+#include "MainsHumDetector.h"
+#include <atomic>
 
 namespace processing {
     class Processor;
@@ -15,34 +19,70 @@ namespace processing {
 
 class Processor {
 public:
+    // Max number of channels that can be filtered independently of each other
+    static constexpr int MAX_CHANNELS = 10;
+    static_assert(MAX_CHANNELS <= FilterCascade::MAX_CHANNELS, "Filter cascade can't filter all the channels");
+
     Processor();
 
     virtual ~Processor();
 
     virtual void setSampleRate(float sampleRate);
 
-    void setFilters(float lowCutOff, float highCutOff);
+    // Sets cut-off frequencies of the band-pass filter (-1 turns off corresponding side) and number of mains hum
+    // harmonics, fundamental included, that are notched out (0 turns off notch filters)
+    void setFilters(float lowCutOff, float highCutOff, int mainsHarmonicCount = 0);
 
 protected:
     float getSampleRate();
 
     void applyFilters(short *data, int numFrames);
 
+    void applyFilters(int channel, short *data, int numFrames);
+
+    void applyFilters(short **channels, int channelCount, int numFrames);
+
 private:
     const static char *TAG;
 
+    // Recalculates filters if settings changed or if different mains hum frequency is detected in specified samples
+    void prepareFilters(const short *data, int numFrames);
+
+    // Recalculates coefficients of the filters for the current sample rate, cut-off frequencies and mains hum
+    // frequency and passes them to the filter chain
+    void updateFilters();
+
     // Minimum cut-off frequency
     static constexpr float MIN_FILTER_CUT_OFF = 0.0f;
     // Maximum cut-off frequency
     static constexpr float MAX_FILTER_CUT_OFF = 5000.0f;
+    // Width of the stop band of every mains hum notch filter
+    static constexpr float MAINS_NOTCH_BANDWIDTH = 3.0f;
+    // Mains hum harmonics above this fraction of the sample rate are not notched out
+    static constexpr float MAX_MAINS_HARMONIC_FRACTION = 0.45f;
+    // Keys that identify filter chain stages by their role, so turning one filter on or off doesn't reset the others
+    static constexpr int LOW_PASS_STAGE_KEY = 0;
+    static constexpr int HIGH_PASS_STAGE_KEY = 1;
+    // Notch of the n-th mains hum harmonic is identified by MAINS_NOTCH_STAGE_KEY + n - 1
+    static constexpr int MAINS_NOTCH_STAGE_KEY = 2;
 
     // Current sample rate
     float sampleRate;
-    // Current filters
-    bool lowPassFilteringEnabled = false;
+    // Current cut-off frequencies, -1 means filter is turned off
+    std::atomic<float> lowCutOff{-1};
+    std::atomic<float> highCutOff{-1};
+    // Current number of notched out mains hum harmonics
+    std::atomic<int> mainsHarmonicCount{0};
+    // Set when filter settings change, filters are recalculated by the processing thread before the next block
+    std::atomic<bool> filtersChanged{false};
+    // Only used to calculate coefficients of the current filters
     LowPassFilter lowPassFilter;
-    bool highPassFilteringEnabled = false;
     HighPassFilter highPassFilter;
+    NotchFilter notchFilter;
+    // Estimates mains hum frequency the notch filters are placed at
+    MainsHumDetector mainsHumDetector;
+    // Current filters applied in a single pass, every channel keeps it's own filter state
+    FilterCascade filters;
 };
 
 
@@ -19,6 +19,9 @@ namespace processing {
 
 class SampleStreamProcessor : public Processor {
 public:
+    // We can maximally handle 6 seconds of sample data and spike can appear max every 200 ms
+    static constexpr int MAX_EVENTS = 100;
+
     SampleStreamProcessor(OnEventListenerListener *listener);
 
     ~SampleStreamProcessor();
@@ -28,8 +31,14 @@ public:
      */
     void setChannelCount(int channelCount);
 
-    void process(const unsigned char *inData, const int size, short *outSamples, int *outEventIndices,
-                 std::string *outEventLabels, int *outCounts);
+    /**
+     * Decodes specified number of bytes into samples of every channel and copies them to specified outSamples in planar
+     * layout, samples of channel i starting at index i * channelCapacity. At most maxChannelCount channels and
+     * channelCapacity samples per channel are copied. Number of samples per channel, number of events and number of
+     * copied channels are saved to outCounts.
+     */
+    void process(const unsigned char *inData, const int size, short *outSamples, const int channelCapacity,
+                 const int maxChannelCount, int *outEventIndices, std::string *outEventLabels, int *outCounts);
 
 private:
     static const char *TAG;
@@ -39,17 +48,10 @@ private:
     static constexpr int CLEANER = 0xFF;
     static constexpr int REMOVER = 0x7F;
 
-    // For now we only process first channel
-    static constexpr int CHANNEL_INDEX = 0;
     // By default we have 2 channels
     static constexpr int DEFAULT_CHANNEL_COUNT = 2;
-    // Max number of channels is 10
-    static constexpr int MAX_CHANNELS = 10;
-    // Max number of bytes we can process in one batch
+    // Max number of samples per channel we can process in one batch
     static constexpr int MAX_BYTES = 5000;
-    // We can maximally handle 6 seconds of sample data and spike can appear max every 200 ms
-    static constexpr int MAX_EVENTS = 100;
-
     // Length of escape sequence start and sequence end
     static constexpr int ESCAPE_SEQUENCE_START_END_LENGTH = 6;
     // Message cannot be longer than 64 bytes
@@ -83,10 +85,13 @@ private:
     bool channelCountChanged = true;
     // Holds currently processed channel
     int currentChannel;
+    // Holds samples of the currently processed frame, they are added to channels only once the whole frame is decoded
+    // so all channels always have the same number of samples
+    short frame[MAX_CHANNELS];
     // Holds samples from all channels processed in a single batch
     short channels[MAX_CHANNELS][MAX_BYTES];
-    // Array of sample counters, one for every channel
-    int sampleCounters[MAX_CHANNELS];
+    // Number of samples every channel holds
+    int sampleCounter;
     // Whether we are inside an escape sequence or not
     bool insideEscapeSequence;
     // Index of the byte within start or end of the escape sequence
@@ -107,8 +112,8 @@ private:
     std::string eventLabels[MAX_EVENTS];
     // Most significant and least significant bytes
     byte msb;
-    // Average signal which we use to avoid signal offset
-    double average;
+    // Average signal of every channel which we use to avoid signal offset
+    double average[MAX_CHANNELS];
 };
 
 
@@ -6,6 +6,7 @@
 #define SPIKE_RECORDER_ANDROID_SAMPLESTREAMUTILS_H
 
 #include <string>
+#include <cstring>
 
 namespace util {
     class SampleStreamUtils;
@@ -7,6 +7,8 @@
 
 #include <functional>
 #include <algorithm>
+#include <climits>
+#include <sys/time.h>
 #include <android/log.h>
 
 #include "dr_wav.h"
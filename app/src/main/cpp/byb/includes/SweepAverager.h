@@ -0,0 +1,88 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#ifndef SPIKE_RECORDER_ANDROID_SWEEPAVERAGER_H
+#define SPIKE_RECORDER_ANDROID_SWEEPAVERAGER_H
+
+namespace processing {
+    class SweepAverager;
+}
+
+//
+// Averages the last averagedSweepCount sweeps of equal length. Sweeps are stored in a ring that's preallocated for the
+// averaged number of sweeps and a limited number of sweeps that are still being populated, and the running sum is
+// updated incrementally, so nothing is allocated while sweep length and averaged sweep count don't change.
+//
+class SweepAverager {
+public:
+    ~SweepAverager();
+
+    // Prepares averager for sweeps of sampleCount samples and clears all the sweeps and averages, buffers are
+    // reallocated only if their size changed
+    void reset(int sampleCount, int averagedSweepCount);
+
+    // Frees all the buffers, averager needs to be reset before it's used again
+    void release();
+
+    // Returns number of samples of every sweep
+    int getSampleCount() const;
+
+    // Whether new sweep can be started, oldest sweep that's still needed for the sum can't be overwritten
+    bool canStartSweep() const;
+
+    // Appends incoming samples to all the sweeps that are still being populated
+    void append(const short *inSamples, int length);
+
+    // Starts new sweep at index start of the incoming samples. Negative start means sweep starts before the incoming
+    // samples, in which case the first -start samples are taken from the history ring that holds historySize most
+    // recent samples with the oldest one at historyHead
+    void startSweep(const short *history, int historySize, int historyHead, const short *inSamples, int length,
+                    int start);
+
+    // Adds newly populated samples of all the sweeps to the averages and retires finished sweeps. Range of averaged
+    // samples that changed is available through getDirtyStart() and getDirtyEnd() until the next call.
+    void update();
+
+    // Returns sampleCount averaged samples
+    const short *getAveragedSamples() const;
+
+    // Returns index of the first averaged sample that changed during the last call to update()
+    int getDirtyStart() const;
+
+    // Returns index after the last averaged sample that changed during the last call to update(), equals
+    // getDirtyStart() if nothing changed
+    int getDirtyEnd() const;
+
+private:
+    // Max number of sweeps that are populated at the same time, new sweeps are not started while all of them are
+    static const int MAX_UNFINISHED_SWEEPS = 16;
+
+    // Number of samples of every sweep
+    int sampleCount = 0;
+    // Number of sweeps that need to be summed to get the averaged sample
+    int averagedSweepCount = 1;
+    // Number of sweeps that sweep ring holds
+    int sweepCapacity = 0;
+    // Ring of sweeps, sweep with sequence number k is held at sampleCount * (k % sweepCapacity)
+    short *sweeps = nullptr;
+    // Holds counts of populated samples of sweeps in the ring
+    int *sweepSampleCounts = nullptr;
+    // Holds counts of samples of sweeps in the ring that have already been added to the sum
+    int *sweepSummedCounts = nullptr;
+    // Sequence number of the next sweep
+    int sweepCounter = 0;
+    // Sequence number of the oldest sweep that's still being populated, all older sweeps are finished
+    int firstUnfinishedSweep = 0;
+    // Holds averages of the last averagedSweepCount sweeps by index
+    short *averagedSamples = nullptr;
+    // Holds sums of the last averagedSweepCount sweeps by index
+    int *summedSamples = nullptr;
+    // Whether averages have been cleared since the last call to update()
+    bool cleared = false;
+    // Range of averaged samples that changed during the last call to update()
+    int dirtyStart = 0;
+    int dirtyEnd = 0;
+};
+
+#endif //SPIKE_RECORDER_ANDROID_SWEEPAVERAGER_H
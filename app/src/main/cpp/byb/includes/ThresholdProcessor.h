@@ -6,17 +6,58 @@
 #define SPIKE_RECORDER_ANDROID_THRESHOLDPROCESSOR_H
 
 #include <algorithm>
+#include <atomic>
 #include <climits>
+#include <mutex>
 
 #include "Processor.h"
 #include "HeartbeatHelper.h"
+#include "SweepAverager.h"
 
 namespace processing {
     class ThresholdProcessor;
 }
 
+//
+// Averages sweeps of samples around trigger hits. Up to MAX_TRIGGERS triggers are evaluated in a single pass over the
+// incoming samples and every one of them keeps its own averaged sweep, so spikes of different units in the same stream
+// are averaged separately. Every sweep holds the same amount of samples before and after the sample at which the
+// trigger was hit.
+//
+// Amplitude trigger fires when signal crosses the lower window bound upwards (rising slope) or the upper window bound
+// downwards (falling slope). If the opposite bound is set the crossing is only accepted if the signal doesn't go past
+// the opposite bound until it crosses back or the trigger's dead time passes, so a trigger can be limited to spikes
+// whose peak falls into the window.
+//
+// Event trigger fires on every event with the trigger's label and it's sweep holds the samples from the specified
+// period before the event up to the specified period after it, so responses to the stimulus that's marked by the event
+// are averaged.
+//
 class ThresholdProcessor : public Processor {
 public:
+    // Max number of triggers that are evaluated at the same time
+    static constexpr int MAX_TRIGGERS = 4;
+    // Max length of the event label that fires event trigger
+    static constexpr int MAX_EVENT_LABEL_LENGTH = 63;
+
+    // Describes a single trigger
+    struct TriggerSettings {
+        // Lower window bound, INT_MIN if spike is not limited from below
+        int lowerBound = INT_MIN;
+        // Upper window bound, INT_MAX if spike is not limited from above
+        int upperBound = INT_MAX;
+        // Whether trigger fires on the upward crossing of the lower bound or the downward crossing of the upper bound
+        bool risingSlope = true;
+        // Period after the trigger fires during which it's not evaluated
+        float deadTimeSeconds = DEFAULT_DEAD_TIME_SECONDS;
+        // Label of the events that fire the trigger, empty for amplitude trigger
+        char eventLabel[MAX_EVENT_LABEL_LENGTH + 1] = "";
+        // Period before the event that's held by event trigger's sweeps
+        float preEventSeconds = MAX_PROCESSED_SECONDS / 2;
+        // Period after the event that's held by event trigger's sweeps
+        float postEventSeconds = MAX_PROCESSED_SECONDS / 2;
+    };
+
     ThresholdProcessor(OnHeartbeatListener *listener);
 
     ~ThresholdProcessor();
@@ -27,13 +68,41 @@ public:
     // Sets the number of sample sequences that should be summed to get the average spike value.
     void setAveragedSampleCount(int averagedSampleCount);
 
-    // Set's the sample frequency threshold.
+    // Set's the sample frequency threshold. Replaces all the triggers with a single one that fires on the upward
+    // crossing of a positive threshold or the downward crossing of a negative threshold.
     void setThreshold(int threshold);
 
-    // Starts/stops processing heartbeat
+    // Replaces all the triggers with specified ones. Triggers are picked up with the next processed batch.
+    void setTriggers(const TriggerSettings *triggers, int count);
+
+    // Returns number of triggers set by the last setThreshold() or setTriggers() call
+    int getTriggerCount();
+
+    // Starts/stops processing heartbeat, only hits of the first trigger are treated as heartbeats
     void setBpmProcessing(bool processBpm);
 
-    void process(const short *inSamples, short *outSamples, const int length);
+    // Processes incoming samples and events at specified indices with specified labels and updates averaged samples of
+    // all the triggers. Range of averaged samples that changed is available through getDirtyStart() and getDirtyEnd()
+    // until the next call.
+    void process(const short *inSamples, const int length, const int *eventIndices = nullptr,
+                 const char *const *eventLabels = nullptr, int eventCount = 0);
+
+    // Returns number of triggers whose averaged samples were updated by the last call to process()
+    int getProcessedTriggerCount() const;
+
+    // Returns number of samples in the sweeps of specified trigger, the rest of the sampleCount averaged samples are 0
+    int getSweepSampleCount(int trigger = 0) const;
+
+    // Returns getSweepSampleCount() averaged samples of specified trigger
+    const short *getAveragedSamples(int trigger = 0) const;
+
+    // Returns index of the first averaged sample of specified trigger that changed during the last call to process(),
+    // all sampleCount samples change when triggers are reset
+    int getDirtyStart(int trigger = 0) const;
+
+    // Returns index after the last averaged sample of specified trigger that changed during the last call to
+    // process(), equals getDirtyStart() if nothing changed
+    int getDirtyEnd(int trigger = 0) const;
 
     // Number of samples that we collect for one sample stream
     int sampleCount = (int) (DEFAULT_SAMPLE_RATE * MAX_PROCESSED_SECONDS);
@@ -43,30 +112,78 @@ private:
 
     // We shouldn't process more than 2.4 seconds of samples in any given moment
     static constexpr float MAX_PROCESSED_SECONDS = 2.4f;
-    // When threshold is hit we should have a dead period of 5ms before checking for next threshold hit
-    static constexpr float DEAD_PERIOD_SECONDS = 0.005f;
+    // When trigger is hit we should have a dead period of 5ms before checking for next trigger hit
+    static constexpr float DEFAULT_DEAD_TIME_SECONDS = 0.005f;
+    // Longest dead period, also the longest period trigger waits to accept the crossing of a windowed trigger
+    static constexpr float MAX_DEAD_TIME_SECONDS = 0.5f;
     // Default sample rate we start with
     static constexpr float DEFAULT_SAMPLE_RATE = 44100.0f;
     // Default number of samples that needs to be summed to get the averaged sample
     static constexpr int DEFAULT_AVERAGED_SAMPLE_COUNT = 1;
-    // Max number of unfinished samples arrays
-    static const int UNFINISHED_SAMPLES_COUNT = 200;
     // Minimum number of seconds without a heartbeat before resetting the heartbeat helper
     static constexpr double DEFAULT_MIN_BPM_RESET_PERIOD_SECONDS = 3;
 
+    // State of a single trigger
+    struct Trigger {
+        TriggerSettings settings;
+        // Level whose crossing in the direction of the slope fires the trigger
+        int level;
+        // Level the signal shouldn't go past after the crossing, INT_MAX/INT_MIN if spike is not limited
+        int limit;
+        // Whether crossing needs to be validated against the limit before it's accepted
+        bool windowed;
+        // Whether trigger is fired by events instead of amplitude
+        bool eventTriggered;
+        // Number of samples in every sweep and number of them that precede the sample that fired the trigger
+        int sweepSampleCount;
+        int sweepStartOffset;
+        // Whether averaged samples were cleared during the last call to process()
+        bool cleared;
+        // Dead period when we don't check for trigger hit after hitting one
+        int deadPeriodCount;
+        // Counts samples between two dead periods
+        int deadPeriodSampleCounter;
+        // Whether we are currently in dead period (not listening for trigger hit)
+        bool inDeadPeriod;
+        // Whether crossing has happened and we are waiting to see whether signal goes past the limit
+        bool armed;
+        // Index of the crossing that's being validated relative to the start of the current batch
+        int armedIndex;
+        // Counts samples since the crossing that's being validated
+        int armedSampleCounter;
+        // Holds averaged sweeps around hits of this trigger
+        SweepAverager averager;
+    };
+
+    // Swaps in the triggers passed to setTriggers(), if any, returns whether triggers changed
+    bool applyPendingTriggers();
+
     // Resets all local variables used for the heartbeat processing
     void resetBpm();
 
-    // Resets all the fields used for calculations
+    // Resets all the fields used for calculations, buffers are reallocated only if their size changed
     void reset();
 
-    // Whether processor has been initialized
-    bool initialized = false;
+    // Starts new sweep of specified trigger for the hit at specified index of the incoming samples, index is negative
+    // if hit happened before the incoming samples
+    void hit(int trigger, const short *inSamples, int length, int index);
+
+    // Saves incoming samples to the buffer that holds the most recent samples
+    void saveToBuffer(const short *inSamples, int length);
+
+    // Triggers used by the processing thread
+    Trigger triggers[MAX_TRIGGERS];
+    // Number of triggers used by the processing thread
+    int triggerCount = 0;
+    // Indices of the triggers that are fired by amplitude
+    int amplitudeTriggers[MAX_TRIGGERS];
+    int amplitudeTriggerCount = 0;
+    // Triggers set by the last setTriggers() call that are not yet picked up by the processing thread
+    TriggerSettings pendingTriggers[MAX_TRIGGERS];
+    int pendingTriggerCount = 0;
+    std::mutex pendingTriggersMutex;
+    std::atomic<bool> pendingTriggersChanged{false};
 
-    // Threshold value that triggers the averaging
-    int triggerValue = INT_MAX;
-    // Used to check whether threshold trigger value has changed since the last incoming sample batch
-    int lastTriggeredValue = 0;
     // Number of samples that needs to be summed to get the averaged sample
     int averagedSampleCount = DEFAULT_AVERAGED_SAMPLE_COUNT;
     // Used to check whether number of averages samples has changed since the last incoming sample batch
@@ -74,37 +191,15 @@ private:
     // Used to check whether sample rate has changed since the last incoming sample batch
     float lastSampleRate = 0;
 
-    // We need to buffer half of samples total count up to the sample that hit's threshold
-    int bufferSampleCount = sampleCount / 2;
-    // Buffer that holds most recent 1.2 ms of audio so we can prepend new sample buffers when threshold is hit
-    short *buffer = new short[bufferSampleCount];
-    // Holds arrays of already populated and averaged samples
-    short **samplesForCalculation = new short *[averagedSampleCount];
-    // Number of arrays of already populated and averaged samples
-    int samplesForCalculationCount = 0;
-    // Holds arrays of samples that still haven't been fully populated and averaged
-    short **unfinishedSamplesForCalculation = new short *[UNFINISHED_SAMPLES_COUNT];
-    // Holds counts of samples in unfinished sample arrays
-    int *unfinishedSamplesForCalculationCounts = new int[UNFINISHED_SAMPLES_COUNT]{0};
-    // Holds counts of already averaged samples in unfinished sample arrays
-    int *unfinishedSamplesForCalculationAveragedCounts = new int[UNFINISHED_SAMPLES_COUNT]{0};
-    // Number of unfinished sample arrays
-    int unfinishedSamplesForCalculationCount = 0;
-    // Holds averages of all the saved samples by index
-    short *averagedSamples = new short[sampleCount]{0};
-    // Holds sums of all the saved samples by index
-    int *summedSamples = new int[sampleCount]{0};
-    // Holds samples counts summed at specified position
-    int *summedSamplesCounts = new int[sampleCount]{0};
-
-    // Dead period when we don't check for threshold after hitting one
-    int deadPeriodCount = (int) (DEFAULT_SAMPLE_RATE * DEAD_PERIOD_SECONDS);
-    // Counts samples between two dead periods
-    int deadPeriodSampleCounter;
-    // Whether we are currently in dead period (not listening for threshold hit)
-    bool inDeadPeriod;
-
-    // Holds previously processed sample so we can compare whether we have a threshold hit
+    // Number of samples held by buffer, it needs to hold the longest part of the sweep that precedes the sample that
+    // hit the trigger, and amplitude trigger can be accepted up to the longest dead period after the crossing
+    int bufferSampleCount = 0;
+    // Ring that holds most recent bufferSampleCount samples so we can prepend new sweeps when trigger is hit
+    short *buffer = nullptr;
+    // Index in the buffer at which next sample is saved, also the index of the oldest sample
+    int bufferHead = 0;
+
+    // Holds previously processed sample so we can compare whether we have a trigger hit
     short prevSample;
 
     // Holds reference to HeartbeatHelper that processes threshold hits as heart beats
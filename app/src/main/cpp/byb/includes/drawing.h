@@ -8,7 +8,17 @@
 int *envelope(short *outSamples, const short *samples, int *outEventIndices, const int *eventIndices,
               int eventIndicesCount, int start, int end, int size);
 
+// Same as envelope() but sample at index i is read from (ringOffset + i) % ringSize of the samples ring
+int *ringEnvelope(short *outSamples, const short *samples, int ringSize, int ringOffset, int *outEventIndices,
+                  const int *eventIndices, int eventIndicesCount, int start, int end, int size);
+
 int *prepareForDrawing(short *outSamples, const short *samples, int *outEventIndices, const int *eventIndices,
                        int eventIndicesCount, int fromSample, int toSample, int size);
 
+// Same as prepareForDrawing() but samples are read from a ring the same way ringEnvelope() reads them, and enveloped
+// samples are prepared directly in outSamples which needs to be large enough to hold all the vertices
+int *prepareForRingDrawing(short *outSamples, const short *samples, int ringSize, int ringOffset,
+                           int *outEventIndices, const int *eventIndices, int eventIndicesCount, int fromSample,
+                           int toSample, int size);
+
 #endif //SPIKE_RECORDER_ANDROID_BYB_LIB_H
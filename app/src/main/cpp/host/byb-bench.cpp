@@ -0,0 +1,1028 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+// Micro-benchmarks of byb-lib DSP kernels that run on the host machine. Every kernel is called repeatedly with the same
+// batch sizes the app uses and time (ns/call and ns/item) and heap allocations (allocs/call and bytes/call) per call are
+// reported. Kernels are fed with synthetic signal (noise, mains hum and spikes of three different units) and, if path to
+// a WAV file is passed, with recorded data. Before benchmarks are run kernels whose results can be verified on
+// synthetic input (AM carrier detection and sweep averaging) are checked, and the program exits with non-zero status if
+// any check fails.
+
+#include <algorithm>
+#include <chrono>
+#include <cmath>
+#include <cstdio>
+#include <cstdlib>
+#include <cstring>
+#include <functional>
+#include <memory>
+#include <new>
+#include <random>
+#include <string>
+#include <vector>
+#include <unistd.h>
+
+#include "SampleStreamProcessor.h"
+#include "ThresholdProcessor.h"
+#include "SweepAverager.h"
+#include "AmModulationProcessor.h"
+#include "LowPassFilter.h"
+#include "HighPassFilter.h"
+#include "NotchFilter.h"
+#include "FilterCascade.h"
+#include "MainsHumDetector.h"
+#include "PolyphaseDecimator.h"
+#include "EnvelopePyramid.h"
+#include "drawing.h"
+#include "SpikeAnalysis.h"
+#include "AverageSpikeAnalysis.h"
+#include "AutocorrelationAnalysis.h"
+#include "CrossCorrelationAnalysis.h"
+#include "IsiAnalysis.h"
+
+#define DR_WAV_IMPLEMENTATION
+
+#include "dr_wav.h"
+
+// ------------------------------------------------------------------------------------------------------------------
+// Allocation counting
+// ------------------------------------------------------------------------------------------------------------------
+
+// Only allocations done through operator new are counted, dr_wav allocates through malloc
+static size_t allocationCount = 0;
+static size_t allocatedBytes = 0;
+
+void *operator new(size_t size) {
+    allocationCount++;
+    allocatedBytes += size;
+    void *ptr = malloc(size > 0 ? size : 1);
+    if (ptr == nullptr) throw std::bad_alloc();
+    return ptr;
+}
+
+void *operator new[](size_t size) {
+    return operator new(size);
+}
+
+void operator delete(void *ptr) noexcept {
+    free(ptr);
+}
+
+void operator delete[](void *ptr) noexcept {
+    free(ptr);
+}
+
+// ------------------------------------------------------------------------------------------------------------------
+// Benchmark runner
+// ------------------------------------------------------------------------------------------------------------------
+
+struct Benchmark {
+    // Name of the benchmarked kernel
+    std::string name;
+    // Description of the data kernel is fed with
+    std::string input;
+    // What a single processed item is (sample, byte, spike)
+    std::string unit;
+    // Invokes the kernel once and returns number of processed items
+    std::function<long()> call;
+};
+
+struct Options {
+    // Only benchmarks which name or input contain this string are run
+    std::string filter;
+    // Path to the WAV file with recorded data
+    std::string wavPath;
+    // Length of generated synthetic signal in seconds
+    float syntheticSeconds = 30.0f;
+    // Minimum measurement time of every benchmark in seconds
+    double measureSeconds = 1.0;
+    // Warm-up time of every benchmark in seconds
+    double warmupSeconds = 0.2;
+    // Whether results should be printed as CSV
+    bool csv = false;
+};
+
+static const int MIN_MEASURED_CALLS = 5;
+
+typedef std::chrono::steady_clock Clock;
+
+static double secondsSince(Clock::time_point start) {
+    return std::chrono::duration<double>(Clock::now() - start).count();
+}
+
+static void run(const Benchmark &benchmark, const Options &options) {
+    // warm up caches, branch predictors and kernel's internal state
+    Clock::time_point start = Clock::now();
+    do {
+        benchmark.call();
+    } while (secondsSince(start) < options.warmupSeconds);
+
+    long calls = 0, items = 0;
+    size_t allocations = allocationCount, bytes = allocatedBytes;
+    start = Clock::now();
+    double elapsed;
+    do {
+        items += benchmark.call();
+        calls++;
+    } while ((elapsed = secondsSince(start)) < options.measureSeconds || calls < MIN_MEASURED_CALLS);
+    allocations = allocationCount - allocations;
+    bytes = allocatedBytes - bytes;
+
+    double nsPerCall = elapsed * 1e9 / calls;
+    double nsPerItem = items > 0 ? elapsed * 1e9 / items : 0;
+    double allocsPerCall = (double) allocations / calls;
+    double bytesPerCall = (double) bytes / calls;
+    if (options.csv) {
+        printf("%s,%s,%s,%ld,%.1f,%.3f,%.2f,%.0f\n", benchmark.name.c_str(), benchmark.input.c_str(),
+               benchmark.unit.c_str(), calls, nsPerCall, nsPerItem, allocsPerCall, bytesPerCall);
+    } else {
+        printf("%-44s %-26s %10ld %14.1f %10.3f %-7s %10.2f %12.0f\n", benchmark.name.c_str(),
+               benchmark.input.c_str(), calls, nsPerCall, nsPerItem, benchmark.unit.c_str(), allocsPerCall,
+               bytesPerCall);
+    }
+    fflush(stdout);
+}
+
+// ------------------------------------------------------------------------------------------------------------------
+// Input data
+// ------------------------------------------------------------------------------------------------------------------
+
+// Length of a single batch of samples passed to processors, same as the size of batches sample sources deliver
+static constexpr float BATCH_SECONDS = 0.02f;
+// Length of the signal shown on screen when fully zoomed out
+static constexpr float DRAWING_SECONDS = 6.0f;
+// Width of the drawing surface in pixels
+static constexpr int DRAWING_SURFACE_WIDTH = 1080;
+// Number of spike units in synthetic signal
+static constexpr int SYNTHETIC_UNIT_COUNT = 3;
+
+struct Signal {
+    // Description of the signal
+    std::string name;
+    float sampleRate;
+    std::vector<short> samples;
+    // Path to the WAV file that holds samples
+    std::string filePath;
+    // Spike times in seconds, one train per unit
+    std::vector<std::vector<float>> spikeTrains;
+    // Spike indices, one train per unit
+    std::vector<std::vector<int>> spikeIndices;
+};
+
+static Signal generateSignal(float sampleRate, float seconds, unsigned int seed) {
+    static const float UNIT_AMPLITUDES[SYNTHETIC_UNIT_COUNT] = {6000.0f, 4000.0f, 2500.0f};
+    static const float UNIT_RATES[SYNTHETIC_UNIT_COUNT] = {5.0f, 10.0f, 20.0f};
+    static constexpr float SPIKE_SECONDS = 0.001f;
+    static constexpr float HUM_FREQUENCY = 50.0f;
+
+    Signal signal;
+    signal.name = "synthetic@" + std::to_string((int) sampleRate);
+    signal.sampleRate = sampleRate;
+    signal.spikeTrains.resize(SYNTHETIC_UNIT_COUNT);
+    signal.spikeIndices.resize(SYNTHETIC_UNIT_COUNT);
+
+    const int sampleCount = (int) (sampleRate * seconds);
+    std::vector<float> data(sampleCount);
+    std::mt19937 random(seed);
+    std::normal_distribution<float> noise(0.0f, 150.0f);
+    for (int i = 0; i < sampleCount; i++) {
+        data[i] = noise(random) + 300.0f * sinf(2.0f * (float) M_PI * HUM_FREQUENCY * i / sampleRate);
+    }
+    // biphasic spikes fired by every unit as a poisson process
+    const int spikeLength = std::max(2, (int) (sampleRate * SPIKE_SECONDS));
+    for (int unit = 0; unit < SYNTHETIC_UNIT_COUNT; unit++) {
+        std::exponential_distribution<float> interval(UNIT_RATES[unit]);
+        for (float t = interval(random); t < seconds; t += interval(random)) {
+            const int index = (int) (t * sampleRate);
+            if (index + spikeLength >= sampleCount) break;
+
+            for (int i = 0; i < spikeLength; i++) {
+                data[index + i] += UNIT_AMPLITUDES[unit] * sinf(2.0f * (float) M_PI * i / spikeLength);
+            }
+            signal.spikeTrains[unit].push_back(t);
+            signal.spikeIndices[unit].push_back(index);
+        }
+    }
+
+    signal.samples.resize((size_t) sampleCount);
+    for (int i = 0; i < sampleCount; i++) {
+        signal.samples[i] = (short) std::max(-32768.0f, std::min(32767.0f, data[i]));
+    }
+
+    return signal;
+}
+
+static bool writeWav(const std::string &filePath, const Signal &signal) {
+    drwav_data_format format;
+    format.container = drwav_container_riff;
+    format.format = DR_WAVE_FORMAT_PCM;
+    format.channels = 1;
+    format.sampleRate = (drwav_uint32) signal.sampleRate;
+    format.bitsPerSample = 16;
+    drwav *wav = drwav_open_file_write(filePath.c_str(), &format);
+    if (wav == NULL) return false;
+
+    drwav_uint64 written = drwav_write(wav, signal.samples.size(), signal.samples.data());
+    drwav_close(wav);
+    return written == signal.samples.size();
+}
+
+static bool readWav(const std::string &filePath, Signal &signal) {
+    drwav *wav = drwav_open_file(filePath.c_str());
+    if (wav == NULL) return false;
+
+    // only first channel is used
+    std::vector<short> interleaved((size_t) wav->totalSampleCount);
+    drwav_uint64 read = drwav_read_s16(wav, wav->totalSampleCount, interleaved.data());
+    const int channelCount = wav->channels;
+    signal.sampleRate = wav->sampleRate;
+    drwav_close(wav);
+
+    signal.name = "recorded@" + std::to_string((int) signal.sampleRate);
+    signal.filePath = filePath;
+    signal.samples.clear();
+    for (drwav_uint64 i = 0; i < read; i += channelCount) {
+        signal.samples.push_back(interleaved[i]);
+    }
+
+    return !signal.samples.empty();
+}
+
+// Returns value that's exceeded by the specified fraction of samples
+static int percentile(const std::vector<short> &samples, float fraction) {
+    std::vector<short> sorted(samples);
+    size_t index = std::min(sorted.size() - 1, (size_t) (sorted.size() * (1.0f - fraction)));
+    std::nth_element(sorted.begin(), sorted.begin() + index, sorted.end());
+    return sorted[index];
+}
+
+// Finds spikes in the recorded signal the same way Find Spikes screen does and keeps them as two spike trains
+static void findSpikeTrains(Signal &signal) {
+    const int maxSpikes = (int) (signal.samples.size() / 10);
+    std::vector<short> valuesPos(maxSpikes), valuesNeg(maxSpikes);
+    std::vector<int> indicesPos(maxSpikes), indicesNeg(maxSpikes);
+    std::vector<float> timesPos(maxSpikes), timesNeg(maxSpikes);
+
+    SpikeAnalysis spikeAnalysis;
+    int *counts = spikeAnalysis.findSpikes(signal.filePath.c_str(), valuesPos.data(), indicesPos.data(),
+                                           timesPos.data(), valuesNeg.data(), indicesNeg.data(), timesNeg.data());
+    signal.spikeTrains = {std::vector<float>(timesPos.begin(), timesPos.begin() + counts[0]),
+                          std::vector<float>(timesNeg.begin(), timesNeg.begin() + counts[1])};
+    signal.spikeIndices = {std::vector<int>(indicesPos.begin(), indicesPos.begin() + counts[0]),
+                           std::vector<int>(indicesNeg.begin(), indicesNeg.begin() + counts[1])};
+    delete[] counts;
+}
+
+// Encodes first channel of the signal into stream of bytes the way SpikerBox sends it over USB (each sample is 10 bits
+// split into two 7 bit bytes and the first byte of every frame has the highest bit set). Every second an event message
+// is inserted into the stream.
+static std::vector<unsigned char> encodeSampleStream(const Signal &signal, int channelCount) {
+    static const unsigned char ESCAPE_SEQUENCE_START[] = {0xFF, 0xFF, 0x01, 0x01, 0x80, 0xFF};
+    static const unsigned char ESCAPE_SEQUENCE_END[] = {0xFF, 0xFF, 0x01, 0x01, 0x81, 0xFF};
+
+    std::vector<unsigned char> stream;
+    const int eventPeriod = (int) signal.sampleRate;
+    for (size_t i = 0; i < signal.samples.size(); i++) {
+        if (i > 0 && i % eventPeriod == 0) {
+            std::string message = "EVNT:" + std::to_string((i / eventPeriod) % 10) + ";";
+            stream.insert(stream.end(), ESCAPE_SEQUENCE_START, ESCAPE_SEQUENCE_START + 6);
+            stream.insert(stream.end(), message.begin(), message.end());
+            stream.insert(stream.end(), ESCAPE_SEQUENCE_END, ESCAPE_SEQUENCE_END + 6);
+        }
+
+        const int value = std::max(0, std::min(1023, signal.samples[i] / 30 + 512));
+        for (int channel = 0; channel < channelCount; channel++) {
+            stream.push_back((unsigned char) ((value >> 7) | (channel == 0 ? 0x80 : 0x00)));
+            stream.push_back((unsigned char) (value & 0x7F));
+        }
+    }
+
+    return stream;
+}
+
+// ------------------------------------------------------------------------------------------------------------------
+// Benchmarks
+// ------------------------------------------------------------------------------------------------------------------
+
+class NoOpEventListener : public OnEventListenerListener {
+public:
+    void onSpikerBoxHardwareTypeDetected(int hardwareType) override {}
+
+    void onMaxSampleRateAndNumOfChannelsReply(int maxSampleRate, int channelCount) override {}
+};
+
+class NoOpHeartbeatListener : public OnHeartbeatListener {
+public:
+    void onHeartbeat(int bmp) override {}
+};
+
+static NoOpEventListener eventListener;
+static NoOpHeartbeatListener heartbeatListener;
+
+// Returns function that on every call returns offset of the next batch of the specified size within the data of the
+// specified length, wrapping around at the end
+static std::function<size_t()> batches(size_t length, size_t batchSize) {
+    std::shared_ptr<size_t> offset = std::make_shared<size_t>(0);
+    return [=]() {
+        if (*offset + batchSize > length) *offset = 0;
+        size_t result = *offset;
+        *offset += batchSize;
+        return result;
+    };
+}
+
+static void addSampleStreamBenchmarks(std::vector<Benchmark> &benchmarks, const Signal &signal, int channelCount) {
+    static constexpr int MAX_EVENTS = SampleStreamProcessor::MAX_EVENTS;
+
+    auto stream = std::make_shared<std::vector<unsigned char>>(encodeSampleStream(signal, channelCount));
+    auto processor = std::make_shared<SampleStreamProcessor>(&eventListener);
+    processor->setSampleRate(signal.sampleRate);
+    processor->setChannelCount(channelCount);
+    // every sample takes 2 bytes per channel
+    const int channelCapacity = (int) (signal.sampleRate * BATCH_SECONDS);
+    const size_t batchSize = (size_t) channelCapacity * channelCount * 2;
+    auto outSamples = std::make_shared<std::vector<short>>((size_t) channelCapacity * channelCount);
+    auto outEventIndices = std::make_shared<std::vector<int>>(MAX_EVENTS);
+    auto outEventLabels = std::make_shared<std::vector<std::string>>(MAX_EVENTS);
+    auto outCounts = std::make_shared<std::vector<int>>(3);
+    auto nextBatch = batches(stream->size(), batchSize);
+
+    benchmarks.push_back({"SampleStreamProcessor::process", signal.name + " " + std::to_string(channelCount) + "ch",
+                          "sample", [=]() {
+                processor->process(stream->data() + nextBatch(), (int) batchSize, outSamples->data(),
+                                   channelCapacity, channelCount, outEventIndices->data(), outEventLabels->data(),
+                                   outCounts->data());
+                // samples of all channels are decoded
+                return (long) (*outCounts)[0] * (*outCounts)[2];
+            }});
+}
+
+static void addThresholdBenchmarks(std::vector<Benchmark> &benchmarks, const Signal &signal) {
+    static constexpr int AVERAGED_SAMPLE_COUNT = 10;
+    // threshold is set so it's hit by the few biggest spikes
+    static constexpr float THRESHOLD_HIT_FRACTION = 0.0005f;
+
+    const int threshold = percentile(signal.samples, THRESHOLD_HIT_FRACTION);
+    // windows of the additional triggers split spikes by amplitude the way different units would be split
+    ThresholdProcessor::TriggerSettings triggers[ThresholdProcessor::MAX_TRIGGERS];
+    for (int t = 0; t < ThresholdProcessor::MAX_TRIGGERS; t++) {
+        triggers[t].lowerBound = percentile(signal.samples, THRESHOLD_HIT_FRACTION * (1 << t));
+        if (t > 0) triggers[t].upperBound = triggers[t - 1].lowerBound;
+    }
+    for (int triggerCount : {1, (int) ThresholdProcessor::MAX_TRIGGERS}) {
+        for (bool processBpm : {false, true}) {
+            if (triggerCount > 1 && processBpm) continue;
+
+            auto processor = std::make_shared<ThresholdProcessor>(&heartbeatListener);
+            processor->setSampleRate(signal.sampleRate);
+            if (triggerCount == 1) {
+                processor->setThreshold(threshold);
+            } else {
+                processor->setTriggers(triggers, triggerCount);
+            }
+            processor->setAveragedSampleCount(AVERAGED_SAMPLE_COUNT);
+            processor->setBpmProcessing(processBpm);
+            const size_t batchSize = (size_t) (signal.sampleRate * BATCH_SECONDS);
+            const size_t channelCapacity = (size_t) (signal.sampleRate * 2.4f) + 1;
+            auto outSamples = std::make_shared<std::vector<short>>(channelCapacity * triggerCount);
+            auto nextBatch = batches(signal.samples.size(), batchSize);
+            const short *samples = signal.samples.data();
+
+            std::string name = "ThresholdProcessor::process";
+            if (triggerCount > 1) name += " [" + std::to_string(triggerCount) + " triggers]";
+            if (processBpm) name += " [bpm]";
+            benchmarks.push_back({name, signal.name, "sample", [=]() {
+                processor->process(samples + nextBatch(), (int) batchSize);
+                // averaged samples that changed are copied out the same way they are passed to java
+                for (int t = 0; t < processor->getProcessedTriggerCount(); t++) {
+                    const short *averagedSamples = processor->getAveragedSamples(t);
+                    std::copy(averagedSamples + processor->getDirtyStart(t),
+                              averagedSamples + processor->getDirtyEnd(t),
+                              outSamples->data() + t * channelCapacity + processor->getDirtyStart(t));
+                }
+                return (long) batchSize;
+            }});
+        }
+    }
+}
+
+static void addAmModulationBenchmarks(std::vector<Benchmark> &benchmarks, const Signal &signal, bool modulate) {
+    static constexpr float CARRIER_FREQUENCY = 5000.0f;
+
+    auto input = std::make_shared<std::vector<short>>(signal.samples);
+    if (modulate) {
+        // signal modulates amplitude of the carrier the same way SpikerBox Pro does it when connected to audio input
+        for (size_t i = 0; i < input->size(); i++) {
+            float carrier = sinf(2.0f * (float) M_PI * CARRIER_FREQUENCY * i / signal.sampleRate);
+            (*input)[i] = (short) ((12000.0f + (*input)[i] * 0.3f) * carrier);
+        }
+    }
+    auto processor = std::make_shared<AmModulationProcessor>();
+    processor->setSampleRate(signal.sampleRate);
+    const size_t batchSize = (size_t) (signal.sampleRate * BATCH_SECONDS);
+    auto outSamples = std::make_shared<std::vector<short>>(batchSize);
+    auto nextBatch = batches(input->size(), batchSize);
+
+    benchmarks.push_back({"AmModulationProcessor::process", signal.name + (modulate ? " am" : ""), "sample", [=]() {
+        processor->process(input->data() + nextBatch(), outSamples->data(), (int) batchSize);
+        return (long) batchSize;
+    }});
+}
+
+// Copy of FilterBase::filter as it was before it became allocation-free, kept as the reference the current filters are
+// compared with. Scratch buffers are allocated with new[] instead of malloc so allocations are counted.
+class LegacyFilter {
+public:
+    explicit LegacyFilter(const FilterBase &filter) {
+        std::copy(filter.getCoefficients(), filter.getCoefficients() + 5, coefficients);
+    }
+
+    void filter(short *data, int numFrames) {
+        float *floatBuffer = new float[numFrames];
+        for (int i = numFrames - 1; i >= 0; i--) floatBuffer[i] = data[i];
+
+        float *inputBuffer = new float[numFrames + 2];
+        float *outputBuffer = new float[numFrames + 2];
+        std::copy(inputKeepBuffer, inputKeepBuffer + 2, inputBuffer);
+        std::copy(outputKeepBuffer, outputKeepBuffer + 2, outputBuffer);
+        std::copy(floatBuffer, floatBuffer + numFrames, inputBuffer + 2);
+        for (int n = 2; n < numFrames + 2; n++) {
+            outputBuffer[n] = inputBuffer[n] * coefficients[0] + inputBuffer[n - 1] * coefficients[1] +
+                              inputBuffer[n - 2] * coefficients[2] - outputBuffer[n - 1] * coefficients[3] -
+                              outputBuffer[n - 2] * coefficients[4];
+        }
+        std::copy(outputBuffer + 2, outputBuffer + numFrames + 2, floatBuffer);
+        std::copy(inputBuffer + numFrames, inputBuffer + numFrames + 2, inputKeepBuffer);
+        std::copy(outputBuffer + numFrames, outputBuffer + numFrames + 2, outputKeepBuffer);
+        delete[] inputBuffer;
+        delete[] outputBuffer;
+
+        for (int i = numFrames - 1; i >= 0; i--) data[i] = (short) floatBuffer[i];
+        delete[] floatBuffer;
+    }
+
+private:
+    float coefficients[5];
+    float inputKeepBuffer[2] = {0.0f, 0.0f};
+    float outputKeepBuffer[2] = {0.0f, 0.0f};
+};
+
+static void addFilterBenchmark(std::vector<Benchmark> &benchmarks, const Signal &signal, const std::string &name,
+                               int channelCount, std::function<void(short **, int, int)> filter) {
+    const size_t batchSize = (size_t) (signal.sampleRate * BATCH_SECONDS);
+    auto batch = std::make_shared<std::vector<short>>(batchSize * channelCount);
+    auto channels = std::make_shared<std::vector<short *>>(channelCount);
+    for (int i = 0; i < channelCount; i++) (*channels)[i] = batch->data() + i * batchSize;
+    auto nextBatch = batches(signal.samples.size(), batchSize);
+    const short *samples = signal.samples.data();
+
+    benchmarks.push_back({name, signal.name + " " + std::to_string(channelCount) + "ch", "sample", [=]() {
+        // filtering is done in place so every time a fresh batch is copied (copying is part of the measurement),
+        // all channels get the same samples
+        const short *from = samples + nextBatch();
+        for (int i = 0; i < channelCount; i++) std::copy(from, from + batchSize, batch->data() + i * batchSize);
+        filter(channels->data(), channelCount, (int) batchSize);
+        return (long) (batchSize * channelCount);
+    }});
+}
+
+template<class T>
+static void addFilterBenchmark(std::vector<Benchmark> &benchmarks, const Signal &signal, const std::string &name,
+                               std::shared_ptr<T> filter) {
+    addFilterBenchmark(benchmarks, signal, name, 1, [=](short **channels, int count, int numFrames) {
+        filter->filter(channels[0], numFrames);
+    });
+}
+
+static void addFilterBenchmarks(std::vector<Benchmark> &benchmarks, const Signal &signal) {
+    auto lowPassFilter = std::make_shared<LowPassFilter>();
+    lowPassFilter->initWithSamplingRate(signal.sampleRate);
+    lowPassFilter->setCornerFrequency(std::min(2500.0f, signal.sampleRate / 2.0f));
+    lowPassFilter->setQ(0.5f);
+    addFilterBenchmark(benchmarks, signal, "FilterBase::filter [low-pass]", lowPassFilter);
+    addFilterBenchmark(benchmarks, signal, "FilterBase::filter (legacy) [low-pass]",
+                       std::make_shared<LegacyFilter>(*lowPassFilter));
+
+    auto highPassFilter = std::make_shared<HighPassFilter>();
+    highPassFilter->initWithSamplingRate(signal.sampleRate);
+    highPassFilter->setCornerFrequency(300.0f);
+    highPassFilter->setQ(0.5f);
+    addFilterBenchmark(benchmarks, signal, "FilterBase::filter [high-pass]", highPassFilter);
+    addFilterBenchmark(benchmarks, signal, "FilterBase::filter (legacy) [high-pass]",
+                       std::make_shared<LegacyFilter>(*highPassFilter));
+
+    auto notchFilter = std::make_shared<NotchFilter>();
+    notchFilter->initWithSamplingRate(signal.sampleRate);
+    notchFilter->setCenterFrequency(50.0f);
+    notchFilter->setQ(1.0f);
+    addFilterBenchmark(benchmarks, signal, "FilterBase::filter [notch]", notchFilter);
+    addFilterBenchmark(benchmarks, signal, "FilterBase::filter (legacy) [notch]",
+                       std::make_shared<LegacyFilter>(*notchFilter));
+
+    // low-pass and high-pass filters enabled in the app, filtered in a single pass over all channels vs one pass per
+    // filter per channel
+    float stages[2][5];
+    std::copy(lowPassFilter->getCoefficients(), lowPassFilter->getCoefficients() + 5, stages[0]);
+    std::copy(highPassFilter->getCoefficients(), highPassFilter->getCoefficients() + 5, stages[1]);
+    for (int channelCount : {1, 2, 6}) {
+        auto cascade = std::make_shared<FilterCascade>();
+        cascade->setStages(stages, 2);
+        addFilterBenchmark(benchmarks, signal, "FilterCascade::process [low+high]", channelCount,
+                           [=](short **channels, int count, int numFrames) {
+                               cascade->process(channels, count, numFrames);
+                           });
+
+        auto legacyFilters = std::make_shared<std::vector<LegacyFilter>>();
+        for (int i = 0; i < channelCount; i++) {
+            legacyFilters->push_back(LegacyFilter(*lowPassFilter));
+            legacyFilters->push_back(LegacyFilter(*highPassFilter));
+        }
+        addFilterBenchmark(benchmarks, signal, "FilterBase::filter (legacy) [low+high]", channelCount,
+                           [=](short **channels, int count, int numFrames) {
+                               for (int i = 0; i < count; i++) {
+                                   (*legacyFilters)[i * 2].filter(channels[i], numFrames);
+                                   (*legacyFilters)[i * 2 + 1].filter(channels[i], numFrames);
+                               }
+                           });
+    }
+
+    // band-pass filter with notches at the fundamental and five harmonics of the mains hum, as used for EMG
+    float notchedStages[FilterCascade::MAX_STAGES][5];
+    std::copy(stages[0], stages[0] + 10, notchedStages[0]);
+    int notchedStageCount = 2;
+    for (int i = 1; i <= 6; i++) {
+        NotchFilter harmonicFilter;
+        harmonicFilter.initWithSamplingRate(signal.sampleRate);
+        harmonicFilter.setCenterFrequency(50.0f * i);
+        harmonicFilter.setQ(50.0f * i / 3.0f);
+        std::copy(harmonicFilter.getCoefficients(), harmonicFilter.getCoefficients() + 5,
+                  notchedStages[notchedStageCount++]);
+    }
+    auto notchedCascade = std::make_shared<FilterCascade>();
+    notchedCascade->setStages(notchedStages, notchedStageCount);
+    addFilterBenchmark(benchmarks, signal, "FilterCascade::process [low+high+6 notches]", 6,
+                       [=](short **channels, int count, int numFrames) {
+                           notchedCascade->process(channels, count, numFrames);
+                       });
+
+    auto mainsHumDetector = std::make_shared<MainsHumDetector>();
+    mainsHumDetector->setSampleRate(signal.sampleRate);
+    addFilterBenchmark(benchmarks, signal, "MainsHumDetector::process", 1,
+                       [=](short **channels, int count, int numFrames) {
+                           mainsHumDetector->process(channels[0], numFrames);
+                       });
+
+    // filters are reconfigured before every batch, same as when user drags cut-off frequency slider
+    auto reconfiguredCascade = std::make_shared<FilterCascade>();
+    auto reconfiguredStages = std::make_shared<std::vector<float>>(stages[0], stages[0] + 10);
+    addFilterBenchmark(benchmarks, signal, "FilterCascade::process [low+high, swap]", 6,
+                       [=](short **channels, int count, int numFrames) {
+                           reconfiguredCascade->setStages((const float (*)[5]) reconfiguredStages->data(), 2);
+                           reconfiguredCascade->process(channels, count, numFrames);
+                       });
+}
+
+static void addDecimatorBenchmarks(std::vector<Benchmark> &benchmarks, const Signal &signal) {
+    // 1 kHz feed used for heart and plant signals and a 4 times smaller display feed
+    for (int factor : {(int) (signal.sampleRate / 1000.0f), 4}) {
+        for (int channelCount : {1, 6}) {
+            auto decimator = std::make_shared<PolyphaseDecimator>(factor, channelCount);
+            const size_t batchSize = (size_t) (signal.sampleRate * BATCH_SECONDS);
+            auto batch = std::make_shared<std::vector<short>>(batchSize * channelCount);
+            auto outSamples = std::make_shared<std::vector<short>>(batchSize * channelCount);
+            auto nextBatch = batches(signal.samples.size(), batchSize);
+            const short *samples = signal.samples.data();
+
+            benchmarks.push_back({"PolyphaseDecimator::process [/" + std::to_string(decimator->getFactor()) + "]",
+                                  signal.name + " " + std::to_string(channelCount) + "ch", "sample", [=]() {
+                        // all channels get the same samples
+                        const short *from = samples + nextBatch();
+                        for (int i = 0; i < channelCount; i++) {
+                            std::copy(from, from + batchSize, batch->data() + i * batchSize);
+                        }
+                        decimator->process(batch->data(), (int) batchSize, outSamples->data(), (int) batchSize,
+                                           channelCount, (int) batchSize);
+                        return (long) (batchSize * channelCount);
+                    }});
+        }
+    }
+}
+
+static void addDrawingBenchmarks(std::vector<Benchmark> &benchmarks, const Signal &signal) {
+    // event every half a second, same as the sample stream
+    static constexpr float EVENT_PERIOD_SECONDS = 0.5f;
+
+    for (float seconds : {DRAWING_SECONDS, 0.1f}) {
+        const int sampleCount = std::min((int) signal.samples.size(), (int) (signal.sampleRate * seconds));
+        auto eventIndices = std::make_shared<std::vector<int>>();
+        for (int i = 0; i < sampleCount; i += (int) (signal.sampleRate * EVENT_PERIOD_SECONDS)) {
+            eventIndices->push_back(i);
+        }
+        auto outSamples = std::make_shared<std::vector<short>>(DRAWING_SURFACE_WIDTH * 5);
+        auto outEventIndices = std::make_shared<std::vector<int>>(eventIndices->size() + 1);
+        const short *samples = signal.samples.data();
+        const std::string input = signal.name + " " + std::to_string((int) (seconds * 1000)) + "ms";
+
+        benchmarks.push_back({"envelope", input, "sample", [=]() {
+            int *counts = envelope(outSamples->data(), samples, outEventIndices->data(), eventIndices->data(),
+                                   (int) eventIndices->size(), 0, sampleCount, DRAWING_SURFACE_WIDTH);
+            delete[] counts;
+            return (long) sampleCount;
+        }});
+        benchmarks.push_back({"prepareForDrawing", input, "sample", [=]() {
+            int *counts = prepareForDrawing(outSamples->data(), samples, outEventIndices->data(), eventIndices->data(),
+                                            (int) eventIndices->size(), 0, sampleCount, DRAWING_SURFACE_WIDTH);
+            delete[] counts;
+            return (long) sampleCount;
+        }});
+
+        // same window drawn from the pyramid, cost of a frame doesn't depend on the number of drawn samples
+        const size_t batchSize = (size_t) (signal.sampleRate * BATCH_SECONDS);
+        auto nextBatch = batches(signal.samples.size(), batchSize);
+        auto pyramid = std::make_shared<EnvelopePyramid>(sampleCount);
+        pyramid->append(samples, sampleCount);
+        auto drawPyramid = [=](int drawSurfaceWidth) {
+            int counts[3];
+            pyramid->prepareForDrawing(outSamples->data(), (int) outSamples->size(), outEventIndices->data(),
+                                       (int) outEventIndices->size(), eventIndices->data(),
+                                       (int) eventIndices->size(), 0, sampleCount, drawSurfaceWidth, counts);
+        };
+        // columns of the previous frame are reused
+        benchmarks.push_back({"EnvelopePyramid::prepareForDrawing [static]", input, "sample", [=]() {
+            drawPyramid(DRAWING_SURFACE_WIDTH);
+            return (long) sampleCount;
+        }});
+        // frame after every incoming batch, only the columns that scrolled into view are calculated
+        benchmarks.push_back({"EnvelopePyramid::prepareForDrawing [scroll]", input, "sample", [=]() {
+            pyramid->append(samples + nextBatch(), (int) batchSize);
+            drawPyramid(DRAWING_SURFACE_WIDTH);
+            return (long) sampleCount;
+        }});
+        // number of samples per column changes every frame so all columns are calculated
+        auto zoomed = std::make_shared<bool>(false);
+        benchmarks.push_back({"EnvelopePyramid::prepareForDrawing [zoom]", input, "sample", [=]() {
+            *zoomed = !*zoomed;
+            drawPyramid(*zoomed ? DRAWING_SURFACE_WIDTH / 2 : DRAWING_SURFACE_WIDTH);
+            return (long) sampleCount;
+        }});
+        // pyramid is updated with every incoming batch
+        benchmarks.push_back({"EnvelopePyramid::append", input, "sample", [=]() {
+            pyramid->append(samples + nextBatch(), (int) batchSize);
+            return (long) batchSize;
+        }});
+    }
+}
+
+// Output arrays of analyses are allocated by the caller (JNI layer) so they are allocated once and reused
+template<class T>
+struct Arrays {
+    Arrays(int count, int length) : arrays((size_t) count, std::vector<T>((size_t) length)) {
+        for (auto &array : arrays) pointers.push_back(array.data());
+    }
+
+    std::vector<std::vector<T>> arrays;
+    std::vector<T *> pointers;
+};
+
+static void addAnalysisBenchmarks(std::vector<Benchmark> &benchmarks, const Signal &signal) {
+    // same as in the java counterparts of the analyses
+    static constexpr int ISI_BIN_COUNT = 100;
+    static constexpr float MAX_TIME = 0.1f;
+    static constexpr float BIN_SIZE = 0.001f;
+    static constexpr float BATCH_SPIKE_HALF_IN_SECS = 0.002f;
+
+    const size_t sampleCount = signal.samples.size();
+    const int trainCount = (int) signal.spikeTrains.size();
+    auto spikeCounts = std::make_shared<std::vector<int>>();
+    auto spikeTrains = std::make_shared<std::vector<float *>>();
+    auto spikeIndices = std::make_shared<std::vector<int *>>();
+    long spikeCount = 0;
+    for (int i = 0; i < trainCount; i++) {
+        spikeCounts->push_back((int) signal.spikeTrains[i].size());
+        spikeTrains->push_back(const_cast<float *>(signal.spikeTrains[i].data()));
+        spikeIndices->push_back(const_cast<int *>(signal.spikeIndices[i].data()));
+        spikeCount += signal.spikeTrains[i].size();
+    }
+    const std::string input = signal.name + " " + std::to_string(spikeCount) + " spikes";
+
+    auto spikeAnalysis = std::make_shared<SpikeAnalysis>();
+    const int maxSpikes = (int) (sampleCount / 10);
+    auto valuesPos = std::make_shared<std::vector<short>>(maxSpikes);
+    auto valuesNeg = std::make_shared<std::vector<short>>(maxSpikes);
+    auto indicesPos = std::make_shared<std::vector<int>>(maxSpikes);
+    auto indicesNeg = std::make_shared<std::vector<int>>(maxSpikes);
+    auto timesPos = std::make_shared<std::vector<float>>(maxSpikes);
+    auto timesNeg = std::make_shared<std::vector<float>>(maxSpikes);
+    const std::string filePath = signal.filePath;
+    benchmarks.push_back({"SpikeAnalysis::findSpikes", signal.name, "sample", [=]() {
+        int *counts = spikeAnalysis->findSpikes(filePath.c_str(), valuesPos->data(), indicesPos->data(),
+                                                timesPos->data(), valuesNeg->data(), indicesNeg->data(),
+                                                timesNeg->data());
+        delete[] counts;
+        return (long) sampleCount;
+    }});
+
+    auto averageSpikeAnalysis = std::make_shared<AverageSpikeAnalysis>();
+    const int batchSpikeCount = 2 * (int) (signal.sampleRate * BATCH_SPIKE_HALF_IN_SECS) + 1;
+    auto averageSpike = std::make_shared<Arrays<float>>(trainCount * 4, batchSpikeCount);
+    benchmarks.push_back({"AverageSpikeAnalysis::process", input, "spike", [=]() {
+        float **out = averageSpike->pointers.data();
+        averageSpikeAnalysis->process(filePath.c_str(), spikeIndices->data(), trainCount, spikeCounts->data(), out,
+                                      out + trainCount, out + 2 * trainCount, out + 3 * trainCount, batchSpikeCount);
+        return spikeCount;
+    }});
+
+    auto isiAnalysis = std::make_shared<IsiAnalysis>();
+    auto isi = std::make_shared<Arrays<int>>(trainCount, ISI_BIN_COUNT);
+    benchmarks.push_back({"IsiAnalysis::process", input, "spike", [=]() {
+        isiAnalysis->process(spikeTrains->data(), trainCount, spikeCounts->data(), isi->pointers.data(), ISI_BIN_COUNT);
+        return spikeCount;
+    }});
+
+    auto autocorrelationAnalysis = std::make_shared<AutocorrelationAnalysis>();
+    const int autocorrelationBinCount = (int) ceilf((MAX_TIME + BIN_SIZE) / BIN_SIZE);
+    auto autocorrelation = std::make_shared<Arrays<int>>(trainCount, autocorrelationBinCount);
+    benchmarks.push_back({"AutocorrelationAnalysis::process", input, "spike", [=]() {
+        autocorrelationAnalysis->process(spikeTrains->data(), trainCount, spikeCounts->data(),
+                                         autocorrelation->pointers.data(), autocorrelationBinCount);
+        return spikeCount;
+    }});
+
+    auto crossCorrelationAnalysis = std::make_shared<CrossCorrelationAnalysis>();
+    const int crossCorrelationBinCount = (int) ceilf((2 * MAX_TIME + BIN_SIZE) / BIN_SIZE);
+    auto crossCorrelation = std::make_shared<Arrays<int>>(trainCount * trainCount, crossCorrelationBinCount);
+    benchmarks.push_back({"CrossCorrelationAnalysis::process", input, "spike", [=]() {
+        crossCorrelationAnalysis->process(spikeTrains->data(), trainCount, spikeCounts->data(),
+                                          crossCorrelation->pointers.data(), crossCorrelationBinCount);
+        return spikeCount;
+    }});
+}
+
+// ------------------------------------------------------------------------------------------------------------------
+// Checks
+// ------------------------------------------------------------------------------------------------------------------
+
+// Passes specified signal through AM modulation processor in batches and returns number of batches after which signal
+// was considered modulated, batches processed while detection settles are left out and not counted in batchCount
+static int countAmDetectedBatches(const std::vector<short> &samples, float sampleRate, int &batchCount) {
+    static constexpr float SETTLE_SECONDS = 0.5f;
+
+    AmModulationProcessor processor;
+    processor.setSampleRate(sampleRate);
+    const size_t batchSize = (size_t) (sampleRate * BATCH_SECONDS);
+    const size_t settleSampleCount = (size_t) (sampleRate * SETTLE_SECONDS);
+    std::vector<short> outSamples(batchSize);
+    int detectedCount = 0;
+    batchCount = 0;
+    for (size_t i = 0; i + batchSize <= samples.size(); i += batchSize) {
+        processor.process(samples.data() + i, outSamples.data(), (int) batchSize);
+        if (i < settleSampleCount) continue;
+
+        batchCount++;
+        if (processor.isReceivingAmSignal()) detectedCount++;
+    }
+    return detectedCount;
+}
+
+// Checks that AM carrier modulated by sinusoids of different depth and frequency is detected in every batch and that
+// signals that aren't modulated are never detected. Returns false if any of the checks fails.
+static bool checkAmDetection(FILE *out) {
+    static constexpr float SAMPLE_RATE = 44100.0f;
+    static constexpr float SECONDS = 2.0f;
+    static constexpr float CARRIER_FREQUENCY = 5000.0f;
+    static constexpr float CARRIER_AMPLITUDE = 12000.0f;
+
+    const int sampleCount = (int) (SAMPLE_RATE * SECONDS);
+    bool passed = true;
+    for (float depth : {0.3f, 0.5f, 1.0f}) {
+        for (float modulationFrequency : {100.0f, 300.0f}) {
+            std::vector<short> samples((size_t) sampleCount);
+            for (int i = 0; i < sampleCount; i++) {
+                const float modulation =
+                    1.0f + depth * sinf(2.0f * (float) M_PI * modulationFrequency * i / SAMPLE_RATE);
+                const float carrier = sinf(2.0f * (float) M_PI * CARRIER_FREQUENCY * i / SAMPLE_RATE);
+                samples[i] = (short) (CARRIER_AMPLITUDE / (1.0f + depth) * modulation * carrier);
+            }
+            int batchCount;
+            const int detectedCount = countAmDetectedBatches(samples, SAMPLE_RATE, batchCount);
+            const bool ok = detectedCount == batchCount;
+            passed &= ok;
+            fprintf(out, "%-4s AM detection, depth %.1f, %3.0f Hz modulation: %d/%d batches modulated\n",
+                    ok ? "OK" : "FAIL", depth, modulationFrequency, detectedCount, batchCount);
+        }
+    }
+
+    // signals that aren't modulated, synthetic signal is the one benchmarks use at microphone sample rate
+    std::vector<std::pair<std::string, std::vector<short>>> unmodulated;
+    unmodulated.emplace_back("synthetic", generateSignal(SAMPLE_RATE, SECONDS, 1).samples);
+    std::vector<short> tone((size_t) sampleCount);
+    for (int i = 0; i < sampleCount; i++) {
+        tone[i] = (short) (CARRIER_AMPLITUDE * sinf(2.0f * (float) M_PI * 1000.0f * i / SAMPLE_RATE));
+    }
+    unmodulated.emplace_back("1 kHz tone", tone);
+    for (const auto &signal : unmodulated) {
+        int batchCount;
+        const int detectedCount = countAmDetectedBatches(signal.second, SAMPLE_RATE, batchCount);
+        const bool ok = detectedCount == 0;
+        passed &= ok;
+        fprintf(out, "%-4s AM detection, %s: %d/%d batches modulated\n", ok ? "OK" : "FAIL", signal.first.c_str(),
+                detectedCount, batchCount);
+    }
+    fflush(out);
+
+    return passed;
+}
+
+// Checks that sweep averager keeps the average of the last averaged sweeps equal to the average computed directly from
+// the signal while overlapping sweeps start before (taken from history) or within the incoming batches and while batch
+// boundaries split sweeps at random positions. Returns false if any of the checks fails.
+static bool checkSweepAveraging(FILE *out) {
+    static constexpr int SAMPLE_COUNT = 500;
+    static constexpr int HISTORY_SIZE = 1000;
+    static constexpr int SIGNAL_LENGTH = 20000;
+
+    std::mt19937 random(7);
+    std::uniform_int_distribution<int> sampleDistribution(-20000, 20000);
+    std::vector<short> signal((size_t) SIGNAL_LENGTH);
+    for (short &sample : signal) sample = (short) sampleDistribution(random);
+
+    bool passed = true;
+    SweepAverager averager;
+    for (int averagedSweepCount : {1, 4, 10}) {
+        // resetting already used averager needs to clear everything it held
+        averager.reset(SAMPLE_COUNT, averagedSweepCount);
+
+        // sweeps start at random distances that are shorter than sweep so they overlap, and are started up to half
+        // a sweep late so part of them comes from history
+        std::uniform_int_distribution<int> periodDistribution(SAMPLE_COUNT / 5, SAMPLE_COUNT * 2);
+        std::uniform_int_distribution<int> delayDistribution(0, SAMPLE_COUNT / 2);
+        std::uniform_int_distribution<int> batchDistribution(1, SAMPLE_COUNT);
+        std::vector<int> sweepStarts;
+        std::vector<int> pendingStarts;
+        int nextSweepStart = SAMPLE_COUNT;
+        std::vector<short> history((size_t) HISTORY_SIZE);
+        int maxDiff = 0;
+        bool dirtyRangeOk = true;
+        for (int position = 0; position < SIGNAL_LENGTH;) {
+            const int length = std::min(batchDistribution(random), SIGNAL_LENGTH - position);
+            const short *inSamples = signal.data() + position;
+            averager.append(inSamples, length);
+            while (nextSweepStart < position + length) {
+                pendingStarts.push_back(nextSweepStart);
+                nextSweepStart += periodDistribution(random);
+            }
+            // pending sweeps are started in order once their delay has passed, which can be a few batches later
+            while (!pendingStarts.empty() && pendingStarts.front() + delayDistribution(random) < position + length) {
+                const int start = pendingStarts.front();
+                if (averager.canStartSweep() && start + SAMPLE_COUNT <= SIGNAL_LENGTH) {
+                    averager.startSweep(history.data(), HISTORY_SIZE, position % HISTORY_SIZE, inSamples, length,
+                                        start - position);
+                    sweepStarts.push_back(start);
+                }
+                pendingStarts.erase(pendingStarts.begin());
+            }
+            averager.update();
+            const int dirtyStart = averager.getDirtyStart();
+            const int dirtyEnd = averager.getDirtyEnd();
+            dirtyRangeOk &= dirtyStart >= 0 && dirtyStart <= dirtyEnd && dirtyEnd <= SAMPLE_COUNT;
+
+            for (int i = 0; i < length; i++) history[(position + i) % HISTORY_SIZE] = inSamples[i];
+            position += length;
+
+            // average at every index is the average of the last averagedSweepCount sweeps that reached it
+            const short *averagedSamples = averager.getAveragedSamples();
+            for (int j = 0; j < SAMPLE_COUNT; j++) {
+                int sum = 0;
+                int count = 0;
+                for (int k = (int) sweepStarts.size() - 1; k >= 0 && count < averagedSweepCount; k--) {
+                    if (sweepStarts[k] + j >= position) continue;
+                    sum += signal[sweepStarts[k] + j];
+                    count++;
+                }
+                const int expected = count > 0 ? sum / count : 0;
+                maxDiff = std::max(maxDiff, std::abs(expected - averagedSamples[j]));
+            }
+        }
+
+        const bool ok = maxDiff == 0 && dirtyRangeOk && sweepStarts.size() > (size_t) averagedSweepCount;
+        passed &= ok;
+        fprintf(out, "%-4s Sweep averaging, %2d averaged sweeps: %zu sweeps, max diff %d%s\n", ok ? "OK" : "FAIL",
+                averagedSweepCount, sweepStarts.size(), maxDiff, dirtyRangeOk ? "" : ", invalid dirty range");
+    }
+    fflush(out);
+
+    return passed;
+}
+
+// ------------------------------------------------------------------------------------------------------------------
+// Main
+// ------------------------------------------------------------------------------------------------------------------
+
+static void printUsage(const char *program) {
+    printf("Usage: %s [options]\n"
+           "  --filter <text>    run only benchmarks which name or input contain the text\n"
+           "  --wav <path>       also run benchmarks with samples of the recorded WAV file (first channel is used)\n"
+           "  --seconds <s>      length of generated synthetic signal (default 30)\n"
+           "  --time <s>         minimum measurement time of a single benchmark (default 1)\n"
+           "  --warmup <s>       warm-up time of a single benchmark (default 0.2)\n"
+           "  --csv              print results as CSV\n", program);
+}
+
+static bool parseOptions(int argc, char **argv, Options &options) {
+    for (int i = 1; i < argc; i++) {
+        std::string arg = argv[i];
+        bool hasValue = i + 1 < argc;
+        if (arg == "--filter" && hasValue) {
+            options.filter = argv[++i];
+        } else if (arg == "--wav" && hasValue) {
+            options.wavPath = argv[++i];
+        } else if (arg == "--seconds" && hasValue) {
+            options.syntheticSeconds = strtof(argv[++i], nullptr);
+        } else if (arg == "--time" && hasValue) {
+            options.measureSeconds = strtod(argv[++i], nullptr);
+        } else if (arg == "--warmup" && hasValue) {
+            options.warmupSeconds = strtod(argv[++i], nullptr);
+        } else if (arg == "--csv") {
+            options.csv = true;
+        } else {
+            return false;
+        }
+    }
+    return options.syntheticSeconds >= DRAWING_SECONDS;
+}
+
+int main(int argc, char **argv) {
+    Options options;
+    if (!parseOptions(argc, argv, options)) {
+        printUsage(argv[0]);
+        return 1;
+    }
+
+    // results of the checks are printed to stderr when printing CSV so they don't end up in it
+    FILE *checkOut = options.csv ? stderr : stdout;
+    const bool checksPassed = checkAmDetection(checkOut) & checkSweepAveraging(checkOut);
+
+    // synthetic signals at sample rates of SpikerBoxes (USB) and of the microphone, analyses need them saved to file
+    std::vector<Signal> signals;
+    std::vector<std::string> tempFiles;
+    unsigned int seed = 1;
+    for (float sampleRate : {10000.0f, 44100.0f}) {
+        Signal signal = generateSignal(sampleRate, options.syntheticSeconds, seed++);
+        char path[] = "/tmp/byb-bench-XXXXXX";
+        int fd = mkstemp(path);
+        if (fd != -1) close(fd);
+        if (fd == -1 || !writeWav(path, signal)) {
+            fprintf(stderr, "Unable to write synthetic signal to %s\n", path);
+            return 1;
+        }
+        signal.filePath = path;
+        tempFiles.push_back(path);
+        signals.push_back(signal);
+    }
+    if (!options.wavPath.empty()) {
+        Signal signal;
+        if (!readWav(options.wavPath, signal)) {
+            fprintf(stderr, "Unable to read %s\n", options.wavPath.c_str());
+            return 1;
+        }
+        findSpikeTrains(signal);
+        signals.push_back(signal);
+    }
+
+    std::vector<Benchmark> benchmarks;
+    for (const Signal &signal : signals) {
+        if (signal.sampleRate <= 10000.0f) {
+            addSampleStreamBenchmarks(benchmarks, signal, 2);
+            // Heart & Brain board sends 6 channels
+            addSampleStreamBenchmarks(benchmarks, signal, 6);
+        }
+        addThresholdBenchmarks(benchmarks, signal);
+        addAmModulationBenchmarks(benchmarks, signal, false);
+        if (signal.sampleRate > 10000.0f) addAmModulationBenchmarks(benchmarks, signal, true);
+        addFilterBenchmarks(benchmarks, signal);
+        addDecimatorBenchmarks(benchmarks, signal);
+        addDrawingBenchmarks(benchmarks, signal);
+        addAnalysisBenchmarks(benchmarks, signal);
+    }
+
+    if (options.csv) {
+        printf("benchmark,input,unit,calls,ns_per_call,ns_per_item,allocs_per_call,bytes_per_call\n");
+    } else {
+        printf("%-44s %-26s %10s %14s %10s %-7s %10s %12s\n", "Benchmark", "Input", "Calls", "ns/call", "ns/item",
+               "(item)", "allocs/call", "bytes/call");
+    }
+    for (const Benchmark &benchmark : benchmarks) {
+        if (!options.filter.empty() && benchmark.name.find(options.filter) == std::string::npos &&
+            benchmark.input.find(options.filter) == std::string::npos) {
+            continue;
+        }
+        run(benchmark, options);
+    }
+
+    for (const std::string &path : tempFiles) {
+        remove(path.c_str());
+    }
+
+    return checksPassed ? 0 : 1;
+}
@@ -0,0 +1,42 @@
+//
+// Created by Tihomir Leka <tihomir at backyardbrains.com>
+//
+
+#ifndef SPIKE_RECORDER_ANDROID_HOST_LOG_H
+#define SPIKE_RECORDER_ANDROID_HOST_LOG_H
+
+#include <stdarg.h>
+#include <stdio.h>
+
+// Stands in for NDK's android/log.h when byb-lib is built for the host. Messages with priority lower than
+// ANDROID_LOG_LOG_LEVEL (warnings by default) are dropped so logging doesn't skew benchmark results.
+
+typedef enum android_LogPriority {
+    ANDROID_LOG_UNKNOWN = 0,
+    ANDROID_LOG_DEFAULT,
+    ANDROID_LOG_VERBOSE,
+    ANDROID_LOG_DEBUG,
+    ANDROID_LOG_INFO,
+    ANDROID_LOG_WARN,
+    ANDROID_LOG_ERROR,
+    ANDROID_LOG_FATAL,
+    ANDROID_LOG_SILENT,
+} android_LogPriority;
+
+#ifndef ANDROID_LOG_LOG_LEVEL
+#define ANDROID_LOG_LOG_LEVEL ANDROID_LOG_WARN
+#endif
+
+static inline int __android_log_print(int prio, const char *tag, const char *fmt, ...) {
+    if (prio < ANDROID_LOG_LOG_LEVEL) return 0;
+
+    va_list args;
+    va_start(args, fmt);
+    fprintf(stderr, "%s: ", tag);
+    int written = vfprintf(stderr, fmt, args);
+    fputc('\n', stderr);
+    va_end(args);
+    return written;
+}
+
+#endif //SPIKE_RECORDER_ANDROID_HOST_LOG_H
@@ -10,6 +10,7 @@ import android.view.ViewGroup;
 import android.widget.FrameLayout;
 import android.widget.ImageButton;
 import com.backyardbrains.drawing.BaseWaveformRenderer;
+import com.backyardbrains.drawing.FramePacer;
 import com.backyardbrains.events.SampleRateChangeEvent;
 import com.backyardbrains.view.WaveformLayout;
 import org.greenrobot.eventbus.Subscribe;
@@ -141,6 +142,15 @@ public abstract class BaseWaveformFragment extends BaseFragment {
         return renderer;
     }
 
+    /**
+     * Returns maximum number of frames per second the waveform is redrawn at. Waveform is only redrawn when something
+     * changes so this is the rate at which it's redrawn while samples are coming in. Subclasses should override this
+     * method if they need a different rate.
+     */
+    protected int getMaxFrameRate() {
+        return FramePacer.DEFAULT_MAX_FRAME_RATE;
+    }
+
     /**
      * Subclasses should override this method if they need to do some work when sample rate changes.
      */
@@ -169,6 +179,7 @@ public abstract class BaseWaveformFragment extends BaseFragment {
     private void setupUI() {
         renderer = createRenderer();
         waveform.setRenderer(renderer);
+        waveform.setMaxFrameRate(getMaxFrameRate());
 
         if (isBackable()) {
             ibtnBack.setOnClickListener(new View.OnClickListener() {
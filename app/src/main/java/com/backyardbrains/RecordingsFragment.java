@@ -205,7 +205,8 @@ public class RecordingsFragment extends BaseFragment implements EasyPermissions.
         }
         String details = "File name: " + f.getName() + "\n";
         details += "Full path: \n" + f.getAbsolutePath() + "\n";
-        details += "Duration: " + (waf != null ? WavUtils.formatWavLength(f.length(), waf.sampleRate()) : "UNKNOWN");
+        details += "Duration: " + (waf != null ? WavUtils.formatWavLength(f.length(), waf.sampleRate(),
+            waf.numChannels()) : "UNKNOWN");
         BYBUtils.showAlert(getActivity(), "File details", details);
     }
 
@@ -570,7 +571,9 @@ public class RecordingsFragment extends BaseFragment implements EasyPermissions.
                     waf = new WavAudioFile(file);
                 } catch (IOException ignored) {
                 }
-                tvFileSize.setText(waf != null ? WavUtils.formatWavLength(file.length(), waf.sampleRate()) : "UNKNOWN");
+                tvFileSize.setText(
+                    waf != null ? WavUtils.formatWavLength(file.length(), waf.sampleRate(), waf.numChannels())
+                        : "UNKNOWN");
                 date.setTime(file.lastModified());
                 tvFileLasModified.setText(DateUtils.format_MMM_d_yyyy_HH_mm_a(date));
             }
@@ -39,11 +39,20 @@ public class ThresholdFragment extends BaseWaveformFragment {
     @BindView(R.id.sb_averaged_sample_count) SeekBar sbAvgSamplesCount;
     @BindView(R.id.tv_averaged_sample_count) TextView tvAvgSamplesCount;
     @BindView(R.id.tb_sound) ToggleButton tbSound;
+    @BindView(R.id.tb_event_triggers) ToggleButton tbEventTriggers;
     @BindView(R.id.hv_heartbeat) HeartbeatView vHeartbeat;
     @BindView(R.id.tv_beats_per_minute) TextView tvBeatsPerMinute;
 
     private static final int AVERAGED_SAMPLE_COUNT = 30;
     private static final double MAX_PROCESSING_TIME = 2.4; // 2.4 seconds
+    // SpikerBox event markers averaged samples are locked to when event triggers are on, each one to it's own channel
+    private static final String[] EVENT_TRIGGER_NAMES = { "1", "2", "3", "4" };
+    // Event markers are centered within averaged samples, same as threshold crossings
+    private static final float EVENT_TRIGGER_WINDOW = (float) (MAX_PROCESSING_TIME * .5);
+    private static final float[] EVENT_TRIGGER_PRE_TIMES = {
+        EVENT_TRIGGER_WINDOW, EVENT_TRIGGER_WINDOW, EVENT_TRIGGER_WINDOW, EVENT_TRIGGER_WINDOW
+    };
+    private static final float[] EVENT_TRIGGER_POST_TIMES = EVENT_TRIGGER_PRE_TIMES;
 
     final SetThresholdHandlePositionRunnable setThresholdHandlePositionRunnable =
         new SetThresholdHandlePositionRunnable();
@@ -186,7 +195,7 @@ public class ThresholdFragment extends BaseWaveformFragment {
         LOGD(TAG, "Audio serviced connected. Refresh threshold for initial value");
         if (event.isConnected()) {
             startMicAndSetupDataProcessing();
-            refreshThreshold();
+            updateTriggers();
             // setup BPM UI
             updateBpmUI();
         }
@@ -258,6 +267,29 @@ public class ThresholdFragment extends BaseWaveformFragment {
                 if (getContext() != null) PrefUtils.setBpmSound(getContext(), b);
             }
         });
+        // triggers
+        if (getContext() != null) tbEventTriggers.setChecked(PrefUtils.getEventTriggers(getContext()));
+        tbEventTriggers.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+            @Override public void onCheckedChanged(CompoundButton compoundButton, boolean b) {
+                if (getContext() != null) PrefUtils.setEventTriggers(getContext(), b);
+                updateTriggers();
+            }
+        });
+        thresholdHandle.setVisibility(tbEventTriggers.isChecked() ? View.INVISIBLE : View.VISIBLE);
+    }
+
+    // Locks averaged samples either to the threshold or to the event markers
+    private void updateTriggers() {
+        final boolean eventTriggers = tbEventTriggers.isChecked();
+        thresholdHandle.setVisibility(eventTriggers ? View.INVISIBLE : View.VISIBLE);
+        if (eventTriggers) {
+            if (getAudioService() != null) {
+                getAudioService().setEventTriggers(EVENT_TRIGGER_NAMES, EVENT_TRIGGER_PRE_TIMES,
+                    EVENT_TRIGGER_POST_TIMES);
+            }
+        } else {
+            refreshThreshold();
+        }
     }
 
     // Updates BpPM UI
@@ -300,7 +332,10 @@ public class ThresholdFragment extends BaseWaveformFragment {
 
     // Updates data processor with the newly set threshold.
     void updateDataProcessorThreshold(float value) {
-        JniUtils.setThreshold((int) value);
+        // threshold doesn't apply while averaged samples are locked to event markers
+        if (tbEventTriggers == null || tbEventTriggers.isChecked()) return;
+
+        if (getAudioService() != null) getAudioService().setThreshold((int) value);
     }
 
     // Refreshes renderer thresholds
@@ -7,6 +7,7 @@ import android.support.annotation.Nullable;
 import com.backyardbrains.audio.AudioFile;
 import com.backyardbrains.audio.WavAudioFile;
 import com.backyardbrains.data.AverageSpike;
+import com.backyardbrains.data.SpikeIndex;
 import com.backyardbrains.data.SpikeValueAndIndex;
 import com.backyardbrains.data.Threshold;
 import com.backyardbrains.data.persistance.AnalysisDataSource;
@@ -42,6 +43,9 @@ public class AnalysisManager {
     @SuppressWarnings("WeakerAccess") int[][] isi;
     @SuppressWarnings("WeakerAccess") AverageSpike[] averageSpikes;
 
+    // Incremented every time spike trains change so any data derived from them can be reloaded
+    private volatile int spikeTrainsVersion;
+
     public AnalysisManager(@NonNull Context context) {
         analysisRepository = AnalysisRepository.get(SpikeRecorderDatabase.get(context));
     }
@@ -102,10 +106,20 @@ public class AnalysisManager {
     }
 
     /**
-     * Returns array of spike values and indexes belonging to train with specified {@code trainId} for the specified range.
+     * Loads index of spikes of all the trains for audio file located at specified {@code filePath}. Index needs to be
+     * reloaded whenever {@link #getSpikeTrainsVersion()} changes.
+     */
+    public void getSpikeIndex(@NonNull String filePath,
+        @Nullable AnalysisDataSource.GetAnalysisCallback<SpikeIndex> callback) {
+        analysisRepository.getSpikeIndex(filePath, callback);
+    }
+
+    /**
+     * Returns version of spike trains which changes every time a train is added, removed or updated. Changes are saved
+     * before any data requested after the version change is loaded.
      */
-    public SpikeValueAndIndex[] getSpikesByTrainForRange(long trainId, int startIndex, int endIndex) {
-        return analysisRepository.getSpikesByTrainForRange(trainId, startIndex, endIndex);
+    public int getSpikeTrainsVersion() {
+        return spikeTrainsVersion;
     }
 
     /**
@@ -454,6 +468,7 @@ public class AnalysisManager {
                 if (callback != null) callback.onSpikeAnalysisTrainAdded(train);
             }
         });
+        spikeTrainsVersion++;
     }
 
     /**
@@ -467,6 +482,7 @@ public class AnalysisManager {
                     if (callback != null) callback.onSpikeAnalysisTrainRemoved(newTrainCount);
                 }
             });
+        spikeTrainsVersion++;
     }
 
     /**
@@ -475,5 +491,6 @@ public class AnalysisManager {
      */
     public void setThreshold(int index, @ThresholdOrientation int orientation, int value, @NonNull String filePath) {
         analysisRepository.saveSpikeAnalysisTrain(filePath, orientation, value, index);
+        spikeTrainsVersion++;
     }
 }
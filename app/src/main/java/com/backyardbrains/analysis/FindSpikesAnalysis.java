@@ -22,7 +22,8 @@ class FindSpikesAnalysis extends BaseAnalysis<Spike> {
     }
 
     @Nullable @Override public Spike[] process() throws Exception {
-        final long totalSamples = AudioUtils.getSampleCount(audioFile.length());
+        // spikes are looked for only in the first channel
+        final long totalSamples = AudioUtils.getSampleCount(audioFile.length()) / audioFile.numChannels();
         int maxSpikes = (int) (totalSamples / 10);
         short[] valuesPos = new short[maxSpikes];
         int[] indicesPos = new int[maxSpikes];
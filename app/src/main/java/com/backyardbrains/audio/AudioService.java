@@ -27,9 +27,11 @@ import android.os.IBinder;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import com.backyardbrains.data.processing.AbstractSampleSource;
+import com.backyardbrains.data.processing.OverflowPolicy;
 import com.backyardbrains.data.processing.ProcessingBuffer;
 import com.backyardbrains.data.processing.SampleProcessor;
 import com.backyardbrains.data.processing.SampleSource;
+import com.backyardbrains.data.processing.SamplesBroadcastRing;
 import com.backyardbrains.data.processing.SamplesWithEvents;
 import com.backyardbrains.events.AudioPlaybackProgressEvent;
 import com.backyardbrains.events.AudioPlaybackStartedEvent;
@@ -54,6 +56,7 @@ import com.backyardbrains.utils.ViewUtils;
 import com.crashlytics.android.Crashlytics;
 import java.io.IOException;
 import java.lang.ref.WeakReference;
+import java.util.concurrent.TimeUnit;
 import org.greenrobot.eventbus.EventBus;
 
 import static com.backyardbrains.utils.LogUtils.LOGD;
@@ -72,6 +75,11 @@ public class AudioService extends Service implements SampleSource.SampleSourceLi
 
     private static final Filters FILTERS = new Filters();
 
+    // Number of processed sample batches consumers can fall behind before they start missing them
+    private static final int BROADCAST_RING_CAPACITY = 8;
+    // Max time recorder can hold back incoming samples before it starts missing them
+    private static final long RECORDER_MAX_BLOCK_TIME_MS = 50;
+
     private final IBinder binder = new ServiceBinder();
 
     // Reference to the data manager that stores and processes the data
@@ -82,7 +90,11 @@ public class AudioService extends Service implements SampleSource.SampleSourceLi
     // Reference to the USB serial data source
     private UsbHelper usbHelper;
     // Reference to the audio recorder
-    private RecordingSaver recordingSaver;
+    private volatile RecordingSaver recordingSaver;
+    // Passes processed samples to renderer and recorder which consume them on their own threads
+    private SamplesBroadcastRing broadcastRing;
+    // Holds averaged samples when incoming samples are averaged, used only by renderer feed thread
+    private SamplesWithEvents averagedSamples;
 
     // Whether service is created
     private boolean created;
@@ -91,7 +103,7 @@ public class AudioService extends Service implements SampleSource.SampleSourceLi
     // Maximum number of seconds data manager should hold at any time
     private double maxTime;
     // Whether incoming samples should be averaged using a threshold
-    private boolean averageSamples;
+    private volatile boolean averageSamples;
 
     // Reference to currently active sample source
     private AbstractSampleSource sampleSource;
@@ -114,6 +126,9 @@ public class AudioService extends Service implements SampleSource.SampleSourceLi
         LOGD(TAG, "onCreate()");
 
         processingBuffer = ProcessingBuffer.get();
+        // start consumers of processed samples
+        broadcastRing = createBroadcastRing();
+        broadcastRing.start();
         // we need to listen for USB attach/detach
         startUsbDetection();
 
@@ -132,6 +147,11 @@ public class AudioService extends Service implements SampleSource.SampleSourceLi
         turnOffMicrophone();
         turnOffPlayback();
 
+        // sample source can still be publishing samples so we need to synchronize
+        synchronized (this) {
+            broadcastRing.stop();
+        }
+
         processingBuffer.clearBuffer();
         processingBuffer = null;
 
@@ -183,6 +203,33 @@ public class AudioService extends Service implements SampleSource.SampleSourceLi
         this.averageSamples = averageSamples;
     }
 
+    /**
+     * Sets threshold that incoming samples need to cross upwards to be averaged. Replaces triggers set by {@link
+     * #setTriggers(int[], int[], boolean[], float[])} or {@link #setEventTriggers(String[], float[], float[])}.
+     */
+    public void setThreshold(int threshold) {
+        JniUtils.setThreshold(threshold);
+    }
+
+    /**
+     * Sets up to four window discriminator triggers by which incoming samples are averaged, see {@link
+     * JniUtils#setTriggers(int[], int[], boolean[], float[])}. Averaged samples of every trigger are passed on as their
+     * own channel.
+     */
+    public void setTriggers(@NonNull int[] lowerBounds, @NonNull int[] upperBounds, @NonNull boolean[] risingSlopes,
+        @NonNull float[] deadTimes) {
+        JniUtils.setTriggers(lowerBounds, upperBounds, risingSlopes, deadTimes);
+    }
+
+    /**
+     * Sets up to four event names incoming samples are averaged around, see {@link JniUtils#setEventTriggers(String[],
+     * float[], float[])}. Averaged samples of every event name are passed on as their own channel.
+     */
+    public void setEventTriggers(@NonNull String[] eventNames, @NonNull float[] preEventTimes,
+        @NonNull float[] postEventTimes) {
+        JniUtils.setEventTriggers(eventNames, preEventTimes, postEventTimes);
+    }
+
     /**
      * Returns current sample rate.
      */
@@ -199,8 +246,6 @@ public class AudioService extends Service implements SampleSource.SampleSourceLi
 
         // recalculate max render time
         setMaxProcessingTimeInSeconds(maxTime);
-        // reset filters
-        FILTERS.setSampleRate(sampleRate);
 
         // inform all interested parties that sample rate has changed
         EventBus.getDefault().post(new SampleRateChangeEvent(sampleRate));
@@ -222,11 +267,14 @@ public class AudioService extends Service implements SampleSource.SampleSourceLi
      * Sets predefined filters to be applied when processing incoming data.
      */
     public void setFilter(@Nullable Filter filter) {
-        if (sampleSource != null) sampleSource.setFilter(filter);
-        if (filter != null) {
-            JniUtils.setFilters((float) filter.getLowCutOffFrequency(), (float) filter.getHighCutOffFrequency());
+        // sample source passes filters to native code
+        if (sampleSource != null) {
+            sampleSource.setFilter(filter);
+        } else if (filter != null) {
+            JniUtils.setFilters((float) filter.getLowCutOffFrequency(), (float) filter.getHighCutOffFrequency(),
+                filter.getMainsHarmonicCount());
         } else {
-            JniUtils.setFilters(-1f, -1f);
+            JniUtils.setFilters(-1f, -1f, 0);
         }
         FILTERS.setFilter(filter);
     }
@@ -247,14 +295,13 @@ public class AudioService extends Service implements SampleSource.SampleSourceLi
         });
 
     /**
-     * Adds received samples and events to the ring buffer. If we're recording, it also passes it to the recording
-     * saver.
+     * Broadcasts received samples and events to renderer feed and recorder.
      *
      * @see SampleSource.SampleSourceListener#onSamplesReceived(SamplesWithEvents)
      */
     @Override public void onSamplesReceived(@NonNull SamplesWithEvents samplesWithEvents) {
         //benchmark.start();
-        passToDataManager(samplesWithEvents);
+        broadcastRing.publish(samplesWithEvents);
         //benchmark.end();
     }
 
@@ -278,23 +325,72 @@ public class AudioService extends Service implements SampleSource.SampleSourceLi
             }
         });
 
+    // Creates ring that passes processed samples to renderer and recorder. Renderer feed always gets the newest samples,
+    // while recorder can hold back incoming samples for a short time before it starts missing them.
+    private SamplesBroadcastRing createBroadcastRing() {
+        final SamplesBroadcastRing broadcastRing = new SamplesBroadcastRing(BROADCAST_RING_CAPACITY);
+        broadcastRing.subscribe("renderer", new SamplesBroadcastRing.SamplesConsumer() {
+            @Override public void onSamples(@NonNull SamplesWithEvents samplesWithEvents, int droppedSampleCount) {
+                passToDataManager(samplesWithEvents);
+            }
+        }, OverflowPolicy.DROP_OLDEST, 0, TimeUnit.MILLISECONDS);
+        broadcastRing.subscribe("recorder", new SamplesBroadcastRing.SamplesConsumer() {
+            @Override public void onSamples(@NonNull SamplesWithEvents samplesWithEvents, int droppedSampleCount) {
+                passToRecorder(samplesWithEvents, droppedSampleCount);
+            }
+        }, OverflowPolicy.BLOCK, RECORDER_MAX_BLOCK_TIME_MS, TimeUnit.MILLISECONDS);
+
+        return broadcastRing;
+    }
+
     // Passes data to data manager so it can be consumed by renderer
-    private void passToDataManager(@NonNull SamplesWithEvents samplesWithEvents) {
+    @SuppressWarnings("WeakerAccess") void passToDataManager(@NonNull SamplesWithEvents samplesWithEvents) {
         if (averageSamples) {
             //benchmarkT.start();
-            JniUtils.processThreshold(samplesWithEvents, samplesWithEvents.samples, samplesWithEvents.sampleCount);
+            samplesWithEvents = average(samplesWithEvents);
             //benchmarkT.end();
         }
         // pass data to data manager
+        final ProcessingBuffer processingBuffer = this.processingBuffer;
         if (processingBuffer != null) processingBuffer.addToBuffer(samplesWithEvents);
+    }
+
+    // Averages specified samples into separate holder because other consumers need to receive them unaltered, averaged
+    // samples of every trigger are held by their own channel
+    private SamplesWithEvents average(@NonNull SamplesWithEvents samplesWithEvents) {
+        final boolean direct = samplesWithEvents.isDirect();
+        final int capacity = direct ? samplesWithEvents.samplesBuffer.capacity() : samplesWithEvents.samples.length;
+        final int triggerCount = Math.max(1, JniUtils.getTriggerCount());
+        SamplesWithEvents averagedSamples = this.averagedSamples;
+        if (averagedSamples == null || averagedSamples.isDirect() != direct || (direct
+            ? averagedSamples.samplesBuffer.capacity() : averagedSamples.samples.length) != capacity * triggerCount) {
+            averagedSamples = this.averagedSamples = new SamplesWithEvents(capacity, triggerCount, direct);
+        }
+
+        if (direct) {
+            JniUtils.processThresholdDirect(averagedSamples, samplesWithEvents.samplesBuffer,
+                samplesWithEvents.sampleCount, samplesWithEvents.eventIndices, samplesWithEvents.eventNames,
+                samplesWithEvents.eventCount);
+        } else {
+            JniUtils.processThreshold(averagedSamples, samplesWithEvents.samples, samplesWithEvents.sampleCount,
+                samplesWithEvents.eventIndices, samplesWithEvents.eventNames, samplesWithEvents.eventCount);
+        }
+        // averaged samples are accompanied by incoming events
+        System.arraycopy(samplesWithEvents.eventIndices, 0, averagedSamples.eventIndices, 0,
+            samplesWithEvents.eventCount);
+        System.arraycopy(samplesWithEvents.eventNames, 0, averagedSamples.eventNames, 0, samplesWithEvents.eventCount);
+        averagedSamples.eventCount = samplesWithEvents.eventCount;
+        averagedSamples.lastSampleIndex = samplesWithEvents.lastSampleIndex;
+        averagedSamples.arrivalTimeNanos = samplesWithEvents.arrivalTimeNanos;
+        averagedSamples.processedTimeNanos = samplesWithEvents.processedTimeNanos;
 
-        // pass data to RecordingSaver
-        passToRecorder(samplesWithEvents);
+        return averagedSamples;
     }
 
     // Passes data to audio recorder
-    private void passToRecorder(@NonNull SamplesWithEvents samplesWithEvents) {
-        if (recordingSaver != null) record(samplesWithEvents);
+    @SuppressWarnings("WeakerAccess") void passToRecorder(@NonNull SamplesWithEvents samplesWithEvents,
+        int droppedSampleCount) {
+        if (recordingSaver != null) record(samplesWithEvents, droppedSampleCount);
     }
 
     //========================================================
@@ -746,9 +842,9 @@ public class AudioService extends Service implements SampleSource.SampleSourceLi
     }
 
     // Pass audio and events to the active RecordingSaver instance
-    private void record(@NonNull SamplesWithEvents samplesWithEvents) {
+    private void record(@NonNull SamplesWithEvents samplesWithEvents, int droppedSampleCount) {
         try {
-            if (recordingSaver != null) recordingSaver.writeAudioWithEvents(samplesWithEvents);
+            if (recordingSaver != null) recordingSaver.writeAudioWithEvents(samplesWithEvents, droppedSampleCount);
 
             // recordingSaver can be set to null if stopRecording() is called between this and previous line
             if (recordingSaver != null) {
@@ -2,11 +2,12 @@ package com.backyardbrains.audio;
 
 import android.support.annotation.Nullable;
 import com.backyardbrains.filters.Filter;
-import com.backyardbrains.utils.AudioUtils;
 import com.backyardbrains.utils.ObjectUtils;
-import uk.me.berndporr.iirj.Butterworth;
 
 /**
+ * Holds predefined filters and the filter that's currently applied to incoming data. Filtering itself is done in native
+ * code.
+ *
  * @author Tihomir Leka <tihomir at backyardbrains.com>
  */
 public class Filters {
@@ -27,17 +28,23 @@ public class Filters {
     private static final double FREQ_LOW_CUTOFF_NEURON_PRO = 160d;
     // High cut-off frequency for Neuron PRO
     private static final double FREQ_HIGH_CUTOFF_NEURON_PRO = 3700d;
-    // Order used the all filters
-    private static final int FILTER_ORDER = 2;
+    // Number of notched out mains hum harmonics for EKG
+    private static final int MAINS_HARMONICS_HEART = 1;
+    // Number of notched out mains hum harmonics for EEG
+    private static final int MAINS_HARMONICS_BRAIN = 2;
+    // Number of notched out mains hum harmonics for EMG
+    private static final int MAINS_HARMONICS_MUSCLE = 6;
 
     /**
      * Predefined filter configured for EKG.
      */
-    public static final Filter FILTER_HEART = new Filter(FREQ_LOW_CUTOFF_HEART_BRAIN_PLANT, FREQ_HIGH_CUTOFF_HEART);
+    public static final Filter FILTER_HEART = new Filter(FREQ_LOW_CUTOFF_HEART_BRAIN_PLANT, FREQ_HIGH_CUTOFF_HEART,
+        MAINS_HARMONICS_HEART);
     /**
      * Predefined filter configured for EEG.
      */
-    public static final Filter FILTER_BRAIN = new Filter(FREQ_LOW_CUTOFF_HEART_BRAIN_PLANT, FREQ_HIGH_CUTOFF_BRAIN);
+    public static final Filter FILTER_BRAIN = new Filter(FREQ_LOW_CUTOFF_HEART_BRAIN_PLANT, FREQ_HIGH_CUTOFF_BRAIN,
+        MAINS_HARMONICS_BRAIN);
     /**
      * Predefined filter configured for Plant.
      */
@@ -45,45 +52,15 @@ public class Filters {
     /**
      * Predefined filter configured for EMG.
      */
-    public static final Filter FILTER_MUSCLE = new Filter(FREQ_LOW_CUTOFF_MUSCLE, FREQ_HIGH_CUTOFF_MUSCLE);
+    public static final Filter FILTER_MUSCLE =
+        new Filter(FREQ_LOW_CUTOFF_MUSCLE, FREQ_HIGH_CUTOFF_MUSCLE, MAINS_HARMONICS_MUSCLE);
     /**
      * Predefined filter configured for Neuron Pro.
      */
     public static final Filter FILTER_NEURON_PRO = new Filter(FREQ_LOW_CUTOFF_NEURON_PRO, FREQ_HIGH_CUTOFF_NEURON_PRO);
 
-    // Filter used for additional filtering
-    private Butterworth customFilter;
     // Current filter
     private Filter filter;
-    // Sample rate to be used when filtering signals (default is 44100)
-    private int sampleRate = AudioUtils.SAMPLE_RATE;
-
-    public Filters() {
-        customFilter = new Butterworth();
-    }
-
-    /**
-     * Applies currently configured filter to specified {@code sample} and returns it, or just returns the {@code
-     * sample} if filter is not configured.
-     */
-    public short apply(short sample) {
-        // apply additional filtering if necessary
-        if (filter != null) return (short) customFilter.filter(sample);
-
-        return sample;
-    }
-
-    /**
-     * Sets sample rate to be used when configuring filters.
-     */
-    public void setSampleRate(int sampleRate) {
-        if (this.sampleRate == sampleRate) return;
-        if (sampleRate <= 0) return; // sample rate needs to be positive
-
-        this.sampleRate = sampleRate;
-
-        setFilter(filter, true);
-    }
 
     /**
      * Returns currently applied filter.
@@ -96,45 +73,19 @@ public class Filters {
      * Sets filter that should be additionally applied during processing of incoming data.
      */
     public void setFilter(@Nullable Filter filter) {
-        setFilter(filter, false);
-    }
-
-    // Actually sets up the filter that's applied during processing of incoming data.
-    private void setFilter(@Nullable Filter filter, boolean internal) {
-        if (internal || !ObjectUtils.equals(this.filter, filter)) {
-            if (filter != null) {
-                // if both cut-off frequencies are negative, or if low cut-off is minimum cut-off value
-                // and high cut-off is maximum cut-off value we should not use filter
-                if ((!filter.isLowCutOffFrequencySet() && !filter.isHighCutOffFrequencySet()) || (
-                    filter.getLowCutOffFrequency() == Filter.FREQ_MIN_CUT_OFF
-                        && filter.getHighCutOffFrequency() == Filter.FREQ_MAX_CUT_OFF)) {
-                    this.filter = null;
-                    return;
-                }
-
-                setFilterCutOffFrequencies(filter.getLowCutOffFrequency(), filter.getHighCutOffFrequency());
+        if (ObjectUtils.equals(this.filter, filter)) return;
+
+        if (filter != null) {
+            // if both cut-off frequencies are negative, or if low cut-off is minimum cut-off value
+            // and high cut-off is maximum cut-off value, and mains hum is not notched out we should not use filter
+            if (!filter.isMainsHumNotchSet() && ((!filter.isLowCutOffFrequencySet()
+                && !filter.isHighCutOffFrequencySet()) || (filter.getLowCutOffFrequency() == Filter.FREQ_MIN_CUT_OFF
+                && filter.getHighCutOffFrequency() == Filter.FREQ_MAX_CUT_OFF))) {
+                this.filter = null;
+                return;
             }
-
-            this.filter = filter;
         }
-    }
 
-    // Sets filter cut-off frequencies to be applied when processing of incoming data.
-    private void setFilterCutOffFrequencies(double lowCutOffFreq, double highCutOffFreq) {
-        // high cut-off frequency cannot be lower then low cut off frequency
-        if (highCutOffFreq < lowCutOffFreq) return;
-        // both cut-off frequencies cannot be negative
-        if (lowCutOffFreq == Filter.FREQ_NO_CUT_OFF && highCutOffFreq == Filter.FREQ_NO_CUT_OFF) return;
-
-        // reset custom filter
-        customFilter.reset();
-        if (lowCutOffFreq != Filter.FREQ_NO_CUT_OFF && highCutOffFreq != Filter.FREQ_NO_CUT_OFF) { // band pass
-            double freq = Math.abs(highCutOffFreq - lowCutOffFreq);
-            customFilter.bandPass(FILTER_ORDER, sampleRate, freq / 2 + lowCutOffFreq, freq);
-        } else if (highCutOffFreq != Filter.FREQ_NO_CUT_OFF) { // low pass
-            customFilter.lowPass(FILTER_ORDER, sampleRate, highCutOffFreq);
-        } else { // high pass
-            customFilter.highPass(FILTER_ORDER, sampleRate, lowCutOffFreq);
-        }
+        this.filter = filter;
     }
 }
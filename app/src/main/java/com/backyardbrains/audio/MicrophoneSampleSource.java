@@ -10,6 +10,7 @@ import com.backyardbrains.utils.AudioUtils;
 import com.backyardbrains.utils.Benchmark;
 import com.backyardbrains.utils.JniUtils;
 import com.crashlytics.android.Crashlytics;
+import java.nio.ByteBuffer;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import static com.backyardbrains.utils.LogUtils.LOGD;
@@ -112,12 +113,17 @@ public class MicrophoneSampleSource extends AbstractSampleSource {
             }
         });
 
-    @NonNull @Override protected SamplesWithEvents processIncomingData(byte[] data, int length) {
+    @Override protected void processIncomingData(@NonNull SamplesWithEvents out, byte[] data, int length) {
         //benchmark.start();
-        JniUtils.processMicrophoneStream(samplesWithEvents, data, length);
+        JniUtils.processMicrophoneStream(out, data, length);
         //benchmark.end();
+    }
 
-        return samplesWithEvents;
+    @Override protected void processIncomingData(@NonNull SamplesWithEvents out, @NonNull ByteBuffer data,
+        int length) {
+        //benchmark.start();
+        JniUtils.processMicrophoneStreamDirect(out, data, length);
+        //benchmark.end();
     }
 
     @Override public int getType() {
@@ -15,9 +15,11 @@ import com.crashlytics.android.Crashlytics;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 import static com.backyardbrains.utils.LogUtils.LOGD;
 import static com.backyardbrains.utils.LogUtils.LOGE;
@@ -42,10 +44,16 @@ public class PlaybackSampleSource extends AbstractSampleSource {
         private final String filePath;
         // Whether file should start playing right away
         private final boolean autoPlay;
-        // Size of buffer (chunk) to read when seeking (6 seconds)
+        // Size of buffer (chunk) to read when seeking (6 seconds of all channels)
         private int bufferSize;
+        // Size of single channel of the buffer (chunk) to read when seeking
+        private int channelBufferSize;
         // Buffer that holds audio data
         private byte[] buffer;
+        // Buffer that holds audio data of the first channel that's played when file has multiple channels
+        private byte[] playBuffer;
+        // Number of interleaved channels in the audio file
+        private int channelCount = 1;
 
         // Random access file stream that holds audio file that's being played
         private AudioFile raf;
@@ -72,8 +80,13 @@ public class PlaybackSampleSource extends AbstractSampleSource {
                     eventNames[i] = allEvents.valueAt(i);
                 }
 
-                duration.set(raf.length());
-                LOGD(TAG, "Audio file byte count is: " + duration.get());
+                // all positions passed to and from this thread refer to a single channel
+                channelCount = raf.numChannels();
+                duration.set(raf.length() / channelCount);
+                LOGD(TAG, "Audio file byte count is: " + duration.get() + ", channel count is: " + channelCount);
+
+                // this recreates samples pool so every slot can hold all the channels
+                setChannelCount(channelCount);
 
                 setSampleRate(raf.sampleRate());
                 LOGD(TAG, "Audio file sample rate is: " + raf.sampleRate());
@@ -86,16 +99,18 @@ public class PlaybackSampleSource extends AbstractSampleSource {
                 if (autoPlay) playing.set(true);
 
                 // number of bytes that should be read during playback
-                int bytesToReadWhilePlaying = AudioUtils.getOutBufferSize(raf.sampleRate());
+                int bytesToReadWhilePlaying = AudioUtils.getOutBufferSize(raf.sampleRate()) * channelCount;
+                if (channelCount > 1) playBuffer = new byte[bytesToReadWhilePlaying / channelCount];
                 // number of bytes actually read during single read
                 int read;
 
                 // set size of the buffer for seeking
                 // we need full buffer of 6 seconds (in bytes)
-                bufferSize = raf.sampleRate() * SEEK_BUFFER_SIZE_IN_SEC * 2;
+                channelBufferSize = raf.sampleRate() * SEEK_BUFFER_SIZE_IN_SEC * 2;
+                bufferSize = channelBufferSize * channelCount;
                 buffer = new byte[bufferSize];
-                samplesWithEvents = new SamplesWithEvents((int) (bufferSize * .5));
 
+                // this also recreates samples pool so it can hold all the processed samples
                 setBufferSize(bufferSize);
                 LOGD(TAG, "Processing buffer size is: " + bufferSize);
 
@@ -107,12 +122,12 @@ public class PlaybackSampleSource extends AbstractSampleSource {
                 while (working.get() && raf != null) {
                     if (playing.get()) {
                         // if we are playing after seek we need to fix position
-                        if (Math.abs(raf.getFilePointer() - progress.get()) > bytesToReadWhilePlaying) {
-                            raf.seek(progress.get());
+                        if (Math.abs(raf.getFilePointer() - toFilePosition(progress.get())) > bytesToReadWhilePlaying) {
+                            raf.seek(toFilePosition(progress.get()));
                         }
 
                         // index of the sample from which we check the events
-                        fromSample.set(AudioUtils.getSampleCount(raf.getFilePointer()));
+                        fromSample.set(AudioUtils.getSampleCount(raf.getFilePointer() / channelCount));
 
                         // number of samples to prepend
                         samplesToPrepend.set(0);
@@ -132,7 +147,7 @@ public class PlaybackSampleSource extends AbstractSampleSource {
                         }
 
                         // save progress
-                        progress.set(raf.getFilePointer());
+                        progress.set(raf.getFilePointer() / channelCount);
 
                         // index of the sample up to which we check the events
                         toSample.set(AudioUtils.getSampleCount(progress.get()));
@@ -143,10 +158,16 @@ public class PlaybackSampleSource extends AbstractSampleSource {
                         // trigger progress listener
                         if (playbackListener != null) playbackListener.onProgress(progress.get(), raf.sampleRate());
 
-                        // play audio data if we're not seeking
-                        track.write(buffer, 0, read);
-                    } else if (seeking.get()) {
-                        seekToPosition();
+                        // play audio data if we're not seeking, only first channel is played
+                        if (channelCount > 1) {
+                            track.write(playBuffer, 0, extractFirstChannel(buffer, read, playBuffer));
+                        } else {
+                            track.write(buffer, 0, read);
+                        }
+                    } else {
+                        // nothing to read until playback is resumed or stopped, seeks are done by the thread that
+                        // requests them
+                        LockSupport.park(this);
                     }
                 }
 
@@ -169,23 +190,25 @@ public class PlaybackSampleSource extends AbstractSampleSource {
             // if we don't have file we can't seek
             if (raf == null) return;
 
-            final long zerosPrependCount = progress.get() - bufferSize;
+            final long zerosPrependCount = progress.get() - channelBufferSize;
             final long seekPosition = Math.max(0, zerosPrependCount);
-            raf.seek(seekPosition);
+            raf.seek(toFilePosition(seekPosition));
 
             // index of the sample from which we check the events
-            fromSample.set(AudioUtils.getSampleCount(raf.getFilePointer()));
+            fromSample.set(AudioUtils.getSampleCount(raf.getFilePointer() / channelCount));
 
             // number of bytes actually read during single read
             if (raf.read(buffer) > 0) {
-                if (zerosPrependCount < 0) BufferUtils.shiftRight(buffer, (int) Math.abs(zerosPrependCount));
+                if (zerosPrependCount < 0) {
+                    BufferUtils.shiftRight(buffer, (int) toFilePosition(Math.abs(zerosPrependCount)));
+                }
 
                 // number of samples to prepend
                 samplesToPrepend.set((int) (zerosPrependCount * .5));
 
                 // index of the sample up to which we check the events
-                long toByte = raf.getFilePointer();
-                if (bufferSize > toByte) toByte = bufferSize;
+                long toByte = raf.getFilePointer() / channelCount;
+                if (channelBufferSize > toByte) toByte = channelBufferSize;
                 toSample.set(AudioUtils.getSampleCount(toByte));
 
                 // write data to buffer
@@ -193,6 +216,22 @@ public class PlaybackSampleSource extends AbstractSampleSource {
             }
         }
 
+        // Converts specified position within a single channel to position within the file, aligned to a whole frame
+        private long toFilePosition(long channelPosition) {
+            return (channelPosition / 2) * 2 * channelCount;
+        }
+
+        // Copies first channel of specified interleaved data to specified out buffer and returns number of copied bytes
+        private int extractFirstChannel(@NonNull byte[] data, int length, @NonNull byte[] out) {
+            final int frameSize = 2 * channelCount;
+            final int frameCount = length / frameSize;
+            for (int i = 0; i < frameCount; i++) {
+                out[i * 2] = data[i * frameSize];
+                out[i * 2 + 1] = data[i * frameSize + 1];
+            }
+            return frameCount * 2;
+        }
+
         // Rewinds audio file.
         private void rewind() throws IOException {
             if (seeking.get()) return; // we can't rewind while seeking
@@ -363,6 +402,7 @@ public class PlaybackSampleSource extends AbstractSampleSource {
             if (seeking.get()) return;
 
             playing.set(true);
+            LockSupport.unpark(playbackThread);
 
             LOGD(TAG, "Playback resumed");
 
@@ -436,6 +476,8 @@ public class PlaybackSampleSource extends AbstractSampleSource {
     @Override protected void onInputStop() {
         if (playbackThread != null) {
             stopPlayback();
+            // thread could be waiting for playback to resume
+            LockSupport.unpark(playbackThread);
             playbackThread = null;
 
             LOGD(TAG, "Playback stopped");
@@ -455,13 +497,19 @@ public class PlaybackSampleSource extends AbstractSampleSource {
             }
         });
 
-    @NonNull @Override protected SamplesWithEvents processIncomingData(byte[] data, int length) {
+    @Override protected void processIncomingData(@NonNull SamplesWithEvents out, byte[] data, int length) {
         //benchmark.start();
-        JniUtils.processPlaybackStream(samplesWithEvents, data, length, eventIndices, eventNames, eventIndices.length,
+        JniUtils.processPlaybackStream(out, data, length, eventIndices, eventNames, eventIndices.length,
             fromSample.get(), toSample.get(), samplesToPrepend.get());
         //benchmark.end();
+    }
 
-        return samplesWithEvents;
+    @Override protected void processIncomingData(@NonNull SamplesWithEvents out, @NonNull ByteBuffer data,
+        int length) {
+        //benchmark.start();
+        JniUtils.processPlaybackStreamDirect(out, data, length, eventIndices, eventNames,
+            eventIndices.length, fromSample.get(), toSample.get(), samplesToPrepend.get());
+        //benchmark.end();
     }
 
     @Override public int getType() {
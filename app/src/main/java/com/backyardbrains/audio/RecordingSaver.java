@@ -21,7 +21,9 @@ package com.backyardbrains.audio;
 
 import android.support.annotation.NonNull;
 import android.util.SparseArray;
+import com.backyardbrains.data.processing.OverflowPolicy;
 import com.backyardbrains.data.processing.SamplesWithEvents;
+import com.backyardbrains.data.processing.SpscByteRingBuffer;
 import com.backyardbrains.utils.AudioUtils;
 import com.backyardbrains.utils.RecordingUtils;
 import com.crashlytics.android.Crashlytics;
@@ -32,10 +34,13 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
-import org.greenrobot.essentials.io.CircularByteBuffer;
 
 import static com.backyardbrains.utils.LogUtils.LOGD;
+import static com.backyardbrains.utils.LogUtils.LOGW;
 import static com.backyardbrains.utils.LogUtils.makeLogTag;
 
 class RecordingSaver {
@@ -44,6 +49,8 @@ class RecordingSaver {
 
     @SuppressWarnings("WeakerAccess") static final String EVENT_MARKERS_FILE_HEADER_CONTENT =
         "# Marker IDs can be arbitrary strings.\n# Marker ID,\tTime (in s)";
+    // Marker that's saved to events file at places where samples were dropped
+    @SuppressWarnings("WeakerAccess") static final String DROPPED_SAMPLES_EVENT_FORMAT = "Dropped %d samples";
 
     @SuppressWarnings("WeakerAccess") WriteThread writeThread;
 
@@ -52,6 +59,8 @@ class RecordingSaver {
         private static final int BUFFER_SIZE_IN_SEC = 1;
         private static final int BUFFER_SIZE_IN_SAMPLES = AudioUtils.SAMPLE_RATE * BUFFER_SIZE_IN_SEC;
         private static final int BUFFER_SIZE_IN_BYTES = BUFFER_SIZE_IN_SAMPLES * 2;
+        // How long processing thread waits for writer thread to make room in the buffer before dropping samples
+        private static final long MAX_BLOCK_TIME_MS = 100;
 
         private final File audioFile;
         private final OutputStream outputStream;
@@ -59,11 +68,17 @@ class RecordingSaver {
         private final AtomicBoolean working = new AtomicBoolean(true);
 
         private int sampleRate = AudioUtils.SAMPLE_RATE;
+        // Number of interleaved channels in the recorded file, set by the first written batch of samples
+        private volatile int channelCount;
         private StringBuffer eventsFileContent = new StringBuffer(EVENT_MARKERS_FILE_HEADER_CONTENT);
         private SparseArray<String> events = new SparseArray<>();
-        private CircularByteBuffer buffer = new CircularByteBuffer(BUFFER_SIZE_IN_BYTES);
+        private SpscByteRingBuffer buffer = new SpscByteRingBuffer(BUFFER_SIZE_IN_BYTES);
         private byte[] byteBuffer = new byte[BUFFER_SIZE_IN_BYTES];
         private ByteBuffer bb;
+        // Used for interleaving samples of all the channels before they are converted to bytes
+        private short[] interleaved = new short[BUFFER_SIZE_IN_SAMPLES];
+        // Number of bytes dropped by the buffer that have already been saved as an event
+        private long reportedDroppedBytes;
 
         WriteThread() throws IOException {
             // create recording file
@@ -77,6 +92,9 @@ class RecordingSaver {
                     e);
             }
 
+            // we don't want gaps in the recording so we rather wait for the writer thread if it doesn't keep up
+            buffer.setOverflowPolicy(OverflowPolicy.BLOCK, MAX_BLOCK_TIME_MS, TimeUnit.MILLISECONDS);
+
             // crate byte buffer that will be used for converting shorts to bytes
             bb = ByteBuffer.allocate(BUFFER_SIZE_IN_BYTES).order(ByteOrder.nativeOrder());
 
@@ -103,16 +121,48 @@ class RecordingSaver {
         }
 
         /**
-         * Appends specified {@code sampleWithEvents} to previously saved ones.
+         * Appends specified {@code sampleWithEvents} to previously saved ones. {@code droppedSampleCount} is the number
+         * of samples that were dropped right before specified samples in addition to the ones reported by the samples
+         * themselves.
          */
-        void writeData(@NonNull SamplesWithEvents samplesWithEvents) {
+        void writeData(@NonNull SamplesWithEvents samplesWithEvents, int droppedSampleCount) {
             if (working.get()) {
+                // channel count can't change once we start writing the file
+                if (channelCount == 0) channelCount = Math.max(1, samplesWithEvents.channelCount);
+                final int channelCount = this.channelCount;
+
                 // we need to save current recording length before writing the actual samples
-                int writtenSamples = (int) AudioUtils.getSampleCount(audioFile.length());
+                int writtenSamples = (int) AudioUtils.getSampleCount(audioFile.length()) / channelCount;
 
                 // save samples to buffer as bytes
-                bb.asShortBuffer().put(samplesWithEvents.samples, 0, samplesWithEvents.sampleCount);
-                buffer.put(bb.array(), 0, samplesWithEvents.sampleCount * 2);
+                final int sampleCount = samplesWithEvents.sampleCount * channelCount;
+                if (bb.capacity() < sampleCount * 2) {
+                    bb = ByteBuffer.allocate(sampleCount * 2).order(ByteOrder.nativeOrder());
+                }
+                if (channelCount > 1) {
+                    interleave(samplesWithEvents, channelCount);
+                    bb.asShortBuffer().put(interleaved, 0, sampleCount);
+                } else if (samplesWithEvents.isDirect()) {
+                    // slot can be shared with other consumers so we shouldn't move it's position
+                    final ShortBuffer samplesBuffer = samplesWithEvents.samplesBuffer.duplicate();
+                    samplesBuffer.limit(samplesWithEvents.sampleCount);
+                    bb.asShortBuffer().put(samplesBuffer);
+                } else {
+                    bb.asShortBuffer().put(samplesWithEvents.samples, 0, samplesWithEvents.sampleCount);
+                }
+                // samples are either saved or dropped whole so the file never gets out of frame alignment
+                buffer.putFully(bb.array(), 0, sampleCount * 2);
+
+                // mark the place where samples were dropped either before or while saving them (real events take
+                // precedence if they happen at the same place)
+                final long droppedBytes = buffer.getDroppedCount() - reportedDroppedBytes;
+                reportedDroppedBytes += droppedBytes;
+                final int droppedSamples = samplesWithEvents.droppedSampleCount + droppedSampleCount
+                    + (int) (droppedBytes / (2 * channelCount));
+                if (droppedSamples > 0) {
+                    LOGW(TAG, "Dropped " + droppedSamples + " samples at sample " + writtenSamples);
+                    events.put(writtenSamples, String.format(Locale.US, DROPPED_SAMPLES_EVENT_FORMAT, droppedSamples));
+                }
 
                 // save events
                 String event;
@@ -123,6 +173,34 @@ class RecordingSaver {
             }
         }
 
+        // Interleaves samples of every channel held by specified samplesWithEvents into interleaved array. Channels
+        // that are missing from the batch (if channel count changed while recording) are filled with zeros.
+        private void interleave(@NonNull SamplesWithEvents samplesWithEvents, int channelCount) {
+            final int sampleCount = samplesWithEvents.sampleCount;
+            if (interleaved.length < sampleCount * channelCount) interleaved = new short[sampleCount * channelCount];
+
+            final short[] samples = samplesWithEvents.samples;
+            final ShortBuffer samplesBuffer = samplesWithEvents.samplesBuffer;
+            final int channelCapacity = samplesWithEvents.channelCapacity;
+            final int availableChannels = Math.min(channelCount, samplesWithEvents.channelCount);
+            for (int c = 0; c < channelCount; c++) {
+                if (c >= availableChannels) {
+                    for (int i = 0; i < sampleCount; i++) interleaved[i * channelCount + c] = 0;
+                    continue;
+                }
+
+                final int offset = c * channelCapacity;
+                if (samplesBuffer != null) {
+                    // absolute gets don't move position of the buffer that can be shared with other consumers
+                    for (int i = 0; i < sampleCount; i++) {
+                        interleaved[i * channelCount + c] = samplesBuffer.get(offset + i);
+                    }
+                } else {
+                    for (int i = 0; i < sampleCount; i++) interleaved[i * channelCount + c] = samples[offset + i];
+                }
+            }
+        }
+
         /**
          * Sets sample rate of the currently recorded audio file.
          */
@@ -134,12 +212,12 @@ class RecordingSaver {
         }
 
         /**
-         * Returns current length of the recorded file.
+         * Returns current length of a single channel of the recorded file.
          *
-         * @return Length of the recorded file in bytes.
+         * @return Length of a single channel of the recorded file in bytes.
          */
         long getCurrentLength() {
-            return audioFile.length();
+            return audioFile.length() / Math.max(1, channelCount);
         }
 
         /**
@@ -154,7 +232,7 @@ class RecordingSaver {
             try {
                 outputStream.flush();
                 outputStream.close();
-                WavAudioFile.save(audioFile, sampleRate);
+                WavAudioFile.save(audioFile, sampleRate, Math.max(1, channelCount));
 
                 if (events.size() > 0) saveEventFile();
 
@@ -201,10 +279,11 @@ class RecordingSaver {
     }
 
     /**
-     * Writes specified {@code sampleWithEvents} to the audio stream.
+     * Writes specified {@code sampleWithEvents} to the audio stream. {@code droppedSampleCount} is the number of samples
+     * that were dropped right before specified samples in addition to the ones reported by the samples themselves.
      */
-    void writeAudioWithEvents(@NonNull SamplesWithEvents samplesWithEvents) {
-        if (writeThread != null) writeThread.writeData(samplesWithEvents);
+    void writeAudioWithEvents(@NonNull SamplesWithEvents samplesWithEvents, int droppedSampleCount) {
+        if (writeThread != null) writeThread.writeData(samplesWithEvents, droppedSampleCount);
     }
 
     /**
@@ -215,7 +294,7 @@ class RecordingSaver {
     }
 
     /**
-     * Returns currently recorder length.
+     * Returns currently recorded length of a single channel in bytes.
      */
     long getAudioLength() {
         return writeThread != null ? writeThread.getCurrentLength() : 0;
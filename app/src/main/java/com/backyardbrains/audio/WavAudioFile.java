@@ -1,6 +1,5 @@
 package com.backyardbrains.audio;
 
-import android.media.AudioFormat;
 import android.support.annotation.NonNull;
 import com.backyardbrains.utils.WavUtils;
 import com.crashlytics.android.Crashlytics;
@@ -38,6 +37,15 @@ public class WavAudioFile implements AudioFile {
      * @throws IOException
      */
     public static boolean save(@NonNull File file, int sampleRate) throws IOException {
+        return save(file, sampleRate, 1);
+    }
+
+    /**
+     * Saves specified {@code file} that holds {@code channelCount} interleaved channels as a WAV file and closes it.
+     *
+     * @throws IOException
+     */
+    public static boolean save(@NonNull File file, int sampleRate, int channelCount) throws IOException {
         // create RandomAccessFile
         final RandomAccessFile raf;
         try {
@@ -49,8 +57,7 @@ public class WavAudioFile implements AudioFile {
 
         try {
             raf.seek(0);
-            raf.write(WavUtils.writeHeader(file.length(), sampleRate, AudioFormat.CHANNEL_IN_MONO,
-                AudioFormat.ENCODING_PCM_16BIT));
+            raf.write(WavUtils.writeHeader(file.length(), sampleRate, channelCount));
             raf.close();
         } catch (IOException e) {
             Crashlytics.logException(e);
@@ -0,0 +1,71 @@
+package com.backyardbrains.data;
+
+import android.support.annotation.NonNull;
+
+/**
+ * In-memory index of spikes of all spike trains of a single recording. Sample indices and values of spikes of every
+ * train are held in primitive arrays sorted by sample index, so spikes within any range of samples are found by binary
+ * search without querying the database.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class SpikeIndex {
+
+    private final int[][] indices;
+    private final short[][] values;
+
+    public SpikeIndex(@NonNull int[][] indices, @NonNull short[][] values) {
+        this.indices = indices;
+        this.values = values;
+    }
+
+    /**
+     * Returns number of indexed spike trains.
+     */
+    public int getTrainCount() {
+        return indices.length;
+    }
+
+    /**
+     * Returns sorted sample indices of all spikes of the specified {@code train}.
+     */
+    @NonNull public int[] getIndices(int train) {
+        return indices[train];
+    }
+
+    /**
+     * Returns values of all spikes of the specified {@code train}, value at position {@code i} belongs to the spike
+     * whose sample index is at position {@code i} of the array returned by {@link #getIndices(int)}.
+     */
+    @NonNull public short[] getValues(int train) {
+        return values[train];
+    }
+
+    /**
+     * Returns position of the first spike of the specified {@code train} whose sample index is not smaller than
+     * {@code sampleIndex}, or number of spikes of the train if there is no such spike.
+     */
+    public int find(int train, long sampleIndex) {
+        final int[] trainIndices = indices[train];
+        int low = 0;
+        int high = trainIndices.length;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (trainIndices[mid] < sampleIndex) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * Returns number of spikes of the specified {@code train} whose sample index is between {@code fromSample}
+     * (inclusive) and {@code toSample} (exclusive).
+     */
+    public int count(int train, long fromSample, long toSample) {
+        return Math.max(0, find(train, toSample) - find(train, fromSample));
+    }
+}
@@ -2,6 +2,7 @@ package com.backyardbrains.data.persistance;
 
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import com.backyardbrains.data.SpikeIndex;
 import com.backyardbrains.data.SpikeValueAndIndex;
 import com.backyardbrains.data.persistance.entity.Spike;
 import com.backyardbrains.data.persistance.entity.Train;
@@ -36,7 +37,7 @@ public interface AnalysisDataSource {
 
     SpikeValueAndIndex[] getSpikeAnalysisValuesAndIndicesForRange(long analysisId, int startIndex, int endIndex);
 
-    SpikeValueAndIndex[] getSpikeAnalysisValuesAndIndicesByTrainForRange(long trainId, int startIndex, int endIndex);
+    void getSpikeIndex(@NonNull String filePath, @Nullable GetAnalysisCallback<SpikeIndex> callback);
 
     void getSpikeAnalysisTimesByTrains(@NonNull final String filePath,
         @Nullable final GetAnalysisCallback<float[][]> callback);
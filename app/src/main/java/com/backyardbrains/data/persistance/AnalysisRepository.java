@@ -2,6 +2,7 @@ package com.backyardbrains.data.persistance;
 
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import com.backyardbrains.data.SpikeIndex;
 import com.backyardbrains.data.SpikeValueAndIndex;
 import com.backyardbrains.data.persistance.entity.Spike;
 import com.backyardbrains.data.persistance.entity.SpikeAnalysis;
@@ -110,16 +111,16 @@ public class AnalysisRepository {
     }
 
     /**
-     * Returns collection of {@link SpikeValueAndIndex} objects which contain values and indices for spikes belonging
-     * to {@link Train} with specified {@code trainId} and are positioned between {@code startIndex} and
-     * {@code endIndex}.
+     * Returns {@link SpikeIndex} that holds values and indices of spikes of all the trains of the spike analysis for
+     * audio file with specified {@code filePath}. Result is returned by invoking specified {@code callback} and passing
+     * it in.
      *
-     * @param trainId Id of the train returned spike values and indexes belong to.
-     * @param startIndex Start index from which values and indexes of spikes should be returned.
-     * @param endIndex End index till which values and indexes of spikes should be returned.
+     * @param filePath Absolute path of the audio file for which we want to retrieve the spike index.
+     * @param callback Callback that's invoked when spike index is built from the database.
      */
-    @NonNull public SpikeValueAndIndex[] getSpikesByTrainForRange(long trainId, int startIndex, int endIndex) {
-        return analysisDataSource.getSpikeAnalysisValuesAndIndicesByTrainForRange(trainId, startIndex, endIndex);
+    public void getSpikeIndex(@NonNull String filePath,
+        @Nullable AnalysisDataSource.GetAnalysisCallback<SpikeIndex> callback) {
+        analysisDataSource.getSpikeIndex(filePath, callback);
     }
 
     /**
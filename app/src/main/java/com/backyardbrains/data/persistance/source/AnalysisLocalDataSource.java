@@ -2,6 +2,7 @@ package com.backyardbrains.data.persistance.source;
 
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import com.backyardbrains.data.SpikeIndex;
 import com.backyardbrains.data.SpikeValueAndIndex;
 import com.backyardbrains.data.persistance.AnalysisDataSource;
 import com.backyardbrains.data.persistance.dao.SpikeAnalysisDao;
@@ -175,14 +176,55 @@ public class AnalysisLocalDataSource implements AnalysisDataSource {
     /**
      * {@inheritDoc}
      *
-     * @param trainId Id of the {@link Train} for which spike values and indices should be queried.
-     * @param startIndex Index of the first sample in the range for which spikes should be retrieved.
-     * @param endIndex Index of the last sample in the range for which spikes should be retrieved.
-     * @return Array of spike values and indices located between specified {@code startIndex} and {@code endIndex}.
+     * @param filePath Absolute path of the audio file for which we want to retrieve the spike index.
+     * @param callback Callback that's invoked when spike index is built from the database.
      */
-    @Override public SpikeValueAndIndex[] getSpikeAnalysisValuesAndIndicesByTrainForRange(long trainId, int startIndex,
-        int endIndex) {
-        return spikeTrainDao.loadSpikeValuesAndIndicesForRange(trainId, startIndex, endIndex);
+    @Override public void getSpikeIndex(@NonNull final String filePath,
+        @Nullable final GetAnalysisCallback<SpikeIndex> callback) {
+        final Runnable runnable = new Runnable() {
+            @Override public void run() {
+                final SpikeAnalysis analysis = spikeAnalysisDao.loadSpikeAnalysis(filePath);
+                if (analysis != null) {
+                    final Train[] trains = trainDao.loadTrains(analysis.getId());
+                    if (trains.length > 0) {
+                        // spikes are already sorted by their index so we just need to unpack them
+                        final int[][] indices = new int[trains.length][];
+                        final short[][] values = new short[trains.length][];
+                        for (int i = 0; i < trains.length; i++) {
+                            final SpikeValueAndIndex[] spikes =
+                                spikeTrainDao.loadSpikeValuesAndIndices(trains[i].getId());
+                            indices[i] = new int[spikes.length];
+                            values[i] = new short[spikes.length];
+                            for (int j = 0; j < spikes.length; j++) {
+                                indices[i][j] = spikes[j].getIndex();
+                                values[i][j] = (short) spikes[j].getValue();
+                            }
+                        }
+
+                        final SpikeIndex spikeIndex = new SpikeIndex(indices, values);
+                        appExecutors.mainThread().execute(new Runnable() {
+                            @Override public void run() {
+                                if (callback != null) callback.onAnalysisLoaded(spikeIndex);
+                            }
+                        });
+                    } else {
+                        appExecutors.mainThread().execute(new Runnable() {
+                            @Override public void run() {
+                                if (callback != null) callback.onDataNotAvailable();
+                            }
+                        });
+                    }
+                } else {
+                    appExecutors.mainThread().execute(new Runnable() {
+                        @Override public void run() {
+                            if (callback != null) callback.onDataNotAvailable();
+                        }
+                    });
+                }
+            }
+        };
+
+        appExecutors.diskIO().execute(runnable);
     }
 
     /**
@@ -5,9 +5,14 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import com.backyardbrains.audio.Filters;
 import com.backyardbrains.filters.Filter;
+import com.backyardbrains.utils.AudioUtils;
 import com.backyardbrains.utils.JniUtils;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
-import org.greenrobot.essentials.io.CircularByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 import static com.backyardbrains.utils.LogUtils.LOGD;
 import static com.backyardbrains.utils.LogUtils.makeLogTag;
@@ -22,29 +27,120 @@ public abstract class AbstractSampleSource implements SampleSource {
     // Additional filters that should be applied to input data
     protected static final Filters FILTERS = new Filters();
 
+    // Minimum number of bytes that need to be written to the ring buffer before processing thread is woken up
+    private static final int DEFAULT_MIN_BYTES_TO_PROCESS = 1;
+    // Maximum time processing thread waits for minimum number of bytes before processing whatever is available
+    private static final long DEFAULT_MAX_WAIT_TIME_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    // Whether incoming data can be passed to native code through direct buffers
+    private static final boolean DIRECT_BUFFERS = JniUtils.isDirectBufferAccessSupported();
+
+    // Max number of preallocated slots that hold processed samples, should be enough for listener to hold on to a few
+    // batches (e.g. in a SamplesBroadcastRing) while next batch is being processed
+    private static final int SAMPLES_POOL_MAX_SLOT_COUNT = 12;
+    // Min number of slots, so next batch can be processed while listener holds on to the previous one
+    private static final int SAMPLES_POOL_MIN_SLOT_COUNT = 2;
+    // Number of samples per channel all the slots together can hold, so sources with bigger batches (e.g. seek batches
+    // of a playback) get fewer slots and memory taken by the slots grows only with number of channels
+    private static final int SAMPLES_POOL_CHANNEL_BUDGET = AudioUtils.SAMPLE_RATE * 12;
+
     /**
      * Background thread that processes the data from the local buffer filled by the derived class and passes it to
-     * {@link SampleSourceListener}
+     * {@link SampleSourceListener}. Thread is parked while there is no data to process and is woken up by {@link
+     * #writeToBuffer(byte[], int, int)} once enough bytes has been written or when max wait time elapses.
      */
     protected class ProcessingThread extends Thread {
         @Override public void run() {
+            JniUtils.resetTransferStats();
             while (working.get()) {
-                if (!paused.get()) {
-                    int size = ringBuffer.get(buffer);
+                if (awaitData()) {
+                    // if all slots are still held by consumers incoming data stays in the ring buffer until one frees
+                    final SamplesWithEvents samplesWithEvents =
+                        samplesPool.acquire(maxWaitTimeNanos, TimeUnit.NANOSECONDS);
+                    if (samplesWithEvents == null) continue;
+
+                    final ByteBuffer directBuffer = AbstractSampleSource.this.directBuffer;
+                    final byte[] buffer = AbstractSampleSource.this.buffer;
+                    final long arrivalTime = arrivalTimeNanos.get();
+                    // we never read more bytes than there are samples in the slot, the rest waits for the next one
+                    final int maxSize = 2 * (samplesWithEvents.isDirect() ? samplesWithEvents.samplesBuffer.capacity()
+                        : samplesWithEvents.samples.length);
+                    int size;
+                    if (directBuffer != null) {
+                        directBuffer.clear();
+                        directBuffer.limit(Math.min(directBuffer.capacity(), maxSize));
+                        size = ringBuffer.get(directBuffer);
+                    } else {
+                        size = ringBuffer.get(buffer, 0, Math.min(buffer.length, maxSize));
+                    }
+                    final long readTime = System.nanoTime();
+                    // bytes that are left in the buffer arrived with the last write at the latest
+                    arrivalTimeNanos.compareAndSet(arrivalTime, ringBuffer.available() > 0 ? lastWriteTimeNanos : 0);
                     if (size > 0) {
                         //LOGD(TAG, "PROCESSING: " + size);
-                        if (sampleSourceListener == null) {
-                            // we should process the incoming data even if there is no listener
-                            processIncomingData(buffer, size);
-                        } else {
-                            // forward received samples to SampleSourceListener
+                        samplesWithEvents.arrivalTimeNanos = arrivalTime != 0 ? arrivalTime : readTime;
+                        PipelineLatency.record(PipelineLatency.Stage.READ,
+                            readTime - samplesWithEvents.arrivalTimeNanos);
+                        // processing adds samples it had to drop itself
+                        samplesWithEvents.droppedSampleCount = 0;
+                        process(samplesWithEvents, directBuffer, buffer, size);
+                        samplesWithEvents.processedTimeNanos = System.nanoTime();
+                        PipelineLatency.record(PipelineLatency.Stage.PROCESS,
+                            samplesWithEvents.processedTimeNanos - readTime);
+                        samplesWithEvents.droppedSampleCount += collectDroppedSamples();
+                        samplesWithEvents.sampleRate = sampleRate;
+                        // we should process the incoming data even if there is no listener
+                        if (sampleSourceListener != null) {
+                            // publish received samples to SampleSourceListener
                             synchronized (sampleSourceListener) {
-                                sampleSourceListener.onSamplesReceived(processIncomingData(buffer, size));
+                                sampleSourceListener.onSamplesReceived(samplesWithEvents);
                             }
                         }
                     }
+                    // consumers that still need the samples have retained them
+                    samplesWithEvents.release();
                 }
             }
+
+            LOGD(TAG, "DROPPED BYTES: " + getDroppedByteCount() + ", OVERRUNS: " + getOverrunCount());
+            LOGD(TAG, "PROCESSING THREAD IDLE TIME: " + TimeUnit.NANOSECONDS.toMillis(idleTimeNanos) + "ms, WAKE-UPS: "
+                + wakeUpCount + ", AVG WAKE-UP LATENCY: " + getAverageWakeUpLatencyNanos() + "ns, MAX WAKE-UP LATENCY: "
+                + maxWakeUpLatencyNanos + "ns");
+            PipelineLatency.log();
+
+            final long[] stats = new long[JniUtils.TRANSFER_STATS_SIZE];
+            JniUtils.getTransferStats(stats);
+            final long buffers = Math.max(1, stats[JniUtils.TRANSFER_STATS_BUFFERS]);
+            LOGD(TAG, "PROCESSED " + stats[JniUtils.TRANSFER_STATS_BUFFERS] + " BUFFERS " + (directBuffer != null
+                ? "THROUGH DIRECT BUFFERS" : "THROUGH ARRAYS") + ", COPIES PER BUFFER: "
+                + (float) stats[JniUtils.TRANSFER_STATS_COPIES] / buffers + ", COPIED BYTES PER BUFFER: "
+                + stats[JniUtils.TRANSFER_STATS_COPIED_BYTES] / buffers + ", ALLOCATIONS PER BUFFER: "
+                + (float) stats[JniUtils.TRANSFER_STATS_ALLOCATIONS] / buffers);
+        }
+
+        // Returns number of samples dropped by the ring buffer since last call
+        private int collectDroppedSamples() {
+            final SpscByteRingBuffer ringBuffer = AbstractSampleSource.this.ringBuffer;
+            if (ringBuffer != droppedBytesRingBuffer) {
+                droppedBytesRingBuffer = ringBuffer;
+                reportedDroppedBytes = 0;
+            }
+            final long droppedBytes = ringBuffer.getDroppedCount() - reportedDroppedBytes;
+            if (droppedBytes == 0) return 0;
+
+            reportedDroppedBytes += droppedBytes;
+            return (int) (droppedBytes / (2 * Math.max(1, channelCount)));
+        }
+
+        // Passes data read from the ring buffer to subclass for processing
+        private void process(@NonNull SamplesWithEvents out, @Nullable ByteBuffer directBuffer, @Nullable byte[] buffer,
+            int length) {
+            //noinspection ConstantConditions
+            if (directBuffer != null) {
+                processIncomingData(out, directBuffer, length);
+            } else {
+                processIncomingData(out, buffer, length);
+            }
         }
     }
 
@@ -52,26 +148,52 @@ public abstract class AbstractSampleSource implements SampleSource {
 
     @SuppressWarnings("WeakerAccess") AtomicBoolean working = new AtomicBoolean(true);
     @SuppressWarnings("WeakerAccess") AtomicBoolean paused = new AtomicBoolean(false);
-    @SuppressWarnings("WeakerAccess") CircularByteBuffer ringBuffer;
+    @SuppressWarnings("WeakerAccess") SpscByteRingBuffer ringBuffer;
+    // What happens with incoming data when processing thread doesn't keep up
+    @OverflowPolicy private int overflowPolicy = OverflowPolicy.DROP_OLDEST;
+    private long overflowBlockTimeoutNanos;
+    // Ring buffer and number of it's dropped bytes that have been reported to listener, used only by processing thread
+    @SuppressWarnings("WeakerAccess") SpscByteRingBuffer droppedBytesRingBuffer;
+    @SuppressWarnings("WeakerAccess") long reportedDroppedBytes;
     @SuppressWarnings("WeakerAccess") byte[] buffer;
-
-    private ProcessingThread processingThread;
-
-    // Updated during processing and on every cycle
-    protected SamplesWithEvents samplesWithEvents;
+    // Used instead of buffer when incoming data is passed to native code through direct buffers
+    @SuppressWarnings("WeakerAccess") ByteBuffer directBuffer;
+
+    @SuppressWarnings("WeakerAccess") volatile ProcessingThread processingThread;
+    // Whether processing thread is currently parked waiting for data
+    private volatile boolean waiting;
+    // Time at which writer signaled the processing thread that enough data is available
+    private volatile long signalTimeNanos;
+    // Time at which the oldest data that's still in the ring buffer was written, 0 if processing thread read all data
+    @SuppressWarnings("WeakerAccess") final AtomicLong arrivalTimeNanos = new AtomicLong();
+    // Time at which the data was last written to the ring buffer
+    @SuppressWarnings("WeakerAccess") volatile long lastWriteTimeNanos;
+    // Number of bytes that need to be available before processing thread is woken up
+    private volatile int minBytesToProcess = DEFAULT_MIN_BYTES_TO_PROCESS;
+    // Max time processing thread waits for new data before processing whatever is available
+    @SuppressWarnings("WeakerAccess") volatile long maxWaitTimeNanos = DEFAULT_MAX_WAIT_TIME_NANOS;
+
+    // Hand-off statistics, updated only by the processing thread
+    @SuppressWarnings("WeakerAccess") volatile long idleTimeNanos;
+    @SuppressWarnings("WeakerAccess") volatile long wakeUpCount;
+    private volatile long totalWakeUpLatencyNanos;
+    @SuppressWarnings("WeakerAccess") volatile long maxWakeUpLatencyNanos;
+
+    // Slots that are populated during processing and published to listener on every cycle
+    @SuppressWarnings("WeakerAccess") SamplesWithEventsPool samplesPool;
 
     private int bufferSize;
     private int sampleRate;
-    private int channelCount;
+    @SuppressWarnings("WeakerAccess") int channelCount;
 
     public AbstractSampleSource(int bufferSize, @Nullable SampleSourceListener listener) {
         this.bufferSize = bufferSize;
         this.sampleSourceListener = listener;
 
-        ringBuffer = new CircularByteBuffer(bufferSize * 2);
-        buffer = new byte[bufferSize];
+        ringBuffer = createRingBuffer(bufferSize * 2);
+        createBuffers(bufferSize);
 
-        samplesWithEvents = new SamplesWithEvents((int) (bufferSize * .5f));
+        createSamplesPool();
     }
 
     /**
@@ -90,7 +212,8 @@ public abstract class AbstractSampleSource implements SampleSource {
         // pass filters to native code
         float low = (float) (filter != null ? filter.getLowCutOffFrequency() : -1f);
         float high = (float) (filter != null ? filter.getHighCutOffFrequency() : -1f);
-        JniUtils.setFilters(low, high);
+        int mainsHarmonicCount = filter != null ? filter.getMainsHarmonicCount() : 0;
+        JniUtils.setFilters(low, high, mainsHarmonicCount);
     }
 
     /**
@@ -107,10 +230,7 @@ public abstract class AbstractSampleSource implements SampleSource {
         if (this.sampleRate != sampleRate) {
             LOGD(TAG, "SAMPLE RATE: " + sampleRate);
 
-            // reset filters
-            FILTERS.setSampleRate(sampleRate);
-
-            // pass sample rate to native code
+            // pass sample rate to native code, filters are recalculated there
             JniUtils.setSampleRate(sampleRate);
 
             // inform interested parties what is the sample rate of this sample source
@@ -127,14 +247,88 @@ public abstract class AbstractSampleSource implements SampleSource {
      */
     public final void setBufferSize(int bufferSize) {
         if (this.bufferSize != bufferSize) {
-            ringBuffer = new CircularByteBuffer(bufferSize * 2);
-            buffer = new byte[bufferSize];
-            samplesWithEvents = new SamplesWithEvents(bufferSize);
+            ringBuffer = createRingBuffer(bufferSize * 2);
+            createBuffers(bufferSize);
 
             this.bufferSize = bufferSize;
+
+            // slots need to hold the biggest batch that can now be processed
+            createSamplesPool();
         }
     }
 
+    /**
+     * Sets policy that defines what happens with incoming data when processing thread doesn't keep up and there is no
+     * more room in the local buffer. {@code timeout} defines how long writer waits for free space when policy is {@link
+     * OverflowPolicy#BLOCK}. Default policy is {@link OverflowPolicy#DROP_OLDEST}.
+     */
+    public final void setOverflowPolicy(@OverflowPolicy int overflowPolicy, long timeout, @NonNull TimeUnit unit) {
+        this.overflowPolicy = overflowPolicy;
+        this.overflowBlockTimeoutNanos = unit.toNanos(timeout);
+
+        ringBuffer.setOverflowPolicy(overflowPolicy, timeout, unit);
+    }
+
+    /**
+     * Returns total number of incoming bytes dropped because processing thread didn't keep up.
+     */
+    public long getDroppedByteCount() {
+        return ringBuffer.getDroppedCount();
+    }
+
+    /**
+     * Returns number of times incoming bytes were dropped because processing thread didn't keep up.
+     */
+    public long getOverrunCount() {
+        return ringBuffer.getOverrunCount();
+    }
+
+    /**
+     * Returns time of the last overrun as returned by {@link System#nanoTime()}, or {@code 0} if there was none.
+     */
+    public long getLastOverrunTimeNanos() {
+        return ringBuffer.getLastOverrunTimeNanos();
+    }
+
+    /**
+     * Sets minimum number of bytes that need to be written to the buffer before processing thread is woken up, and
+     * maximum time processing thread should wait for them. When {@code maxWaitTime} elapses all available bytes are
+     * processed even if there's less of them then {@code minBytes}.
+     */
+    public final void setHandOff(int minBytes, long maxWaitTime, @NonNull TimeUnit unit) {
+        if (minBytes > 0) minBytesToProcess = minBytes;
+        if (maxWaitTime > 0) maxWaitTimeNanos = unit.toNanos(maxWaitTime);
+    }
+
+    /**
+     * Returns total time in nanoseconds processing thread spent parked waiting for data.
+     */
+    public long getIdleTimeNanos() {
+        return idleTimeNanos;
+    }
+
+    /**
+     * Returns number of times processing thread was woken up by the writer.
+     */
+    public long getWakeUpCount() {
+        return wakeUpCount;
+    }
+
+    /**
+     * Returns average time in nanoseconds between writer signaling available data and processing thread waking up.
+     */
+    public long getAverageWakeUpLatencyNanos() {
+        final long count = wakeUpCount;
+        return count > 0 ? totalWakeUpLatencyNanos / count : 0;
+    }
+
+    /**
+     * Returns maximum time in nanoseconds between writer signaling available data and processing thread waking up.
+     */
+    public long getMaxWakeUpLatencyNanos() {
+        return maxWakeUpLatencyNanos;
+    }
+
     /**
      * Returns number of channels for this input source.
      */
@@ -150,6 +344,9 @@ public abstract class AbstractSampleSource implements SampleSource {
             LOGD(TAG, "CHANNEL COUNT: " + channelCount);
 
             this.channelCount = channelCount;
+
+            // batches are now split into a different number of channels
+            createSamplesPool();
         }
     }
 
@@ -201,6 +398,7 @@ public abstract class AbstractSampleSource implements SampleSource {
     @Override public final void resume() {
         // resume threads
         paused.set(false);
+        wakeUp();
     }
 
     /**
@@ -211,6 +409,7 @@ public abstract class AbstractSampleSource implements SampleSource {
         onInputStop();
         // stop the processing thread
         working.set(false);
+        wakeUp();
         if (processingThread != null) processingThread = null;
     }
 
@@ -218,7 +417,84 @@ public abstract class AbstractSampleSource implements SampleSource {
      * Subclasses should write any received data to buffer for further processing.
      */
     protected final void writeToBuffer(@NonNull byte[] data, int offset, int length) {
+        final long now = System.nanoTime();
         ringBuffer.put(data, offset, length);
+        lastWriteTimeNanos = now;
+        // mark arrival time only if there's no older data in the ring buffer
+        arrivalTimeNanos.compareAndSet(0, now);
+
+        // wake up processing thread if it's waiting and we have enough data
+        if (waiting && ringBuffer.available() >= minBytesToProcess) {
+            signalTimeNanos = System.nanoTime();
+            wakeUp();
+        }
+    }
+
+    // Unparks processing thread if it's parked
+    private void wakeUp() {
+        final Thread thread = processingThread;
+        if (thread != null) LockSupport.unpark(thread);
+    }
+
+    // Creates ring buffer that holds incoming data until processing thread processes it
+    private SpscByteRingBuffer createRingBuffer(int capacity) {
+        final SpscByteRingBuffer ringBuffer = new SpscByteRingBuffer(capacity);
+        ringBuffer.setOverflowPolicy(overflowPolicy, overflowBlockTimeoutNanos, TimeUnit.NANOSECONDS);
+        return ringBuffer;
+    }
+
+    // Creates local buffer that processing thread uses to pass incoming data to subclass for processing
+    private void createBuffers(int bufferSize) {
+        if (DIRECT_BUFFERS) {
+            directBuffer = ByteBuffer.allocateDirect(bufferSize).order(ByteOrder.nativeOrder());
+        } else {
+            buffer = new byte[bufferSize];
+        }
+    }
+
+    // Creates pool of slots that processing thread populates with processed samples and passes to listener. Processing
+    // thread reads at most bufferSize bytes at once and every sample takes 2 bytes, so that's how many samples of every
+    // channel a slot needs to hold.
+    private void createSamplesPool() {
+        final int channelCount = Math.max(1, this.channelCount);
+        final int channelCapacity = bufferSize / (2 * channelCount);
+        final int slotCount = Math.max(SAMPLES_POOL_MIN_SLOT_COUNT,
+            Math.min(SAMPLES_POOL_MAX_SLOT_COUNT, SAMPLES_POOL_CHANNEL_BUDGET / Math.max(1, channelCapacity)));
+        samplesPool = new SamplesWithEventsPool(slotCount, channelCapacity, channelCount, DIRECT_BUFFERS);
+    }
+
+    // Parks processing thread until minimum number of bytes is available in the ring buffer or max wait time elapses.
+    // Thread stays parked while source is paused. Returns true if there is data that should be processed.
+    @SuppressWarnings("WeakerAccess") boolean awaitData() {
+        final long start = System.nanoTime();
+        long now = start;
+        long deadline = start + maxWaitTimeNanos;
+
+        waiting = true;
+        while (working.get() && (paused.get() || ringBuffer.available() < minBytesToProcess)) {
+            if (paused.get()) {
+                // while paused we wait until resumed, deadline is irrelevant
+                deadline = now + maxWaitTimeNanos;
+            } else if (now >= deadline) {
+                break;
+            }
+            LockSupport.parkNanos(this, deadline - now);
+            now = System.nanoTime();
+        }
+        waiting = false;
+
+        // update statistics
+        idleTimeNanos += now - start;
+        final long signalTime = signalTimeNanos;
+        if (signalTime != 0) {
+            final long latency = Math.max(0, now - signalTime);
+            totalWakeUpLatencyNanos += latency;
+            if (latency > maxWakeUpLatencyNanos) maxWakeUpLatencyNanos = latency;
+            wakeUpCount++;
+            signalTimeNanos = 0;
+        }
+
+        return working.get() && !paused.get() && ringBuffer.available() > 0;
     }
 
     /**
@@ -235,11 +511,19 @@ public abstract class AbstractSampleSource implements SampleSource {
 
     /**
      * Called by {@link SampleSourceListener} before triggering the listener to convert incoming byte data to
-     * sample data. If available (i.e. during playback) caller should also pass the index of the last passed byte
-     * (playhead).
+     * sample data and populate specified {@code out} slot with it. If available (i.e. during playback) implementation
+     * should also pass the index of the last passed byte (playhead).
      * <p>
      * This method is called from background thread so implementation should not communicate with UI thread
      * directly.
      */
-    @NonNull protected abstract SamplesWithEvents processIncomingData(byte[] data, int length);
+    protected abstract void processIncomingData(@NonNull SamplesWithEvents out, byte[] data, int length);
+
+    /**
+     * Same as {@link #processIncomingData(SamplesWithEvents, byte[], int)} but incoming data is held in a direct buffer
+     * that can be passed to native code without copying. Called instead of {@link
+     * #processIncomingData(SamplesWithEvents, byte[], int)} when VM supports JNI direct buffer access, in which case
+     * {@code out} holds samples in a direct buffer as well.
+     */
+    protected abstract void processIncomingData(@NonNull SamplesWithEvents out, @NonNull ByteBuffer data, int length);
 }
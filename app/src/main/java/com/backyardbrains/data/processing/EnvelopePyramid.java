@@ -0,0 +1,103 @@
+package com.backyardbrains.data.processing;
+
+import android.support.annotation.NonNull;
+import com.backyardbrains.utils.JniUtils;
+
+/**
+ * Holds the most recent samples of a single channel together with their native min/max level-of-detail pyramid that's
+ * updated as samples are appended. Waveform vertices are prepared from the pyramid so a frame costs roughly the same
+ * regardless of how many samples are visible, and events are looked up by binary search instead of being matched
+ * against every sample.
+ * <p>
+ * Envelope columns are aligned to absolute sample indices so they don't change while the waveform scrolls. Columns of
+ * the previous frame are kept and only the ones that scrolled into view are calculated, all of them are recalculated
+ * only when zoom or surface width change, or when samples are cleared.
+ * <p>
+ * Pyramid holds native memory that needs to be freed by calling {@link #release()}.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class EnvelopePyramid {
+
+    private final int size;
+
+    // Handle of the native pyramid
+    private long pyramid;
+
+    public EnvelopePyramid(int size) {
+        this.size = size;
+        this.pyramid = JniUtils.createEnvelopePyramid(size);
+    }
+
+    /**
+     * Returns number of most recent samples this pyramid holds.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Appends first {@code length} samples of specified {@code samples} array. Only the most recent {@link #getSize()}
+     * samples are kept.
+     */
+    public void add(@NonNull short[] samples, int length) {
+        add(samples, 0, length);
+    }
+
+    /**
+     * Appends {@code length} samples of specified {@code samples} array starting at {@code offset}. Only the most
+     * recent {@link #getSize()} samples are kept.
+     */
+    public void add(@NonNull short[] samples, int offset, int length) {
+        if (pyramid == 0) throw new IllegalStateException("Pyramid has already been released");
+
+        JniUtils.appendToEnvelopePyramid(pyramid, samples, offset, length);
+    }
+
+    /**
+     * Appends the newest {@code length} samples held by specified {@code buffer}, which are read directly from the ring
+     * that backs it.
+     */
+    public void add(@NonNull SampleBuffer buffer, int length) {
+        length = Math.min(length, buffer.getSize());
+        if (length <= 0) return;
+
+        final int index = buffer.getArrayIndex(buffer.getSize() - length);
+        final int firstLength = Math.min(length, buffer.getSize() - index);
+        add(buffer.getArray(), index, firstLength);
+        if (length > firstLength) add(buffer.getArray(), 0, length - firstLength);
+    }
+
+    /**
+     * Replaces all held samples with zeros and drops all envelope columns.
+     */
+    public void clear() {
+        if (pyramid == 0) throw new IllegalStateException("Pyramid has already been released");
+
+        JniUtils.clearEnvelopePyramid(pyramid);
+    }
+
+    /**
+     * Saves waveform vertices of the held samples between {@code fromSample} and {@code toSample} that fit into
+     * {@code drawSurfaceWidth} to {@code out}, together with the vertex indices of the events within that range.
+     * Indices of samples and events are relative to the oldest held sample and events need to be sorted ascending.
+     * Returns number of vertices that had to be calculated because they weren't drawn the previous time.
+     */
+    public int prepareForDrawing(@NonNull SamplesWithEvents out, @NonNull int[] eventIndices, int eventCount,
+        int fromSample, int toSample, int drawSurfaceWidth) {
+        if (pyramid == 0) throw new IllegalStateException("Pyramid has already been released");
+
+        return JniUtils.prepareForPyramidDrawing(pyramid, out, eventIndices, eventCount, fromSample, toSample,
+            drawSurfaceWidth);
+    }
+
+    /**
+     * Frees native memory held by this pyramid. Pyramid cannot be used afterwards.
+     */
+    public void release() {
+        if (pyramid == 0) return;
+
+        JniUtils.releaseEnvelopePyramid(pyramid);
+        pyramid = 0;
+    }
+}
@@ -0,0 +1,522 @@
+package com.backyardbrains.data.processing;
+
+import android.support.annotation.IntDef;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import com.backyardbrains.utils.JniUtils;
+import com.backyardbrains.utils.WavUtils;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Headless engine that pushes a WAV file or a captured SpikerBox byte stream through the same native processors that
+ * process live data, as fast as the CPU allows. Incoming data is split into batches the size of the ones processing
+ * thread handles during live processing, every batch is decoded and filtered, optionally averaged by the threshold
+ * processor and then turned into an envelope the same way renderer does it before drawing a frame. Time spent in every
+ * stage is measured so the engine can be used both for batch re-processing and as a deterministic harness for
+ * measuring throughput of the processing chain.
+ * <p>
+ * Engine doesn't depend on any {@code android.*} class so it runs on a plain JVM as long as byb-lib built for the host
+ * machine can be loaded. Native processors are shared with the live pipeline so engine should not be used while
+ * {@code AudioService} is processing.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class OfflineProcessor {
+
+    /**
+     * Defines stages every batch of data goes through.
+     */
+    @Retention(RetentionPolicy.SOURCE) @IntDef({ Stage.DECODE, Stage.THRESHOLD, Stage.ENVELOPE, Stage.DECIMATE })
+    public @interface Stage {
+        /**
+         * Decoding of the incoming bytes into samples and filtering of the samples (both are done in the same native
+         * call).
+         */
+        int DECODE = 0;
+        /**
+         * Averaging of the samples around threshold hits.
+         */
+        int THRESHOLD = 1;
+        /**
+         * Preparation of the envelope that is drawn on screen.
+         */
+        int ENVELOPE = 2;
+        /**
+         * Decimation of the samples envelope is prepared from.
+         */
+        int DECIMATE = 3;
+    }
+
+    private static final String[] STAGE_NAMES = { "DECODE", "THRESHOLD", "ENVELOPE", "DECIMATE" };
+
+    // Length of batch that's processed at once, same as max time processing thread waits for new data
+    private static final int DEFAULT_BATCH_MILLIS = 20;
+    // Max number of samples per channel sample stream processor can decode at once
+    private static final int MAX_SAMPLE_STREAM_FRAMES = 5000;
+    // Max number of samples threshold processor returns, it keeps 2.4 s of samples at sample rates of up to 44.1 kHz
+    private static final int THRESHOLD_SAMPLE_COUNT = (int) (44100 * 2.4f);
+    // Max number of triggers threshold processor evaluates at once
+    private static final int MAX_TRIGGERS = 4;
+    // Length of the signal renderer shows by default
+    private static final float DEFAULT_WINDOW_SECONDS = 6f;
+    // Width of the surface envelope is prepared for by default
+    private static final int DEFAULT_DRAW_SURFACE_WIDTH = 1080;
+
+    /**
+     * Listener that's invoked every time a batch of data passes through all the stages.
+     */
+    public interface OnBatchProcessedListener {
+        /**
+         * Called with decoded and filtered samples and events of the last processed batch. If threshold averaging is
+         * on {@code averagedSamples} holds samples averaged so far, otherwise it's {@code null}. Both objects are
+         * reused for the next batch.
+         */
+        void onBatchProcessed(@NonNull SamplesWithEvents samples, @Nullable SamplesWithEvents averagedSamples);
+    }
+
+    /**
+     * Throughput of every stage collected while processing single input.
+     */
+    public static class Report {
+
+        @SuppressWarnings("WeakerAccess") final long[] stageNanos = new long[STAGE_NAMES.length];
+        @SuppressWarnings("WeakerAccess") final long[] stageSamples = new long[STAGE_NAMES.length];
+        @SuppressWarnings("WeakerAccess") final int sampleRate;
+        @SuppressWarnings("WeakerAccess") long batchCount;
+        // Number of decoded samples per channel
+        @SuppressWarnings("WeakerAccess") long frameCount;
+        @SuppressWarnings("WeakerAccess") long eventCount;
+        // Number of drawn envelope vertices and number of those that weren't drawn in the previous frame
+        @SuppressWarnings("WeakerAccess") long drawnVertexCount;
+        @SuppressWarnings("WeakerAccess") long calculatedVertexCount;
+        @SuppressWarnings("WeakerAccess") long totalNanos;
+
+        Report(int sampleRate) {
+            this.sampleRate = sampleRate;
+        }
+
+        /**
+         * Returns number of processed batches.
+         */
+        public long getBatchCount() {
+            return batchCount;
+        }
+
+        /**
+         * Returns number of events found in the processed input.
+         */
+        public long getEventCount() {
+            return eventCount;
+        }
+
+        /**
+         * Returns number of decoded samples per channel.
+         */
+        public long getFrameCount() {
+            return frameCount;
+        }
+
+        /**
+         * Returns number of envelope vertices drawn in all frames.
+         */
+        public long getDrawnVertexCount() {
+            return drawnVertexCount;
+        }
+
+        /**
+         * Returns number of drawn envelope vertices that had to be calculated because they weren't drawn in the
+         * previous frame.
+         */
+        public long getCalculatedVertexCount() {
+            return calculatedVertexCount;
+        }
+
+        /**
+         * Returns number of samples that went through the specified {@code stage}. Decoded samples of all channels are
+         * counted.
+         */
+        public long getSampleCount(@Stage int stage) {
+            return stageSamples[stage];
+        }
+
+        /**
+         * Returns time (in nanoseconds) spent in the specified {@code stage}.
+         */
+        public long getNanos(@Stage int stage) {
+            return stageNanos[stage];
+        }
+
+        /**
+         * Returns number of samples the specified {@code stage} processes per second.
+         */
+        public double getSamplesPerSecond(@Stage int stage) {
+            return stageNanos[stage] > 0 ? stageSamples[stage] * 1e9 / stageNanos[stage] : 0;
+        }
+
+        /**
+         * Returns time (in nanoseconds) needed to process the whole input, including reading.
+         */
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        /**
+         * Returns how many times faster than real time the input was processed.
+         */
+        public double getRealTimeFactor() {
+            return totalNanos > 0 ? frameCount * 1e9 / sampleRate / totalNanos : 0;
+        }
+
+        @Override public String toString() {
+            final StringBuilder sb = new StringBuilder();
+            sb.append(String.format(Locale.US, "%d batches, %d events, %.3f s of signal processed in %.3f ms (%.1fx "
+                    + "real time)", batchCount, eventCount, (double) frameCount / sampleRate,
+                totalNanos / 1e6, getRealTimeFactor()));
+            for (int i = 0; i < STAGE_NAMES.length; i++) {
+                if (stageSamples[i] == 0) continue;
+
+                sb.append(String.format(Locale.US, "\n%-10s %12d samples %10.3f ms %14.0f samples/s", STAGE_NAMES[i],
+                    stageSamples[i], stageNanos[i] / 1e6, getSamplesPerSecond(i)));
+            }
+            if (drawnVertexCount > 0) {
+                sb.append(String.format(Locale.US, "\n%d of %d envelope vertices calculated", calculatedVertexCount,
+                    drawnVertexCount));
+            }
+            return sb.toString();
+        }
+    }
+
+    private float lowCutOff = -1;
+    private float highCutOff = -1;
+    private int mainsHarmonicCount;
+    private int threshold;
+    private int averagedSampleCount = 1;
+    private final int[] triggerLowerBounds = new int[MAX_TRIGGERS];
+    private final int[] triggerUpperBounds = new int[MAX_TRIGGERS];
+    private final boolean[] triggerRisingSlopes = new boolean[MAX_TRIGGERS];
+    private final float[] triggerDeadTimes = new float[MAX_TRIGGERS];
+    private int triggerCount;
+    private final String[] eventTriggerNames = new String[MAX_TRIGGERS];
+    private final float[] eventTriggerPreTimes = new float[MAX_TRIGGERS];
+    private final float[] eventTriggerPostTimes = new float[MAX_TRIGGERS];
+    private int eventTriggerCount;
+    private boolean bpmProcessing;
+    private int batchMillis = DEFAULT_BATCH_MILLIS;
+    private float windowSeconds = DEFAULT_WINDOW_SECONDS;
+    private int drawSurfaceWidth = DEFAULT_DRAW_SURFACE_WIDTH;
+    private int displaySampleRate;
+    private OnBatchProcessedListener listener;
+
+    /**
+     * Sets cut-off frequencies of the filters applied while decoding. Negative value turns off corresponding filter.
+     * Filters are off by default. Filters are not applied to WAV files with multiple channels, see {@link
+     * #processWav(File)}.
+     */
+    public OfflineProcessor filters(float lowCutOff, float highCutOff) {
+        this.lowCutOff = lowCutOff;
+        this.highCutOff = highCutOff;
+
+        return this;
+    }
+
+    /**
+     * Sets number of mains hum harmonics (fundamental included) notched out while decoding. {@code 0} turns notch
+     * filters off, which is the default. Same as other filters notch filters are not applied to WAV files with multiple
+     * channels.
+     */
+    public OfflineProcessor mainsNotch(int mainsHarmonicCount) {
+        this.mainsHarmonicCount = mainsHarmonicCount;
+
+        return this;
+    }
+
+    /**
+     * Turns on averaging of the samples around threshold hits with the specified {@code threshold} and number of
+     * averaged sweeps. Threshold of {@code 0} turns averaging off, which is the default.
+     */
+    public OfflineProcessor threshold(int threshold, int averagedSampleCount) {
+        this.threshold = threshold;
+        this.averagedSampleCount = Math.max(1, averagedSampleCount);
+
+        return this;
+    }
+
+    /**
+     * Adds window discriminator trigger that's used for averaging instead of the threshold. Up to four triggers are
+     * evaluated at once and every one of them is averaged to it's own channel, see {@link JniUtils#setTriggers(int[],
+     * int[], boolean[], float[])}.
+     */
+    public OfflineProcessor trigger(int lowerBound, int upperBound, boolean risingSlope, float deadTimeSeconds) {
+        if (triggerCount == MAX_TRIGGERS) throw new IllegalStateException("Only " + MAX_TRIGGERS + " triggers allowed");
+
+        triggerLowerBounds[triggerCount] = lowerBound;
+        triggerUpperBounds[triggerCount] = upperBound;
+        triggerRisingSlopes[triggerCount] = risingSlope;
+        triggerDeadTimes[triggerCount++] = deadTimeSeconds;
+
+        return this;
+    }
+
+    /**
+     * Adds trigger that fires on events named {@code eventName} and averages samples from {@code preEventSeconds}
+     * before the event up to {@code postEventSeconds} after it. Event triggers are used instead of amplitude triggers
+     * and the threshold, see {@link JniUtils#setEventTriggers(String[], float[], float[])}.
+     */
+    public OfflineProcessor eventTrigger(@NonNull String eventName, float preEventSeconds, float postEventSeconds) {
+        if (eventTriggerCount == MAX_TRIGGERS) {
+            throw new IllegalStateException("Only " + MAX_TRIGGERS + " event triggers allowed");
+        }
+
+        eventTriggerNames[eventTriggerCount] = eventName;
+        eventTriggerPreTimes[eventTriggerCount] = preEventSeconds;
+        eventTriggerPostTimes[eventTriggerCount++] = postEventSeconds;
+
+        return this;
+    }
+
+    /**
+     * Sets number of averaged sweeps. Defaults to 1.
+     */
+    public OfflineProcessor averagedSampleCount(int averagedSampleCount) {
+        this.averagedSampleCount = Math.max(1, averagedSampleCount);
+
+        return this;
+    }
+
+    /**
+     * Sets whether beats per minute should be calculated while averaging. Off by default.
+     */
+    public OfflineProcessor bpmProcessing(boolean bpmProcessing) {
+        this.bpmProcessing = bpmProcessing;
+
+        return this;
+    }
+
+    /**
+     * Sets length (in milliseconds) of the signal that's processed at once. Defaults to 20 ms.
+     */
+    public OfflineProcessor batchMillis(int batchMillis) {
+        this.batchMillis = Math.max(1, batchMillis);
+
+        return this;
+    }
+
+    /**
+     * Sets length (in seconds) of the signal envelope is prepared for and width of the surface it's prepared for.
+     * Defaults to 6 seconds and 1080 pixels.
+     */
+    public OfflineProcessor window(float windowSeconds, int drawSurfaceWidth) {
+        this.windowSeconds = windowSeconds;
+        this.drawSurfaceWidth = drawSurfaceWidth;
+
+        return this;
+    }
+
+    /**
+     * Sets max sample rate of the samples envelope is prepared from. Samples with higher sample rate are decimated
+     * first, the same way they are for consumers subscribed to {@link SamplesBroadcastRing} with max sample rate.
+     * {@code 0} prepares envelope from samples at the full rate, which is the default.
+     */
+    public OfflineProcessor displaySampleRate(int displaySampleRate) {
+        this.displaySampleRate = Math.max(0, displaySampleRate);
+
+        return this;
+    }
+
+    /**
+     * Sets listener that's invoked after every processed batch.
+     */
+    public OfflineProcessor listener(@Nullable OnBatchProcessedListener listener) {
+        this.listener = listener;
+
+        return this;
+    }
+
+    /**
+     * Processes specified WAV {@code file} the same way samples coming from microphone are processed. Files with
+     * multiple channels are split into channels the same way they are during playback, which doesn't filter them.
+     *
+     * @throws IOException if file can't be read or it's not a supported WAV file
+     * @throws IllegalStateException if file has multiple channels and filters are set
+     */
+    @NonNull public Report processWav(@NonNull File file) throws IOException {
+        final InputStream in = new BufferedInputStream(new FileInputStream(file));
+        try {
+            final WavUtils.WavInfo header = WavUtils.readHeader(in);
+            final int sampleRate = header.getSampleRate();
+            final int channelCount = header.getNumChannels();
+            if (channelCount > 1 && (lowCutOff >= 0 || highCutOff >= 0 || mainsHarmonicCount > 0)) {
+                throw new IllegalStateException("Filters can't be applied to files with multiple channels");
+            }
+            final int batchBytes = sampleRate * batchMillis / 1000 * channelCount * 2;
+
+            return process(in, header.getDataSize(), sampleRate, channelCount, batchBytes, false);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Processes specified {@code stream} of bytes captured from a SpikerBox that sends specified number of channels
+     * sampled at specified sample rate the same way bytes coming from USB are processed.
+     *
+     * @throws IOException if stream can't be read
+     */
+    @NonNull public Report processSampleStream(@NonNull InputStream stream, int sampleRate, int channelCount)
+        throws IOException {
+        final int frames = Math.min(sampleRate * batchMillis / 1000, MAX_SAMPLE_STREAM_FRAMES);
+        final int batchBytes = Math.max(1, frames) * channelCount * 2;
+
+        return process(stream, Long.MAX_VALUE, sampleRate, channelCount, batchBytes, true);
+    }
+
+    /**
+     * Convenience method that processes bytes captured from a SpikerBox and saved to the specified {@code file}.
+     *
+     * @throws IOException if file can't be read
+     * @see #processSampleStream(InputStream, int, int)
+     */
+    @NonNull public Report processSampleStream(@NonNull File file, int sampleRate, int channelCount)
+        throws IOException {
+        final InputStream in = new BufferedInputStream(new FileInputStream(file));
+        try {
+            return processSampleStream(in, sampleRate, channelCount);
+        } finally {
+            in.close();
+        }
+    }
+
+    // Reads specified stream in batches and passes every batch through all the stages
+    private Report process(@NonNull InputStream in, long byteCount, int sampleRate, int channelCount, int batchBytes,
+        boolean sampleStream) throws IOException {
+        final long start = System.nanoTime();
+        final Report report = new Report(sampleRate);
+
+        configure(sampleRate, channelCount);
+
+        final boolean averaging = threshold > 0 || triggerCount > 0 || eventTriggerCount > 0;
+        final int averagedChannelCount = Math.max(1, eventTriggerCount > 0 ? eventTriggerCount : triggerCount);
+        final byte[] buffer = new byte[batchBytes];
+        // every channel is decoded to it's own part of the samples array
+        final SamplesWithEvents samples = new SamplesWithEvents(batchBytes / 2, channelCount, false);
+        samples.sampleRate = sampleRate;
+        final SamplesWithEvents averagedSamples = averaging
+            ? new SamplesWithEvents(THRESHOLD_SAMPLE_COUNT, averagedChannelCount, false) : null;
+        // envelope is prepared from decimated samples if display sample rate is lower than the sample rate
+        final SamplesDecimator decimator = displaySampleRate > 0 && sampleRate > displaySampleRate
+            ? new SamplesDecimator(SamplesDecimator.getFactor(sampleRate, displaySampleRate), channelCount) : null;
+        final SamplesWithEvents displaySamples = decimator != null ? new SamplesWithEvents(
+            decimator.getOutputCapacity(samples.channelCapacity), channelCount, false) : samples;
+        final int displayRate = decimator != null ? sampleRate / decimator.getFactor() : sampleRate;
+        final int windowSampleCount = Math.max(1, (int) (displayRate * windowSeconds));
+        final EnvelopePyramid window = new EnvelopePyramid(windowSampleCount);
+        final SamplesWithEvents envelope = new SamplesWithEvents(drawSurfaceWidth * 5);
+        final int[] noEventIndices = new int[0];
+        final String[] noEventNames = new String[0];
+
+        try {
+            long remaining = byteCount;
+            int read;
+            while (remaining > 0 && (read = read(in, buffer, (int) Math.min(buffer.length, remaining))) > 0) {
+                remaining -= read;
+
+                long stageStart = System.nanoTime();
+                if (sampleStream) {
+                    JniUtils.processSampleStream(samples, buffer, read, null);
+                } else if (channelCount > 1) {
+                    JniUtils.processPlaybackStream(samples, buffer, read, noEventIndices, noEventNames, 0, 0, 0, 0);
+                } else {
+                    JniUtils.processMicrophoneStream(samples, buffer, read);
+                }
+                long stageEnd = System.nanoTime();
+                report.stageNanos[Stage.DECODE] += stageEnd - stageStart;
+                report.stageSamples[Stage.DECODE] += samples.sampleCount * samples.channelCount;
+                report.frameCount += samples.sampleCount;
+                report.eventCount += samples.eventCount;
+
+                if (averagedSamples != null) {
+                    stageStart = stageEnd;
+                    JniUtils.processThreshold(averagedSamples, samples.samples, samples.sampleCount,
+                        samples.eventIndices, samples.eventNames, samples.eventCount);
+                    stageEnd = System.nanoTime();
+                    report.stageNanos[Stage.THRESHOLD] += stageEnd - stageStart;
+                    report.stageSamples[Stage.THRESHOLD] += samples.sampleCount;
+                }
+
+                if (decimator != null) {
+                    stageStart = stageEnd;
+                    decimator.decimate(samples, displaySamples);
+                    stageEnd = System.nanoTime();
+                    report.stageNanos[Stage.DECIMATE] += stageEnd - stageStart;
+                    report.stageSamples[Stage.DECIMATE] += samples.sampleCount * samples.channelCount;
+                }
+
+                // envelope is prepared for the newest part of the signal, same as when the frame is drawn
+                stageStart = stageEnd;
+                if (averagedSamples != null) {
+                    JniUtils.prepareForThresholdDrawing(envelope, averagedSamples.samples, 0, noEventIndices, 0, 0,
+                        averagedSamples.sampleCount, drawSurfaceWidth);
+                    report.stageSamples[Stage.ENVELOPE] += averagedSamples.sampleCount;
+                } else {
+                    window.add(displaySamples.samples, displaySamples.sampleCount);
+                    report.calculatedVertexCount +=
+                        window.prepareForDrawing(envelope, noEventIndices, 0, 0, windowSampleCount, drawSurfaceWidth);
+                    report.drawnVertexCount += envelope.sampleCount / 2;
+                    report.stageSamples[Stage.ENVELOPE] += windowSampleCount;
+                }
+                report.stageNanos[Stage.ENVELOPE] += System.nanoTime() - stageStart;
+
+                report.batchCount++;
+                if (listener != null) listener.onBatchProcessed(samples, averagedSamples);
+            }
+        } finally {
+            if (decimator != null) decimator.release();
+            window.release();
+        }
+
+        report.totalNanos = System.nanoTime() - start;
+
+        return report;
+    }
+
+    // Passes configuration to native processors
+    private void configure(int sampleRate, int channelCount) {
+        JniUtils.setSampleRate(sampleRate);
+        JniUtils.setChannelCount(channelCount);
+        JniUtils.setFilters(lowCutOff, highCutOff, mainsHarmonicCount);
+        if (eventTriggerCount > 0) {
+            JniUtils.setEventTriggers(Arrays.copyOf(eventTriggerNames, eventTriggerCount),
+                Arrays.copyOf(eventTriggerPreTimes, eventTriggerCount),
+                Arrays.copyOf(eventTriggerPostTimes, eventTriggerCount));
+        } else if (triggerCount > 0) {
+            JniUtils.setTriggers(Arrays.copyOf(triggerLowerBounds, triggerCount),
+                Arrays.copyOf(triggerUpperBounds, triggerCount), Arrays.copyOf(triggerRisingSlopes, triggerCount),
+                Arrays.copyOf(triggerDeadTimes, triggerCount));
+        } else if (threshold > 0) {
+            JniUtils.setThreshold(threshold);
+        }
+        if (threshold > 0 || triggerCount > 0 || eventTriggerCount > 0) {
+            JniUtils.setAveragedSampleCount(averagedSampleCount);
+            JniUtils.setBpmProcessing(bpmProcessing);
+        }
+    }
+
+    // Reads until specified buffer is filled or the end of stream is reached
+    private static int read(@NonNull InputStream in, @NonNull byte[] buffer, int length) throws IOException {
+        int total = 0;
+        while (total < length) {
+            final int read = in.read(buffer, total, length - total);
+            if (read < 0) break;
+            total += read;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,30 @@
+package com.backyardbrains.data.processing;
+
+import android.support.annotation.IntDef;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Defines what {@link SpscRingBuffer} producer does when there is not enough free space for the data it's putting.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+@Retention(RetentionPolicy.SOURCE) @IntDef({
+    OverflowPolicy.DROP_NEWEST, OverflowPolicy.DROP_OLDEST, OverflowPolicy.BLOCK
+}) public @interface OverflowPolicy {
+    /**
+     * Data that doesn't fit into the buffer is dropped.
+     */
+    int DROP_NEWEST = 0;
+
+    /**
+     * Oldest data in the buffer is dropped to make room for the new data.
+     */
+    int DROP_OLDEST = 1;
+
+    /**
+     * Producer waits for the consumer to make room for the new data, but not longer then configured timeout. Data that
+     * still doesn't fit into the buffer after timeout is dropped.
+     */
+    int BLOCK = 2;
+}
@@ -0,0 +1,132 @@
+package com.backyardbrains.data.processing;
+
+import android.support.annotation.IntDef;
+import android.support.annotation.NonNull;
+import com.backyardbrains.utils.LatencyHistogram;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+import static com.backyardbrains.utils.LogUtils.LOGD;
+import static com.backyardbrains.utils.LogUtils.makeLogTag;
+
+/**
+ * Keeps latency histograms of every stage samples go through from the moment they arrive from the sample source until
+ * they are drawn on screen. Every stage is recorded from a single thread, while percentiles can be queried and dumped
+ * from any thread.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public final class PipelineLatency {
+
+    private static final String TAG = makeLogTag(PipelineLatency.class);
+
+    /**
+     * Defines stages of the sample processing pipeline.
+     */
+    @Retention(RetentionPolicy.SOURCE) @IntDef({
+        Stage.READ, Stage.PROCESS, Stage.BUFFER, Stage.DRAW, Stage.TOTAL, Stage.ENVELOPE, Stage.FRAME
+    }) public @interface Stage {
+        /**
+         * From arrival of the data from the sample source until processing thread reads it from the local buffer.
+         */
+        int READ = 0;
+        /**
+         * Decoding and filtering of the read data (both are done in the same native call).
+         */
+        int PROCESS = 1;
+        /**
+         * From the end of processing until samples are added to {@link ProcessingBuffer}.
+         */
+        int BUFFER = 2;
+        /**
+         * From adding samples to {@link ProcessingBuffer} until frame that shows them is drawn.
+         */
+        int DRAW = 3;
+        /**
+         * From arrival of the data from the sample source until frame that shows it is drawn.
+         */
+        int TOTAL = 4;
+        /**
+         * Preparation of waveform vertices of all channels for a single frame. Not part of the total latency.
+         */
+        int ENVELOPE = 5;
+        /**
+         * Drawing of a single frame, from the start until the end of the renderer's draw call. Not part of the total
+         * latency.
+         */
+        int FRAME = 6;
+    }
+
+    private static final String[] STAGE_NAMES = { "READ", "PROCESS", "BUFFER", "DRAW", "TOTAL", "ENVELOPE", "FRAME" };
+
+    private static final LatencyHistogram[] HISTOGRAMS = new LatencyHistogram[STAGE_NAMES.length];
+
+    static {
+        for (int i = 0; i < HISTOGRAMS.length; i++) {
+            HISTOGRAMS[i] = new LatencyHistogram(STAGE_NAMES[i]);
+        }
+    }
+
+    private PipelineLatency() {
+    }
+
+    /**
+     * Records latency (in nanoseconds) of the specified {@code stage}.
+     */
+    public static void record(@Stage int stage, long latencyNanos) {
+        HISTOGRAMS[stage].record(latencyNanos);
+    }
+
+    /**
+     * Returns histogram of the specified {@code stage}.
+     */
+    @NonNull public static LatencyHistogram getHistogram(@Stage int stage) {
+        return HISTOGRAMS[stage];
+    }
+
+    /**
+     * Returns latency (in nanoseconds) of the specified {@code stage} below which specified {@code percentile} (e.g.
+     * {@code 99.9}) of all recorded latencies fall.
+     */
+    public static long getLatencyAtPercentile(@Stage int stage, double percentile) {
+        return HISTOGRAMS[stage].getValueAtPercentile(percentile);
+    }
+
+    /**
+     * Resets histograms of all stages. Histograms shouldn't be recorded to at the moment of resetting.
+     */
+    public static void reset() {
+        for (LatencyHistogram histogram : HISTOGRAMS) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * Logs p50, p99 and p99.9 latencies of all stages.
+     */
+    public static void log() {
+        for (LatencyHistogram histogram : HISTOGRAMS) {
+            LOGD(TAG, histogram.toString());
+        }
+    }
+
+    /**
+     * Writes statistics and percentile distribution of latencies of all stages to the specified {@code file}.
+     */
+    public static void dump(@NonNull File file) throws IOException {
+        final PrintWriter writer = new PrintWriter(new FileWriter(file));
+        try {
+            for (LatencyHistogram histogram : HISTOGRAMS) {
+                histogram.print(writer);
+                writer.println();
+            }
+            if (writer.checkError()) throw new IOException("Could not write latencies to " + file.getAbsolutePath());
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -3,6 +3,11 @@ package com.backyardbrains.data.processing;
 import android.support.annotation.NonNull;
 import com.backyardbrains.utils.BufferUtils;
 import com.backyardbrains.utils.EventUtils;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import static com.backyardbrains.utils.LogUtils.LOGD;
 import static com.backyardbrains.utils.LogUtils.makeLogTag;
@@ -15,19 +20,48 @@ public class ProcessingBuffer {
     private static final String TAG = makeLogTag(ProcessingBuffer.class);
 
     private static final Object eventBufferLock = new Object();
+    private static final Object listenerLock = new Object();
+
+    private static final AtomicReferenceFieldUpdater<ProcessingBuffer, SpscShortRingBuffer[]> RING_BUFFERS_UPDATER =
+        AtomicReferenceFieldUpdater.newUpdater(ProcessingBuffer.class, SpscShortRingBuffer[].class, "ringBuffers");
 
     private static ProcessingBuffer INSTANCE;
 
-    private CircularShortBuffer ringBuffer;
+    // Ring buffers that hold samples of all channels. Array is replaced by the producer when number of incoming
+    // channels changes and by the consumer when buffer size changes. Both replace it with a CAS and check it again if
+    // the other one replaced it in the meantime.
+    private volatile SpscShortRingBuffer[] ringBuffers;
+    // Whether consumer should clear the ring buffers before it reads them next time, rings can only be cleared by the
+    // consumer
+    private final AtomicBoolean clearRequested = new AtomicBoolean();
     private final int[] eventIndices;
     private final String[] eventNames;
     private int eventCount;
-    private long lastSampleIndex;
-    private int bufferSize = BufferUtils.MAX_SAMPLE_BUFFER_SIZE;
+    private volatile long lastSampleIndex;
+    // Arrival time of the newest samples in the buffer and time at which they were added to the buffer
+    private volatile long lastArrivalTimeNanos;
+    private volatile long lastBufferedTimeNanos;
+    private volatile int bufferSize = BufferUtils.MAX_SAMPLE_BUFFER_SIZE;
+    // Renderer should always get the latest samples so by default we drop the oldest ones if it doesn't keep up
+    @OverflowPolicy private int overflowPolicy = OverflowPolicy.DROP_OLDEST;
+    private long overflowBlockTimeoutNanos;
+    // Listeners that are notified every time samples are added, array is replaced whenever a listener is added or
+    // removed so producer can iterate it without locking
+    private volatile OnSamplesAddedListener[] onSamplesAddedListeners = new OnSamplesAddedListener[0];
+
+    /**
+     * Interface definition for a callback to be invoked every time samples are added to the buffer.
+     */
+    public interface OnSamplesAddedListener {
+        /**
+         * Listener that is invoked on the producer thread right after new samples are added to the buffer.
+         */
+        void onSamplesAdded();
+    }
 
     // Private constructor through which we create singleton instance
     private ProcessingBuffer() {
-        ringBuffer = new CircularShortBuffer(bufferSize);
+        ringBuffers = createRingBuffers(bufferSize, 1);
         eventIndices = new int[EventUtils.MAX_EVENT_COUNT];
         eventNames = new String[EventUtils.MAX_EVENT_COUNT];
         lastSampleIndex = 0;
@@ -50,7 +84,8 @@ public class ProcessingBuffer {
     //======================================================================
 
     /**
-     * Sets buffer size of the {@link SampleBuffer}.
+     * Sets buffer size of the {@link SampleBuffer}. Ring buffers of the new size replace the current ones once consumer
+     * reads the buffer next time, until then they are filled as before.
      */
     public void setSize(int bufferSize) {
         LOGD(TAG, "setSize(" + bufferSize + ")");
@@ -58,14 +93,74 @@ public class ProcessingBuffer {
         if (this.bufferSize == bufferSize) return;
         if (bufferSize <= 0) return;
 
-        ringBuffer.clear();
-        ringBuffer = new CircularShortBuffer(bufferSize);
+        this.bufferSize = bufferSize;
 
-        eventCount = 0;
+        clearBuffer();
+    }
 
-        lastSampleIndex = 0;
+    /**
+     * Sets policy that defines what happens with incoming samples when consumer doesn't keep up and there is no more
+     * room in the buffer. {@code timeout} defines how long producer waits for free space when policy is {@link
+     * OverflowPolicy#BLOCK}. Default policy is {@link OverflowPolicy#DROP_OLDEST}.
+     */
+    public void setOverflowPolicy(@OverflowPolicy int overflowPolicy, long timeout, @NonNull TimeUnit unit) {
+        this.overflowPolicy = overflowPolicy;
+        this.overflowBlockTimeoutNanos = unit.toNanos(timeout);
 
-        this.bufferSize = bufferSize;
+        for (SpscShortRingBuffer rb : ringBuffers) rb.setOverflowPolicy(overflowPolicy, timeout, unit);
+    }
+
+    /**
+     * Returns total number of samples dropped because consumer didn't keep up.
+     */
+    public long getDroppedSampleCount() {
+        return ringBuffers[0].getDroppedCount();
+    }
+
+    /**
+     * Returns number of times samples were dropped because consumer didn't keep up.
+     */
+    public long getOverrunCount() {
+        return ringBuffers[0].getOverrunCount();
+    }
+
+    /**
+     * Returns time of the last overrun as returned by {@link System#nanoTime()}, or {@code 0} if there was none.
+     */
+    public long getLastOverrunTimeNanos() {
+        return ringBuffers[0].getLastOverrunTimeNanos();
+    }
+
+    /**
+     * Registers a callback to be invoked every time samples are added to the buffer.
+     */
+    public void addOnSamplesAddedListener(@NonNull OnSamplesAddedListener listener) {
+        synchronized (listenerLock) {
+            final OnSamplesAddedListener[] listeners = onSamplesAddedListeners;
+            for (OnSamplesAddedListener l : listeners) if (l == listener) return;
+
+            final OnSamplesAddedListener[] newListeners = Arrays.copyOf(listeners, listeners.length + 1);
+            newListeners[listeners.length] = listener;
+            onSamplesAddedListeners = newListeners;
+        }
+    }
+
+    /**
+     * Removes callback previously registered with {@link #addOnSamplesAddedListener(OnSamplesAddedListener)}.
+     */
+    public void removeOnSamplesAddedListener(@NonNull OnSamplesAddedListener listener) {
+        synchronized (listenerLock) {
+            final OnSamplesAddedListener[] listeners = onSamplesAddedListeners;
+            for (int i = 0; i < listeners.length; i++) {
+                if (listeners[i] != listener) continue;
+
+                final OnSamplesAddedListener[] newListeners = new OnSamplesAddedListener[listeners.length - 1];
+                System.arraycopy(listeners, 0, newListeners, 0, i);
+                System.arraycopy(listeners, i + 1, newListeners, i, newListeners.length - i);
+                onSamplesAddedListeners = newListeners;
+                return;
+            }
+        }
     }
 
     /**
@@ -76,12 +171,63 @@ public class ProcessingBuffer {
     }
 
     /**
-     * Gets as many of the requested samples as available from this buffer.
+     * Returns number of channels of the samples currently in the buffer.
+     */
+    public int getChannelCount() {
+        return ringBuffers.length;
+    }
+
+    /**
+     * Gets as many of the requested samples of the first channel as available from this buffer.
      *
      * @return number of samples actually got from this buffer (0 if no samples are available)
      */
     public int get(@NonNull short[] data) {
-        return ringBuffer.get(data);
+        return prepareForReading()[0].get(data);
+    }
+
+    /**
+     * Gets as many of the requested samples of every channel as available from this buffer. Samples of channel {@code
+     * i} are copied to {@code data[i]}. The same number of samples is got for every channel, and only first {@code
+     * data.length} channels are read.
+     *
+     * @return number of samples per channel actually got from this buffer (0 if no samples are available)
+     */
+    public int get(@NonNull short[][] data) {
+        final SpscShortRingBuffer[] ringBuffers = prepareForReading();
+        final int channelCount = Math.min(data.length, ringBuffers.length);
+        // producer puts the same number of samples to every channel so the one with least samples limits all of them
+        int len = Integer.MAX_VALUE;
+        for (int i = 0; i < channelCount; i++) {
+            len = Math.min(len, Math.min(data[i].length, ringBuffers[i].available()));
+        }
+        if (len <= 0 || len == Integer.MAX_VALUE) return 0;
+
+        for (int i = 0; i < channelCount; i++) ringBuffers[i].get(data[i], 0, len);
+
+        return len;
+    }
+
+    /**
+     * Moves as many samples of every channel as available from this buffer straight to specified {@code buffers}.
+     * Samples of channel {@code i} are added to {@code buffers[i]}. The same number of samples is moved for every
+     * channel, and only first {@code buffers.length} channels are read.
+     *
+     * @return number of samples per channel actually moved from this buffer (0 if no samples are available)
+     */
+    public int get(@NonNull SampleBuffer[] buffers) {
+        final SpscShortRingBuffer[] ringBuffers = prepareForReading();
+        final int channelCount = Math.min(buffers.length, ringBuffers.length);
+        // producer puts the same number of samples to every channel so the one with least samples limits all of them
+        int len = Integer.MAX_VALUE;
+        for (int i = 0; i < channelCount; i++) {
+            len = Math.min(len, Math.min(buffers[i].getSize(), ringBuffers[i].available()));
+        }
+        if (len <= 0 || len == Integer.MAX_VALUE) return 0;
+
+        for (int i = 0; i < channelCount; i++) buffers[i].add(ringBuffers[i], len);
+
+        return len;
     }
 
     /**
@@ -105,12 +251,80 @@ public class ProcessingBuffer {
         return lastSampleIndex;
     }
 
+    /**
+     * Returns time (as returned by {@link System#nanoTime()}) at which the newest samples in the buffer arrived from the
+     * sample source, or {@code 0} if it's not known.
+     */
+    public long getLastArrivalTimeNanos() {
+        return lastArrivalTimeNanos;
+    }
+
+    /**
+     * Returns time (as returned by {@link System#nanoTime()}) at which the newest samples were added to the buffer, or
+     * {@code 0} if it's not known.
+     */
+    public long getLastBufferedTimeNanos() {
+        return lastBufferedTimeNanos;
+    }
+
+    // Creates ring buffers that hold samples of each channel until they are consumed
+    private SpscShortRingBuffer[] createRingBuffers(int capacity, int channelCount) {
+        final SpscShortRingBuffer[] ringBuffers = new SpscShortRingBuffer[channelCount];
+        for (int i = 0; i < channelCount; i++) {
+            ringBuffers[i] = new SpscShortRingBuffer(capacity);
+            ringBuffers[i].setOverflowPolicy(overflowPolicy, overflowBlockTimeoutNanos, TimeUnit.NANOSECONDS);
+        }
+        return ringBuffers;
+    }
+
+    // Applies clear and buffer size change requested since the last read and returns ring buffers consumer should read
+    // from. Should only be called from the consumer thread.
+    private SpscShortRingBuffer[] prepareForReading() {
+        SpscShortRingBuffer[] ringBuffers = this.ringBuffers;
+        if (clearRequested.get() && clearRequested.compareAndSet(true, false)) {
+            for (SpscShortRingBuffer rb : ringBuffers) rb.clear();
+        }
+        final int bufferSize = this.bufferSize;
+        while (ringBuffers[0].capacity() != bufferSize) {
+            final SpscShortRingBuffer[] newRingBuffers = createRingBuffers(bufferSize, ringBuffers.length);
+            if (RING_BUFFERS_UPDATER.compareAndSet(this, ringBuffers, newRingBuffers)) return newRingBuffers;
+
+            // producer changed number of channels in the meantime
+            ringBuffers = this.ringBuffers;
+        }
+        return ringBuffers;
+    }
+
     /**
      * Adds specified {@code samplesWithEvents} to the sample ring buffer and events collections.
      */
     public void addToBuffer(@NonNull SamplesWithEvents samplesWithEvents) {
-        // add samples to ring buffer
-        if (ringBuffer != null) ringBuffer.put(samplesWithEvents.samples, 0, samplesWithEvents.sampleCount);
+        // start buffering all the channels of the incoming samples if their number changed
+        final int channelCount = Math.max(1, samplesWithEvents.channelCount);
+        SpscShortRingBuffer[] ringBuffers = this.ringBuffers;
+        while (ringBuffers.length != channelCount) {
+            LOGD(TAG, "Channel count changed to " + channelCount);
+            final SpscShortRingBuffer[] newRingBuffers = createRingBuffers(bufferSize, channelCount);
+            if (RING_BUFFERS_UPDATER.compareAndSet(this, ringBuffers, newRingBuffers)) {
+                ringBuffers = newRingBuffers;
+            } else {
+                // consumer changed buffer size in the meantime
+                ringBuffers = this.ringBuffers;
+            }
+        }
+
+        // add samples of every channel to it's ring buffer
+        final int channelCapacity = samplesWithEvents.channelCapacity;
+        // slot can be shared with other consumers so we shouldn't move it's position
+        final ShortBuffer samplesBuffer =
+            samplesWithEvents.isDirect() ? samplesWithEvents.samplesBuffer.duplicate() : null;
+        for (int i = 0; i < channelCount; i++) {
+            if (samplesBuffer != null) {
+                ringBuffers[i].put(samplesBuffer, i * channelCapacity, samplesWithEvents.sampleCount);
+            } else {
+                ringBuffers[i].put(samplesWithEvents.samples, i * channelCapacity, samplesWithEvents.sampleCount);
+            }
+        }
 
         // add new events, update indices of existing events and remove events that are no longer visible
         synchronized (eventBufferLock) {
@@ -135,14 +349,27 @@ public class ProcessingBuffer {
 
         // save last sample index (playhead)
         lastSampleIndex = samplesWithEvents.lastSampleIndex;
+
+        final long now = System.nanoTime();
+        if (samplesWithEvents.processedTimeNanos != 0) {
+            PipelineLatency.record(PipelineLatency.Stage.BUFFER, now - samplesWithEvents.processedTimeNanos);
+        }
+        lastArrivalTimeNanos = samplesWithEvents.arrivalTimeNanos;
+        lastBufferedTimeNanos = now;
+
+        // let consumers know there is something new to draw
+        for (OnSamplesAddedListener listener : onSamplesAddedListeners) listener.onSamplesAdded();
     }
 
     /**
-     * Clears the sample data ring buffer, events collections and resets last read byte position
+     * Clears the sample data ring buffer, events collections and resets last read byte position. Samples are cleared
+     * by the consumer right before it reads the buffer next time, so this can be called from any thread.
      */
     public void clearBuffer() {
-        if (ringBuffer != null) ringBuffer.clear();
-        eventCount = 0;
+        clearRequested.set(true);
+        synchronized (eventBufferLock) {
+            eventCount = 0;
+        }
         lastSampleIndex = 0;
     }
 }
@@ -19,18 +19,24 @@
 
 package com.backyardbrains.data.processing;
 
-import com.crashlytics.android.Crashlytics;
-
-import static com.backyardbrains.utils.LogUtils.LOGD;
-import static com.backyardbrains.utils.LogUtils.makeLogTag;
+import android.support.annotation.NonNull;
+import java.util.Arrays;
 
+/**
+ * Holds the most recent samples in a ring so adding samples only costs the number of added samples. Sample at index
+ * {@code i}, where index {@code 0} is the oldest held sample, is held at {@code (getHead() + i) % getSize()} of the
+ * array returned by {@link #getArray()}, so any range of samples is read as at most two contiguous segments of that
+ * array without copying.
+ * <p>
+ * Buffer is not thread safe.
+ */
 public class SampleBuffer {
 
-    private static final String TAG = makeLogTag(SampleBuffer.class);
-
     private final int size;
+    private final short[] buffer;
 
-    private short[] buffer;
+    // Index of the oldest sample within the buffer, newest sample is right before it
+    private int head;
 
     public SampleBuffer(int size) {
         this.size = size;
@@ -45,28 +51,79 @@ public class SampleBuffer {
     /**
      * Adds new {@code incoming} samples to the buffer.
      */
-    public void add(short[] incoming, int length) {
-        try {
-            System.arraycopy(buffer, length, buffer, 0, buffer.length - length);
-            System.arraycopy(incoming, 0, buffer, buffer.length - length, length);
-        } catch (Exception e) {
-            LOGD(TAG, "Can't add incoming to buffer, it's larger then buffer - src.length=" + buffer.length + " srcPos="
-                + length + " dst.length=" + buffer.length + " dstPos=" + 0 + " length=" + (buffer.length - length));
-            Crashlytics.logException(e);
+    public void add(@NonNull short[] incoming, int length) {
+        add(incoming, 0, length);
+    }
+
+    /**
+     * Adds {@code length} samples of {@code incoming} array starting at {@code offset} to the buffer. If there are
+     * more of them than buffer can hold only the newest ones are added.
+     */
+    public void add(@NonNull short[] incoming, int offset, int length) {
+        if (length > size) {
+            offset += length - size;
+            length = size;
         }
+        final int firstLength = Math.min(length, size - head);
+        System.arraycopy(incoming, offset, buffer, head, firstLength);
+        System.arraycopy(incoming, offset + firstLength, buffer, 0, length - firstLength);
+        head = (head + length) % size;
     }
 
     /**
-     * @return an order-adjusted version of the whole buffer
+     * Moves {@code length} samples from specified {@code ringBuffer} straight to the buffer. Returns number of samples
+     * that were actually moved. If producer drops samples while they are being moved, samples that follow the moved
+     * ones, which are the oldest samples in the buffer, can be overwritten as well.
      */
-    public short[] getArray() {
+    int add(@NonNull SpscShortRingBuffer ringBuffer, int length) {
+        length = Math.min(length, size);
+        final int firstLength = Math.min(length, size - head);
+        int count = ringBuffer.get(buffer, head, firstLength);
+        if (count == firstLength && length > firstLength) count += ringBuffer.get(buffer, 0, length - firstLength);
+        head = (head + count) % size;
+
+        return count;
+    }
+
+    /**
+     * Returns the array that backs this buffer. Array is a ring whose oldest sample is at {@link #getHead()}.
+     */
+    @NonNull public short[] getArray() {
         return buffer;
     }
 
+    /**
+     * Returns index of the oldest sample within the array returned by {@link #getArray()}.
+     */
+    public int getHead() {
+        return head;
+    }
+
+    /**
+     * Returns index within the array returned by {@link #getArray()} at which sample at specified {@code index} is
+     * held, {@code 0} being the index of the oldest sample.
+     */
+    public int getArrayIndex(int index) {
+        final int arrayIndex = head + index;
+        return arrayIndex < size ? arrayIndex : arrayIndex - size;
+    }
+
+    /**
+     * Copies {@code length} samples starting at {@code index}, {@code 0} being the index of the oldest sample, to
+     * {@code dst} starting at {@code dstOffset}.
+     */
+    public void copy(int index, @NonNull short[] dst, int dstOffset, int length) {
+        final int arrayIndex = getArrayIndex(index);
+        final int firstLength = Math.min(length, size - arrayIndex);
+        System.arraycopy(buffer, arrayIndex, dst, dstOffset, firstLength);
+        System.arraycopy(buffer, 0, dst, dstOffset + firstLength, length - firstLength);
+    }
+
     /**
      * Clears the buffer as sets all values to zeros
      */
     public void clear() {
-        buffer = new short[size];
+        Arrays.fill(buffer, (short) 0);
+        head = 0;
     }
 }
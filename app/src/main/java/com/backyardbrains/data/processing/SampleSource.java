@@ -37,6 +37,10 @@ public interface SampleSource {
     interface SampleSourceListener {
         /**
          * Called when new chunk of data from the sample source is available.
+         * <p>
+         * Passed instance is a pooled slot that is reused once this method returns. Listener that needs to use it
+         * afterwards (e.g. pass it to another thread) needs to call {@link SamplesWithEvents#retain()} before returning
+         * and {@link SamplesWithEvents#release()} once it's done with it.
          *
          * @param samplesWithEvents The received data which contains processed samples and events.
          */
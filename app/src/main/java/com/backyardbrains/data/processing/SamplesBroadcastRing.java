@@ -0,0 +1,393 @@
+package com.backyardbrains.data.processing;
+
+import android.support.annotation.NonNull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.backyardbrains.utils.LogUtils.LOGD;
+import static com.backyardbrains.utils.LogUtils.LOGW;
+import static com.backyardbrains.utils.LogUtils.makeLogTag;
+
+/**
+ * Ring that broadcasts every published {@link SamplesWithEvents} slot to all subscribed consumers. Each consumer has
+ * it's own read cursor and it's own thread, so slow consumer (e.g. one writing to disk) doesn't hold back the others.
+ * <p/>
+ * Ring holds at most {@code capacity} slots, which is at the same time the maximum lag of any consumer. When producer
+ * is about to overwrite slot that some consumer hasn't read yet, consumer's {@link OverflowPolicy} decides what
+ * happens: with {@link OverflowPolicy#DROP_OLDEST} producer moves consumer's cursor forward and consumer never sees the
+ * skipped slots, with {@link OverflowPolicy#BLOCK} producer first waits up to configured timeout for the consumer to
+ * catch up. Number of samples consumer missed is passed to it together with the next slot it reads.
+ * <p/>
+ * Published slots need to be pooled ({@link SamplesWithEventsPool}). Ring retains every slot once for each consumer and
+ * consumer releases it after it's done with it (or producer releases it on consumer's behalf if consumer skipped it).
+ * Consumers share the slot so they should only read from it and should not change position of it's direct buffer.
+ * <p/>
+ * Consumer that doesn't need the full sample rate (e.g. heart rate detection or an overview of the signal) can
+ * subscribe with max sample rate. Slots with higher sample rate are then decimated on consumer's thread before they are
+ * passed to it, so only that consumer pays for decimation and everything it does afterwards runs at the lower rate.
+ * <p/>
+ * All consumers need to be subscribed before ring is started. {@link #publish(SamplesWithEvents)} should only be
+ * called from a single producer thread and should not be called concurrently with {@link #stop()}.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class SamplesBroadcastRing {
+
+    @SuppressWarnings("WeakerAccess") static final String TAG = makeLogTag(SamplesBroadcastRing.class);
+
+    // How long blocked producer sleeps before checking whether consumer caught up
+    private static final long BLOCK_PARK_TIME_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    /**
+     * Interface definition for a callback to be invoked on consumer's thread for every published slot.
+     */
+    public interface SamplesConsumer {
+        /**
+         * Called for every slot consumer hasn't skipped. Slot is released as soon as this method returns.
+         *
+         * @param samplesWithEvents Published slot.
+         * @param droppedSampleCount Number of samples consumer missed right before this slot because it didn't keep
+         * up (including samples dropped before skipped slots were published). Doesn't include {@link
+         * SamplesWithEvents#droppedSampleCount} of this slot.
+         */
+        void onSamples(@NonNull SamplesWithEvents samplesWithEvents, int droppedSampleCount);
+    }
+
+    /**
+     * Consumer subscribed to the ring. Holds consumer's read cursor, thread and lag statistics.
+     */
+    public final class Subscription {
+
+        private final String name;
+        @SuppressWarnings("WeakerAccess") final SamplesConsumer consumer;
+        @SuppressWarnings("WeakerAccess") @OverflowPolicy final int overflowPolicy;
+        @SuppressWarnings("WeakerAccess") final long blockTimeoutNanos;
+        // Max sample rate of the samples passed to consumer, 0 if samples are passed at the rate they are published
+        @SuppressWarnings("WeakerAccess") final int maxSampleRate;
+
+        // Sequence of the next slot consumer will read, written by consumer and by producer when skipping slots
+        @SuppressWarnings("WeakerAccess") volatile long cursor;
+        // Number of samples skipped since consumer last read a slot, written by producer and reset by consumer
+        @SuppressWarnings("WeakerAccess") volatile int pendingDroppedSampleCount;
+        // Whether consumer thread is currently parked waiting for data
+        @SuppressWarnings("WeakerAccess") volatile boolean waiting;
+        @SuppressWarnings("WeakerAccess") Thread thread;
+
+        // Decimator and decimated samples, used only by consumer thread
+        private SamplesDecimator decimator;
+        private SamplesWithEvents decimatedSamples;
+
+        // Lag statistics, written only by producer
+        @SuppressWarnings("WeakerAccess") volatile long maxLag;
+        @SuppressWarnings("WeakerAccess") volatile long skippedSlotCount;
+        @SuppressWarnings("WeakerAccess") volatile long droppedSampleCount;
+
+        Subscription(@NonNull String name, @NonNull SamplesConsumer consumer, @OverflowPolicy int overflowPolicy,
+            long blockTimeoutNanos, int maxSampleRate) {
+            this.name = name;
+            this.consumer = consumer;
+            this.overflowPolicy = overflowPolicy;
+            this.blockTimeoutNanos = blockTimeoutNanos;
+            this.maxSampleRate = maxSampleRate;
+        }
+
+        /**
+         * Returns name of the consumer.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns number of published slots consumer hasn't read yet.
+         */
+        public int getLag() {
+            return (int) (sequence - cursor);
+        }
+
+        /**
+         * Returns maximum number of published slots consumer hasn't read since ring was started.
+         */
+        public long getMaxLag() {
+            return maxLag;
+        }
+
+        /**
+         * Returns total number of slots consumer skipped because it didn't keep up.
+         */
+        public long getSkippedSlotCount() {
+            return skippedSlotCount;
+        }
+
+        /**
+         * Returns total number of samples consumer skipped because it didn't keep up.
+         */
+        public long getDroppedSampleCount() {
+            return droppedSampleCount;
+        }
+
+        // Reads published slots until ring is stopped
+        @SuppressWarnings("WeakerAccess") void consume() {
+            while (running) {
+                final long c = cursor;
+                if (c >= sequence) {
+                    awaitPublished(c);
+                    continue;
+                }
+
+                final SamplesWithEvents slot = entries[index(c)];
+                // if producer skipped the slot in the meantime it also released it on our behalf
+                if (!CURSOR_UPDATER.compareAndSet(this, c, c + 1)) continue;
+
+                try {
+                    int droppedSampleCount = PENDING_DROPPED_UPDATER.getAndSet(this, 0);
+                    final SamplesWithEvents samples = decimate(slot);
+                    if (samples != slot) droppedSampleCount /= decimator.getFactor();
+                    consumer.onSamples(samples, droppedSampleCount);
+                } finally {
+                    slot.release();
+                }
+            }
+
+            if (decimator != null) {
+                decimator.release();
+                decimator = null;
+                decimatedSamples = null;
+            }
+        }
+
+        // Returns samples of specified slot decimated to consumer's max sample rate, or the slot itself if it doesn't
+        // exceed it
+        private SamplesWithEvents decimate(@NonNull SamplesWithEvents slot) {
+            if (maxSampleRate <= 0 || slot.sampleRate <= maxSampleRate) return slot;
+
+            // sample rate or number of channels changed, decimator needs to start from scratch
+            final int factor = SamplesDecimator.getFactor(slot.sampleRate, maxSampleRate);
+            if (decimator == null || decimator.getFactor() != factor
+                || decimator.getChannelCount() != slot.channelCount) {
+                if (decimator != null) decimator.release();
+                decimator = new SamplesDecimator(factor, slot.channelCount);
+                decimatedSamples = null;
+            }
+            final int capacity = decimator.getOutputCapacity(slot.channelCapacity);
+            if (decimatedSamples == null || decimatedSamples.channelCapacity < capacity) {
+                decimatedSamples = new SamplesWithEvents(capacity, slot.channelCount, false);
+            }
+
+            decimator.decimate(slot, decimatedSamples);
+            return decimatedSamples;
+        }
+
+        // Parks consumer thread until slot with specified sequence is published or ring is stopped
+        private void awaitPublished(long seq) {
+            waiting = true;
+            // check again after announcing we're waiting so we don't miss producer's signal
+            if (running && seq >= sequence) LockSupport.park(this);
+            waiting = false;
+        }
+    }
+
+    @SuppressWarnings("WeakerAccess") static final AtomicLongFieldUpdater<Subscription> CURSOR_UPDATER =
+        AtomicLongFieldUpdater.newUpdater(Subscription.class, "cursor");
+    @SuppressWarnings("WeakerAccess") static final AtomicIntegerFieldUpdater<Subscription> PENDING_DROPPED_UPDATER =
+        AtomicIntegerFieldUpdater.newUpdater(Subscription.class, "pendingDroppedSampleCount");
+
+    @SuppressWarnings("WeakerAccess") final SamplesWithEvents[] entries;
+    private final int capacity;
+    private final List<Subscription> subscriptions = new ArrayList<>();
+
+    // Sequence of the next slot that will be published, written only by producer
+    @SuppressWarnings("WeakerAccess") volatile long sequence;
+    @SuppressWarnings("WeakerAccess") volatile boolean running;
+
+    public SamplesBroadcastRing(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("Capacity needs to be positive: " + capacity);
+
+        this.capacity = capacity;
+        entries = new SamplesWithEvents[capacity];
+    }
+
+    /**
+     * Returns maximum number of slots ring holds, which is at the same time maximum lag of any consumer.
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Subscribes specified {@code consumer} to the ring. {@code overflowPolicy} defines what happens when consumer
+     * doesn't keep up and {@code timeout} defines how long producer waits for it when policy is {@link
+     * OverflowPolicy#BLOCK}. Only {@link OverflowPolicy#DROP_OLDEST} and {@link OverflowPolicy#BLOCK} are supported.
+     *
+     * @throws IllegalStateException if ring has already been started.
+     */
+    public synchronized Subscription subscribe(@NonNull String name, @NonNull SamplesConsumer consumer,
+        @OverflowPolicy int overflowPolicy, long timeout, @NonNull TimeUnit unit) {
+        return subscribe(name, consumer, overflowPolicy, timeout, unit, 0);
+    }
+
+    /**
+     * Same as {@link #subscribe(String, SamplesConsumer, int, long, TimeUnit)}, but samples whose sample rate
+     * exceeds {@code maxSampleRate} are decimated before they are passed to {@code consumer}. Decimation factor is an
+     * integer so consumer can receive samples at a rate that's lower than requested. Samples with unknown sample rate
+     * are passed as they are.
+     *
+     * @throws IllegalStateException if ring has already been started.
+     */
+    public synchronized Subscription subscribe(@NonNull String name, @NonNull SamplesConsumer consumer,
+        @OverflowPolicy int overflowPolicy, long timeout, @NonNull TimeUnit unit, int maxSampleRate) {
+        if (running) throw new IllegalStateException("Consumers need to be subscribed before ring is started");
+        if (overflowPolicy == OverflowPolicy.DROP_NEWEST) {
+            throw new IllegalArgumentException("Consumer cannot skip newest slots");
+        }
+
+        final Subscription subscription = new Subscription(name, consumer, overflowPolicy, unit.toNanos(timeout),
+            Math.max(0, maxSampleRate));
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    /**
+     * Returns all subscribed consumers.
+     */
+    @NonNull public synchronized List<Subscription> getSubscriptions() {
+        return new ArrayList<>(subscriptions);
+    }
+
+    /**
+     * Returns number of published slots the slowest consumer hasn't read yet.
+     */
+    public int getMaxLag() {
+        int maxLag = 0;
+        for (Subscription subscription : subscriptions) {
+            maxLag = Math.max(maxLag, subscription.getLag());
+        }
+        return maxLag;
+    }
+
+    /**
+     * Starts threads of all subscribed consumers.
+     */
+    public synchronized void start() {
+        if (running) return;
+
+        running = true;
+        for (Subscription subscription : subscriptions) {
+            final Subscription s = subscription;
+            subscription.cursor = sequence;
+            subscription.thread = new Thread(new Runnable() {
+                @Override public void run() {
+                    s.consume();
+                }
+            }, "SamplesBroadcastRing-" + s.getName());
+            subscription.thread.start();
+        }
+    }
+
+    /**
+     * Stops threads of all subscribed consumers, waits for them to finish and releases all slots they haven't read.
+     */
+    public synchronized void stop() {
+        if (!running) return;
+
+        running = false;
+        for (Subscription subscription : subscriptions) {
+            LockSupport.unpark(subscription.thread);
+        }
+        for (Subscription subscription : subscriptions) {
+            try {
+                subscription.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                LOGW(TAG, "Interrupted while waiting for " + subscription.getName() + " to finish");
+            }
+            subscription.thread = null;
+
+            // release slots consumer hasn't read
+            final long end = sequence;
+            for (long c = subscription.cursor; c < end; c++) {
+                entries[index(c)].release();
+            }
+            subscription.cursor = end;
+
+            LOGD(TAG, subscription.getName() + " MAX LAG: " + subscription.maxLag + ", SKIPPED SLOTS: "
+                + subscription.skippedSlotCount + ", DROPPED SAMPLES: " + subscription.droppedSampleCount);
+        }
+        for (int i = 0; i < capacity; i++) {
+            entries[i] = null;
+        }
+    }
+
+    /**
+     * Publishes specified {@code slot} to all subscribed consumers. Does nothing if ring is not started. Should only be
+     * called from producer thread which needs to hold the slot until this method returns.
+     */
+    public void publish(@NonNull SamplesWithEvents slot) {
+        if (!running) return;
+
+        final long seq = sequence;
+        final int subscriptionCount = subscriptions.size();
+        // make sure every consumer read (or skipped) the slot we are about to overwrite
+        final long wrapPoint = seq - capacity;
+        for (int i = 0; i < subscriptionCount; i++) {
+            final Subscription subscription = subscriptions.get(i);
+            if (subscription.cursor > wrapPoint) continue;
+
+            if (subscription.overflowPolicy == OverflowPolicy.BLOCK) awaitConsumer(subscription, wrapPoint);
+            skip(subscription, wrapPoint + 1);
+        }
+
+        // every consumer gets it's own reference
+        for (int i = 0; i < subscriptionCount; i++) {
+            slot.retain();
+        }
+        entries[index(seq)] = slot;
+        sequence = seq + 1;
+
+        for (int i = 0; i < subscriptionCount; i++) {
+            final Subscription subscription = subscriptions.get(i);
+            final long lag = seq + 1 - subscription.cursor;
+            if (lag > subscription.maxLag) subscription.maxLag = lag;
+            if (subscription.waiting) LockSupport.unpark(subscription.thread);
+        }
+    }
+
+    // Waits until consumer reads slot at specified sequence or consumer's block timeout elapses
+    private void awaitConsumer(@NonNull Subscription subscription, long seq) {
+        final long deadline = System.nanoTime() + subscription.blockTimeoutNanos;
+        while (subscription.cursor <= seq) {
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) break;
+
+            LockSupport.parkNanos(this, Math.min(remaining, BLOCK_PARK_TIME_NANOS));
+        }
+    }
+
+    // Moves consumer's cursor to specified sequence and releases skipped slots on consumer's behalf
+    private void skip(@NonNull Subscription subscription, long seq) {
+        long c;
+        do {
+            c = subscription.cursor;
+            if (c >= seq) return;
+        } while (!CURSOR_UPDATER.compareAndSet(subscription, c, seq));
+
+        int droppedSamples = 0;
+        for (long i = c; i < seq; i++) {
+            final SamplesWithEvents slot = entries[index(i)];
+            droppedSamples += slot.sampleCount + slot.droppedSampleCount;
+            slot.release();
+        }
+        PENDING_DROPPED_UPDATER.addAndGet(subscription, droppedSamples);
+        subscription.skippedSlotCount += seq - c;
+        subscription.droppedSampleCount += droppedSamples;
+    }
+
+    // Returns position within entries array of the slot with specified sequence
+    @SuppressWarnings("WeakerAccess") int index(long seq) {
+        return (int) (seq % capacity);
+    }
+}
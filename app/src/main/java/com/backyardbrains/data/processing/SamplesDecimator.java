@@ -0,0 +1,104 @@
+package com.backyardbrains.data.processing;
+
+import android.support.annotation.NonNull;
+import com.backyardbrains.utils.JniUtils;
+
+/**
+ * Lowers sample rate of the samples held by {@link SamplesWithEvents} by an integer factor. Samples of every channel
+ * are passed through native anti-aliasing polyphase FIR filter which only calculates samples that are kept, so it costs
+ * a fraction of what processing the stream at the full rate costs. Every event is moved to the first decimated sample
+ * that's not before it.
+ * <p>
+ * Decimator keeps the filter history between calls so it should be fed consecutive batches of a single stream from a
+ * single thread, and it holds native memory that needs to be freed by calling {@link #release()}.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class SamplesDecimator {
+
+    /**
+     * Max supported decimation factor.
+     */
+    public static final int MAX_FACTOR = 64;
+
+    private final int factor;
+    private final int channelCount;
+
+    // Handle of the native decimator
+    private long decimator;
+    // Number of input samples consumed since the last decimated sample
+    private int offset;
+
+    public SamplesDecimator(int factor, int channelCount) {
+        this.factor = Math.max(1, Math.min(factor, MAX_FACTOR));
+        this.channelCount = channelCount;
+        this.decimator = JniUtils.createDecimator(this.factor, channelCount);
+    }
+
+    /**
+     * Returns decimation factor that's used for the specified {@code sampleRate} so that decimated sample rate doesn't
+     * exceed specified {@code maxSampleRate}.
+     */
+    public static int getFactor(int sampleRate, int maxSampleRate) {
+        return Math.max(1, Math.min((sampleRate + maxSampleRate - 1) / maxSampleRate, MAX_FACTOR));
+    }
+
+    /**
+     * Returns factor sample rate is lowered by.
+     */
+    public int getFactor() {
+        return factor;
+    }
+
+    /**
+     * Returns number of channels this decimator can decimate.
+     */
+    public int getChannelCount() {
+        return channelCount;
+    }
+
+    /**
+     * Returns number of samples per channel {@code out} needs to hold so all decimated samples of {@code
+     * channelCapacity} input samples fit into it.
+     */
+    public int getOutputCapacity(int channelCapacity) {
+        return channelCapacity / factor + 1;
+    }
+
+    /**
+     * Decimates samples and events held by {@code in} and saves them to {@code out}. Input samples whose decimated
+     * samples don't fit into {@code out} are discarded.
+     */
+    public void decimate(@NonNull SamplesWithEvents in, @NonNull SamplesWithEvents out) {
+        if (decimator == 0) throw new IllegalStateException("Decimator has already been released");
+
+        final int offset = this.offset;
+        final int consumedSampleCount = JniUtils.decimate(decimator, in, out);
+        this.offset = (offset + consumedSampleCount) % factor;
+
+        // sample at index i is the (offset + i + 1)-th sample since the last decimated one
+        int eventCount = 0;
+        for (int i = 0; i < in.eventCount && out.sampleCount > 0; i++) {
+            if (in.eventIndices[i] >= consumedSampleCount) break;
+
+            out.eventIndices[eventCount] = Math.min((in.eventIndices[i] + offset) / factor, out.sampleCount - 1);
+            out.eventNames[eventCount++] = in.eventNames[i];
+        }
+        out.eventCount = eventCount;
+        out.lastSampleIndex = in.lastSampleIndex >= 0 ? in.lastSampleIndex / factor : -1;
+        out.droppedSampleCount = in.droppedSampleCount / factor;
+        out.sampleRate = in.sampleRate / factor;
+        out.arrivalTimeNanos = in.arrivalTimeNanos;
+        out.processedTimeNanos = in.processedTimeNanos;
+    }
+
+    /**
+     * Frees native memory held by this decimator. Decimator cannot be used afterwards.
+     */
+    public void release() {
+        if (decimator == 0) return;
+
+        JniUtils.releaseDecimator(decimator);
+        decimator = 0;
+    }
+}
@@ -1,9 +1,17 @@
 package com.backyardbrains.data.processing;
 
 import com.backyardbrains.utils.EventUtils;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 /**
  * Data holder class that hold samples, events and last sample index after processing.
+ * <p>
+ * Samples of multi-channel data are stored planar, samples of channel {@code i} start at index {@code i *
+ * channelCapacity}. Channel 0 always starts at index 0 so consumers that are interested only in the first channel can
+ * ignore other channels.
  *
  * @author Tihomir Leka <tihomir at backyardbrains.com>
  */
@@ -12,28 +20,129 @@ public class SamplesWithEvents {
     private static final int SAMPLE_BUFFER_SIZE = 5000;
     private static final int EVENT_BUFFER_SIZE = EventUtils.MAX_EVENT_COUNT;
 
+    private static final AtomicIntegerFieldUpdater<SamplesWithEvents> REF_COUNT_UPDATER =
+        AtomicIntegerFieldUpdater.newUpdater(SamplesWithEvents.class, "refCount");
+
     public short[] samples;
+    // Direct buffer that holds samples when data is processed through direct buffer JNI entry points. If set, samples
+    // array is not used.
+    public ShortBuffer samplesBuffer;
+    // Number of samples per channel
     public int sampleCount;
+    // Number of channels held by this instance
+    public int channelCount = 1;
+    // Maximum number of samples per channel, also the offset between first samples of two consecutive channels
+    public int channelCapacity;
+    // Sample rate of the held samples, 0 if it's not known
+    public int sampleRate;
     public int[] eventIndices;
     public String[] eventNames;
     public int eventCount;
     public long lastSampleIndex = -1;
+    // Number of samples that were dropped right before samples held by this instance because processing didn't keep up,
+    // or while processing them because they didn't fit into this instance
+    public int droppedSampleCount;
+    // Time (as returned by System.nanoTime()) at which the oldest data held by this instance arrived from sample source
+    public long arrivalTimeNanos;
+    // Time (as returned by System.nanoTime()) at which the data held by this instance was decoded and filtered
+    public long processedTimeNanos;
+
+    // Pool this instance belongs to, null if it's not pooled
+    SamplesWithEventsPool pool;
+    // Number of current owners of this instance, used only when instance is pooled
+    private volatile int refCount;
 
     public SamplesWithEvents() {
         this.samples = new short[SAMPLE_BUFFER_SIZE];
+        this.channelCapacity = SAMPLE_BUFFER_SIZE;
         this.eventIndices = new int[EVENT_BUFFER_SIZE];
         this.eventNames = new String[EVENT_BUFFER_SIZE];
     }
 
     public SamplesWithEvents(int sampleBufferSize) {
         this.samples = new short[sampleBufferSize];
+        this.channelCapacity = sampleBufferSize;
         this.eventIndices = new int[EVENT_BUFFER_SIZE];
         this.eventNames = new String[EVENT_BUFFER_SIZE];
     }
 
+    /**
+     * Creates samples holder whose samples are held in a direct buffer (if {@code direct} is {@code true}) instead of
+     * {@link #samples} array, so native code can process them in place without copying.
+     */
+    public SamplesWithEvents(int sampleBufferSize, boolean direct) {
+        this(sampleBufferSize, 1, direct);
+    }
+
+    /**
+     * Creates samples holder that can hold up to {@code channelCapacity} samples for each of {@code channelCount}
+     * channels. Samples are held in a direct buffer if {@code direct} is {@code true}.
+     */
+    public SamplesWithEvents(int channelCapacity, int channelCount, boolean direct) {
+        final int sampleBufferSize = channelCapacity * channelCount;
+        if (direct) {
+            this.samplesBuffer =
+                ByteBuffer.allocateDirect(sampleBufferSize * 2).order(ByteOrder.nativeOrder()).asShortBuffer();
+        } else {
+            this.samples = new short[sampleBufferSize];
+        }
+        this.channelCapacity = channelCapacity;
+        this.channelCount = channelCount;
+        this.eventIndices = new int[EVENT_BUFFER_SIZE];
+        this.eventNames = new String[EVENT_BUFFER_SIZE];
+    }
+
+    /**
+     * Whether samples are held in the {@link #samplesBuffer} direct buffer instead of the {@link #samples} array.
+     */
+    public boolean isDirect() {
+        return samplesBuffer != null;
+    }
+
+    /**
+     * Adds an owner to this pooled instance. Consumer that needs to hold on to the instance after it's been published
+     * to it should call this method before returning from the callback and call {@link #release()} once it's done
+     * with it. Does nothing if this instance is not pooled.
+     */
+    public void retain() {
+        if (pool == null) return;
+
+        if (REF_COUNT_UPDATER.getAndIncrement(this) <= 0) {
+            throw new IllegalStateException("Cannot retain instance that has already been returned to the pool");
+        }
+    }
+
+    /**
+     * Removes an owner from this pooled instance. When the last owner releases it, instance is returned to the pool it
+     * was acquired from. Does nothing if this instance is not pooled.
+     */
+    public void release() {
+        if (pool == null) return;
+
+        final int refCount = REF_COUNT_UPDATER.decrementAndGet(this);
+        if (refCount == 0) {
+            pool.recycle(this);
+        } else if (refCount < 0) {
+            throw new IllegalStateException("Instance has already been returned to the pool");
+        }
+    }
+
+    // Prepares this instance for the new owner after it's been acquired from the pool
+    void reuse() {
+        sampleCount = 0;
+        eventCount = 0;
+        lastSampleIndex = -1;
+        droppedSampleCount = 0;
+        sampleRate = 0;
+        arrivalTimeNanos = 0;
+        processedTimeNanos = 0;
+        refCount = 1;
+    }
+
     // USED FROM C++
     public SamplesWithEvents(short[] samples, int[] eventIndices, String[] eventNames) {
         this.samples = samples;
+        this.channelCapacity = samples.length;
         this.eventIndices = eventIndices;
         this.eventNames = eventNames;
     }
@@ -42,6 +151,7 @@ public class SamplesWithEvents {
     public SamplesWithEvents(short[] samples, int sampleCount, int[] eventIndices, String[] eventNames,
         int eventCount) {
         this.samples = samples;
+        this.channelCapacity = samples.length;
         this.eventIndices = eventIndices;
         this.eventNames = eventNames;
 
@@ -0,0 +1,98 @@
+package com.backyardbrains.data.processing;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fixed pool of preallocated {@link SamplesWithEvents} slots that are passed from the sample source processing thread
+ * to consumers. Slot lifecycle is as follows:
+ * <ol>
+ * <li>producer acquires a free slot by calling {@link #acquire()} and becomes it's only owner,</li>
+ * <li>producer populates the slot and publishes it to consumers (passes it to {@link
+ * SampleSource.SampleSourceListener}),</li>
+ * <li>every consumer that needs the slot after it has been published calls {@link SamplesWithEvents#retain()} and
+ * later {@link SamplesWithEvents#release()} when it's done with it,</li>
+ * <li>producer calls {@link SamplesWithEvents#release()} once it's done publishing.</li>
+ * </ol>
+ * When last owner releases the slot it's returned to the pool and can be acquired again. No slot is ever
+ * allocated after the pool is created, so if all slots are still held by consumers producer needs to wait.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class SamplesWithEventsPool {
+
+    private final BlockingQueue<SamplesWithEvents> freeSlots;
+    private final int slotCount;
+
+    public SamplesWithEventsPool(int slotCount, int sampleBufferSize, boolean direct) {
+        this(slotCount, sampleBufferSize, 1, direct);
+    }
+
+    /**
+     * Creates pool whose slots can hold up to {@code channelCapacity} samples for each of {@code channelCount}
+     * channels.
+     */
+    public SamplesWithEventsPool(int slotCount, int channelCapacity, int channelCount, boolean direct) {
+        if (slotCount <= 0) throw new IllegalArgumentException("Slot count needs to be positive: " + slotCount);
+
+        this.slotCount = slotCount;
+
+        freeSlots = new ArrayBlockingQueue<>(slotCount);
+        for (int i = 0; i < slotCount; i++) {
+            SamplesWithEvents slot = new SamplesWithEvents(channelCapacity, channelCount, direct);
+            slot.pool = this;
+            freeSlots.add(slot);
+        }
+    }
+
+    /**
+     * Returns total number of slots in this pool.
+     */
+    public int getSlotCount() {
+        return slotCount;
+    }
+
+    /**
+     * Returns number of slots that are currently not owned by anyone.
+     */
+    public int getFreeSlotCount() {
+        return freeSlots.size();
+    }
+
+    /**
+     * Acquires a free slot, or returns {@code null} if all slots are currently owned by producer or consumers. Caller
+     * becomes the only owner of the returned slot.
+     */
+    @Nullable public SamplesWithEvents acquire() {
+        final SamplesWithEvents slot = freeSlots.poll();
+        if (slot != null) slot.reuse();
+
+        return slot;
+    }
+
+    /**
+     * Acquires a free slot, waiting up to specified {@code timeout} for one to be released if necessary. Returns
+     * {@code null} if no slot was released during that time or if the calling thread was interrupted while waiting.
+     * Caller becomes the only owner of the returned slot.
+     */
+    @Nullable public SamplesWithEvents acquire(long timeout, @NonNull TimeUnit unit) {
+        SamplesWithEvents slot;
+        try {
+            slot = freeSlots.poll(timeout, unit);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        if (slot != null) slot.reuse();
+
+        return slot;
+    }
+
+    // Called by the slot once it's released by it's last owner
+    void recycle(@NonNull SamplesWithEvents slot) {
+        freeSlots.offer(slot);
+    }
+}
@@ -0,0 +1,182 @@
+package com.backyardbrains.data.processing;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A lock-free circular byte buffer (also called ring buffer) that allows putting and getting bytes in a FIFO way
+ * between exactly one producer thread and exactly one consumer thread. It has the same API as greenrobot's {@link
+ * org.greenrobot.essentials.io.CircularByteBuffer} but doesn't take any locks.
+ * <p/>
+ * All put&get methods are non-blocking.
+ * <p/>
+ * This class is thread-safe only for a single producer and a single consumer. See {@link SpscRingBuffer} for
+ * which methods can be called from which thread.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class SpscByteRingBuffer extends SpscRingBuffer {
+
+    private final byte[] buffer;
+
+    public SpscByteRingBuffer() {
+        this(8192);
+    }
+
+    public SpscByteRingBuffer(int capacity) {
+        super(capacity);
+
+        buffer = new byte[capacity];
+    }
+
+    /**
+     * Gets a single byte (as unsigned value) or returns -1 if no data is available.
+     */
+    public int get() {
+        long h;
+        byte value;
+        do {
+            h = head();
+            if (readable(h, 1) == 0) return -1;
+
+            value = buffer[index(h)];
+        } while (!commitHead(h, 1));
+
+        return value & 0xFF;
+    }
+
+    /**
+     * Gets as many of the requested bytes as available from this buffer.
+     *
+     * @return number of bytes actually got from this buffer (0 if no bytes are available)
+     */
+    public int get(byte[] dst) {
+        return get(dst, 0, dst.length);
+    }
+
+    /**
+     * Gets as many of the requested bytes as available from this buffer.
+     *
+     * @return number of bytes actually got from this buffer (0 if no bytes are available)
+     */
+    public int get(byte[] dst, int off, int len) {
+        long h;
+        int count;
+        do {
+            h = head();
+            count = readable(h, len);
+            if (count == 0) return 0;
+
+            final int idx = index(h);
+            final int count1 = Math.min(count, capacity - idx);
+            System.arraycopy(buffer, idx, dst, off, count1);
+            // array end reached, copy the rest from the beginning
+            if (count > count1) System.arraycopy(buffer, 0, dst, off + count1, count - count1);
+        } while (!commitHead(h, count));
+
+        return count;
+    }
+
+    /**
+     * Gets as many bytes as available from this buffer, but at most {@code dst.remaining()}, and puts them into
+     * specified {@code dst} buffer starting at it's current position.
+     *
+     * @return number of bytes actually got from this buffer (0 if no bytes are available)
+     */
+    public int get(ByteBuffer dst) {
+        final int position = dst.position();
+        long h;
+        int count;
+        do {
+            dst.position(position);
+            h = head();
+            count = readable(h, dst.remaining());
+            if (count == 0) return 0;
+
+            final int idx = index(h);
+            final int count1 = Math.min(count, capacity - idx);
+            dst.put(buffer, idx, count1);
+            // array end reached, copy the rest from the beginning
+            if (count > count1) dst.put(buffer, 0, count - count1);
+        } while (!commitHead(h, count));
+
+        return count;
+    }
+
+    /**
+     * Puts a single byte if the buffer is not yet full, or if overflow policy allows dropping oldest data.
+     *
+     * @return true if the byte was put, or false if the buffer is full
+     */
+    public boolean put(byte value) {
+        if (claim(1) == 0) return false;
+
+        buffer[writeIndex()] = value;
+        advanceTail(1);
+        return true;
+    }
+
+    /**
+     * Puts as many of the given bytes as the overflow policy allows into this buffer.
+     *
+     * @return number of bytes actually put into this buffer (0 if the buffer is full)
+     */
+    public int put(byte[] src) {
+        return put(src, 0, src.length);
+    }
+
+    /**
+     * Puts as many of the given bytes as the overflow policy allows into this buffer.
+     *
+     * @return number of bytes actually put into this buffer (0 if the buffer is full)
+     */
+    public int put(byte[] src, int off, int len) {
+        final int count = claim(len);
+        if (count == 0) return 0;
+        if (count < len && keepsNewest()) off += len - count;
+
+        final int idx = writeIndex();
+        final int count1 = Math.min(count, capacity - idx);
+        System.arraycopy(src, off, buffer, idx, count1);
+        // array end reached, copy the rest to the beginning
+        if (count > count1) System.arraycopy(src, off + count1, buffer, 0, count - count1);
+
+        advanceTail(count);
+        return count;
+    }
+
+    /**
+     * Puts all of the given bytes into this buffer if the overflow policy allows it, or none of them if it doesn't.
+     *
+     * @return true if the bytes were put, or false if none of them were put
+     */
+    public boolean putFully(byte[] src, int off, int len) {
+        if (len == 0) return true;
+        if (!claimFully(len)) return false;
+
+        final int idx = writeIndex();
+        final int count1 = Math.min(len, capacity - idx);
+        System.arraycopy(src, off, buffer, idx, count1);
+        // array end reached, copy the rest to the beginning
+        if (len > count1) System.arraycopy(src, off + count1, buffer, 0, len - count1);
+
+        advanceTail(len);
+        return true;
+    }
+
+    /**
+     * Return the first byte a <b>get</b> would return or -1 if no data is available.
+     */
+    public int peek() {
+        long h;
+        byte value;
+        do {
+            h = head();
+            if (readable(h, 1) == 0) return -1;
+
+            value = buffer[index(h)];
+            // make sure producer didn't drop the value while we were reading it
+        } while (h != head());
+
+        return value & 0xFF;
+    }
+}
@@ -0,0 +1,373 @@
+package com.backyardbrains.data.processing;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+// Padding that prevents write index from sharing cache line with the object header
+abstract class SpscRingBufferHeadPad {
+    @SuppressWarnings("unused") long p00, p01, p02, p03, p04, p05, p06, p07;
+}
+
+// Fields written by producer
+abstract class SpscRingBufferProducerFields extends SpscRingBufferHeadPad {
+    // Index of the next element that will be written, written only by producer
+    volatile long tail;
+    // Producer's cached copy of the read index
+    long cachedHead;
+
+    // Overrun statistics, written only by producer
+    volatile long droppedCount;
+    volatile long overrunCount;
+    volatile long lastOverrunTimeNanos;
+}
+
+// Padding that separates producer fields from consumer fields
+abstract class SpscRingBufferMidPad extends SpscRingBufferProducerFields {
+    @SuppressWarnings("unused") long p10, p11, p12, p13, p14, p15, p16, p17;
+}
+
+// Fields written by consumer
+abstract class SpscRingBufferConsumerFields extends SpscRingBufferMidPad {
+    // Index of the next element that will be read, written by consumer and by producer when dropping oldest data
+    volatile long head;
+    // Consumer's cached copy of the write index
+    long cachedTail;
+}
+
+// Padding that prevents read index from sharing cache line with fields of the subclasses
+abstract class SpscRingBufferTailPad extends SpscRingBufferConsumerFields {
+    @SuppressWarnings("unused") long p20, p21, p22, p23, p24, p25, p26, p27;
+}
+
+/**
+ * Base class for lock-free ring buffers that support exactly one producer thread and exactly one consumer thread.
+ * <p/>
+ * Producer owns the write index ({@code tail}) and consumer owns the read index ({@code head}). Indices are never
+ * reset, they only grow, so number of available elements is always {@code tail - head}. Each side publishes it's own
+ * index through a volatile write and keeps a cached copy of the other side's index which is refreshed only when cached
+ * value says there is not enough data (or space), so in the steady state most calls don't touch the shared cache line
+ * of the other thread. Indices are padded to prevent false sharing between producer and consumer. Runtime is free to
+ * reorder fields within a class, but fields of a superclass always precede fields of a subclass, so producer fields,
+ * consumer fields and padding between them are declared by a chain of superclasses.
+ * <p/>
+ * What happens when producer puts more data than there is free space is defined by the {@link OverflowPolicy}. To be
+ * able to drop oldest data producer is allowed to move the read index forward, so consumer always publishes read index
+ * with a CAS and discards the data it has just read if producer moved the index in the meantime. That makes consumer
+ * lock-free, while producer stays wait-free unless it's configured to block.
+ * <p/>
+ * Methods that read data ({@code get}, {@code peek}, {@code skip}, {@code clear}) should only be called from the
+ * consumer thread, methods that write data ({@code put}) should only be called from the producer thread. {@link
+ * #available()}, {@link #free()}, {@link #capacity()} and overrun statistics can be called from any thread.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public abstract class SpscRingBuffer extends SpscRingBufferTailPad {
+
+    /**
+     * Interface definition for a callback to be invoked every time producer drops data because there is not enough free
+     * space in the buffer.
+     */
+    public interface OnOverrunListener {
+        /**
+         * Called from the producer thread when {@code dropped} number of elements has been dropped.
+         *
+         * @param dropped Number of dropped elements.
+         * @param timeNanos Time of the overrun as returned by {@link System#nanoTime()}.
+         */
+        void onOverrun(int dropped, long timeNanos);
+    }
+
+    private static final AtomicLongFieldUpdater<SpscRingBufferConsumerFields> HEAD_UPDATER =
+        AtomicLongFieldUpdater.newUpdater(SpscRingBufferConsumerFields.class, "head");
+
+    // How long blocked producer sleeps before checking whether consumer made room for new data
+    private static final long BLOCK_PARK_TIME_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    final int capacity;
+
+    @OverflowPolicy private volatile int overflowPolicy = OverflowPolicy.DROP_NEWEST;
+    private volatile long blockTimeoutNanos;
+    private volatile OnOverrunListener onOverrunListener;
+
+    SpscRingBuffer(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("Capacity needs to be positive: " + capacity);
+
+        this.capacity = capacity;
+    }
+
+    /**
+     * Sets policy that defines what happens when producer puts more data than there is free space. Default policy is
+     * {@link OverflowPolicy#DROP_NEWEST}.
+     */
+    public void setOverflowPolicy(@OverflowPolicy int overflowPolicy) {
+        setOverflowPolicy(overflowPolicy, 0, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Sets policy that defines what happens when producer puts more data than there is free space. {@code timeout}
+     * defines how long producer waits for free space when policy is {@link OverflowPolicy#BLOCK}.
+     */
+    public void setOverflowPolicy(@OverflowPolicy int overflowPolicy, long timeout, @NonNull TimeUnit unit) {
+        this.overflowPolicy = overflowPolicy;
+        this.blockTimeoutNanos = unit.toNanos(timeout);
+    }
+
+    /**
+     * Returns policy that defines what happens when producer puts more data than there is free space.
+     */
+    public @OverflowPolicy int getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * Registers a callback to be invoked every time producer drops data.
+     */
+    public void setOnOverrunListener(@Nullable OnOverrunListener listener) {
+        this.onOverrunListener = listener;
+    }
+
+    /**
+     * Returns total number of elements dropped because there was not enough free space.
+     */
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * Returns number of times data has been dropped because there was not enough free space.
+     */
+    public long getOverrunCount() {
+        return overrunCount;
+    }
+
+    /**
+     * Returns time of the last overrun as returned by {@link System#nanoTime()}, or {@code 0} if there was none.
+     */
+    public long getLastOverrunTimeNanos() {
+        return lastOverrunTimeNanos;
+    }
+
+    /**
+     * Clears all data from the buffer. Should be called from the consumer thread.
+     */
+    public void clear() {
+        long h;
+        do {
+            h = head;
+        } while (!HEAD_UPDATER.compareAndSet(this, h, tail));
+    }
+
+    /**
+     * Skips the given count of elements, but at most the currently available count. Should be called from the consumer
+     * thread.
+     *
+     * @return number of elements actually skipped from this buffer (0 if no elements are available)
+     */
+    public int skip(int count) {
+        long h;
+        int skipped;
+        do {
+            h = head();
+            skipped = readable(h, count);
+            if (skipped == 0) return 0;
+        } while (!commitHead(h, skipped));
+
+        return skipped;
+    }
+
+    /**
+     * The capacity (size) is the maximum of elements that can be stored inside this buffer.
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the number of elements available and can be get without additional puts.
+     */
+    public int available() {
+        // read head first so we never report more than actually available
+        final long h = head;
+        return (int) (tail - h);
+    }
+
+    /**
+     * Returns the number of free elements available that can still be put without additional gets.
+     */
+    public int free() {
+        return capacity - available();
+    }
+
+    /**
+     * Returns current read index. Consumer should pass returned value to {@link #readable(long, int)}, {@link
+     * #index(long)} and {@link #commitHead(long, int)}.
+     */
+    final long head() {
+        return head;
+    }
+
+    /**
+     * Returns the number of elements (at most {@code len}) that consumer can read from the specified read index.
+     */
+    final int readable(long head, int len) {
+        long available = cachedTail - head;
+        if (available < len) {
+            cachedTail = tail;
+            available = cachedTail - head;
+        }
+        // producer could have dropped the data we are about to read, in which case commit will fail anyway
+        return (int) Math.min(Math.min(available, capacity), len);
+    }
+
+    /**
+     * Returns position within backing array of the element at the specified index.
+     */
+    final int index(long index) {
+        return (int) (index % capacity);
+    }
+
+    /**
+     * Publishes {@code count} elements read by consumer starting at {@code head}. Returns {@code false} if producer
+     * dropped the oldest data in the meantime, in which case read data should be discarded and read again.
+     */
+    final boolean commitHead(long head, int count) {
+        return HEAD_UPDATER.compareAndSet(this, head, head + count);
+    }
+
+    /**
+     * Applies overflow policy and returns the number of elements (at most {@code len}) that producer can write at the
+     * moment. If returned value is less than {@code len} and {@link #keepsNewest()} returns {@code true} producer
+     * should write the last returned number of elements, otherwise it should write the first returned number of
+     * elements.
+     */
+    final int claim(int len) {
+        int count = writable(len);
+        if (count < len) {
+            switch (overflowPolicy) {
+                case OverflowPolicy.DROP_OLDEST:
+                    count = Math.min(len, capacity);
+                    overrun(dropOldest(count) + len - count);
+                    return count;
+                case OverflowPolicy.BLOCK:
+                    count = awaitWritable(len);
+                    break;
+                case OverflowPolicy.DROP_NEWEST:
+                default:
+                    break;
+            }
+            if (count < len) overrun(len - count);
+        }
+        return count;
+    }
+
+    /**
+     * Applies overflow policy and returns whether producer can write all {@code len} elements at the moment. If it
+     * can't none of them should be written and all of them are counted as dropped, so data that consists of multi
+     * element units is never split.
+     */
+    final boolean claimFully(int len) {
+        if (len > capacity) {
+            overrun(len);
+            return false;
+        }
+
+        int count = writable(len);
+        if (count < len) {
+            switch (overflowPolicy) {
+                case OverflowPolicy.DROP_OLDEST:
+                    overrun(dropOldest(len));
+                    return true;
+                case OverflowPolicy.BLOCK:
+                    count = awaitWritable(len);
+                    break;
+                case OverflowPolicy.DROP_NEWEST:
+                default:
+                    break;
+            }
+            if (count < len) {
+                overrun(len);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Whether producer should write newest elements when not all of them can be written.
+     */
+    final boolean keepsNewest() {
+        return overflowPolicy == OverflowPolicy.DROP_OLDEST;
+    }
+
+    /**
+     * Returns position within backing array of the next element that producer will write.
+     */
+    final int writeIndex() {
+        return (int) (tail % capacity);
+    }
+
+    /**
+     * Publishes {@code count} elements written by producer.
+     */
+    final void advanceTail(int count) {
+        tail += count;
+    }
+
+    // Returns the number of elements (at most len) that producer can write at the moment
+    private int writable(int len) {
+        final long t = tail;
+        long free = capacity - (t - cachedHead);
+        if (free < len) {
+            cachedHead = head;
+            free = capacity - (t - cachedHead);
+        }
+        return (int) Math.min(free, len);
+    }
+
+    // Moves read index forward so that len elements can be written and returns number of dropped elements
+    private int dropOldest(int len) {
+        final long t = tail;
+        while (true) {
+            final long h = head;
+            final long excess = t - h + len - capacity;
+            if (excess <= 0) {
+                cachedHead = h;
+                return 0;
+            }
+            if (HEAD_UPDATER.compareAndSet(this, h, h + excess)) {
+                cachedHead = h + excess;
+                return (int) excess;
+            }
+        }
+    }
+
+    // Waits until len elements can be written or block timeout elapses, returns number of elements that can be written
+    private int awaitWritable(int len) {
+        final int target = Math.min(len, capacity);
+        final long deadline = System.nanoTime() + blockTimeoutNanos;
+        int count;
+        while ((count = writable(len)) < target) {
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) break;
+
+            LockSupport.parkNanos(this, Math.min(remaining, BLOCK_PARK_TIME_NANOS));
+        }
+        return count;
+    }
+
+    // Updates overrun statistics and notifies listener
+    private void overrun(int dropped) {
+        if (dropped <= 0) return;
+
+        final long now = System.nanoTime();
+        droppedCount += dropped;
+        overrunCount++;
+        lastOverrunTimeNanos = now;
+
+        final OnOverrunListener listener = onOverrunListener;
+        if (listener != null) listener.onOverrun(dropped, now);
+    }
+}
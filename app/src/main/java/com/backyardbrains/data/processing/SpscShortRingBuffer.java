@@ -0,0 +1,159 @@
+package com.backyardbrains.data.processing;
+
+import java.nio.ShortBuffer;
+
+/**
+ * A lock-free circular short buffer (also called ring buffer) that allows putting and getting shorts in a FIFO way
+ * between exactly one producer thread and exactly one consumer thread. It has the same API as {@link
+ * CircularShortBuffer} but doesn't take any locks.
+ * <p/>
+ * All put&get methods are non-blocking.
+ * <p/>
+ * This class is thread-safe only for a single producer and a single consumer. See {@link SpscRingBuffer} for
+ * which methods can be called from which thread.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class SpscShortRingBuffer extends SpscRingBuffer {
+
+    private final short[] buffer;
+
+    public SpscShortRingBuffer() {
+        this(8192);
+    }
+
+    public SpscShortRingBuffer(int capacity) {
+        super(capacity);
+
+        buffer = new short[capacity];
+    }
+
+    /**
+     * Gets a single short return or -1 if no data is available.
+     */
+    public int get() {
+        long h;
+        short value;
+        do {
+            h = head();
+            if (readable(h, 1) == 0) return -1;
+
+            value = buffer[index(h)];
+        } while (!commitHead(h, 1));
+
+        return value;
+    }
+
+    /**
+     * Gets as many of the requested shorts as available from this buffer.
+     *
+     * @return number of shorts actually got from this buffer (0 if no shorts are available)
+     */
+    public int get(short[] dst) {
+        return get(dst, 0, dst.length);
+    }
+
+    /**
+     * Gets as many of the requested shorts as available from this buffer.
+     *
+     * @return number of shorts actually got from this buffer (0 if no shorts are available)
+     */
+    public int get(short[] dst, int off, int len) {
+        long h;
+        int count;
+        do {
+            h = head();
+            count = readable(h, len);
+            if (count == 0) return 0;
+
+            final int idx = index(h);
+            final int count1 = Math.min(count, capacity - idx);
+            System.arraycopy(buffer, idx, dst, off, count1);
+            // array end reached, copy the rest from the beginning
+            if (count > count1) System.arraycopy(buffer, 0, dst, off + count1, count - count1);
+        } while (!commitHead(h, count));
+
+        return count;
+    }
+
+    /**
+     * Puts a single short if the buffer is not yet full, or if overflow policy allows dropping oldest data.
+     *
+     * @return true if the short was put, or false if the buffer is full
+     */
+    public boolean put(short value) {
+        if (claim(1) == 0) return false;
+
+        buffer[writeIndex()] = value;
+        advanceTail(1);
+        return true;
+    }
+
+    /**
+     * Puts as many of the given shorts as the overflow policy allows into this buffer.
+     *
+     * @return number of shorts actually put into this buffer (0 if the buffer is full)
+     */
+    public int put(short[] src) {
+        return put(src, 0, src.length);
+    }
+
+    /**
+     * Puts as many of the given shorts as the overflow policy allows into this buffer.
+     *
+     * @return number of shorts actually put into this buffer (0 if the buffer is full)
+     */
+    public int put(short[] src, int off, int len) {
+        final int count = claim(len);
+        if (count == 0) return 0;
+        if (count < len && keepsNewest()) off += len - count;
+
+        final int idx = writeIndex();
+        final int count1 = Math.min(count, capacity - idx);
+        System.arraycopy(src, off, buffer, idx, count1);
+        // array end reached, copy the rest to the beginning
+        if (count > count1) System.arraycopy(src, off + count1, buffer, 0, count - count1);
+
+        advanceTail(count);
+        return count;
+    }
+
+    /**
+     * Puts as many of the shorts held by specified {@code src} buffer, starting at {@code off}, as the overflow policy
+     * allows into this buffer. Position of the {@code src} buffer is changed.
+     *
+     * @return number of shorts actually put into this buffer (0 if the buffer is full)
+     */
+    public int put(ShortBuffer src, int off, int len) {
+        final int count = claim(len);
+        if (count == 0) return 0;
+        if (count < len && keepsNewest()) off += len - count;
+
+        src.position(off);
+        final int idx = writeIndex();
+        final int count1 = Math.min(count, capacity - idx);
+        src.get(buffer, idx, count1);
+        // array end reached, copy the rest to the beginning
+        if (count > count1) src.get(buffer, 0, count - count1);
+
+        advanceTail(count);
+        return count;
+    }
+
+    /**
+     * Return the first short a <b>get</b> would return or -1 if no data is available.
+     */
+    public int peek() {
+        long h;
+        short value;
+        do {
+            h = head();
+            if (readable(h, 1) == 0) return -1;
+
+            value = buffer[index(h)];
+            // make sure producer didn't drop the value while we were reading it
+        } while (h != head());
+
+        return value;
+    }
+}
@@ -306,11 +306,10 @@ public class ThresholdProcessor implements SampleProcessor {
                     // create new samples for current threshold
                     final short[] centeredWave = new short[sampleCount];
                     copyLength = Math.min(bufferSampleCount + i, length);
-                    System.arraycopy(buffer.getArray(), i, centeredWave, 0, buffer.getArray().length - i);
-                    System.arraycopy(incomingSamples, 0, centeredWave, buffer.getArray().length - i, copyLength);
+                    buffer.copy(i, centeredWave, 0, buffer.getSize() - i);
+                    System.arraycopy(incomingSamples, 0, centeredWave, buffer.getSize() - i, copyLength);
 
-                    unfinishedSamplesForCalculation.add(
-                        new Samples(centeredWave, buffer.getArray().length - i + copyLength));
+                    unfinishedSamplesForCalculation.add(new Samples(centeredWave, buffer.getSize() - i + copyLength));
 
                     // heartbeat processing
                     if (processBpm) {
@@ -6,6 +6,8 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.SparseArray;
 import com.backyardbrains.BaseFragment;
+import com.backyardbrains.data.processing.EnvelopePyramid;
+import com.backyardbrains.data.processing.PipelineLatency;
 import com.backyardbrains.data.processing.ProcessingBuffer;
 import com.backyardbrains.data.processing.SampleBuffer;
 import com.backyardbrains.data.processing.SamplesWithEvents;
@@ -14,7 +16,6 @@ import com.backyardbrains.utils.BYBUtils;
 import com.backyardbrains.utils.Benchmark;
 import com.backyardbrains.utils.EventUtils;
 import com.backyardbrains.utils.GlUtils;
-import com.backyardbrains.utils.JniUtils;
 import com.backyardbrains.utils.PrefUtils;
 import com.crashlytics.android.Crashlytics;
 import javax.microedition.khronos.egl.EGLConfig;
@@ -36,10 +37,16 @@ public abstract class BaseWaveformRenderer extends BaseRenderer {
     private final SparseArray<String> eventsBuffer;
 
     private SampleBuffer sampleBuffer;
-    private short[] samples;
     private int[] eventIndices = new int[EventUtils.MAX_EVENT_COUNT];
     private String[] eventNames = new String[EventUtils.MAX_EVENT_COUNT];
     @SuppressWarnings("WeakerAccess") SamplesWithEvents samplesWithEvents;
+    // Sample buffers and waveform vertices of every channel, first sample buffer is the same as sampleBuffer and
+    // vertices of the first channel are held by samplesWithEvents. Incoming samples are moved straight to the buffers.
+    private SampleBuffer[] channelSampleBuffers;
+    // Min/max pyramids of every channel that hold the same samples as sample buffers, waveforms are prepared from them
+    private EnvelopePyramid[] channelEnvelopes;
+    private SamplesWithEvents[] channelWaveforms;
+    private int channelCount = 1;
 
     private int surfaceWidth;
     private int surfaceHeight;
@@ -59,6 +66,9 @@ public abstract class BaseWaveformRenderer extends BaseRenderer {
     private int sampleRate = AudioUtils.SAMPLE_RATE;
     private float minDetectedPCMValue = GlUtils.DEFAULT_MIN_DETECTED_PCM_VALUE;
 
+    // Schedules frames of the surface this renderer draws on, surface is redrawn only when drawn data changes
+    private FramePacer framePacer;
+
     private OnDrawListener onDrawListener;
     private OnScrollListener onScrollListener;
     private OnMeasureListener onMeasureListener;
@@ -142,6 +152,7 @@ public abstract class BaseWaveformRenderer extends BaseRenderer {
      * Cleans any occupied resources.
      */
     public void close() {
+        releaseChannelEnvelopes();
     }
 
     //==============================================
@@ -157,6 +168,14 @@ public abstract class BaseWaveformRenderer extends BaseRenderer {
         this.onDrawListener = listener;
     }
 
+    /**
+     * Requests redraw of the surface. Should be called whenever something that's drawn changes, other than samples
+     * whose arrival requests redraw on it's own.
+     */
+    public void requestRedraw() {
+        if (framePacer != null) framePacer.requestFrame();
+    }
+
     /**
      * Sets current sample rate that should be used when calculating rendering parameters.
      */
@@ -177,6 +196,8 @@ public abstract class BaseWaveformRenderer extends BaseRenderer {
         glWindowWidthDirty = true;
 
         this.sampleRate = sampleRate;
+
+        requestRedraw();
     }
 
     public void setGlWindowWidth(int newSize) {
@@ -191,6 +212,8 @@ public abstract class BaseWaveformRenderer extends BaseRenderer {
         glWindowWidth = newSize;
         // set GL window size dirty so we can recalculate projection
         glWindowWidthDirty = true;
+
+        requestRedraw();
     }
 
     public int getGlWindowWidth() {
@@ -206,12 +229,46 @@ public abstract class BaseWaveformRenderer extends BaseRenderer {
         glWindowHeight = newSize;
         // set GL window size dirty so we can recalculate projection
         glWindowHeightDirty = true;
+
+        requestRedraw();
     }
 
     public int getGlWindowHeight() {
         return glWindowHeight;
     }
 
+    /**
+     * Sets frame pacer that schedules frames of the surface this renderer draws on.
+     */
+    void setFramePacer(@Nullable FramePacer framePacer) {
+        this.framePacer = framePacer;
+    }
+
+    /**
+     * Returns number of channels whose waveform vertices were prepared during the last frame. Vertices of every
+     * channel are returned by {@link #getChannelWaveform(int)}.
+     */
+    int getChannelCount() {
+        return channelCount;
+    }
+
+    /**
+     * Returns waveform vertices of the specified {@code channel} prepared during the last frame. Vertices of the first
+     * channel are the same ones passed to {@link #draw(GL10, SampleBuffer, short[], int, SparseArray, int, int, int,
+     * int, int, int, float, float, long)}.
+     */
+    @NonNull SamplesWithEvents getChannelWaveform(int channel) {
+        return channel == 0 ? samplesWithEvents : channelWaveforms[channel];
+    }
+
+    /**
+     * Whether waveforms of all incoming channels should be prepared for drawing, or only the first one. Subclasses
+     * that draw data derived from the first channel only should return {@code false}.
+     */
+    protected boolean isMultichannel() {
+        return true;
+    }
+
     int getSurfaceWidth() {
         return surfaceWidth;
     }
@@ -249,6 +306,8 @@ public abstract class BaseWaveformRenderer extends BaseRenderer {
         surfaceSizeDirty = true;
         setAutoScale(PrefUtils.getAutoScale(context, getClass()));
         minDetectedPCMValue = PrefUtils.getMinimumDetectedPcmValue(context, getClass());
+
+        requestRedraw();
     }
 
     /**
@@ -324,6 +383,8 @@ public abstract class BaseWaveformRenderer extends BaseRenderer {
      */
     @Override public void onDrawFrame(GL10 gl) {
         //benchmark.start();
+        final FramePacer framePacer = this.framePacer;
+        final long frameStart = framePacer != null ? framePacer.onFrameStart() : 0;
 
         final boolean surfaceSizeDirty = this.surfaceSizeDirty;
         final int surfaceWidth = this.surfaceWidth;
@@ -340,18 +401,23 @@ public abstract class BaseWaveformRenderer extends BaseRenderer {
         // get event indices and event names from processing buffer
         final int copiedEventsCount = processingBuffer.copyEvents(eventIndices, eventNames);
 
+        // timestamps of the newest samples we are about to draw
+        final long arrivalTime = processingBuffer.getLastArrivalTimeNanos();
+        final long bufferedTime = processingBuffer.getLastBufferedTimeNanos();
+
         // get samples from processing buffer and check if it's valid
-        if (sampleBuffer == null || sampleBuffer.getSize() != processingBuffer.getSize()) {
-            sampleBuffer = new SampleBuffer(processingBuffer.getSize());
-            samples = new short[processingBuffer.getSize()];
+        final int channelCount = isMultichannel() ? processingBuffer.getChannelCount() : 1;
+        if (sampleBuffer == null || sampleBuffer.getSize() != processingBuffer.getSize()
+            || channelSampleBuffers.length != channelCount || channelEnvelopes == null) {
+            createChannelBuffers(processingBuffer.getSize(), channelCount);
         }
-        int count = processingBuffer.get(samples);
+        int count = processingBuffer.get(channelSampleBuffers);
         if (count > 0) {
             //LOGD(TAG, "DRAWING: " + count);
-            sampleBuffer.add(samples, count);
+            for (int i = 0; i < channelCount; i++) channelEnvelopes[i].add(channelSampleBuffers[i], count);
         }
 
-        final int sampleCount = sampleBuffer.getArray().length;
+        final int sampleCount = sampleBuffer.getSize();
         final long lastSampleIndex = processingBuffer.getLastSampleIndex();
 
         // calculate necessary drawing parameters
@@ -360,9 +426,16 @@ public abstract class BaseWaveformRenderer extends BaseRenderer {
         final int drawEndIndex = Math.min(drawStartIndex + glWindowWidth, sampleCount);
 
         // construct waveform vertices and populate eventIndices buffer
+        final long envelopeStart = System.nanoTime();
         eventsBuffer.clear();
-        getWaveformVertices(samplesWithEvents, sampleBuffer.getArray(), eventIndices, eventNames, copiedEventsCount,
+        getWaveformVertices(samplesWithEvents, sampleBuffer, eventIndices, eventNames, copiedEventsCount,
             drawStartIndex, drawEndIndex, surfaceWidth);
+        // events are drawn only once so other channels need just the waveform
+        for (int i = 1; i < channelCount; i++) {
+            prepareChannelWaveform(i, drawStartIndex, drawEndIndex, surfaceWidth);
+        }
+        PipelineLatency.record(PipelineLatency.Stage.ENVELOPE, System.nanoTime() - envelopeStart);
+        this.channelCount = channelCount;
         final int samplesDrawCount = (int) (samplesWithEvents.sampleCount * .5);
 
         // calculate scale x and scale y
@@ -379,13 +452,22 @@ public abstract class BaseWaveformRenderer extends BaseRenderer {
         //autoScaleCheck(samples);
 
         // draw on surface
-        draw(gl, sampleBuffer.getArray(), samplesWithEvents.samples, samplesWithEvents.sampleCount, eventsBuffer,
+        draw(gl, sampleBuffer, samplesWithEvents.samples, samplesWithEvents.sampleCount, eventsBuffer,
             surfaceWidth, surfaceHeight, glWindowWidth, glWindowHeight, drawStartIndex, drawEndIndex, scaleX, scaleY,
             lastSampleIndex);
 
         // invoke callback that the surface has been drawn
         if (onDrawListener != null) onDrawListener.onDraw(glWindowWidth, glWindowHeight);
 
+        // record how old the newest drawn samples are
+        if (count > 0) {
+            final long now = System.nanoTime();
+            if (bufferedTime != 0) PipelineLatency.record(PipelineLatency.Stage.DRAW, now - bufferedTime);
+            if (arrivalTime != 0) PipelineLatency.record(PipelineLatency.Stage.TOTAL, now - arrivalTime);
+        }
+
+        if (framePacer != null) framePacer.onFrameEnd(frameStart);
+
         //benchmark.end();
     }
 
@@ -399,12 +481,12 @@ public abstract class BaseWaveformRenderer extends BaseRenderer {
         }
     }
 
-    protected void getWaveformVertices(@NonNull SamplesWithEvents samplesWithEvents, @NonNull short[] samples,
+    protected void getWaveformVertices(@NonNull SamplesWithEvents samplesWithEvents, @NonNull SampleBuffer samples,
         @NonNull int[] eventIndices, @NonNull String[] eventNames, int eventCount, int fromSample, int toSample,
         int drawSurfaceWidth) {
         //benchmark.start();
         try {
-            JniUtils.prepareForDrawing(samplesWithEvents, samples, eventIndices, eventCount, fromSample, toSample,
+            channelEnvelopes[0].prepareForDrawing(samplesWithEvents, eventIndices, eventCount, fromSample, toSample,
                 drawSurfaceWidth);
             int indexBase = eventCount - samplesWithEvents.eventCount;
             for (int i = 0; i < samplesWithEvents.eventCount; i++) {
@@ -417,7 +499,53 @@ public abstract class BaseWaveformRenderer extends BaseRenderer {
         //benchmark.end();
     }
 
-    abstract protected void draw(GL10 gl, @NonNull short[] samples, @NonNull short[] waveformVertices,
+    // Creates sample buffers and min/max pyramids that hold incoming samples of every channel
+    private void createChannelBuffers(int size, int channelCount) {
+        releaseChannelEnvelopes();
+        channelSampleBuffers = new SampleBuffer[channelCount];
+        channelEnvelopes = new EnvelopePyramid[channelCount];
+        for (int i = 0; i < channelCount; i++) {
+            channelSampleBuffers[i] = new SampleBuffer(size);
+            channelEnvelopes[i] = new EnvelopePyramid(size);
+        }
+        sampleBuffer = channelSampleBuffers[0];
+        channelWaveforms = new SamplesWithEvents[channelCount];
+    }
+
+    // Prepares waveform vertices of the specified channel, other than the first one
+    private void prepareChannelWaveform(int channel, int fromSample, int toSample, int drawSurfaceWidth) {
+        SamplesWithEvents waveform = channelWaveforms[channel];
+        if (waveform == null || waveform.samples.length < samplesWithEvents.samples.length) {
+            waveform = channelWaveforms[channel] = new SamplesWithEvents(samplesWithEvents.samples.length);
+        }
+        getChannelWaveformVertices(waveform, channelSampleBuffers[channel], channelEnvelopes[channel], fromSample,
+            toSample, drawSurfaceWidth);
+    }
+
+    /**
+     * Prepares waveform vertices of a channel other than the first one from it's {@code samples} and saves them to
+     * {@code waveform}. Events are only drawn with the first channel. By default vertices are taken from the channel's
+     * min/max {@code envelope}.
+     */
+    protected void getChannelWaveformVertices(@NonNull SamplesWithEvents waveform, @NonNull SampleBuffer samples,
+        @NonNull EnvelopePyramid envelope, int fromSample, int toSample, int drawSurfaceWidth) {
+        try {
+            envelope.prepareForDrawing(waveform, eventIndices, 0, fromSample, toSample, drawSurfaceWidth);
+        } catch (Exception e) {
+            LOGE(TAG, e.getMessage());
+            Crashlytics.logException(e);
+        }
+    }
+
+    // Frees native memory held by min/max pyramids of all channels
+    private void releaseChannelEnvelopes() {
+        if (channelEnvelopes == null) return;
+
+        for (EnvelopePyramid envelope : channelEnvelopes) envelope.release();
+        channelEnvelopes = null;
+    }
+
+    abstract protected void draw(GL10 gl, @NonNull SampleBuffer samples, @NonNull short[] waveformVertices,
         int waveformVerticesCount, @NonNull SparseArray<String> events, int surfaceWidth, int surfaceHeight,
         int glWindowWidth, int glWindowHeight, int drawStartIndex, int drawEndIndex, float scaleX, float scaleY,
         long lastSampleIndex);
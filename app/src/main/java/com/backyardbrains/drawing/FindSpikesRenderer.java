@@ -6,6 +6,7 @@ import android.support.annotation.Size;
 import android.util.SparseArray;
 import com.backyardbrains.BaseFragment;
 import com.backyardbrains.data.SpikeValueAndIndex;
+import com.backyardbrains.data.processing.SampleBuffer;
 import com.backyardbrains.drawing.gl.GlSpikes;
 import com.backyardbrains.utils.ThresholdOrientation;
 import com.crashlytics.android.Crashlytics;
@@ -86,6 +87,7 @@ public class FindSpikesRenderer extends SeekableWaveformRenderer {
     public void setCurrentColor(float[] color) {
         if (currentColor.length == color.length && currentColor.length == 4) {
             System.arraycopy(color, 0, currentColor, 0, currentColor.length);
+            requestRedraw();
         }
     }
 
@@ -117,7 +119,7 @@ public class FindSpikesRenderer extends SeekableWaveformRenderer {
     /**
      * {@inheritDoc}
      */
-    @Override protected void draw(GL10 gl, @NonNull short[] samples, @NonNull short[] waveformVertices,
+    @Override protected void draw(GL10 gl, @NonNull SampleBuffer samples, @NonNull short[] waveformVertices,
         int waveformVerticesCount, @NonNull SparseArray<String> events, int surfaceWidth, int surfaceHeight,
         int glWindowWidth, int glWindowHeight, int drawStartIndex, int drawEndIndex, float scaleX, float scaleY,
         long lastSampleIndex) {
@@ -129,7 +131,11 @@ public class FindSpikesRenderer extends SeekableWaveformRenderer {
             // retry getting spike analysis id until we have it
             if (spikeAnalysisId <= 0) {
                 spikeAnalysisId = getAnalysisManager().getSpikeAnalysisId(filePath);
-                if (spikeAnalysisId <= 0) return;
+                if (spikeAnalysisId <= 0) {
+                    // surface is only redrawn when it's dirty so we need to ask for another frame
+                    requestRedraw();
+                    return;
+                }
             }
 
             // let's save start and end sample positions that are being drawn before triggering the actual draw
@@ -172,6 +178,7 @@ public class FindSpikesRenderer extends SeekableWaveformRenderer {
         if (orientation == ThresholdOrientation.LEFT || orientation == ThresholdOrientation.RIGHT) {
             thresholds[orientation] = t;
             if (broadcast) updateThresholdHandle(orientation);
+            requestRedraw();
         }
     }
 
@@ -0,0 +1,143 @@
+package com.backyardbrains.drawing;
+
+import android.opengl.GLSurfaceView;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import com.backyardbrains.data.processing.PipelineLatency;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.backyardbrains.utils.LogUtils.LOGD;
+import static com.backyardbrains.utils.LogUtils.makeLogTag;
+
+/**
+ * Schedules frames of a {@link GLSurfaceView} that renders only when dirty. Every change of the drawn data (new
+ * samples, gestures, settings) requests a frame, requests that come while a frame is already pending are merged into it
+ * and frames are never drawn more often than the maximum frame rate allows, so surface that doesn't change isn't
+ * redrawn at all.
+ * <p>
+ * Frames can be requested from any thread, while {@link #onFrameStart()} and {@link #onFrameEnd(long)} need to be
+ * called from the GL thread.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class FramePacer {
+
+    private static final String TAG = makeLogTag(FramePacer.class);
+
+    /**
+     * Default maximum number of frames drawn per second.
+     */
+    public static final int DEFAULT_MAX_FRAME_RATE = 60;
+
+    private final GLSurfaceView surface;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable requestRenderRunnable = new Runnable() {
+        @Override public void run() {
+            surface.requestRender();
+        }
+    };
+
+    // Whether frame has been requested and it hasn't started drawing yet
+    private final AtomicBoolean framePending = new AtomicBoolean();
+    private final AtomicLong skippedFrameCount = new AtomicLong();
+    private volatile long minFrameIntervalNanos = TimeUnit.SECONDS.toNanos(1) / DEFAULT_MAX_FRAME_RATE;
+    private volatile long lastFrameStartNanos;
+    private volatile long frameCount;
+    private volatile long drawTimeNanos;
+
+    FramePacer(@NonNull GLSurfaceView surface) {
+        this.surface = surface;
+    }
+
+    /**
+     * Sets maximum number of frames drawn per second.
+     */
+    public void setMaxFrameRate(int maxFrameRate) {
+        if (maxFrameRate <= 0) return;
+
+        LOGD(TAG, "setMaxFrameRate(" + maxFrameRate + ")");
+        minFrameIntervalNanos = TimeUnit.SECONDS.toNanos(1) / maxFrameRate;
+    }
+
+    /**
+     * Requests new frame. Frame is drawn as soon as the maximum frame rate allows, or not at all if there is already a
+     * pending one.
+     */
+    public void requestFrame() {
+        if (!framePending.compareAndSet(false, true)) {
+            skippedFrameCount.incrementAndGet();
+            return;
+        }
+
+        final long delayNanos = lastFrameStartNanos + minFrameIntervalNanos - System.nanoTime();
+        if (delayNanos > 0) {
+            handler.postDelayed(requestRenderRunnable, TimeUnit.NANOSECONDS.toMillis(delayNanos) + 1);
+        } else {
+            surface.requestRender();
+        }
+    }
+
+    /**
+     * Returns number of drawn frames.
+     */
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Returns number of frame requests that were merged into an already pending frame.
+     */
+    public long getSkippedFrameCount() {
+        return skippedFrameCount.get();
+    }
+
+    /**
+     * Returns total time spent drawing frames in nanoseconds.
+     */
+    public long getDrawTimeNanos() {
+        return drawTimeNanos;
+    }
+
+    /**
+     * Logs frame counters.
+     */
+    public void log() {
+        LOGD(TAG, "Frames drawn: " + frameCount + ", skipped: " + skippedFrameCount.get() + ", draw time: "
+            + TimeUnit.NANOSECONDS.toMillis(drawTimeNanos) + " ms");
+    }
+
+    /**
+     * Drops the pending frame so new requests aren't merged into a frame that will never be drawn. Should be called
+     * whenever surface stops drawing.
+     */
+    void reset() {
+        handler.removeCallbacks(requestRenderRunnable);
+        framePending.set(false);
+    }
+
+    /**
+     * Called by the renderer when frame starts drawing. Returns start time of the frame.
+     */
+    long onFrameStart() {
+        // requests that come from now on need a new frame
+        framePending.set(false);
+        final long now = System.nanoTime();
+        lastFrameStartNanos = now;
+
+        return now;
+    }
+
+    /**
+     * Called by the renderer when frame that started drawing at {@code frameStartNanos} is drawn.
+     */
+    void onFrameEnd(long frameStartNanos) {
+        final long frameDrawTimeNanos = System.nanoTime() - frameStartNanos;
+        // counters are only updated from the GL thread
+        frameCount++;
+        drawTimeNanos += frameDrawTimeNanos;
+        PipelineLatency.record(PipelineLatency.Stage.FRAME, frameDrawTimeNanos);
+    }
+}
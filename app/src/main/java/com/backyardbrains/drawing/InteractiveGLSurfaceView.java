@@ -36,6 +36,7 @@ import android.view.SurfaceHolder;
 import android.view.ViewConfiguration;
 
 import com.backyardbrains.BybApplication;
+import com.backyardbrains.data.processing.ProcessingBuffer;
 import com.backyardbrains.view.ZoomButton;
 import com.backyardbrains.view.ScaleListener;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -60,6 +61,15 @@ public class InteractiveGLSurfaceView extends GLSurfaceView {
 
     BaseWaveformRenderer renderer;
 
+    // Surface is redrawn only when it's dirty, new samples, gestures and renderer settings changes request new frames
+    private final FramePacer framePacer = new FramePacer(this);
+    private final ProcessingBuffer.OnSamplesAddedListener samplesAddedListener =
+        new ProcessingBuffer.OnSamplesAddedListener() {
+            @Override public void onSamplesAdded() {
+                framePacer.requestFrame();
+            }
+        };
+
     protected ScaleGestureDetector scaleDetector;
     protected ScaleGestureDetector.OnScaleGestureListener scaleListener;
     protected GestureDetector scrollDetector;
@@ -104,6 +114,7 @@ public class InteractiveGLSurfaceView extends GLSurfaceView {
                 waitingForLongPress = false;
                 scrolling = false;
                 renderer.startMeasurement(eventX.get());
+                framePacer.requestFrame();
             }
         }
     };
@@ -152,7 +163,24 @@ public class InteractiveGLSurfaceView extends GLSurfaceView {
 
         setEGLConfigChooser(8, 8, 8, 8, 16, 0);
 
+        // pacer needs to be set before the GL thread starts
+        renderer.setFramePacer(framePacer);
         super.setRenderer(renderer);
+        setRenderMode(RENDERMODE_WHEN_DIRTY);
+    }
+
+    /**
+     * Sets maximum number of frames drawn per second. Default is {@link FramePacer#DEFAULT_MAX_FRAME_RATE}.
+     */
+    public void setMaxFrameRate(int maxFrameRate) {
+        framePacer.setMaxFrameRate(maxFrameRate);
+    }
+
+    /**
+     * Returns frame pacer that schedules frames of this view and counts drawn and skipped frames.
+     */
+    @NonNull public FramePacer getFramePacer() {
+        return framePacer;
     }
 
     @Override public final void setRenderer(Renderer renderer) {
@@ -164,6 +192,29 @@ public class InteractiveGLSurfaceView extends GLSurfaceView {
         throw new IllegalArgumentException("Renderer needs to be instance of BaseWaveformRenderer class");
     }
 
+    @Override public void onResume() {
+        // frame requested while we were paused was never drawn, view redraws on resume anyway
+        framePacer.reset();
+        super.onResume();
+    }
+
+    @Override public void onPause() {
+        super.onPause();
+        framePacer.reset();
+        framePacer.log();
+    }
+
+    @Override protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        ProcessingBuffer.get().addOnSamplesAddedListener(samplesAddedListener);
+    }
+
+    @Override protected void onDetachedFromWindow() {
+        ProcessingBuffer.get().removeOnSamplesAddedListener(samplesAddedListener);
+        framePacer.reset();
+        super.onDetachedFromWindow();
+    }
+
     @Override public void surfaceCreated(SurfaceHolder holder) {
         super.surfaceCreated(holder);
         setKeepScreenOn(true);
@@ -244,6 +295,8 @@ public class InteractiveGLSurfaceView extends GLSurfaceView {
                         break;
                 }
             }
+            // gestures can change anything that's drawn
+            framePacer.requestFrame();
         }
 
         return true;
@@ -4,40 +4,37 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Size;
 import android.util.SparseArray;
 import com.backyardbrains.BaseFragment;
-import com.backyardbrains.data.SpikeValueAndIndex;
+import com.backyardbrains.data.SpikeIndex;
 import com.backyardbrains.data.persistance.AnalysisDataSource;
-import com.backyardbrains.data.persistance.entity.Train;
+import com.backyardbrains.data.processing.SampleBuffer;
 import com.backyardbrains.drawing.gl.GlMeasurementArea;
 import com.backyardbrains.drawing.gl.GlSpikes;
 import com.backyardbrains.utils.AnalysisUtils;
 import com.backyardbrains.utils.GlUtils;
-import com.crashlytics.android.Crashlytics;
 import javax.microedition.khronos.opengles.GL10;
 
-import static com.backyardbrains.utils.LogUtils.LOGE;
 import static com.backyardbrains.utils.LogUtils.makeLogTag;
 
 public class SeekableWaveformRenderer extends WaveformRenderer {
 
-    private static final String TAG = makeLogTag(SeekableWaveformRenderer.class);
+    @SuppressWarnings("unused") private static final String TAG = makeLogTag(SeekableWaveformRenderer.class);
 
     // Root mean square quantifier used when analyzing selected spikes
     private static final float RMS_QUANTIFIER = 0.005f;
 
+    private final String filePath;
     private final GlMeasurementArea glMeasurementArea;
     private final GlSpikes glSpikes;
     private final float[] spikesVertices = new float[GlSpikes.MAX_POINT_VERTICES];
     private final float[] spikesColors = new float[GlSpikes.MAX_COLOR_VERTICES];
 
-    private short[] rmsSamples;
-    private float measureSampleCount;
-
     private boolean measuring;
     private float measurementStartX;
     private float measurementEndX;
 
-    @SuppressWarnings("WeakerAccess") Train[] spikeTrains;
-    @SuppressWarnings("WeakerAccess") SpikeValueAndIndex[][] valuesAndIndexes;
+    // Spikes of all the trains, loaded on the first frame and then reloaded only when trains change
+    @SuppressWarnings("WeakerAccess") volatile SpikeIndex spikeIndex;
+    private int spikeIndexVersion = -1;
 
     public SeekableWaveformRenderer(@NonNull String filePath, @NonNull BaseFragment fragment) {
         super(fragment);
@@ -48,18 +45,7 @@ public class SeekableWaveformRenderer extends WaveformRenderer {
         glMeasurementArea = new GlMeasurementArea();
         glSpikes = new GlSpikes();
 
-        if (getAnalysisManager() != null) {
-            getAnalysisManager().getSpikeTrains(filePath, new AnalysisDataSource.GetAnalysisCallback<Train[]>() {
-                @Override public void onAnalysisLoaded(@NonNull Train[] result) {
-                    spikeTrains = result;
-                    valuesAndIndexes = new SpikeValueAndIndex[spikeTrains.length][];
-                }
-
-                @Override public void onDataNotAvailable() {
-                    spikeTrains = null;
-                }
-            });
-        }
+        this.filePath = filePath;
     }
 
     //==============================================
@@ -87,21 +73,19 @@ public class SeekableWaveformRenderer extends WaveformRenderer {
     /**
      * {@inheritDoc}
      */
-    @Override protected void draw(GL10 gl, @NonNull short[] samples, @NonNull short[] waveformVertices,
+    @Override protected void draw(GL10 gl, @NonNull SampleBuffer samples, @NonNull short[] waveformVertices,
         int waveformVerticesCount, @NonNull SparseArray<String> events, int surfaceWidth, int surfaceHeight,
         int glWindowWidth, int glWindowHeight, int drawStartIndex, int drawEndIndex, float scaleX, float scaleY,
         long lastSampleIndex) {
         // let's save start and end sample positions that are being drawn before triggering the actual draw
         int toSample = (int) lastSampleIndex;
         int fromSample = Math.max(0, toSample - glWindowWidth);
-        if (drawSpikes()) {
-            if (getAnalysisManager() != null && spikeTrains != null) {
-                for (int i = 0; i < spikeTrains.length; i++) {
-                    valuesAndIndexes[i] =
-                        getAnalysisManager().getSpikesByTrainForRange(spikeTrains[i].getId(), fromSample, toSample);
-                }
-            }
+        // spikes are drawn from the old index until the new one is loaded
+        if ((drawSpikes() || isMeasureEnabled()) && getAnalysisManager() != null
+            && getAnalysisManager().getSpikeTrainsVersion() != spikeIndexVersion) {
+            loadSpikeIndex();
         }
+        final SpikeIndex spikeIndex = this.spikeIndex;
 
         long drawSampleCount = (long) (waveformVerticesCount * .5);
 
@@ -115,27 +99,18 @@ public class SeekableWaveformRenderer extends WaveformRenderer {
                 (int) (scaleX < 1 ? measurementAreaDrawStart : measurementAreaDrawStart * scaleX);
             final int measureEndIndex = (int) (scaleX < 1 ? measurementAreaDrawEnd : measurementAreaDrawEnd * scaleX);
             final int measureSampleCount = Math.abs(measureEndIndex - measureStartIndex);
-            // fill array of samples used for RMS calculation
-            if (rmsSamples == null || measureSampleCount != this.measureSampleCount) {
-                this.measureSampleCount = measureSampleCount;
-                rmsSamples = new short[measureSampleCount];
-            }
             final int startIndex = Math.min(measureStartIndex, measureEndIndex);
             final int measureFirstSampleIndex = drawStartIndex + startIndex;
-            System.arraycopy(samples, measureFirstSampleIndex, rmsSamples, 0, measureSampleCount);
-            // calculate RMS
-            final float rms = AnalysisUtils.RMS(rmsSamples, measureSampleCount) * RMS_QUANTIFIER;
+            // calculate RMS straight from the ring of samples
+            final float rms = AnalysisUtils.RMS(samples.getArray(), samples.getArrayIndex(measureFirstSampleIndex),
+                measureSampleCount) * RMS_QUANTIFIER;
 
             int[] spikeCounts = new int[] { -1, -1, -1 };
-            if (spikeTrains != null && valuesAndIndexes.length > 0) {
-                for (int i = 0; i < valuesAndIndexes.length; i++) {
-                    spikeCounts[i] = 0;
-                    for (int j = 0; j < valuesAndIndexes[i].length; j++) {
-                        if (fromSample + startIndex <= valuesAndIndexes[i][j].getIndex()
-                            && valuesAndIndexes[i][j].getIndex() <= fromSample + startIndex + measureSampleCount) {
-                            spikeCounts[i]++;
-                        }
-                    }
+            if (spikeIndex != null) {
+                final long measureFromSample = fromSample + startIndex;
+                final long measureToSample = measureFromSample + measureSampleCount + 1;
+                for (int i = 0; i < spikeIndex.getTrainCount() && i < spikeCounts.length; i++) {
+                    spikeCounts[i] = spikeIndex.count(i, measureFromSample, measureToSample);
                 }
             }
 
@@ -149,14 +124,11 @@ public class SeekableWaveformRenderer extends WaveformRenderer {
         super.draw(gl, samples, waveformVertices, waveformVerticesCount, events, surfaceWidth, surfaceHeight,
             glWindowWidth, glWindowHeight, drawStartIndex, drawEndIndex, scaleX, scaleY, lastSampleIndex);
 
-        if (drawSpikes()) {
-            if (spikeTrains != null && valuesAndIndexes.length > 0) {
-                for (int i = 0; i < valuesAndIndexes.length; i++) {
-                    int verticesCount =
-                        fillSpikesAndColorsBuffers(valuesAndIndexes[i], spikesVertices, spikesColors, glWindowWidth,
-                            fromSample, toSample, drawSampleCount, GlUtils.SPIKE_TRAIN_COLORS[i]);
-                    glSpikes.draw(gl, spikesVertices, spikesColors, verticesCount);
-                }
+        if (drawSpikes() && spikeIndex != null) {
+            for (int i = 0; i < spikeIndex.getTrainCount() && i < GlUtils.SPIKE_TRAIN_COLORS.length; i++) {
+                int verticesCount = fillSpikesAndColorsBuffers(spikeIndex, i, spikesVertices, spikesColors,
+                    glWindowWidth, fromSample, toSample, drawSampleCount, GlUtils.SPIKE_TRAIN_COLORS[i]);
+                glSpikes.draw(gl, spikesVertices, spikesColors, verticesCount);
             }
         }
     }
@@ -215,38 +187,50 @@ public class SeekableWaveformRenderer extends WaveformRenderer {
         }
     }
 
-    // Fills spike and color buffers preparing them for drawing. Number of vertices is returned.
-    private int fillSpikesAndColorsBuffers(@NonNull SpikeValueAndIndex[] valueAndIndices,
-        @NonNull float[] spikesVertices, @NonNull float[] spikesColors, int glWindowWidth, long fromSample,
-        long toSample, long drawSampleCount, @Size(4) float[] color) {
+    // Fills spike and color buffers with spikes of the specified train preparing them for drawing. Number of vertices
+    // is returned.
+    private int fillSpikesAndColorsBuffers(@NonNull SpikeIndex spikeIndex, int train, @NonNull float[] spikesVertices,
+        @NonNull float[] spikesColors, int glWindowWidth, long fromSample, long toSample, long drawSampleCount,
+        @Size(4) float[] color) {
+        final int[] indices = spikeIndex.getIndices(train);
+        final short[] values = spikeIndex.getValues(train);
+        // spikes that don't fit into the buffers are not drawn
+        final int first = spikeIndex.find(train, fromSample);
+        final int last = Math.min(spikeIndex.find(train, toSample),
+            first + Math.min(spikesVertices.length / 2, spikesColors.length / 4));
+
         int verticesCounter = 0;
-        try {
-            if (valueAndIndices.length > 0) {
-                int colorsCounter = 0;
-                float scaleX = (float) drawSampleCount / glWindowWidth;
-                long index;
-
-                for (SpikeValueAndIndex valueAndIndex : valueAndIndices) {
-                    if (fromSample <= valueAndIndex.getIndex() && valueAndIndex.getIndex() < toSample) {
-                        index =
-                            toSample - fromSample < glWindowWidth ? valueAndIndex.getIndex() + glWindowWidth - toSample
-                                : valueAndIndex.getIndex() - fromSample;
-                        index = (long) (index * scaleX);
-                        spikesVertices[verticesCounter++] = index;
-                        spikesVertices[verticesCounter++] = valueAndIndex.getValue();
-                        System.arraycopy(color, 0, spikesColors, colorsCounter, color.length);
-                        colorsCounter += 4;
-                    }
-                }
-            }
-        } catch (ArrayIndexOutOfBoundsException e) {
-            LOGE(TAG, e.getMessage());
-            Crashlytics.logException(e);
+        int colorsCounter = 0;
+        final float scaleX = (float) drawSampleCount / glWindowWidth;
+        final long offset = toSample - fromSample < glWindowWidth ? glWindowWidth - toSample : -fromSample;
+        for (int i = first; i < last; i++) {
+            spikesVertices[verticesCounter++] = (long) ((indices[i] + offset) * scaleX);
+            spikesVertices[verticesCounter++] = values[i];
+            System.arraycopy(color, 0, spikesColors, colorsCounter, color.length);
+            colorsCounter += 4;
         }
 
         return verticesCounter;
     }
 
+    // Loads index of spikes of all the trains and requests redraw when it's loaded
+    private void loadSpikeIndex() {
+        if (getAnalysisManager() == null) return;
+
+        spikeIndexVersion = getAnalysisManager().getSpikeTrainsVersion();
+        getAnalysisManager().getSpikeIndex(filePath, new AnalysisDataSource.GetAnalysisCallback<SpikeIndex>() {
+            @Override public void onAnalysisLoaded(@NonNull SpikeIndex result) {
+                spikeIndex = result;
+                requestRedraw();
+            }
+
+            @Override public void onDataNotAvailable() {
+                spikeIndex = null;
+                requestRedraw();
+            }
+        });
+    }
+
     // Check whether service is currently in playback mode
     private boolean getIsPlaybackMode() {
         return getAudioService() != null && getAudioService().isPlaybackMode();
@@ -22,6 +22,8 @@ package com.backyardbrains.drawing;
 import android.content.Context;
 import android.support.annotation.NonNull;
 import com.backyardbrains.BaseFragment;
+import com.backyardbrains.data.processing.EnvelopePyramid;
+import com.backyardbrains.data.processing.SampleBuffer;
 import com.backyardbrains.data.processing.SamplesWithEvents;
 import com.backyardbrains.utils.JniUtils;
 import com.backyardbrains.utils.PrefUtils;
@@ -122,12 +124,29 @@ public class ThresholdRenderer extends WaveformRenderer {
     /**
      * {@inheritDoc}
      */
-    @Override protected void getWaveformVertices(@NonNull SamplesWithEvents samplesWithEvents, @NonNull short[] samples,
-        @NonNull int[] eventIndices, @NonNull String[] eventNames, int eventCount, int fromSample, int toSample,
+    @Override protected void getWaveformVertices(@NonNull SamplesWithEvents samplesWithEvents,
+        @NonNull SampleBuffer samples, @NonNull int[] eventIndices, @NonNull String[] eventNames, int eventCount,
+        int fromSample, int toSample, int drawSurfaceWidth) {
+        try {
+            JniUtils.prepareForThresholdDrawing(samplesWithEvents, samples.getArray(), samples.getHead(), eventIndices,
+                eventCount, fromSample, toSample, drawSurfaceWidth);
+        } catch (ArrayIndexOutOfBoundsException e) {
+            LOGE(TAG, e.getMessage());
+            Crashlytics.logException(e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Every channel holds averaged samples of a single trigger, so they are drawn the same way as the first one.
+     */
+    @Override protected void getChannelWaveformVertices(@NonNull SamplesWithEvents waveform,
+        @NonNull SampleBuffer samples, @NonNull EnvelopePyramid envelope, int fromSample, int toSample,
         int drawSurfaceWidth) {
         try {
-            JniUtils.prepareForThresholdDrawing(samplesWithEvents, samples, eventIndices, eventCount, fromSample,
-                toSample, drawSurfaceWidth);
+            JniUtils.prepareForThresholdDrawing(waveform, samples.getArray(), samples.getHead(), waveform.eventIndices,
+                0, fromSample, toSample, drawSurfaceWidth);
         } catch (ArrayIndexOutOfBoundsException e) {
             LOGE(TAG, e.getMessage());
             Crashlytics.logException(e);
@@ -24,6 +24,8 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Size;
 import android.util.SparseArray;
 import com.backyardbrains.BaseFragment;
+import com.backyardbrains.data.processing.SampleBuffer;
+import com.backyardbrains.data.processing.SamplesWithEvents;
 import com.backyardbrains.drawing.gl.GlEventMarker;
 import com.backyardbrains.drawing.gl.GlWaveform;
 import javax.microedition.khronos.egl.EGLConfig;
@@ -36,6 +38,11 @@ public class WaveformRenderer extends BaseWaveformRenderer {
     private static final String TAG = makeLogTag(WaveformRenderer.class);
 
     private static final float[] DEFAULT_WAVEFORM_COLOR = new float[] { 0f, 1f, 0f, 1f };
+    // Colors of the channels following the first one when multiple channels are drawn
+    private static final int[] CHANNEL_COLORS = {
+        BYBColors.red, BYBColors.yellow, BYBColors.cyan, BYBColors.magenta, BYBColors.orange, BYBColors.white,
+        BYBColors.blue, BYBColors.gray
+    };
 
     private GlWaveform glWaveform;
     private GlEventMarker glEventMarker;
@@ -60,12 +67,27 @@ public class WaveformRenderer extends BaseWaveformRenderer {
     /**
      * {@inheritDoc}
      */
-    @Override protected void draw(GL10 gl, @NonNull short[] samples, @NonNull short[] waveformVertices,
+    @Override protected void draw(GL10 gl, @NonNull SampleBuffer samples, @NonNull short[] waveformVertices,
         int waveformVerticesCount, @NonNull SparseArray<String> events, int surfaceWidth, int surfaceHeight,
         int glWindowWidth, int glWindowHeight, int drawStartIndex, int drawEndIndex, float scaleX, float scaleY,
         long lastSampleIndex) {
         // draw waveform
-        glWaveform.draw(gl, waveformVertices, waveformVerticesCount, getWaveformColor());
+        final int channelCount = getChannelCount();
+        if (channelCount > 1) {
+            // every channel is drawn scaled down in it's own lane, first channel at the top
+            final float laneHeight = (float) glWindowHeight / channelCount;
+            gl.glMatrixMode(GL10.GL_MODELVIEW);
+            for (int i = 0; i < channelCount; i++) {
+                final SamplesWithEvents waveform = getChannelWaveform(i);
+                gl.glPushMatrix();
+                gl.glTranslatef(0f, glWindowHeight * .5f - laneHeight * (i + .5f), 0f);
+                gl.glScalef(1f, 1f / channelCount, 1f);
+                glWaveform.draw(gl, waveform.samples, waveform.sampleCount, getChannelColor(i));
+                gl.glPopMatrix();
+            }
+        } else {
+            glWaveform.draw(gl, waveformVertices, waveformVerticesCount, getWaveformColor());
+        }
         // draw markers
         float drawScale = (float) (waveformVerticesCount * .5) / surfaceWidth;
         final float verticalHalfSize = glWindowHeight * .5f;
@@ -81,4 +103,11 @@ public class WaveformRenderer extends BaseWaveformRenderer {
     protected @Size(4) float[] getWaveformColor() {
         return DEFAULT_WAVEFORM_COLOR;
     }
+
+    // Returns color of the specified channel, first channel is drawn with the waveform color
+    private @Size(4) float[] getChannelColor(int channel) {
+        if (channel == 0) return getWaveformColor();
+
+        return BYBColors.getColorAsGlById(CHANNEL_COLORS[(channel - 1) % CHANNEL_COLORS.length]);
+    }
 }
\ No newline at end of file
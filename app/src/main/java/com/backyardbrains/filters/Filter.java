@@ -14,15 +14,25 @@ public class Filter {
 
     private final double lowCutOffFrequency;
     private final double highCutOffFrequency;
+    private final int mainsHarmonicCount;
 
     public Filter() {
-        this.lowCutOffFrequency = FREQ_NO_CUT_OFF;
-        this.highCutOffFrequency = FREQ_NO_CUT_OFF;
+        this(FREQ_NO_CUT_OFF, FREQ_NO_CUT_OFF);
     }
 
     public Filter(double lowCutOffFrequency, double highCutOffFrequency) {
+        this(lowCutOffFrequency, highCutOffFrequency, 0);
+    }
+
+    /**
+     * Creates filter that besides cutting off frequencies outside of the specified range also notches out {@code
+     * mainsHarmonicCount} harmonics of the mains hum (fundamental included). Mains hum frequency (50 or 60 Hz) is
+     * detected automatically.
+     */
+    public Filter(double lowCutOffFrequency, double highCutOffFrequency, int mainsHarmonicCount) {
         this.lowCutOffFrequency = lowCutOffFrequency;
         this.highCutOffFrequency = highCutOffFrequency;
+        this.mainsHarmonicCount = Math.max(0, mainsHarmonicCount);
     }
 
     public boolean isLowCutOffFrequencySet() {
@@ -41,12 +51,21 @@ public class Filter {
         return highCutOffFrequency;
     }
 
+    public boolean isMainsHumNotchSet() {
+        return mainsHarmonicCount > 0;
+    }
+
+    public int getMainsHarmonicCount() {
+        return mainsHarmonicCount;
+    }
+
     @Override public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
 
         final Filter that = (Filter) o;
 
-        return lowCutOffFrequency == that.lowCutOffFrequency && highCutOffFrequency == that.highCutOffFrequency;
+        return lowCutOffFrequency == that.lowCutOffFrequency && highCutOffFrequency == that.highCutOffFrequency
+            && mainsHarmonicCount == that.mainsHarmonicCount;
     }
 }
@@ -11,6 +11,8 @@ import com.backyardbrains.utils.Benchmark;
 import com.backyardbrains.utils.JniUtils;
 import com.backyardbrains.utils.SampleStreamUtils;
 import com.backyardbrains.utils.SpikerBoxHardwareType;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
 
 import static com.backyardbrains.utils.LogUtils.LOGD;
 import static com.backyardbrains.utils.LogUtils.makeLogTag;
@@ -25,6 +27,10 @@ public abstract class AbstractUsbSampleSource extends AbstractSampleSource imple
     @SuppressWarnings("WeakerAccess") static final String TAG = makeLogTag(AbstractUsbSampleSource.class);
 
     private static final int BUFFER_SIZE = 5000;
+    // Number of bytes (~10ms of single channel data) that should be received before processing thread is woken up
+    private static final int MIN_BYTES_TO_PROCESS = 256;
+    // Max number of milliseconds processing thread waits for minimum number of bytes to be received
+    private static final long MAX_WAIT_TIME_MS = 10;
 
     @SuppressWarnings("WeakerAccess") final SampleStreamProcessor processor;
     private final UsbDevice device;
@@ -50,6 +56,9 @@ public abstract class AbstractUsbSampleSource extends AbstractSampleSource imple
 
         this.device = device;
 
+        // usb devices send data in small chunks so we don't want to wake up processing thread on every chunk
+        setHandOff(MIN_BYTES_TO_PROCESS, MAX_WAIT_TIME_MS, TimeUnit.MILLISECONDS);
+
         final SampleStreamProcessor.SampleStreamListener sampleStreamListener =
             new SampleStreamProcessor.SampleStreamListener() {
                 @Override public void onSpikerBoxHardwareTypeDetected(@SpikerBoxHardwareType int hardwareType) {
@@ -64,7 +73,7 @@ public abstract class AbstractUsbSampleSource extends AbstractSampleSource imple
                     setChannelCount(channelCount);
                 }
             };
-        processor = new SampleStreamProcessor(sampleStreamListener, FILTERS);
+        processor = new SampleStreamProcessor(sampleStreamListener);
 
         // check if can determine board type right away (through VID and PID)
         setHardwareType(getHardwareType(device));
@@ -166,12 +175,20 @@ public abstract class AbstractUsbSampleSource extends AbstractSampleSource imple
     /**
      * {@inheritDoc}
      */
-    @NonNull @Override protected final SamplesWithEvents processIncomingData(byte[] data, int length) {
+    @Override protected final void processIncomingData(@NonNull SamplesWithEvents out, byte[] data, int length) {
         //benchmark.start();
-        JniUtils.processSampleStream(samplesWithEvents, data, length, this);
+        JniUtils.processSampleStream(out, data, length, this);
         //benchmark.end();
+    }
 
-        return samplesWithEvents;
+    /**
+     * {@inheritDoc}
+     */
+    @Override protected final void processIncomingData(@NonNull SamplesWithEvents out,
+        @NonNull ByteBuffer data, int length) {
+        //benchmark.start();
+        JniUtils.processSampleStreamDirect(out, data, length, this);
+        //benchmark.end();
     }
 
     /**
@@ -2,7 +2,6 @@ package com.backyardbrains.usb;
 
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
-import com.backyardbrains.audio.Filters;
 import com.backyardbrains.data.processing.DataProcessor;
 import com.backyardbrains.data.processing.SamplesWithEvents;
 import com.backyardbrains.utils.SampleStreamUtils;
@@ -58,8 +57,6 @@ class SampleStreamProcessor implements DataProcessor {
     private int currentChannel;
     // Most significant and least significant bytes
     private int msb;
-    // Additional filtering that should be applied
-    private Filters filters;
     // Number of channels
     private int channelCount = DEFAULT_CHANNEL_COUNT;
     // Whether channel count has changed during processing of the latest chunk of incoming data
@@ -94,9 +91,8 @@ class SampleStreamProcessor implements DataProcessor {
 
     private SampleStreamListener listener;
 
-    SampleStreamProcessor(@Nullable SampleStreamListener listener, @Nullable Filters filters) {
+    SampleStreamProcessor(@Nullable SampleStreamListener listener) {
         this.listener = listener;
-        this.filters = filters;
     }
 
     @NonNull @Override public SamplesWithEvents process(@NonNull byte[] data, int length) {
@@ -221,9 +217,6 @@ class SampleStreamProcessor implements DataProcessor {
                             // use average to remove offset
                             sample = (short) (sample - average);
 
-                            // apply additional filtering if necessary
-                            if (filters != null) sample = filters.apply(sample);
-
                             channels[currentChannel][sampleCounters[currentChannel]++] = sample;
 
                             sampleStarted = false;
@@ -16,4 +16,23 @@ public class AnalysisUtils {
         }
         return (float) Math.sqrt(squares / length);
     }
+
+    /**
+     * Calculates root mean square of {@code length} samples of the specified ring of samples starting at array index
+     * {@code offset}. Samples that don't fit before the end of the array are taken from it's beginning.
+     */
+    public static float RMS(short[] ring, int offset, int length) {
+        float squares = 0f;
+        float number;
+        final int firstLength = Math.min(length, ring.length - offset);
+        for (int i = offset; i < offset + firstLength; i++) {
+            number = ring[i];
+            squares += number * number;
+        }
+        for (int i = 0; i < length - firstLength; i++) {
+            number = ring[i];
+            squares += number * number;
+        }
+        return (float) Math.sqrt(squares / length);
+    }
 }
@@ -2,6 +2,8 @@ package com.backyardbrains.utils;
 
 import com.backyardbrains.data.processing.SamplesWithEvents;
 import com.backyardbrains.usb.AbstractUsbSampleSource;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
 
 /**
  * @author Tihomir Leka <tihomir at backyardbrains.com>
@@ -16,7 +18,7 @@ public class JniUtils {
 
     public static native void setChannelCount(int channelCount);
 
-    public static native void setFilters(float lowCutOff, float highCutOff);
+    public static native void setFilters(float lowCutOff, float highCutOff, int mainsHarmonicCount);
 
     public static native void processSampleStream(SamplesWithEvents out, byte[] data, int length,
         AbstractUsbSampleSource sampleSource);
@@ -34,16 +36,167 @@ public class JniUtils {
 
     public static native void setThreshold(int threshold);
 
+    /**
+     * Replaces threshold with up to four window discriminator triggers that are evaluated in a single pass over the
+     * incoming samples. Trigger {@code i} fires when signal crosses {@code lowerBounds[i]} upwards if {@code
+     * risingSlopes[i]} is {@code true}, or {@code upperBounds[i]} downwards otherwise, and crossing is accepted only if
+     * signal doesn't go past the opposite bound before it crosses back or {@code deadTimes[i]} seconds pass. Opposite
+     * bound of {@link Integer#MAX_VALUE} or {@link Integer#MIN_VALUE} accepts every crossing. After it fires trigger is
+     * not evaluated for {@code deadTimes[i]} seconds. Every trigger keeps it's own averaged samples which are saved to
+     * their own channel by {@link #processThreshold(SamplesWithEvents, short[], int, int[], String[], int)}, and only
+     * hits of the first one are processed as heartbeats.
+     */
+    public static native void setTriggers(int[] lowerBounds, int[] upperBounds, boolean[] risingSlopes,
+        float[] deadTimes);
+
+    /**
+     * Replaces threshold with up to four triggers that fire on events instead of amplitude, so stimulus-locked
+     * responses are averaged. Trigger {@code i} fires on every event named {@code eventNames[i]} and it's averaged
+     * samples start {@code preEventTimes[i]} seconds before the event and end {@code postEventTimes[i]} seconds after
+     * it, or 2.4 seconds after they start, whichever comes first. Averaged samples that follow are 0.
+     */
+    public static native void setEventTriggers(String[] eventNames, float[] preEventTimes, float[] postEventTimes);
+
+    /**
+     * Returns number of triggers set by the last {@link #setThreshold(int)}, {@link #setTriggers(int[], int[],
+     * boolean[], float[])} or {@link #setEventTriggers(String[], float[], float[])} call.
+     */
+    public static native int getTriggerCount();
+
     public static native void setBpmProcessing(boolean processBpm);
 
-    public static native void processThreshold(SamplesWithEvents samplesWithEvents, short[] samples, int length);
+    /**
+     * Passes specified {@code samples} and {@code eventCount} events at {@code eventIndices} named {@code eventNames}
+     * to threshold processor and saves averaged samples to {@code samplesWithEvents}. Averaged samples of every
+     * trigger are saved to their own channel, as many triggers as there are channels that fit into {@code
+     * samplesWithEvents}. Averaged samples are updated in place, so if {@code samplesWithEvents} holds averaged samples
+     * from the previous call only the ones that changed are copied to it. Holder whose sample or channel count differs
+     * from the number of averaged samples or triggers receives all of them.
+     */
+    public static native void processThreshold(SamplesWithEvents samplesWithEvents, short[] samples, int length,
+        int[] eventIndices, String[] eventNames, int eventCount);
+
+    // Index of the processed buffers counter in the array populated by getTransferStats()
+    public static final int TRANSFER_STATS_BUFFERS = 0;
+    // Index of the java <-> native copies counter in the array populated by getTransferStats()
+    public static final int TRANSFER_STATS_COPIES = 1;
+    // Index of the copied bytes counter in the array populated by getTransferStats()
+    public static final int TRANSFER_STATS_COPIED_BYTES = 2;
+    // Index of the native allocations counter in the array populated by getTransferStats()
+    public static final int TRANSFER_STATS_ALLOCATIONS = 3;
+    // Size of the array that needs to be passed to getTransferStats()
+    public static final int TRANSFER_STATS_SIZE = 4;
+
+    /**
+     * Whether JNI direct buffer access is supported by the VM. If it's not, methods ending with {@code Direct} cannot
+     * be used and array counterparts should be used instead.
+     */
+    public static native boolean isDirectBufferAccessSupported();
+
+    /**
+     * Same as {@link #processSampleStream(SamplesWithEvents, byte[], int, AbstractUsbSampleSource)} but reads incoming
+     * bytes from specified direct {@code data} buffer and writes samples directly to {@link
+     * SamplesWithEvents#samplesBuffer} without any copying.
+     */
+    public static native void processSampleStreamDirect(SamplesWithEvents out, ByteBuffer data, int length,
+        AbstractUsbSampleSource sampleSource);
 
-    public static native void prepareForDrawing(SamplesWithEvents out, short[] samples, int[] eventIndices,
+    /**
+     * Same as {@link #processMicrophoneStream(SamplesWithEvents, byte[], int)} but reads incoming bytes from specified
+     * direct {@code data} buffer and writes samples directly to {@link SamplesWithEvents#samplesBuffer} without any
+     * copying.
+     */
+    public static native void processMicrophoneStreamDirect(SamplesWithEvents out, ByteBuffer data, int length);
+
+    /**
+     * Same as {@link #processPlaybackStream(SamplesWithEvents, byte[], int, int[], String[], int, long, long, int)}
+     * but reads incoming bytes from specified direct {@code data} buffer and writes samples directly to {@link
+     * SamplesWithEvents#samplesBuffer}.
+     */
+    public static native void processPlaybackStreamDirect(SamplesWithEvents out, ByteBuffer data, int length,
+        int[] eventIndices, String[] eventNames, int eventCount, long fromSample, long toSample, int prependSamples);
+
+    /**
+     * Same as {@link #processThreshold(SamplesWithEvents, short[], int, int[], String[], int)} but reads samples from
+     * specified direct {@code samples} buffer and writes averaged samples directly to {@link
+     * SamplesWithEvents#samplesBuffer}. Both buffers can be the same buffer, in which case all averaged samples are
+     * written every time.
+     */
+    public static native void processThresholdDirect(SamplesWithEvents out, ShortBuffer samples, int length,
+        int[] eventIndices, String[] eventNames, int eventCount);
+
+    /**
+     * Creates native decimator that lowers sample rate of up to {@code channelCount} channels by {@code factor} and
+     * returns handle to it. Decimator needs to be released with {@link #releaseDecimator(long)}.
+     */
+    public static native long createDecimator(int factor, int channelCount);
+
+    /**
+     * Decimates samples of all channels held by {@code in} with specified {@code decimator} and saves them to {@code
+     * out}. Returns number of input samples per channel that were consumed, which is less than {@link
+     * SamplesWithEvents#sampleCount} of {@code in} only if decimated samples wouldn't fit into {@code out}.
+     */
+    public static native int decimate(long decimator, SamplesWithEvents in, SamplesWithEvents out);
+
+    /**
+     * Releases native decimator created with {@link #createDecimator(int, int)}.
+     */
+    public static native void releaseDecimator(long decimator);
+
+    /**
+     * Creates native min/max pyramid of the {@code size} most recent samples of a single channel and returns handle to
+     * it. Pyramid needs to be released with {@link #releaseEnvelopePyramid(long)}.
+     */
+    public static native long createEnvelopePyramid(int size);
+
+    /**
+     * Appends {@code length} samples of specified {@code samples} array starting at {@code offset} to specified {@code
+     * pyramid}.
+     */
+    public static native void appendToEnvelopePyramid(long pyramid, short[] samples, int offset, int length);
+
+    /**
+     * Replaces all samples held by specified {@code pyramid} with zeros.
+     */
+    public static native void clearEnvelopePyramid(long pyramid);
+
+    /**
+     * Same as {@link #prepareForDrawing(SamplesWithEvents, short[], int[], int, int, int, int)} for the samples held by
+     * specified {@code pyramid}, but costs a number of operations proportional to {@code drawSurfaceWidth} instead of
+     * the number of drawn samples, and envelope columns are aligned to absolute sample indices so only the columns
+     * that weren't drawn during the previous call are calculated. Specified {@code eventIndices} need to be sorted
+     * ascending. Returns number of vertices that had to be calculated.
+     */
+    public static native int prepareForPyramidDrawing(long pyramid, SamplesWithEvents out, int[] eventIndices,
         int eventCount, int fromSample, int toSample, int drawSurfaceWidth);
 
-    public static native void prepareForThresholdDrawing(SamplesWithEvents out, short[] samples, int[] eventIndices,
+    /**
+     * Releases native pyramid created with {@link #createEnvelopePyramid(int)}.
+     */
+    public static native void releaseEnvelopePyramid(long pyramid);
+
+    /**
+     * Populates specified array with number of processed buffers, number of copies between java and native memory,
+     * number of copied bytes and number of native allocations made while processing incoming samples. Array needs to
+     * be at least {@link #TRANSFER_STATS_SIZE} long.
+     */
+    public static native void getTransferStats(long[] out);
+
+    /**
+     * Resets counters returned by {@link #getTransferStats(long[])}.
+     */
+    public static native void resetTransferStats();
+
+    public static native void prepareForDrawing(SamplesWithEvents out, short[] samples, int[] eventIndices,
         int eventCount, int fromSample, int toSample, int drawSurfaceWidth);
 
+    /**
+     * Prepares vertices of the middle {@code toSample - fromSample} samples of specified {@code samples} ring whose
+     * oldest sample is at {@code offset}. Only the drawn part of the ring is read.
+     */
+    public static native void prepareForThresholdDrawing(SamplesWithEvents out, short[] samples, int offset,
+        int[] eventIndices, int eventCount, int fromSample, int toSample, int drawSurfaceWidth);
+
     public static native int[] findSpikes(String filePath, short[] valuesPos, int[] indicesPos, float[] timesPos,
         short[] valuesNeg, int[] indicesNeg, float[] timesNeg, int maxSpikes);
 
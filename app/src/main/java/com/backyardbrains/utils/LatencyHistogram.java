@@ -0,0 +1,183 @@
+package com.backyardbrains.utils;
+
+import android.support.annotation.NonNull;
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed memory histogram of latencies expressed in nanoseconds. Values are stored in log-linear buckets the same way
+ * HdrHistogram does it: every power of two range is split into 64 linear sub-buckets, so every recorded value is kept
+ * with relative error below 2% no matter how big it is. Values bigger than {@link #MAX_TRACKABLE_VALUE} are recorded as
+ * {@link #MAX_TRACKABLE_VALUE}.
+ * <p/>
+ * Values can be recorded from a single thread while statistics are read from any thread.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class LatencyHistogram {
+
+    /**
+     * Maximum value that can be recorded (~68 seconds).
+     */
+    public static final long MAX_TRACKABLE_VALUE = (1L << 36) - 1;
+
+    // Number of bits used for linear sub-buckets
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT >> 1;
+    // Number of buckets needed to hold values up to MAX_TRACKABLE_VALUE
+    private static final int BUCKET_COUNT =
+        (64 - Long.numberOfLeadingZeros(MAX_TRACKABLE_VALUE)) - SUB_BUCKET_BITS + 2;
+
+    private final String name;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT * SUB_BUCKET_HALF_COUNT);
+
+    private volatile long totalCount;
+    private volatile long totalValue;
+    private volatile long minValue = Long.MAX_VALUE;
+    private volatile long maxValue;
+
+    public LatencyHistogram(@NonNull String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns name of the histogram.
+     */
+    @NonNull public String getName() {
+        return name;
+    }
+
+    /**
+     * Records specified {@code value} (in nanoseconds). Negative values are ignored.
+     */
+    public void record(long value) {
+        if (value < 0) return;
+        if (value > MAX_TRACKABLE_VALUE) value = MAX_TRACKABLE_VALUE;
+
+        counts.incrementAndGet(countsIndex(value));
+        totalValue += value;
+        if (value < minValue) minValue = value;
+        if (value > maxValue) maxValue = value;
+        totalCount++;
+    }
+
+    /**
+     * Resets all recorded values. Should be called from the same thread values are recorded from.
+     */
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        totalCount = 0;
+        totalValue = 0;
+        minValue = Long.MAX_VALUE;
+        maxValue = 0;
+    }
+
+    /**
+     * Returns number of recorded values.
+     */
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    /**
+     * Returns smallest recorded value, or {@code 0} if nothing has been recorded.
+     */
+    public long getMinValue() {
+        return totalCount > 0 ? minValue : 0;
+    }
+
+    /**
+     * Returns biggest recorded value, or {@code 0} if nothing has been recorded.
+     */
+    public long getMaxValue() {
+        return maxValue;
+    }
+
+    /**
+     * Returns mean of all recorded values, or {@code 0} if nothing has been recorded.
+     */
+    public long getMeanValue() {
+        final long count = totalCount;
+        return count > 0 ? totalValue / count : 0;
+    }
+
+    /**
+     * Returns value below which specified {@code percentile} (e.g. {@code 99.9}) of all recorded values fall, or
+     * {@code 0} if nothing has been recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long total = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            total += counts.get(i);
+        }
+        if (total == 0) return 0;
+
+        final long target = Math.max(1, (long) Math.ceil(Math.min(percentile, 100d) / 100d * total));
+        long count = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            count += counts.get(i);
+            if (count >= target) return Math.min(highestEquivalentValue(i), maxValue);
+        }
+        return maxValue;
+    }
+
+    /**
+     * Prints basic statistics followed by percentile distribution of recorded values (in microseconds) to specified
+     * {@code writer}.
+     */
+    public void print(@NonNull PrintWriter writer) {
+        writer.println(String.format(Locale.US, "%s: count=%d, min=%.1fus, mean=%.1fus, p50=%.1fus, p99=%.1fus, "
+                + "p99.9=%.1fus, max=%.1fus", name, getTotalCount(), toMicros(getMinValue()), toMicros(getMeanValue()),
+            toMicros(getValueAtPercentile(50)), toMicros(getValueAtPercentile(99)),
+            toMicros(getValueAtPercentile(99.9)), toMicros(getMaxValue())));
+        writer.println(String.format(Locale.US, "%12s %12s %12s", "Value(us)", "Count", "Percentile"));
+
+        long total = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            total += counts.get(i);
+        }
+        long count = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            final long bucketCount = counts.get(i);
+            if (bucketCount == 0) continue;
+
+            count += bucketCount;
+            writer.println(String.format(Locale.US, "%12.1f %12d %12.5f", toMicros(highestEquivalentValue(i)),
+                bucketCount, 100d * count / total));
+        }
+    }
+
+    /**
+     * Returns basic statistics of recorded values (in microseconds).
+     */
+    @Override public String toString() {
+        return String.format(Locale.US, "%s: p50=%.1fus, p99=%.1fus, p99.9=%.1fus, max=%.1fus (%d values)", name,
+            toMicros(getValueAtPercentile(50)), toMicros(getValueAtPercentile(99)),
+            toMicros(getValueAtPercentile(99.9)), toMicros(getMaxValue()), getTotalCount());
+    }
+
+    // Returns index of the sub-bucket within counts array that holds specified value
+    private static int countsIndex(long value) {
+        // first bucket holds all values smaller than sub-bucket count, every next one twice as wide range
+        final int magnitude = Math.max(0, (63 - Long.numberOfLeadingZeros(value)) - (SUB_BUCKET_BITS - 1));
+        return magnitude * SUB_BUCKET_HALF_COUNT + (int) (value >>> magnitude);
+    }
+
+    // Returns biggest value that would be recorded into sub-bucket at specified index
+    private static long highestEquivalentValue(int index) {
+        if (index < SUB_BUCKET_COUNT) return index;
+
+        final int magnitude = index / SUB_BUCKET_HALF_COUNT - 1;
+        final long subBucket = index - magnitude * SUB_BUCKET_HALF_COUNT;
+        return ((subBucket + 1) << magnitude) - 1;
+    }
+
+    private static double toMicros(long nanos) {
+        return nanos / (double) TimeUnit.MICROSECONDS.toNanos(1);
+    }
+}
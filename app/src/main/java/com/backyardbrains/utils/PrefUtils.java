@@ -159,4 +159,19 @@ public class PrefUtils {
     public static void setBpmSound(@NonNull Context context, boolean bpmSound) {
         getSharedPreferences(context).edit().putBoolean(PREF_NAME_PREFIX + PREF_BOOL_BPM_SOUND, bpmSound).apply();
     }
+
+    /**
+     * Boolean indicating whether averaged samples are locked to event markers instead of the threshold.
+     */
+    private static final String PREF_BOOL_EVENT_TRIGGERS = "event_triggers";
+
+    public static boolean getEventTriggers(@NonNull Context context) {
+        return getSharedPreferences(context).getBoolean(PREF_NAME_PREFIX + PREF_BOOL_EVENT_TRIGGERS, false);
+    }
+
+    public static void setEventTriggers(@NonNull Context context, boolean eventTriggers) {
+        getSharedPreferences(context).edit()
+            .putBoolean(PREF_NAME_PREFIX + PREF_BOOL_EVENT_TRIGGERS, eventTriggers)
+            .apply();
+    }
 }
@@ -18,6 +18,12 @@ public class WavUtils {
      */
     public static final int HEADER_SIZE = 44;
 
+    /**
+     * Maximum number of interleaved channels supported WAV files can have, same as number of channels the native sample
+     * stream processor can decode
+     */
+    public static final int MAX_CHANNELS = 10;
+
     /**
      * Converts specified {@code sampleCount} to wav time progress and returns it formatted as {@code mm:ss}.
      */
@@ -32,9 +38,28 @@ public class WavUtils {
      * Returns length of the wav file of specified {@code byteCount} length formatted as "XX s" or "XX m XX s".
      */
     public static CharSequence formatWavLength(long byteCount, int sampleRate) {
+        return formatWavLength(byteCount, sampleRate, 1);
+    }
+
+    /**
+     * Returns length of the wav file of specified {@code byteCount} length that holds {@code channelCount} interleaved
+     * channels formatted as "XX s" or "XX m XX s".
+     */
+    public static CharSequence formatWavLength(long byteCount, int sampleRate, int channelCount) {
         byteCount -= HEADER_SIZE;
 
-        return Formats.formatTime_m_s(toSeconds(byteCount, sampleRate));
+        return Formats.formatTime_m_s(toSeconds(byteCount / Math.max(1, channelCount), sampleRate));
+    }
+
+    /**
+     * Returns WAV header for a 16-bit PCM file of specified {@code totalAudioLength} (header included) that holds
+     * {@code channelCount} interleaved channels.
+     */
+    public static byte[] writeHeader(long totalAudioLength, int sampleRateInHz, int channelCount) {
+        final byte bitsPerSample = 16;
+
+        return writeHeader(totalAudioLength - HEADER_SIZE, totalAudioLength - HEADER_SIZE + 36, sampleRateInHz,
+            channelCount, bitsPerSample * sampleRateInHz * channelCount / 8, bitsPerSample);
     }
 
     public static byte[] writeHeader(long totalAudioLength, int sampleRateInHz, int channelConfig, int audioFormat) {
@@ -72,8 +97,8 @@ public class WavUtils {
         check(format == 1, "Unsupported audio format: " + format); // 1 means
         // number of channels
         int channels = buffer.getShort();
-        // Mono = 1, Stereo = 2, etc. (for now we support only MONO)
-        check(channels == 1, "Unsupported number of channels: " + channels);
+        // Mono = 1, Stereo = 2, etc. (multiple channels are interleaved)
+        check(channels >= 1 && channels <= MAX_CHANNELS, "Unsupported number of channels: " + channels);
         // sample rate
         int rate = buffer.getInt();
         // 8000, 44100, etc. (for not we support only 10000 and 44100)
@@ -2,6 +2,7 @@ package com.backyardbrains.view;
 
 import android.content.Context;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.constraint.ConstraintLayout;
 import android.util.AttributeSet;
 import android.view.LayoutInflater;
@@ -14,6 +15,7 @@ import butterknife.ButterKnife;
 import com.backyardbrains.MainActivity;
 import com.backyardbrains.R;
 import com.backyardbrains.drawing.BaseWaveformRenderer;
+import com.backyardbrains.drawing.FramePacer;
 import com.backyardbrains.drawing.InteractiveGLSurfaceView;
 import com.backyardbrains.utils.Formats;
 
@@ -87,6 +89,20 @@ public class WaveformLayout extends ConstraintLayout {
         }
     }
 
+    /**
+     * Sets maximum number of frames per second the surface view is redrawn at.
+     */
+    public void setMaxFrameRate(int maxFrameRate) {
+        if (glSurface != null) glSurface.setMaxFrameRate(maxFrameRate);
+    }
+
+    /**
+     * Returns frame pacer of the surface view, or {@code null} if renderer is not set yet.
+     */
+    @Nullable public FramePacer getFramePacer() {
+        return glSurface != null ? glSurface.getFramePacer() : null;
+    }
+
     /**
      * Updates time text view
      */
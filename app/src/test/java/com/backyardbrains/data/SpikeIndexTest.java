@@ -0,0 +1,47 @@
+package com.backyardbrains.data;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class SpikeIndexTest {
+
+    private final SpikeIndex index = new SpikeIndex(new int[][] {
+        { 10, 20, 20, 35, 100 }, {}
+    }, new short[][] {
+        { 1, 2, 3, 4, 5 }, {}
+    });
+
+    @Test public void trainsAreReturnedAsIndexed() {
+        assertEquals(2, index.getTrainCount());
+        assertArrayEquals(new int[] { 10, 20, 20, 35, 100 }, index.getIndices(0));
+        assertArrayEquals(new short[] { 1, 2, 3, 4, 5 }, index.getValues(0));
+        assertEquals(0, index.getIndices(1).length);
+    }
+
+    @Test public void findReturnsFirstSpikeNotBeforeSample() {
+        assertEquals(0, index.find(0, 0));
+        assertEquals(0, index.find(0, 10));
+        assertEquals(1, index.find(0, 11));
+        // first of two spikes at the same sample
+        assertEquals(1, index.find(0, 20));
+        assertEquals(3, index.find(0, 21));
+        assertEquals(4, index.find(0, 100));
+        assertEquals(5, index.find(0, 101));
+        assertEquals(5, index.find(0, Long.MAX_VALUE));
+        assertEquals(0, index.find(1, 50));
+    }
+
+    @Test public void countIncludesFromSampleAndExcludesToSample() {
+        assertEquals(5, index.count(0, 0, 101));
+        assertEquals(4, index.count(0, 10, 100));
+        assertEquals(2, index.count(0, 20, 21));
+        assertEquals(0, index.count(0, 36, 100));
+        assertEquals(0, index.count(0, 100, 10));
+        assertEquals(0, index.count(1, 0, 1000));
+    }
+}
@@ -0,0 +1,250 @@
+package com.backyardbrains.data.processing;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class SpscRingBufferTest {
+
+    @Test public void getReturnsDataWrittenAcrossArrayEnd() {
+        final SpscShortRingBuffer buffer = new SpscShortRingBuffer(8);
+        assertEquals(5, buffer.put(new short[] { 1, 2, 3, 4, 5 }));
+        assertEquals(5, buffer.get(new short[5]));
+
+        // write index is at 5 so data wraps around the array end
+        assertEquals(6, buffer.put(new short[] { 6, 7, 8, 9, 10, 11 }));
+        assertEquals(6, buffer.available());
+        final short[] out = new short[8];
+        assertEquals(6, buffer.get(out));
+        assertArrayEquals(new short[] { 6, 7, 8, 9, 10, 11, 0, 0 }, out);
+        assertEquals(0, buffer.available());
+    }
+
+    @Test public void byteBufferGetReturnsDataWrittenAcrossArrayEnd() {
+        final SpscByteRingBuffer buffer = new SpscByteRingBuffer(4);
+        assertEquals(3, buffer.put(new byte[] { 1, 2, 3 }));
+        assertEquals(2, buffer.get(new byte[2]));
+        assertEquals(3, buffer.put(new byte[] { 4, 5, 6 }));
+
+        final byte[] out = new byte[4];
+        assertEquals(4, buffer.get(out));
+        assertArrayEquals(new byte[] { 3, 4, 5, 6 }, out);
+    }
+
+    @Test public void peekAndSkipDontReadPastAvailableData() {
+        final SpscShortRingBuffer buffer = new SpscShortRingBuffer(4);
+        assertEquals(-1, buffer.peek());
+        assertEquals(0, buffer.skip(2));
+
+        buffer.put(new short[] { 7, 8, 9 });
+        assertEquals(7, buffer.peek());
+        assertEquals(2, buffer.skip(2));
+        assertEquals(9, buffer.get());
+        assertEquals(0, buffer.skip(1));
+        assertEquals(-1, buffer.get());
+    }
+
+    @Test public void clearDiscardsAvailableData() {
+        final SpscShortRingBuffer buffer = new SpscShortRingBuffer(4);
+        buffer.put(new short[] { 1, 2, 3 });
+        buffer.clear();
+
+        assertEquals(0, buffer.available());
+        assertEquals(4, buffer.free());
+        assertEquals(4, buffer.put(new short[] { 4, 5, 6, 7 }));
+        assertEquals(4, buffer.get());
+    }
+
+    @Test public void dropNewestKeepsBufferedDataAndDropsTheRest() {
+        final SpscShortRingBuffer buffer = new SpscShortRingBuffer(4);
+        assertEquals(OverflowPolicy.DROP_NEWEST, buffer.getOverflowPolicy());
+        buffer.put(new short[] { 1, 2 });
+
+        assertEquals(2, buffer.put(new short[] { 3, 4, 5, 6, 7 }));
+        assertFalse(buffer.put((short) 8));
+        final short[] out = new short[4];
+        assertEquals(4, buffer.get(out));
+        assertArrayEquals(new short[] { 1, 2, 3, 4 }, out);
+        assertEquals(4, buffer.getDroppedCount());
+        assertEquals(2, buffer.getOverrunCount());
+        assertTrue(buffer.getLastOverrunTimeNanos() != 0);
+    }
+
+    @Test public void dropOldestMakesRoomForNewData() {
+        final SpscShortRingBuffer buffer = new SpscShortRingBuffer(4);
+        buffer.setOverflowPolicy(OverflowPolicy.DROP_OLDEST);
+        buffer.put(new short[] { 1, 2, 3 });
+
+        assertEquals(3, buffer.put(new short[] { 4, 5, 6 }));
+        assertTrue(buffer.put((short) 7));
+        final short[] out = new short[4];
+        assertEquals(4, buffer.get(out));
+        assertArrayEquals(new short[] { 4, 5, 6, 7 }, out);
+        assertEquals(3, buffer.getDroppedCount());
+        assertEquals(2, buffer.getOverrunCount());
+    }
+
+    @Test public void dropOldestKeepsNewestDataThatExceedsCapacity() {
+        final SpscShortRingBuffer buffer = new SpscShortRingBuffer(4);
+        buffer.setOverflowPolicy(OverflowPolicy.DROP_OLDEST);
+        buffer.put(new short[] { 1 });
+
+        assertEquals(4, buffer.put(new short[] { 2, 3, 4, 5, 6, 7 }));
+        final short[] out = new short[4];
+        assertEquals(4, buffer.get(out));
+        assertArrayEquals(new short[] { 4, 5, 6, 7 }, out);
+        // one buffered and two incoming shorts
+        assertEquals(3, buffer.getDroppedCount());
+        assertEquals(1, buffer.getOverrunCount());
+    }
+
+    @Test public void blockWaitsForConsumerToMakeRoom() throws InterruptedException {
+        final SpscShortRingBuffer buffer = new SpscShortRingBuffer(4);
+        buffer.setOverflowPolicy(OverflowPolicy.BLOCK, 10, TimeUnit.SECONDS);
+        buffer.put(new short[] { 1, 2, 3, 4 });
+
+        final Thread consumer = new Thread(new Runnable() {
+            @Override public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException ignored) {
+                }
+                buffer.get(new short[2]);
+            }
+        });
+        consumer.start();
+        assertEquals(2, buffer.put(new short[] { 5, 6 }));
+        consumer.join();
+
+        final short[] out = new short[4];
+        assertEquals(4, buffer.get(out));
+        assertArrayEquals(new short[] { 3, 4, 5, 6 }, out);
+        assertEquals(0, buffer.getDroppedCount());
+    }
+
+    @Test public void blockDropsDataThatDoesntFitBeforeTimeout() {
+        final SpscShortRingBuffer buffer = new SpscShortRingBuffer(4);
+        buffer.setOverflowPolicy(OverflowPolicy.BLOCK, 10, TimeUnit.MILLISECONDS);
+        buffer.put(new short[] { 1, 2, 3 });
+
+        final long start = System.nanoTime();
+        assertEquals(1, buffer.put(new short[] { 4, 5, 6 }));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(10));
+        assertEquals(2, buffer.getDroppedCount());
+        assertEquals(1, buffer.getOverrunCount());
+    }
+
+    @Test public void overrunListenerIsNotifiedOfDroppedData() {
+        final SpscShortRingBuffer buffer = new SpscShortRingBuffer(2);
+        final int[] dropped = new int[1];
+        buffer.setOnOverrunListener(new SpscRingBuffer.OnOverrunListener() {
+            @Override public void onOverrun(int count, long timeNanos) {
+                dropped[0] += count;
+            }
+        });
+
+        buffer.put(new short[] { 1, 2, 3, 4, 5 });
+        assertEquals(3, dropped[0]);
+    }
+
+    @Test public void putFullyPutsNothingWhenDataDoesntFit() {
+        final SpscByteRingBuffer buffer = new SpscByteRingBuffer(4);
+        buffer.put(new byte[] { 1, 2 });
+
+        assertFalse(buffer.putFully(new byte[] { 3, 4, 5 }, 0, 3));
+        assertEquals(2, buffer.available());
+        assertEquals(3, buffer.getDroppedCount());
+        assertTrue(buffer.putFully(new byte[] { 3, 4, 5 }, 1, 2));
+
+        final byte[] out = new byte[4];
+        assertEquals(4, buffer.get(out));
+        assertArrayEquals(new byte[] { 1, 2, 4, 5 }, out);
+    }
+
+    @Test public void putFullyDropsWholeDataLargerThanCapacity() {
+        final SpscByteRingBuffer buffer = new SpscByteRingBuffer(4);
+        buffer.setOverflowPolicy(OverflowPolicy.DROP_OLDEST);
+        buffer.put(new byte[] { 1 });
+
+        assertFalse(buffer.putFully(new byte[] { 2, 3, 4, 5, 6 }, 0, 5));
+        assertEquals(1, buffer.available());
+        assertEquals(5, buffer.getDroppedCount());
+    }
+
+    @Test public void putFullyDropsOldestDataToMakeRoom() {
+        final SpscByteRingBuffer buffer = new SpscByteRingBuffer(4);
+        buffer.setOverflowPolicy(OverflowPolicy.DROP_OLDEST);
+        buffer.put(new byte[] { 1, 2, 3 });
+
+        assertTrue(buffer.putFully(new byte[] { 4, 5 }, 0, 2));
+        final byte[] out = new byte[4];
+        assertEquals(4, buffer.get(out));
+        assertArrayEquals(new byte[] { 2, 3, 4, 5 }, out);
+        assertEquals(1, buffer.getDroppedCount());
+    }
+
+    @Test public void putFullyTimesOutWhenBlocked() {
+        final SpscByteRingBuffer buffer = new SpscByteRingBuffer(4);
+        buffer.setOverflowPolicy(OverflowPolicy.BLOCK, 10, TimeUnit.MILLISECONDS);
+        buffer.put(new byte[] { 1, 2, 3 });
+
+        assertFalse(buffer.putFully(new byte[] { 4, 5 }, 0, 2));
+        assertEquals(3, buffer.available());
+        assertEquals(2, buffer.getDroppedCount());
+    }
+
+    @Test public void concurrentDropOldestNeverReturnsTornOrReorderedData() throws Exception {
+        // values are put in order so every read needs to return increasing values, and whatever was not read
+        // needs to be accounted for as dropped
+        final int valueCount = Short.MAX_VALUE;
+        for (int run = 0; run < 20; run++) {
+            final SpscShortRingBuffer buffer = new SpscShortRingBuffer(64);
+            buffer.setOverflowPolicy(OverflowPolicy.DROP_OLDEST);
+            final CountDownLatch start = new CountDownLatch(1);
+            final AtomicReference<Throwable> producerError = new AtomicReference<>();
+            final Thread producer = new Thread(new Runnable() {
+                @Override public void run() {
+                    try {
+                        start.await();
+                        final short[] chunk = new short[7];
+                        for (int value = 0; value < valueCount; ) {
+                            final int len = Math.min(chunk.length, valueCount - value);
+                            for (int i = 0; i < len; i++) chunk[i] = (short) value++;
+                            buffer.put(chunk, 0, len);
+                        }
+                    } catch (Throwable t) {
+                        producerError.set(t);
+                    }
+                }
+            });
+            producer.start();
+            start.countDown();
+
+            final short[] out = new short[16];
+            int last = -1;
+            long readCount = 0;
+            while (producer.isAlive() || buffer.available() > 0) {
+                final int count = buffer.get(out);
+                for (int i = 0; i < count; i++) {
+                    assertTrue("Value " + out[i] + " read after " + last, out[i] > last);
+                    last = out[i];
+                }
+                readCount += count;
+            }
+            producer.join();
+
+            if (producerError.get() != null) throw new AssertionError(producerError.get());
+            assertEquals(valueCount, readCount + buffer.getDroppedCount());
+            assertEquals(valueCount - 1, last);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.backyardbrains.utils;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class LatencyHistogramTest {
+
+    @Test public void emptyHistogramReturnsZeros() {
+        final LatencyHistogram histogram = new LatencyHistogram("empty");
+
+        assertEquals(0, histogram.getTotalCount());
+        assertEquals(0, histogram.getMinValue());
+        assertEquals(0, histogram.getMaxValue());
+        assertEquals(0, histogram.getMeanValue());
+        assertEquals(0, histogram.getValueAtPercentile(99));
+    }
+
+    @Test public void smallValuesAreRecordedExactly() {
+        final LatencyHistogram histogram = new LatencyHistogram("small");
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+
+        assertEquals(100, histogram.getTotalCount());
+        assertEquals(1, histogram.getMinValue());
+        assertEquals(100, histogram.getMaxValue());
+        assertEquals(50, histogram.getMeanValue());
+        assertEquals(50, histogram.getValueAtPercentile(50));
+        assertEquals(99, histogram.getValueAtPercentile(99));
+        assertEquals(100, histogram.getValueAtPercentile(100));
+    }
+
+    @Test public void percentilesStayWithinRelativeError() {
+        final LatencyHistogram histogram = new LatencyHistogram("large");
+        final long[] values = { 1000, 12345, 1000000, 987654321, 10000000000L };
+        for (long value : values) {
+            histogram.record(value);
+        }
+
+        for (int i = 0; i < values.length; i++) {
+            final long recorded = histogram.getValueAtPercentile(100d * (i + 1) / values.length);
+            assertTrue(values[i] + " recorded as " + recorded, recorded >= values[i]);
+            assertTrue(values[i] + " recorded as " + recorded, recorded - values[i] <= values[i] / 50);
+        }
+    }
+
+    @Test public void valuesOutOfRangeAreClampedOrIgnored() {
+        final LatencyHistogram histogram = new LatencyHistogram("range");
+        histogram.record(-1);
+        assertEquals(0, histogram.getTotalCount());
+
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(1, histogram.getTotalCount());
+        assertEquals(LatencyHistogram.MAX_TRACKABLE_VALUE, histogram.getMaxValue());
+        assertEquals(LatencyHistogram.MAX_TRACKABLE_VALUE, histogram.getValueAtPercentile(50));
+    }
+
+    @Test public void resetClearsRecordedValues() {
+        final LatencyHistogram histogram = new LatencyHistogram("reset");
+        histogram.record(500);
+        histogram.reset();
+
+        assertEquals(0, histogram.getTotalCount());
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        histogram.record(7);
+        assertEquals(7, histogram.getMinValue());
+        assertEquals(7, histogram.getMaxValue());
+    }
+
+    @Test public void printIncludesEveryNonEmptyBucket() {
+        final LatencyHistogram histogram = new LatencyHistogram("print");
+        histogram.record(1000);
+        histogram.record(2000);
+        histogram.record(2000);
+
+        final StringWriter writer = new StringWriter();
+        histogram.print(new PrintWriter(writer, true));
+        final String[] lines = writer.toString().trim().split("\n");
+
+        assertTrue(lines[0].startsWith("print: count=3"));
+        // summary, header and two buckets
+        assertEquals(4, lines.length);
+        assertTrue(lines[3].trim().endsWith("100.00000"));
+    }
+}
@@ -0,0 +1,60 @@
+package com.backyardbrains.benchmark;
+
+import android.util.SparseArray;
+import com.backyardbrains.utils.EventUtils;
+import com.backyardbrains.utils.RecordingUtils;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures {@link EventUtils#parseEvents(String, int)} of events files with different number of events.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+@BenchmarkMode(Mode.AverageTime) @OutputTimeUnit(TimeUnit.MICROSECONDS) @State(Scope.Thread)
+public class EventUtilsBenchmark {
+
+    private static final int SAMPLE_RATE = 44100;
+
+    @Param({ "10", "1000" }) int eventCount;
+
+    private File audioFile;
+    private File eventsFile;
+
+    @Setup public void setUp() throws IOException {
+        audioFile = new File(RecordingUtils.BYB_DIRECTORY, "BYB_Benchmark_" + eventCount + ".wav");
+        eventsFile = RecordingUtils.createEventsFile(audioFile);
+
+        final FileWriter writer = new FileWriter(eventsFile);
+        try {
+            writer.write("# Marker IDs can be arbitrary strings.\n# Marker ID,\tTime (in s)");
+            for (int i = 0; i < eventCount; i++) {
+                writer.write(String.format(Locale.US, "\n%d,\t%.4f", i % 10, i * .25f));
+            }
+            writer.write("\n");
+        } finally {
+            writer.close();
+        }
+    }
+
+    @TearDown public void tearDown() {
+        //noinspection ResultOfMethodCallIgnored
+        eventsFile.delete();
+    }
+
+    @Benchmark public SparseArray<String> parseEvents() {
+        return EventUtils.parseEvents(audioFile.getAbsolutePath(), SAMPLE_RATE);
+    }
+}
@@ -0,0 +1,106 @@
+package com.backyardbrains.benchmark;
+
+import com.backyardbrains.data.processing.OfflineProcessor;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Runs {@link OfflineProcessor} over a WAV file or a captured SpikerBox byte stream and prints throughput of every
+ * stage. Input is processed multiple times so the first runs warm up the JIT and the native code, only the last run is
+ * representative.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class OfflineProcessing {
+
+    private static final String USAGE = "Usage: OfflineProcessing (--wav <file> | --stream <file> [--rate <hz>] "
+        + "[--channels <count>]) [--filters <low> <high>] [--mains <harmonics>] "
+        + "[--threshold <value> <averaged-count>] [--trigger <lower|none> <upper|none> <rising|falling> <dead-ms>]... "
+        + "[--event-trigger <name> <pre-ms> <post-ms>]... [--averaged <count>] [--bpm] [--batch <ms>] "
+        + "[--window <seconds> <width>] [--display-rate <hz>] "
+        + "[--runs <count>]";
+
+    public static void main(String[] args) throws IOException {
+        final OfflineProcessor processor = new OfflineProcessor();
+        File wav = null;
+        File stream = null;
+        int sampleRate = 10000;
+        int channelCount = 1;
+        int runs = 5;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--wav":
+                        wav = new File(args[++i]);
+                        break;
+                    case "--stream":
+                        stream = new File(args[++i]);
+                        break;
+                    case "--rate":
+                        sampleRate = Integer.parseInt(args[++i]);
+                        break;
+                    case "--channels":
+                        channelCount = Integer.parseInt(args[++i]);
+                        break;
+                    case "--filters":
+                        processor.filters(Float.parseFloat(args[++i]), Float.parseFloat(args[++i]));
+                        break;
+                    case "--mains":
+                        processor.mainsNotch(Integer.parseInt(args[++i]));
+                        break;
+                    case "--threshold":
+                        processor.threshold(Integer.parseInt(args[++i]), Integer.parseInt(args[++i]));
+                        break;
+                    case "--trigger":
+                        final String lower = args[++i];
+                        final String upper = args[++i];
+                        processor.trigger("none".equals(lower) ? Integer.MIN_VALUE : Integer.parseInt(lower),
+                            "none".equals(upper) ? Integer.MAX_VALUE : Integer.parseInt(upper),
+                            "rising".equals(args[++i]), Float.parseFloat(args[++i]) / 1000f);
+                        break;
+                    case "--event-trigger":
+                        processor.eventTrigger(args[++i], Float.parseFloat(args[++i]) / 1000f,
+                            Float.parseFloat(args[++i]) / 1000f);
+                        break;
+                    case "--averaged":
+                        processor.averagedSampleCount(Integer.parseInt(args[++i]));
+                        break;
+                    case "--bpm":
+                        processor.bpmProcessing(true);
+                        break;
+                    case "--batch":
+                        processor.batchMillis(Integer.parseInt(args[++i]));
+                        break;
+                    case "--window":
+                        processor.window(Float.parseFloat(args[++i]), Integer.parseInt(args[++i]));
+                        break;
+                    case "--display-rate":
+                        processor.displaySampleRate(Integer.parseInt(args[++i]));
+                        break;
+                    case "--runs":
+                        runs = Integer.parseInt(args[++i]);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+            if ((wav == null) == (stream == null)) throw new IllegalArgumentException("Input is missing");
+        } catch (RuntimeException e) {
+            System.err.println(e.getMessage() != null ? e.getMessage() : e.toString());
+            System.err.println(USAGE);
+            System.exit(1);
+            return;
+        }
+
+        try {
+            for (int i = 1; i <= runs; i++) {
+                final OfflineProcessor.Report report = wav != null ? processor.processWav(wav)
+                    : processor.processSampleStream(stream, sampleRate, channelCount);
+                System.out.println("Run " + i + ": " + report);
+            }
+        } catch (IllegalStateException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+}
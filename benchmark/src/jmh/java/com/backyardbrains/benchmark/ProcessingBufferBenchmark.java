@@ -0,0 +1,65 @@
+package com.backyardbrains.benchmark;
+
+import com.backyardbrains.data.processing.ProcessingBuffer;
+import com.backyardbrains.data.processing.SamplesWithEvents;
+import com.backyardbrains.utils.EventUtils;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures {@link ProcessingBuffer#addToBuffer(SamplesWithEvents)} followed by renderer reading the samples, and
+ * {@link ProcessingBuffer#copyEvents(int[], String[])} with a buffer full of events.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+@BenchmarkMode(Mode.AverageTime) @OutputTimeUnit(TimeUnit.NANOSECONDS) @State(Scope.Thread)
+public class ProcessingBufferBenchmark {
+
+    @Param({ "200", "882" }) int batchSize;
+
+    private ProcessingBuffer processingBuffer;
+    private SamplesWithEvents samplesWithEvents;
+    private short[] samples;
+    private int[] eventIndices;
+    private String[] eventNames;
+
+    @Setup public void setUp() {
+        processingBuffer = ProcessingBuffer.get();
+        processingBuffer.clearBuffer();
+
+        samplesWithEvents = new SamplesWithEvents(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            samplesWithEvents.samples[i] = (short) i;
+        }
+        samplesWithEvents.sampleCount = batchSize;
+        samples = new short[batchSize];
+        eventIndices = new int[EventUtils.MAX_EVENT_COUNT];
+        eventNames = new String[EventUtils.MAX_EVENT_COUNT];
+
+        // fill the buffer with events so copying has something to do
+        samplesWithEvents.eventIndices[0] = batchSize / 2;
+        samplesWithEvents.eventNames[0] = "1";
+        samplesWithEvents.eventCount = 1;
+        for (int i = 0; i < EventUtils.MAX_EVENT_COUNT; i++) {
+            processingBuffer.addToBuffer(samplesWithEvents);
+        }
+        processingBuffer.get(new short[processingBuffer.getSize()]);
+        samplesWithEvents.eventCount = 0;
+    }
+
+    @Benchmark public int addToBuffer() {
+        processingBuffer.addToBuffer(samplesWithEvents);
+        return processingBuffer.get(samples);
+    }
+
+    @Benchmark public int copyEvents() {
+        return processingBuffer.copyEvents(eventIndices, eventNames);
+    }
+}
@@ -0,0 +1,80 @@
+package com.backyardbrains.benchmark;
+
+import com.backyardbrains.data.processing.CircularShortBuffer;
+import com.backyardbrains.data.processing.OverflowPolicy;
+import com.backyardbrains.data.processing.SpscShortRingBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares synchronized {@link CircularShortBuffer} with lock-free {@link SpscShortRingBuffer}. Every operation moves
+ * 20 ms worth of samples at sample rate of USB devices (10 kHz) and of the microphone (44.1 kHz). Both buffers drop
+ * newest samples when full so they do the same amount of work.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+@BenchmarkMode(Mode.AverageTime) @OutputTimeUnit(TimeUnit.NANOSECONDS) @State(Scope.Group)
+public class RingBufferBenchmark {
+
+    // Size of a single batch of samples expressed in milliseconds
+    private static final int BATCH_MILLIS = 20;
+    // Buffers hold 6 seconds of samples, same as ProcessingBuffer
+    private static final int CAPACITY_SECONDS = 6;
+
+    @Param({ "10000", "44100" }) int sampleRate;
+
+    private CircularShortBuffer circularBuffer;
+    private SpscShortRingBuffer spscBuffer;
+
+    private short[] src;
+    private short[] producerDst;
+    private short[] consumerDst;
+
+    @Setup public void setUp() {
+        circularBuffer = new CircularShortBuffer(sampleRate * CAPACITY_SECONDS);
+        spscBuffer = new SpscShortRingBuffer(sampleRate * CAPACITY_SECONDS);
+        spscBuffer.setOverflowPolicy(OverflowPolicy.DROP_NEWEST);
+
+        src = new short[sampleRate * BATCH_MILLIS / 1000];
+        for (int i = 0; i < src.length; i++) {
+            src[i] = (short) i;
+        }
+        producerDst = new short[src.length];
+        consumerDst = new short[src.length];
+    }
+
+    @Benchmark @Group("circularPutGet") public int circularPutGet() {
+        circularBuffer.put(src, 0, src.length);
+        return circularBuffer.get(producerDst, 0, producerDst.length);
+    }
+
+    @Benchmark @Group("spscPutGet") public int spscPutGet() {
+        spscBuffer.put(src, 0, src.length);
+        return spscBuffer.get(producerDst, 0, producerDst.length);
+    }
+
+    @Benchmark @Group("circularConcurrent") @GroupThreads(1) public int circularPut() {
+        return circularBuffer.put(src, 0, src.length);
+    }
+
+    @Benchmark @Group("circularConcurrent") @GroupThreads(1) public int circularGet() {
+        return circularBuffer.get(consumerDst, 0, consumerDst.length);
+    }
+
+    @Benchmark @Group("spscConcurrent") @GroupThreads(1) public int spscPut() {
+        return spscBuffer.put(src, 0, src.length);
+    }
+
+    @Benchmark @Group("spscConcurrent") @GroupThreads(1) public int spscGet() {
+        return spscBuffer.get(consumerDst, 0, consumerDst.length);
+    }
+}
@@ -0,0 +1,41 @@
+package com.backyardbrains.benchmark;
+
+import com.backyardbrains.data.processing.SampleBuffer;
+import com.backyardbrains.utils.BufferUtils;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures {@link SampleBuffer#add(short[], int)} with buffer of the size renderer uses and batches of samples
+ * renderer usually gets between two frames.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+@BenchmarkMode(Mode.AverageTime) @OutputTimeUnit(TimeUnit.NANOSECONDS) @State(Scope.Thread)
+public class SampleBufferBenchmark {
+
+    @Param({ "160", "735", "4410" }) int batchSize;
+
+    private SampleBuffer sampleBuffer;
+    private short[] incoming;
+
+    @Setup public void setUp() {
+        sampleBuffer = new SampleBuffer(BufferUtils.MAX_SAMPLE_BUFFER_SIZE);
+        incoming = new short[batchSize];
+        for (int i = 0; i < incoming.length; i++) {
+            incoming[i] = (short) i;
+        }
+    }
+
+    @Benchmark public short[] add() {
+        sampleBuffer.add(incoming, incoming.length);
+        return sampleBuffer.getArray();
+    }
+}
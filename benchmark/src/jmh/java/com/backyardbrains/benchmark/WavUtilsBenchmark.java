@@ -0,0 +1,37 @@
+package com.backyardbrains.benchmark;
+
+import android.media.AudioFormat;
+import com.backyardbrains.utils.AudioUtils;
+import com.backyardbrains.utils.WavUtils;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures {@link WavUtils#readHeader(java.io.InputStream)} of a header written by the app.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+@BenchmarkMode(Mode.AverageTime) @OutputTimeUnit(TimeUnit.NANOSECONDS) @State(Scope.Thread)
+public class WavUtilsBenchmark {
+
+    private ByteArrayInputStream wavStream;
+
+    @Setup public void setUp() {
+        wavStream = new ByteArrayInputStream(
+            WavUtils.writeHeader(AudioUtils.SAMPLE_RATE * 2 * 60, AudioUtils.SAMPLE_RATE, AudioFormat.CHANNEL_IN_MONO,
+                AudioFormat.ENCODING_PCM_16BIT));
+    }
+
+    @Benchmark public WavUtils.WavInfo readHeader() throws IOException {
+        wavStream.reset();
+        return WavUtils.readHeader(wavStream);
+    }
+}
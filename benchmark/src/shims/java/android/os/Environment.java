@@ -0,0 +1,16 @@
+package android.os;
+
+import java.io.File;
+
+/**
+ * Plain JVM replacement for Android's {@code Environment} used by benchmarks. External storage is the temporary
+ * directory of the JVM.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class Environment {
+
+    public static File getExternalStorageDirectory() {
+        return new File(System.getProperty("java.io.tmpdir"));
+    }
+}
@@ -0,0 +1,10 @@
+package com.backyardbrains.usb;
+
+/**
+ * Plain JVM replacement for USB sample source that's needed only to compile {@code JniUtils}. Sample source is never
+ * passed to native code when processing offline.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public abstract class AbstractUsbSampleSource {
+}
@@ -0,0 +1,13 @@
+package com.crashlytics.android;
+
+/**
+ * Plain JVM replacement for {@code Crashlytics} used by benchmarks. Logged exceptions are printed.
+ *
+ * @author Tihomir Leka <tihomir at backyardbrains.com>
+ */
+public class Crashlytics {
+
+    public static void logException(Throwable throwable) {
+        throwable.printStackTrace();
+    }
+}